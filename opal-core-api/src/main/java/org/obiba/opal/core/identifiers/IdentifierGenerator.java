@@ -9,6 +9,8 @@
  ******************************************************************************/
 package org.obiba.opal.core.identifiers;
 
+import java.util.Set;
+
 /**
  * Provides a method to generate an identifier. Implementations should produce a random id of
  * their choosing. Clients should always check to ensure that the id produced is unique!
@@ -21,4 +23,13 @@ public interface IdentifierGenerator {
    * @return An identifier.
    */
   String generateIdentifier();
+
+  /**
+   * Returns at most the given count of distinct identifiers, at once. Less identifiers are returned when the generator
+   * cannot produce that many distinct ones. Check that they are unique before use!
+   *
+   * @param count
+   * @return Distinct identifiers.
+   */
+  Set<String> generateIdentifiers(int count);
 }
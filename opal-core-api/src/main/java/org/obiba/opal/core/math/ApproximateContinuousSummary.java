@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.math;
+
+import java.io.Serializable;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import org.obiba.magma.Value;
+import org.obiba.magma.Variable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Summary of a continuous variable computed in a single streaming pass over its values, without keeping them in
+ * memory. Count, sum, min, max, mean, variance, skewness, kurtosis and geometric mean are exact (up to floating point
+ * rounding); percentiles and interval frequencies are estimated from a {@link TDigest}, whose rank error is given by
+ * {@link #getRankError(double)}.
+ */
+public class ApproximateContinuousSummary implements Serializable {
+
+  private static final long serialVersionUID = -2290471816335285735L;
+
+  /**
+   * Same default percentiles as the exact continuous summary.
+   */
+  public static final List<Double> DEFAULT_PERCENTILES = ImmutableList
+      .of(0.05, 0.5, 5d, 10d, 15d, 20d, 25d, 30d, 35d, 40d, 45d, 50d, 55d, 60d, 65d, 70d, 75d, 80d, 85d, 90d, 95d,
+          99.5, 99.95);
+
+  @NotNull
+  private final String variableName;
+
+  @NotNull
+  private final TDigest digest;
+
+  private long n;
+
+  private double sum;
+
+  private double sumsq;
+
+  private double sumLog;
+
+  private boolean positive = true;
+
+  // central moments, updated incrementally
+  private double mean;
+
+  private double m2;
+
+  private double m3;
+
+  private double m4;
+
+  private ApproximateContinuousSummary(@NotNull Variable variable, int compression) {
+    variableName = variable.getName();
+    digest = new TDigest(compression);
+  }
+
+  @NotNull
+  public String getVariableName() {
+    return variableName;
+  }
+
+  public long getN() {
+    return n;
+  }
+
+  public double getMin() {
+    return digest.getMin();
+  }
+
+  public double getMax() {
+    return digest.getMax();
+  }
+
+  public double getSum() {
+    return sum;
+  }
+
+  public double getSumsq() {
+    return sumsq;
+  }
+
+  public double getMean() {
+    return n == 0 ? Double.NaN : mean;
+  }
+
+  public double getGeometricMean() {
+    return n == 0 || !positive ? Double.NaN : Math.exp(sumLog / n);
+  }
+
+  /**
+   * Bias-corrected sample variance.
+   *
+   * @return
+   */
+  public double getVariance() {
+    if(n == 0) return Double.NaN;
+    return n == 1 ? 0 : m2 / (n - 1);
+  }
+
+  public double getStandardDeviation() {
+    return Math.sqrt(getVariance());
+  }
+
+  /**
+   * Bias-corrected sample skewness, as computed by commons-math.
+   *
+   * @return
+   */
+  public double getSkewness() {
+    double variance = getVariance();
+    if(n < 3 || variance == 0) return Double.NaN;
+    return n * m3 / ((n - 1) * (n - 2) * Math.pow(variance, 1.5));
+  }
+
+  /**
+   * Bias-corrected sample excess kurtosis, as computed by commons-math.
+   *
+   * @return
+   */
+  public double getKurtosis() {
+    double variance = getVariance();
+    if(n < 4 || variance == 0) return Double.NaN;
+    double nd = n;
+    return nd * (nd + 1) * m4 / ((nd - 1) * (nd - 2) * (nd - 3) * variance * variance) -
+        3 * (nd - 1) * (nd - 1) / ((nd - 2) * (nd - 3));
+  }
+
+  public double getMedian() {
+    return getPercentile(50);
+  }
+
+  /**
+   * Estimated percentile.
+   *
+   * @param p percentile, between 0 and 100
+   * @return
+   */
+  public double getPercentile(double p) {
+    return digest.quantile(p / 100);
+  }
+
+  @NotNull
+  public List<Double> getPercentiles(@Nullable List<Double> percentiles) {
+    List<Double> values = Lists.newArrayList();
+    for(Double p : percentiles == null || percentiles.isEmpty() ? DEFAULT_PERCENTILES : percentiles) {
+      values.add(getPercentile(p));
+    }
+    return values;
+  }
+
+  /**
+   * Estimated frequencies of the values in equal width intervals between min and max. When all the values are equal,
+   * there is a single interval of null width.
+   *
+   * @param intervals number of intervals
+   * @return
+   */
+  @NotNull
+  public List<Interval> getIntervalFrequencies(int intervals) {
+    List<Interval> frequencies = Lists.newArrayList();
+    if(n == 0 || intervals <= 0) return frequencies;
+
+    double min = getMin();
+    double max = getMax();
+    if(max == min) {
+      frequencies.add(new Interval(min, max, n, 1, 1));
+      return frequencies;
+    }
+
+    double width = (max - min) / intervals;
+    long previous = 0;
+    for(int i = 1; i <= intervals; i++) {
+      double lower = min + (i - 1) * width;
+      double upper = i == intervals ? max : min + i * width;
+      long cumulated = i == intervals ? n : Math.round(digest.cdf(upper) * n);
+      long freq = Math.max(0, cumulated - previous);
+      previous = Math.max(previous, cumulated);
+      frequencies.add(new Interval(lower, upper, freq, freq / (width * n), (double) freq / n));
+    }
+    return frequencies;
+  }
+
+  /**
+   * Approximate upper bound of the absolute rank error of the estimated percentile: the true rank of the estimated
+   * value is within <code>p/100 &plusmn; error</code>.
+   *
+   * @param p percentile, between 0 and 100
+   * @return
+   */
+  public double getRankError(double p) {
+    return digest.getRankError(p / 100);
+  }
+
+  /**
+   * Approximate upper bound of the absolute rank error of any estimated percentile or interval cumulative frequency.
+   *
+   * @return
+   */
+  public double getMaxRankError() {
+    return digest.getMaxRankError();
+  }
+
+  public double getCompression() {
+    return digest.getCompression();
+  }
+
+  private void add(double value) {
+    digest.add(value);
+    sum += value;
+    sumsq += value * value;
+    if(value > 0) {
+      sumLog += Math.log(value);
+    } else {
+      positive = false;
+    }
+
+    // one-pass central moments update (Terriberry)
+    long n1 = n;
+    n++;
+    double delta = value - mean;
+    double deltaN = delta / n;
+    double deltaN2 = deltaN * deltaN;
+    double term1 = delta * deltaN * n1;
+    mean += deltaN;
+    m4 += term1 * deltaN2 * (n * n - 3 * n + 3) + 6 * deltaN2 * m2 - 4 * deltaN * m3;
+    m3 += term1 * deltaN * (n - 2) - 3 * deltaN * m2;
+    m2 += term1;
+  }
+
+  public static class Interval implements Serializable {
+
+    private static final long serialVersionUID = 3946207236582313018L;
+
+    private final double lower;
+
+    private final double upper;
+
+    private final long freq;
+
+    private final double density;
+
+    private final double densityPct;
+
+    public Interval(double lower, double upper, long freq, double density, double densityPct) {
+      this.lower = lower;
+      this.upper = upper;
+      this.freq = freq;
+      this.density = density;
+      this.densityPct = densityPct;
+    }
+
+    public double getLower() {
+      return lower;
+    }
+
+    public double getUpper() {
+      return upper;
+    }
+
+    public long getFreq() {
+      return freq;
+    }
+
+    public double getDensity() {
+      return density;
+    }
+
+    public double getDensityPct() {
+      return densityPct;
+    }
+  }
+
+  public static class Builder {
+
+    @NotNull
+    private final Variable variable;
+
+    @NotNull
+    private final ApproximateContinuousSummary summary;
+
+    public Builder(@NotNull Variable variable) {
+      this(variable, TDigest.DEFAULT_COMPRESSION);
+    }
+
+    public Builder(@NotNull Variable variable, int compression) {
+      this.variable = variable;
+      summary = new ApproximateContinuousSummary(variable, compression);
+    }
+
+    /**
+     * Add a value: null and missing values are ignored, each element of a sequence is added.
+     *
+     * @param value
+     * @return
+     */
+    public Builder addValue(@NotNull Value value) {
+      if(value.isNull()) return this;
+      if(value.isSequence()) {
+        for(Value element : value.asSequence().getValue()) {
+          addValue(element);
+        }
+        return this;
+      }
+      if(variable.isMissingValue(value)) return this;
+      summary.add(((Number) value.getValue()).doubleValue());
+      return this;
+    }
+
+    public ApproximateContinuousSummary build() {
+      summary.digest.compress();
+      return summary;
+    }
+  }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.math;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.validation.constraints.NotNull;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A merging t-digest: a compact sketch of a distribution of values, from which quantiles and cumulative frequencies
+ * can be estimated in a single streaming pass. Values are clustered into weighted centroids whose size is bounded by
+ * the arcsine scale function, so that centroids are small in the tails and larger around the median.
+ * <p/>
+ * With a compression of <code>&delta;</code>, the digest holds at most about <code>&delta;</code> centroids whatever
+ * the number of values, and the rank error of the estimated <code>q</code> quantile is at most about
+ * <code>&pi; &radic;(q(1-q)) / &delta;</code> (see {@link #getRankError(double)}).
+ * <p/>
+ * Not thread-safe.
+ */
+public class TDigest implements Serializable {
+
+  private static final long serialVersionUID = 4527012866251312489L;
+
+  public static final int DEFAULT_COMPRESSION = 100;
+
+  public static final int MIN_COMPRESSION = 10;
+
+  private static final int BUFFER_FACTOR = 5;
+
+  private final double compression;
+
+  private double[] means = new double[0];
+
+  private double[] weights = new double[0];
+
+  private final double[] bufferMeans;
+
+  private final double[] bufferWeights;
+
+  private int buffered;
+
+  private double totalWeight;
+
+  private double min = Double.POSITIVE_INFINITY;
+
+  private double max = Double.NEGATIVE_INFINITY;
+
+  public TDigest() {
+    this(DEFAULT_COMPRESSION);
+  }
+
+  public TDigest(double compression) {
+    Preconditions.checkArgument(compression >= MIN_COMPRESSION, "Compression must be at least " + MIN_COMPRESSION);
+    this.compression = compression;
+    int bufferSize = (int) Math.ceil(compression) * BUFFER_FACTOR;
+    bufferMeans = new double[bufferSize];
+    bufferWeights = new double[bufferSize];
+  }
+
+  public void add(double value) {
+    add(value, 1);
+  }
+
+  public void add(double value, double weight) {
+    Preconditions.checkArgument(!Double.isNaN(value), "Cannot add NaN to a digest");
+    Preconditions.checkArgument(weight > 0, "Weight must be positive");
+    if(buffered == bufferMeans.length) compress();
+    bufferMeans[buffered] = value;
+    bufferWeights[buffered] = weight;
+    buffered++;
+    totalWeight += weight;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Add the centroids of another digest to this one.
+   *
+   * @param other
+   */
+  public void merge(@NotNull TDigest other) {
+    other.compress();
+    for(int i = 0; i < other.means.length; i++) {
+      add(other.means[i], other.weights[i]);
+    }
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * Merge the buffered values into the centroids.
+   */
+  public void compress() {
+    if(buffered == 0) return;
+
+    int size = means.length + buffered;
+    final double[] allMeans = Arrays.copyOf(means, size);
+    double[] allWeights = Arrays.copyOf(weights, size);
+    System.arraycopy(bufferMeans, 0, allMeans, means.length, buffered);
+    System.arraycopy(bufferWeights, 0, allWeights, weights.length, buffered);
+    buffered = 0;
+
+    Integer[] order = new Integer[size];
+    for(int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return Double.compare(allMeans[o1], allMeans[o2]);
+      }
+    });
+
+    double[] mergedMeans = new double[size];
+    double[] mergedWeights = new double[size];
+    int merged = 0;
+    double weightSoFar = 0;
+    double kLeft = scale(0);
+    double mean = allMeans[order[0]];
+    double weight = allWeights[order[0]];
+    for(int i = 1; i < size; i++) {
+      int idx = order[i];
+      double proposed = weight + allWeights[idx];
+      if(scale((weightSoFar + proposed) / totalWeight) - kLeft <= 1) {
+        mean += (allMeans[idx] - mean) * allWeights[idx] / proposed;
+        weight = proposed;
+      } else {
+        mergedMeans[merged] = mean;
+        mergedWeights[merged] = weight;
+        merged++;
+        weightSoFar += weight;
+        kLeft = scale(weightSoFar / totalWeight);
+        mean = allMeans[idx];
+        weight = allWeights[idx];
+      }
+    }
+    mergedMeans[merged] = mean;
+    mergedWeights[merged] = weight;
+    merged++;
+
+    means = Arrays.copyOf(mergedMeans, merged);
+    weights = Arrays.copyOf(mergedWeights, merged);
+  }
+
+  /**
+   * Estimate the value at the given quantile.
+   *
+   * @param q quantile, between 0 and 1
+   * @return NaN if the digest is empty
+   */
+  public double quantile(double q) {
+    Preconditions.checkArgument(q >= 0 && q <= 1, "Quantile must be between 0 and 1");
+    compress();
+    if(means.length == 0) return Double.NaN;
+    if(q == 0) return min;
+    if(q == 1) return max;
+
+    double index = q * totalWeight;
+    int last = means.length - 1;
+
+    // between the min and the center of the first centroid
+    if(index < weights[0] / 2) {
+      return interpolate(index, 0, weights[0] / 2, min, means[0]);
+    }
+    // between the center of the last centroid and the max
+    if(index > totalWeight - weights[last] / 2) {
+      return interpolate(index, totalWeight - weights[last] / 2, totalWeight, means[last], max);
+    }
+
+    double center = weights[0] / 2;
+    for(int i = 0; i < last; i++) {
+      double nextCenter = center + (weights[i] + weights[i + 1]) / 2;
+      if(index <= nextCenter) {
+        return interpolate(index, center, nextCenter, means[i], means[i + 1]);
+      }
+      center = nextCenter;
+    }
+    return means[last];
+  }
+
+  /**
+   * Estimate the fraction of the values that are lower than or equal to the given value.
+   *
+   * @param value
+   * @return NaN if the digest is empty
+   */
+  public double cdf(double value) {
+    compress();
+    if(means.length == 0) return Double.NaN;
+    if(value < min) return 0;
+    if(value >= max) return 1;
+
+    int last = means.length - 1;
+    if(value < means[0]) {
+      return interpolate(value, min, means[0], 0, weights[0] / 2) / totalWeight;
+    }
+    if(value >= means[last]) {
+      return interpolate(value, means[last], max, totalWeight - weights[last] / 2, totalWeight) / totalWeight;
+    }
+
+    double center = weights[0] / 2;
+    for(int i = 0; i < last; i++) {
+      double nextCenter = center + (weights[i] + weights[i + 1]) / 2;
+      if(value < means[i + 1]) {
+        return interpolate(value, means[i], means[i + 1], center, nextCenter) / totalWeight;
+      }
+      center = nextCenter;
+    }
+    return 1;
+  }
+
+  /**
+   * Approximate upper bound of the absolute rank error of the estimated quantile: half the width, in quantile units, of
+   * the largest centroid that can be formed at this quantile.
+   *
+   * @param q quantile, between 0 and 1
+   * @return
+   */
+  public double getRankError(double q) {
+    return Math.PI * Math.sqrt(q * (1 - q)) / compression;
+  }
+
+  /**
+   * Approximate upper bound of the absolute rank error of any estimated quantile, reached at the median.
+   *
+   * @return
+   */
+  public double getMaxRankError() {
+    return getRankError(0.5);
+  }
+
+  public double getCompression() {
+    return compression;
+  }
+
+  public double getTotalWeight() {
+    return totalWeight;
+  }
+
+  public int getCentroidCount() {
+    compress();
+    return means.length;
+  }
+
+  public double getMin() {
+    return totalWeight == 0 ? Double.NaN : min;
+  }
+
+  public double getMax() {
+    return totalWeight == 0 ? Double.NaN : max;
+  }
+
+  /**
+   * Arcsine scale function: a centroid can span at most one unit of this scale.
+   */
+  private double scale(double q) {
+    return compression / (2 * Math.PI) * Math.asin(2 * Math.min(1, q) - 1);
+  }
+
+  private static double interpolate(double x, double x0, double x1, double y0, double y1) {
+    if(x1 <= x0) return (y0 + y1) / 2;
+    return y0 + (y1 - y0) * (x - x0) / (x1 - x0);
+  }
+
+}
@@ -18,6 +18,8 @@ import org.obiba.magma.Datasource;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.support.DatasourceCopier;
 
+import com.google.common.base.Supplier;
+
 /**
  * Service for export operations. Export allows Magma tables to be copied to an existing Datasource or to an Excel file.
  */
@@ -32,21 +34,24 @@ public interface DataExportService {
   DatasourceCopier.Builder newCopier(Datasource destinationDatasource);
 
   /**
-   * Export tables to the provided {@link Datasource} using the provided {@link DatasourceCopier}. If logging is
-   * required ensure that the {@code DatasourceCopier} is configured with an appropriate logger. It is the
+   * Export tables to the provided {@link Datasource} using the supplied {@link DatasourceCopier}s. If logging is
+   * required ensure that the {@code DatasourceCopier}s are configured with an appropriate logger. It is the
    * responsibility of the caller to remove the {@code destinationDatasource} from {@code Magma}.
    *
    * @param idMapping the variable name in the identifiers table
    * @param sourceTables tables to export.
    * @param destinationDatasource tables will be copied to this existing Datasource.
-   * @param datasourceCopier copier used to perform the copy.
+   * @param datasourceCopiers supplies the copier of each table, as the tables may be exported concurrently and the
+   * copier listeners are not thread-safe.
    * @param incremental if <code>true</code> the tables are exported incrementally (updates only)
+   * @param resume if <code>true</code> the export of the tables resumes after the value sets exported by a previous
+   * failed export of the same tables to the same datasource
    * @throws NoSuchIdentifiersMappingException if a unit has been specified that does not exist
    * @throws ExportException if the datasource of a sourceTable matches the destinationDatasource.
    * @throws InterruptedException if the current thread was interrupted
    */
   void exportTablesToDatasource(@Nullable String idMapping, @NotNull Set<ValueTable> sourceTables,
-      @NotNull Datasource destinationDatasource, @NotNull DatasourceCopier.Builder datasourceCopier,
-      boolean incremental) throws InterruptedException;
+      @NotNull Datasource destinationDatasource, @NotNull Supplier<DatasourceCopier.Builder> datasourceCopiers,
+      boolean incremental, boolean resume) throws InterruptedException;
 
 }
@@ -31,6 +31,7 @@ public interface DataImportService {
    * @param destinationDatasourceName name of the destination datasource
    * @param allowIdentifierGeneration unknown participant will be created at importation time
    * @param ignoreUnknownIdentifier
+   * @param resume resume the import of the tables after the value sets imported by a previous failed import
    * @throws NoSuchIdentifiersMappingException
    * @throws NonExistentVariableEntitiesException if unitName is null and the source entities do not exist as public
    * keys in the opal keys database
@@ -38,7 +39,7 @@ public interface DataImportService {
    * @throws InterruptedException if the current thread was interrupted
    */
   void importData(String sourceDatasourceName, String destinationDatasourceName, boolean allowIdentifierGeneration,
-      boolean ignoreUnknownIdentifier)
+      boolean ignoreUnknownIdentifier, boolean resume)
       throws NoSuchIdentifiersMappingException, NoSuchDatasourceException, NoSuchValueTableException,
       NonExistentVariableEntitiesException, IOException, InterruptedException;
 
@@ -49,13 +50,14 @@ public interface DataImportService {
    * @param destinationDatasourceName
    * @param allowIdentifierGeneration
    * @param ignoreUnknownIdentifier
+   * @param resume
    * @throws NoSuchIdentifiersMappingException
    * @throws NonExistentVariableEntitiesException
    * @throws IOException
    * @throws InterruptedException
    */
   void importData(List<String> sourceTableNames, String destinationDatasourceName, boolean allowIdentifierGeneration,
-      boolean ignoreUnknownIdentifier)
+      boolean ignoreUnknownIdentifier, boolean resume)
       throws NoSuchIdentifiersMappingException, NoSuchDatasourceException, NoSuchValueTableException,
       NonExistentVariableEntitiesException, IOException, InterruptedException;
 
@@ -66,9 +68,10 @@ public interface DataImportService {
    * @param destinationDatasourceName
    * @param allowIdentifierGeneration
    * @param ignoreUnknownIdentifier
+   * @param resume
    */
   void importData(Set<ValueTable> sourceValueTables, String destinationDatasourceName,
-      boolean allowIdentifierGeneration, boolean ignoreUnknownIdentifier)
+      boolean allowIdentifierGeneration, boolean ignoreUnknownIdentifier, boolean resume)
       throws NoSuchIdentifiersMappingException, NonExistentVariableEntitiesException, IOException, InterruptedException;
 
 }
@@ -12,10 +12,12 @@ package org.obiba.opal.core.service;
 import javax.validation.constraints.NotNull;
 
 import org.obiba.magma.Value;
+import org.obiba.magma.ValueSource;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
 import org.obiba.magma.math.summary.VariableSummary;
 import org.obiba.magma.math.summary.VariableSummaryFactory;
+import org.obiba.opal.core.math.ApproximateContinuousSummary;
 
 /**
  *
@@ -26,8 +28,23 @@ public interface VariableSummaryService {
 
   void computeSummaries(@NotNull ValueTable valueTable);
 
+  /**
+   * Compute the summaries of the given variables in a single pass over the value sets of the table, and cache them.
+   *
+   * @param valueTable
+   * @param variables
+   */
+  void computeSummaries(@NotNull ValueTable valueTable, @NotNull Iterable<Variable> variables);
+
   void clearComputingSummaries(@NotNull ValueTable valueTable);
 
+  /**
+   * Remove all the cached summaries of the variables of a table.
+   *
+   * @param valueTable
+   */
+  void evictSummaries(@NotNull ValueTable valueTable);
+
   @NotNull
   <TVariableSummary extends VariableSummary, //
       TVariableSummaryFactory extends VariableSummaryFactory<TVariableSummary>> TVariableSummary getSummary(
@@ -37,4 +54,19 @@ public interface VariableSummaryService {
       TVariableSummaryFactory extends VariableSummaryFactory<TVariableSummary>> boolean isSummaryCached(
       @NotNull VariableSummaryFactory<TVariableSummary> summaryFactory);
 
+  /**
+   * Get the sketch-based summary of a continuous variable, computed in one streaming pass over the values of the table
+   * if it is not cached or if the cached one is obsolete.
+   *
+   * @param valueTable
+   * @param variable
+   * @param valueSource
+   * @param compression t-digest compression: the higher, the more accurate and the bigger the summary
+   * @param refreshCache
+   * @return
+   */
+  @NotNull
+  ApproximateContinuousSummary getApproximateContinuousSummary(@NotNull ValueTable valueTable,
+      @NotNull Variable variable, @NotNull ValueSource valueSource, int compression, boolean refreshCache);
+
 }
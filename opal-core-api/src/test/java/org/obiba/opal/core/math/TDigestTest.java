@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.math;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.offset;
+
+public class TDigestTest {
+
+  private static final int SIZE = 100000;
+
+  @Test
+  public void test_empty() {
+    TDigest digest = new TDigest();
+    assertThat(Double.isNaN(digest.quantile(0.5))).isTrue();
+    assertThat(Double.isNaN(digest.cdf(0))).isTrue();
+  }
+
+  @Test
+  public void test_quantiles_within_rank_error() {
+    TDigest digest = new TDigest();
+    Random random = new Random(1234);
+    for(int i = 0; i < SIZE; i++) {
+      digest.add(random.nextDouble());
+    }
+    assertThat(digest.getTotalWeight()).isEqualTo(SIZE);
+    assertThat(digest.getCentroidCount()).isLessThanOrEqualTo(2 * TDigest.DEFAULT_COMPRESSION);
+    // uniform distribution: the rank of a value is the value itself
+    for(double q : new double[] { 0.001, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999 }) {
+      assertThat(digest.quantile(q)).isEqualTo(q, offset(digest.getRankError(q) + 0.005));
+      assertThat(digest.cdf(q)).isEqualTo(q, offset(digest.getRankError(q) + 0.005));
+    }
+  }
+
+  @Test
+  public void test_min_max() {
+    TDigest digest = new TDigest();
+    for(int i = 1; i <= SIZE; i++) {
+      digest.add(i);
+    }
+    assertThat(digest.quantile(0)).isEqualTo(1);
+    assertThat(digest.quantile(1)).isEqualTo(SIZE);
+    assertThat(digest.cdf(0)).isEqualTo(0);
+    assertThat(digest.cdf(SIZE)).isEqualTo(1);
+  }
+
+  @Test
+  public void test_merge() {
+    TDigest lower = new TDigest();
+    TDigest upper = new TDigest();
+    for(int i = 0; i < SIZE; i++) {
+      lower.add(i);
+      upper.add(SIZE + i);
+    }
+    lower.merge(upper);
+    assertThat(lower.getTotalWeight()).isEqualTo(2 * SIZE);
+    assertThat(lower.quantile(0.5)).isEqualTo(SIZE, offset(2 * SIZE * lower.getMaxRankError()));
+  }
+
+}
@@ -75,6 +75,8 @@ public class TablePermissionConverter extends OpalPermissionConverter {
             toRest("/datasource/{0}/table/{1}/facet", "GET:GET/GET", args),//
             toRest("/datasource/{0}/table/{1}/facets/_search", "POST:GET", args),//
             toRest("/datasource/{0}/table/{1}/variable/_transient/summary", "POST", args),//
+            toRest("/datasource/{0}/table/{1}/summaries", "GET:GET", args),//
+            toRest("/datasource/{0}/table/{1}/summaries", "POST:GET", args),//
             toRest("/project/{0}", "GET:GET", args),//
             toRest("/project/{0}/summary", "GET:GET", args));
 
@@ -105,6 +105,12 @@ public interface TableResource {
   @Path("/valueSets/variable/{variable}")
   ValueSetsResource getVariableValueSets(@Context Request request, @PathParam("variable") String name);
 
+  /**
+   * Get the summaries of several variables, computed in a single pass over the table.
+   */
+  @Path("/summaries")
+  TableSummariesResource getSummaries(@Context Request request);
+
   /**
    * Get variable resource.
    */
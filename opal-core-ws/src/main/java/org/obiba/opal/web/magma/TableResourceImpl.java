@@ -167,7 +167,8 @@ public class TableResourceImpl extends AbstractValueTableResource implements Tab
         Datasource ds = new StaticDatasource("import");
         // static writers will add entities and variables while writing values
         writeValueSets(ds.createWriter(vt.getName(), valueSetsDto.getEntityType()), valueSetsDto);
-        dataImportService.importData(ds.getValueTables(), vt.getDatasource().getName(), generateIds, ignoreUnknownIds);
+        dataImportService
+            .importData(ds.getValueTables(), vt.getDatasource().getName(), generateIds, ignoreUnknownIds, false);
       }
     } catch(NoSuchIdentifiersMappingException ex) {
       return Response.status(BAD_REQUEST)
@@ -196,6 +197,14 @@ public class TableResourceImpl extends AbstractValueTableResource implements Tab
     return resource;
   }
 
+  @Override
+  public TableSummariesResource getSummaries(Request request) {
+    TimestampedResponses.evaluate(request, getValueTable());
+    TableSummariesResource resource = applicationContext.getBean(TableSummariesResource.class);
+    resource.setValueTable(getValueTable());
+    return resource;
+  }
+
   @Override
   public VariableResource getVariable(Request request, String name) {
     TimestampedResponses.evaluate(request, getValueTable());
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.web.magma;
+
+import java.util.List;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.QueryParam;
+
+import org.obiba.magma.ValueTable;
+import org.obiba.opal.web.model.Math;
+
+public interface TableSummariesResource {
+
+  void setValueTable(ValueTable valueTable);
+
+  /**
+   * Get the full summaries of several variables of the table. The summaries that are not cached are computed in a
+   * single pass over the value sets of the table.
+   *
+   * @param variables names of the variables, ignored if a script is provided
+   * @param script script for filtering the variables, all variables if neither names nor script are provided
+   * @param resetCache
+   * @return
+   */
+  @GET
+  // Required to allow passing parameters in the body
+  @POST
+  List<Math.SummaryStatisticsDto> getSummaries(@QueryParam("variable") List<String> variables, //
+      @QueryParam("script") String script, //
+      @QueryParam("resetCache") @DefaultValue("false") boolean resetCache);
+
+}
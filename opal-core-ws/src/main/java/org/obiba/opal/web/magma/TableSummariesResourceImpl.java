@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.web.magma;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.obiba.magma.ValueSource;
+import org.obiba.magma.Variable;
+import org.obiba.magma.math.summary.BinaryVariableSummaryFactory;
+import org.obiba.magma.math.summary.CategoricalVariableSummaryFactory;
+import org.obiba.magma.math.summary.ContinuousVariableSummary;
+import org.obiba.magma.math.summary.ContinuousVariableSummaryFactory;
+import org.obiba.magma.math.summary.DefaultVariableSummaryFactory;
+import org.obiba.opal.core.domain.VariableNature;
+import org.obiba.opal.core.service.VariableSummaryService;
+import org.obiba.opal.web.model.Math;
+import org.obiba.opal.web.model.Math.SummaryStatisticsDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+
+@Component
+@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+@Transactional
+public class TableSummariesResourceImpl extends AbstractValueTableResource implements TableSummariesResource {
+
+  private static final Logger log = LoggerFactory.getLogger(TableSummariesResourceImpl.class);
+
+  private static final int DEFAULT_INTERVALS = 10;
+
+  @Autowired
+  private VariableSummaryService variableSummaryService;
+
+  @Override
+  public List<SummaryStatisticsDto> getSummaries(List<String> variables, String script, boolean resetCache) {
+    List<Variable> selected = selectVariables(variables, script);
+
+    // one table pass for all the summaries that are not cached, instead of one per variable
+    List<Variable> toCompute = Lists.newArrayList();
+    for(Variable variable : selected) {
+      if(resetCache || !isSummaryCached(variable)) toCompute.add(variable);
+    }
+    if(!toCompute.isEmpty()) {
+      log.debug("Compute {} summaries of {} in one pass", toCompute.size(), getValueTable().getTableReference());
+      variableSummaryService.computeSummaries(getValueTable(), toCompute);
+    }
+
+    List<SummaryStatisticsDto> summaries = Lists.newArrayList();
+    for(Variable variable : selected) {
+      summaries.add(getSummary(variable));
+    }
+    return summaries;
+  }
+
+  private List<Variable> selectVariables(List<String> names, String script) {
+    if(script != null || names == null || names.isEmpty()) {
+      return Lists.newArrayList(filterVariables(script, 0, null));
+    }
+    List<Variable> variables = Lists.newArrayList();
+    for(String name : names) {
+      variables.add(getValueTable().getVariable(name));
+    }
+    return variables;
+  }
+
+  private boolean isSummaryCached(Variable variable) {
+    ValueSource valueSource = getValueTable().getVariableValueSource(variable.getName());
+    switch(VariableNature.getNature(variable)) {
+      case CATEGORICAL:
+        return variableSummaryService.isSummaryCached(newCategoricalFactory(variable, valueSource));
+      case CONTINUOUS:
+        return variableSummaryService.isSummaryCached(newContinuousFactory(variable, valueSource));
+      case BINARY:
+        // binary summaries are not computed from the table pass
+        return true;
+      default:
+        return variableSummaryService.isSummaryCached(newDefaultFactory(variable, valueSource));
+    }
+  }
+
+  private SummaryStatisticsDto getSummary(Variable variable) {
+    ValueSource valueSource = getValueTable().getVariableValueSource(variable.getName());
+    SummaryStatisticsDto.Builder dtoBuilder = SummaryStatisticsDto.newBuilder().setResource(variable.getName());
+    switch(VariableNature.getNature(variable)) {
+      case CATEGORICAL:
+        dtoBuilder.setExtension(Math.CategoricalSummaryDto.categorical, Dtos.asDto(
+            variableSummaryService.getSummary(newCategoricalFactory(variable, valueSource), false)).build());
+        break;
+      case CONTINUOUS:
+        dtoBuilder.setExtension(Math.ContinuousSummaryDto.continuous, Dtos.asDto(
+            variableSummaryService.getSummary(newContinuousFactory(variable, valueSource), false)).build());
+        break;
+      case BINARY:
+        dtoBuilder.setExtension(Math.BinarySummaryDto.binarySummary, Dtos.asDto(
+            variableSummaryService.getSummary(newBinaryFactory(variable, valueSource), false)).build());
+        break;
+      default:
+        dtoBuilder.setExtension(Math.DefaultSummaryDto.defaultSummary, Dtos.asDto(
+            variableSummaryService.getSummary(newDefaultFactory(variable, valueSource), false)).build());
+    }
+    return dtoBuilder.build();
+  }
+
+  private CategoricalVariableSummaryFactory newCategoricalFactory(Variable variable, ValueSource valueSource) {
+    return new CategoricalVariableSummaryFactory.Builder() //
+        .variable(variable) //
+        .table(getValueTable()) //
+        .valueSource(valueSource) //
+        .distinct(false).build();
+  }
+
+  private ContinuousVariableSummaryFactory newContinuousFactory(Variable variable, ValueSource valueSource) {
+    return new ContinuousVariableSummaryFactory.Builder() //
+        .variable(variable) //
+        .table(getValueTable()) //
+        .valueSource(valueSource) //
+        .distribution(ContinuousVariableSummary.Distribution.normal) //
+        .percentiles(Collections.<Double>emptyList()) //
+        .intervals(DEFAULT_INTERVALS).build();
+  }
+
+  private DefaultVariableSummaryFactory newDefaultFactory(Variable variable, ValueSource valueSource) {
+    return new DefaultVariableSummaryFactory.Builder() //
+        .variable(variable) //
+        .table(getValueTable()) //
+        .valueSource(valueSource).build();
+  }
+
+  private BinaryVariableSummaryFactory newBinaryFactory(Variable variable, ValueSource valueSource) {
+    return new BinaryVariableSummaryFactory.Builder() //
+        .variable(variable) //
+        .table(getValueTable()) //
+        .valueSource(valueSource).build();
+  }
+
+}
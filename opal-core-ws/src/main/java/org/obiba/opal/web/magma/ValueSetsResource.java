@@ -38,6 +38,28 @@ public interface ValueSetsResource {
       @QueryParam("limit") @DefaultValue("100") int limit, //
       @QueryParam("filterBinary") @DefaultValue("true") Boolean filterBinary);
 
+  /**
+   * Stream the value sets as they are read, optionally filters the variables and/or the entities. The memory used does
+   * not depend on the number of value sets: they are written either as length-delimited protobuf messages
+   * (format 'protobuf') or as one JSON object per line (format 'json').
+   *
+   * @param select script for filtering the variables
+   * @param offset
+   * @param limit all the value sets from the offset if negative
+   * @param format 'json' or 'protobuf'
+   * @return
+   */
+  @GET
+  // Required to allow passing parameters in the body
+  @POST
+  @Path("/_stream")
+  Response getValueSetsStream(@Context UriInfo uriInfo, //
+      @QueryParam("select") String select, //
+      @QueryParam("offset") @DefaultValue("0") int offset, //
+      @QueryParam("limit") @DefaultValue("-1") int limit, //
+      @QueryParam("filterBinary") @DefaultValue("true") Boolean filterBinary, //
+      @QueryParam("format") @DefaultValue("json") String format);
+
   /**
    * Get the value set timestamps without the values.
    *
@@ -9,18 +9,22 @@
  ******************************************************************************/
 package org.obiba.opal.web.magma;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nullable;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.obiba.magma.Timestamps;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
-import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VariableValueSource;
@@ -28,24 +32,42 @@ import org.obiba.magma.VectorSource;
 import org.obiba.opal.web.TimestampedResponses;
 import org.obiba.opal.web.model.Magma.ValueSetsDto;
 import org.obiba.opal.web.model.Magma.ValueSetsDto.ValueSetDto;
+import org.obiba.opal.web.support.InvalidRequestException;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.googlecode.protobuf.format.JsonFormat;
 
 @Component
 @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 @Transactional
 public class ValueSetsResourceImpl extends AbstractValueTableResource implements ValueSetsResource {
 
+  /**
+   * Number of value sets read at once.
+   */
+  private static final int BATCH_SIZE = 100;
+
+  private static final String STREAM_PATH = "/_stream";
+
   @Nullable
   private VariableValueSource variableValueSource;
 
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
   @Override
   public void setVariableValueSource(@Nullable VariableValueSource variableValueSource) {
     this.variableValueSource = variableValueSource;
@@ -61,6 +83,69 @@ public class ValueSetsResourceImpl extends AbstractValueTableResource implements
     return TimestampedResponses.ok(getValueTable(), vs).build();
   }
 
+  @Override
+  public Response getValueSetsStream(UriInfo uriInfo, String select, int offset, int limit, Boolean filterBinary,
+      String format) {
+    final StreamFormat streamFormat = StreamFormat.fromString(format);
+    final Iterable<VariableEntity> variableEntities = filterEntities(offset, limit);
+    final List<Variable> variables = variableValueSource == null
+        ? Lists.newArrayList(filterVariables(select, 0, null))
+        : Collections.singletonList(variableValueSource.getVariable());
+    final String path = uriInfo.getPath().replace(STREAM_PATH, "");
+    final boolean filter = filterBinary;
+
+    StreamingOutput output = new StreamingOutput() {
+      @Override
+      public void write(final OutputStream os) throws IOException {
+        // the response is written once the resource method has returned, out of its transaction
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+          @Override
+          protected void doInTransactionWithoutResult(TransactionStatus status) {
+            try {
+              writeValueSets(os, streamFormat, path, variableEntities, variables, filter);
+            } catch(IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+      }
+    };
+    return TimestampedResponses.ok(getValueTable(), output).type(streamFormat.getMediaType()).build();
+  }
+
+  /**
+   * Read and write the value sets by batches: only one batch is held in memory at a time.
+   */
+  private void writeValueSets(OutputStream os, StreamFormat format, String path,
+      Iterable<VariableEntity> variableEntities, List<Variable> variables, boolean filterBinary) throws IOException {
+    for(List<VariableEntity> batch : Iterables.partition(variableEntities, BATCH_SIZE)) {
+      for(ValueSetDto dto : getValueSetDtos(path, batch, variables, filterBinary)) {
+        format.write(dto, os);
+      }
+      os.flush();
+    }
+  }
+
+  private Iterable<ValueSetDto> getValueSetDtos(final String path, List<VariableEntity> batch,
+      List<Variable> variables, final boolean filterBinary) {
+    if(variableValueSource == null) {
+      return new VariableEntityValueSetDtoFunction(getValueTable(), variables, path, filterBinary)
+          .getValueSetDtos(batch);
+    }
+    final Variable variable = variableValueSource.getVariable();
+    if(variableValueSource.supportVectorSource()) {
+      return getValueSetDtosFromVectorSource(path, batch, variable, filterBinary,
+          variableValueSource.asVectorSource());
+    }
+    return Iterables.transform(batch, new Function<VariableEntity, ValueSetDto>() {
+      @Override
+      public ValueSetDto apply(VariableEntity fromEntity) {
+        ValueSet valueSet = getValueTable().getValueSet(fromEntity);
+        return getValueSetDto(path, fromEntity, variable, filterBinary, variableValueSource.getValue(valueSet));
+      }
+    });
+  }
+
   @Override
   public Response getValueSetsTimestamps(int offset, int limit) {
 
@@ -95,15 +180,13 @@ public class ValueSetsResourceImpl extends AbstractValueTableResource implements
 
     }));
 
-    ImmutableList.Builder<ValueSetDto> valueSetDtoBuilder = ImmutableList.builder();
-    ValueTable valueTable = getValueTable();
-    for(ValueSetDto dto : Iterables.transform(variableEntities,
-        new VariableEntityValueSetDtoFunction(valueTable, variables, uriInfo.getPath(), filterBinary))) {
-      valueSetDtoBuilder.add(dto);
+    // read the values by batches of entities, column by column when supported
+    VariableEntityValueSetDtoFunction function = new VariableEntityValueSetDtoFunction(getValueTable(), variables,
+        uriInfo.getPath(), filterBinary);
+    for(List<VariableEntity> batch : Iterables.partition(variableEntities, BATCH_SIZE)) {
+      builder.addAllValueSets(function.apply(batch));
     }
 
-    builder.addAllValueSets(valueSetDtoBuilder.build());
-
     return builder.build();
   }
 
@@ -115,15 +198,15 @@ public class ValueSetsResourceImpl extends AbstractValueTableResource implements
         .addVariables(variable.getName());
 
     if(variableValueSource.supportVectorSource()) {
-      addValueSetDtosFromVectorSource(uriInfo, variableEntities, variable, filterBinary,
-          variableValueSource.asVectorSource(), builder);
+      builder.addAllValueSets(getValueSetDtosFromVectorSource(uriInfo.getPath(), variableEntities, variable,
+          filterBinary, variableValueSource.asVectorSource()));
     } else {
       builder.addAllValueSets(Iterables.transform(variableEntities, new Function<VariableEntity, ValueSetDto>() {
         @Override
         public ValueSetDto apply(VariableEntity fromEntity) {
           ValueSet valueSet = getValueTable().getValueSet(fromEntity);
           Value value = variableValueSource.getValue(valueSet);
-          return getValueSetDto(uriInfo, fromEntity, variable, filterBinary, value);
+          return getValueSetDto(uriInfo.getPath(), fromEntity, variable, filterBinary, value);
         }
       }));
     }
@@ -131,8 +214,8 @@ public class ValueSetsResourceImpl extends AbstractValueTableResource implements
     return builder.build();
   }
 
-  private void addValueSetDtosFromVectorSource(UriInfo uriInfo, Iterable<VariableEntity> variableEntities,
-      Variable variable, boolean filterBinary, VectorSource vector, ValueSetsDto.Builder builder) {
+  private List<ValueSetDto> getValueSetDtosFromVectorSource(String path, Iterable<VariableEntity> variableEntities,
+      Variable variable, boolean filterBinary, VectorSource vector) {
     ImmutableSortedSet<VariableEntity> sortedEntities = ImmutableSortedSet.<VariableEntity>naturalOrder()
         .addAll(variableEntities).build();
     Iterable<Value> values = vector.getValues(sortedEntities);
@@ -144,17 +227,55 @@ public class ValueSetsResourceImpl extends AbstractValueTableResource implements
       results.put(entity, value);
     }
 
+    ImmutableList.Builder<ValueSetDto> dtos = ImmutableList.builder();
     for(VariableEntity entity : variableEntities) {
-      builder.addValueSets(getValueSetDto(uriInfo, entity, variable, filterBinary, results.get(entity)));
+      dtos.add(getValueSetDto(path, entity, variable, filterBinary, results.get(entity)));
     }
+    return dtos.build();
   }
 
-  private ValueSetDto getValueSetDto(UriInfo uriInfo, VariableEntity fromEntity, Variable variable,
-      boolean filterBinary, Value value) {
-    String link = uriInfo.getPath().replace("valueSets",
+  private ValueSetDto getValueSetDto(String path, VariableEntity fromEntity, Variable variable, boolean filterBinary,
+      Value value) {
+    String link = path.replace("valueSets",
         "valueSet/entity/" + fromEntity.getIdentifier() + "/variable/" + variable.getName() + "/value");
     return ValueSetsDto.ValueSetDto.newBuilder().setIdentifier(fromEntity.getIdentifier())
         .addValues(Dtos.asDto(link, value, filterBinary)).build();
   }
 
+  private enum StreamFormat {
+    JSON("application/x-json-stream") {
+      @Override
+      void write(ValueSetDto dto, OutputStream os) throws IOException {
+        os.write(JsonFormat.printToString(dto).getBytes(Charsets.UTF_8));
+        os.write('\n');
+      }
+    },
+    PROTOBUF("application/x-protobuf-delimited") {
+      @Override
+      void write(ValueSetDto dto, OutputStream os) throws IOException {
+        dto.writeDelimitedTo(os);
+      }
+    };
+
+    private final String mediaType;
+
+    StreamFormat(String mediaType) {
+      this.mediaType = mediaType;
+    }
+
+    String getMediaType() {
+      return mediaType;
+    }
+
+    abstract void write(ValueSetDto dto, OutputStream os) throws IOException;
+
+    static StreamFormat fromString(String format) {
+      try {
+        return valueOf(format.toUpperCase());
+      } catch(IllegalArgumentException e) {
+        throw new InvalidRequestException("Unknown value sets stream format: " + format);
+      }
+    }
+  }
+
 }
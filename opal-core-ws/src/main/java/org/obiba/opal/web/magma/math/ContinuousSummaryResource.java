@@ -12,6 +12,12 @@ import static org.obiba.magma.math.summary.ContinuousVariableSummary.Distributio
 
 public interface ContinuousSummaryResource extends SummaryResource {
 
+  /**
+   * @param approximate if true, the summary is computed in one streaming pass from a t-digest sketch instead of
+   * holding all the values in memory: percentiles and interval frequencies are then estimates, whose rank error
+   * (at most about pi/(2*compression)) is reported in the response. Offset and limit are ignored in this mode.
+   * @param compression t-digest compression of the approximate summary, at least 10
+   */
   @GET
   @POST // requires POST since the request body contains variable info (categories, script, etc)
   Response get(@QueryParam("d") @DefaultValue("normal") Distribution distribution, //
@@ -20,6 +26,8 @@ public interface ContinuousSummaryResource extends SummaryResource {
       @QueryParam("offset") Integer offset, //
       @QueryParam("limit") Integer limit, //
       @QueryParam("fullIfCached") @DefaultValue("false") boolean fullIfCached, //
-      @QueryParam("resetCache") @DefaultValue("false") boolean resetCache);
+      @QueryParam("resetCache") @DefaultValue("false") boolean resetCache, //
+      @QueryParam("approximate") @DefaultValue("false") boolean approximate, //
+      @QueryParam("compression") @DefaultValue("100") int compression);
 
 }
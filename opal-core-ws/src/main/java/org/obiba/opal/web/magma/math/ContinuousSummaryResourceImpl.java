@@ -13,12 +13,17 @@ import java.util.List;
 
 import javax.ws.rs.core.Response;
 
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.distribution.RealDistribution;
 import org.obiba.magma.math.summary.ContinuousVariableSummary;
 import org.obiba.magma.math.summary.ContinuousVariableSummaryFactory;
+import org.obiba.opal.core.math.ApproximateContinuousSummary;
+import org.obiba.opal.core.math.TDigest;
 import org.obiba.opal.web.TimestampedResponses;
 import org.obiba.opal.web.magma.Dtos;
 import org.obiba.opal.web.model.Math.ContinuousSummaryDto;
 import org.obiba.opal.web.model.Math.SummaryStatisticsDto;
+import org.obiba.opal.web.support.InvalidRequestException;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
@@ -33,7 +38,9 @@ public class ContinuousSummaryResourceImpl extends AbstractSummaryResource imple
 
   @Override
   public Response get(Distribution distribution, List<Double> percentiles, int intervals, Integer offset, Integer limit,
-      boolean fullIfCached, boolean resetCache) {
+      boolean fullIfCached, boolean resetCache, boolean approximate, int compression) {
+
+    if(approximate) return getApproximate(distribution, percentiles, intervals, compression, resetCache);
 
     ContinuousVariableSummaryFactory summaryFactory = new ContinuousVariableSummaryFactory.Builder() //
         .variable(getVariable()) //
@@ -63,4 +70,23 @@ public class ContinuousSummaryResourceImpl extends AbstractSummaryResource imple
 
   }
 
+  private Response getApproximate(Distribution distribution, List<Double> percentiles, int intervals, int compression,
+      boolean resetCache) {
+    if(compression < TDigest.MIN_COMPRESSION) {
+      throw new InvalidRequestException("Compression must be at least " + TDigest.MIN_COMPRESSION);
+    }
+    ApproximateContinuousSummary summary = variableSummaryService
+        .getApproximateContinuousSummary(getValueTable(), getVariable(), getVariableValueSource(), compression,
+            resetCache);
+
+    RealDistribution realDistribution = distribution == Distribution.normal && summary.getStandardDeviation() > 0
+        ? new NormalDistribution(summary.getMean(), summary.getStandardDeviation())
+        : null;
+    SummaryStatisticsDto dto = SummaryStatisticsDto.newBuilder() //
+        .setResource(getVariable().getName()) //
+        .setExtension(ContinuousSummaryDto.continuous,
+            Dtos.asDto(summary, percentiles, realDistribution, intervals).build()).build();
+    return TimestampedResponses.ok(getValueTable(), dto).build();
+  }
+
 }
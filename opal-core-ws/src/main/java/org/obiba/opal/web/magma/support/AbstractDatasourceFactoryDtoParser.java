@@ -23,6 +23,7 @@ import org.obiba.magma.support.Initialisables;
 import org.obiba.opal.core.identifiers.IdentifierGenerator;
 import org.obiba.opal.core.magma.IdentifiersMappingDatasourceFactory;
 import org.obiba.opal.core.runtime.OpalRuntime;
+import org.obiba.opal.core.service.IdentifiersMappingCache;
 import org.obiba.opal.core.service.IdentifiersTableService;
 import org.obiba.opal.core.service.NoSuchIdentifiersMappingException;
 import org.obiba.opal.web.model.Identifiers;
@@ -38,6 +39,9 @@ public abstract class AbstractDatasourceFactoryDtoParser implements DatasourceFa
   @Autowired
   private IdentifiersTableService identifiersTableService;
 
+  @Autowired
+  private IdentifiersMappingCache identifiersMappingCache;
+
   @Autowired
   private IdentifierGenerator participantIdentifier;
 
@@ -62,7 +66,7 @@ public abstract class AbstractDatasourceFactoryDtoParser implements DatasourceFa
       throw new NoSuchIdentifiersMappingException(idMapping);
     }
 
-    return new IdentifiersMappingDatasourceFactory(factory, idMapping, identifiersTableService,
+    return new IdentifiersMappingDatasourceFactory(factory, idMapping, identifiersTableService, identifiersMappingCache,
         idConfig.getAllowIdentifierGeneration() ? participantIdentifier : null,
         idConfig.getIgnoreUnknownIdentifier());
   }
@@ -13,8 +13,13 @@ import java.lang.reflect.Method;
 import java.net.URI;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.HttpMethod;
 import javax.ws.rs.Path;
@@ -28,6 +33,7 @@ import org.jboss.resteasy.core.ResourceMethodInvoker;
 import org.jboss.resteasy.core.ServerResponse;
 import org.jboss.resteasy.spi.HttpRequest;
 import org.jboss.resteasy.util.IsHttpMethod;
+import org.obiba.opal.core.domain.security.SubjectAcl;
 import org.obiba.opal.core.service.security.SubjectAclService;
 import org.obiba.opal.web.ws.inject.RequestAttributesProvider;
 import org.obiba.opal.web.ws.intercept.RequestCyclePostProcess;
@@ -38,9 +44,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.google.common.base.Predicate;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import static javax.ws.rs.HttpMethod.GET;
@@ -59,12 +68,45 @@ public class AuthorizationInterceptor extends AbstractSecurityComponent
 
   public static final String ALT_PERMISSIONS = "X-Alt-Permissions";
 
+  private static final int MAX_SUBJECTS = 1000;
+
+  private static final int MAX_PATHS_PER_SUBJECT = 1000;
+
+  // group memberships changes are not notified
+  private static final int ALLOWED_METHODS_TTL_MINUTES = 1;
+
   @Autowired
   private SubjectAclService subjectAclService;
 
   @Autowired
   private RequestAttributesProvider requestAttributeProvider;
 
+  /**
+   * HTTP methods of the resource methods, by resource class and path template.
+   */
+  private final ConcurrentMap<String, Set<String>> availableMethodsByPath = Maps.newConcurrentMap();
+
+  /**
+   * Allowed HTTP methods, by user principal and by resource path.
+   */
+  private final Cache<String, Cache<String, Set<String>>> allowedMethodsBySubject = CacheBuilder.newBuilder()
+      .maximumSize(MAX_SUBJECTS).expireAfterWrite(ALLOWED_METHODS_TTL_MINUTES, TimeUnit.MINUTES).build();
+
+  @PostConstruct
+  public void registerListener() {
+    subjectAclService.addListener(new SubjectAclService.SubjectAclChangeCallback() {
+      @Override
+      public void onSubjectAclChanged(SubjectAcl.Subject subject) {
+        if(subject.getType() == SubjectType.USER) {
+          allowedMethodsBySubject.invalidate(subject.getPrincipal());
+        } else {
+          // members of the group are not known
+          allowedMethodsBySubject.invalidateAll();
+        }
+      }
+    });
+  }
+
   @Nullable
   @Override
   public Response preProcess(HttpRequest request, ResourceMethodInvoker method) {
@@ -173,14 +215,50 @@ public class AuthorizationInterceptor extends AbstractSecurityComponent
     }), ImmutableSet.of(OPTIONS)));
   }
 
-  private Set<String> allowed(HttpRequest request, ResourceMethodInvoker method) {
-    return allowed(request.getUri().getPath(), availableMethods(method));
+  private Set<String> allowed(HttpRequest request, final ResourceMethodInvoker method) {
+    final String uri = request.getUri().getPath();
+    String principal = getPrincipal();
+    if(principal == null) return allowed(uri, availableMethods(method));
+    try {
+      return getAllowedMethods(principal).get(uri, new Callable<Set<String>>() {
+        @Override
+        public Set<String> call() throws Exception {
+          return allowed(uri, availableMethods(method));
+        }
+      });
+    } catch(ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private Cache<String, Set<String>> getAllowedMethods(String principal) {
+    try {
+      return allowedMethodsBySubject.get(principal, new Callable<Cache<String, Set<String>>>() {
+        @Override
+        public Cache<String, Set<String>> call() throws Exception {
+          return CacheBuilder.newBuilder().maximumSize(MAX_PATHS_PER_SUBJECT).build();
+        }
+      });
+    } catch(ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
   }
 
   private Iterable<String> availableMethods(ResourceMethodInvoker method) {
-    Set<String> availableMethods = Sets.newHashSet();
+    Class<?> resourceClass = method.getResourceClass();
     String path = getPath(method);
-    for(Method otherMethod : method.getResourceClass().getMethods()) {
+    String key = resourceClass.getName() + ":" + path;
+    Set<String> availableMethods = availableMethodsByPath.get(key);
+    if(availableMethods == null) {
+      availableMethods = ImmutableSet.copyOf(availableMethods(resourceClass, path));
+      availableMethodsByPath.putIfAbsent(key, availableMethods);
+    }
+    return availableMethods;
+  }
+
+  private Iterable<String> availableMethods(Class<?> resourceClass, String path) {
+    Set<String> availableMethods = Sets.newHashSet();
+    for(Method otherMethod : resourceClass.getMethods()) {
       Set<String> httpMethods = IsHttpMethod.getHttpMethods(otherMethod);
       if(httpMethods != null && isSamePath(otherMethod, path)) {
         availableMethods.addAll(httpMethods);
@@ -77,6 +77,8 @@ public class TablePermissionConverterTest extends OpalPermissionConverterTest<Ta
         "rest:/datasource/patate/table/pwel/facet:GET:GET/GET",//
         "rest:/datasource/patate/table/pwel/facets/_search:POST:GET",//
         "rest:/datasource/patate/table/pwel/variable/_transient/summary:POST", //
+        "rest:/datasource/patate/table/pwel/summaries:GET:GET", //
+        "rest:/datasource/patate/table/pwel/summaries:POST:GET", //
         "rest:/project/patate:GET:GET", //
         "rest:/project/patate/summary:GET:GET");
   }
@@ -102,6 +104,8 @@ public class TablePermissionConverterTest extends OpalPermissionConverterTest<Ta
         "rest:/datasource/patate/table/pwel/facet:GET:GET/GET", //
         "rest:/datasource/patate/table/pwel/facets/_search:POST:GET", //
         "rest:/datasource/patate/table/pwel/variable/_transient/summary:POST", //
+        "rest:/datasource/patate/table/pwel/summaries:GET:GET", //
+        "rest:/datasource/patate/table/pwel/summaries:POST:GET", //
         "rest:/project/patate:GET:GET", //
         "rest:/project/patate/summary:GET:GET", //
         "rest:/datasource/patate/table/pwel:PUT:GET", //
@@ -118,6 +122,8 @@ public class TablePermissionConverterTest extends OpalPermissionConverterTest<Ta
         "rest:/datasource/patate/table/pwel/facet:GET:GET/GET", //
         "rest:/datasource/patate/table/pwel/facets/_search:POST:GET", //
         "rest:/datasource/patate/table/pwel/variable/_transient/summary:POST", //
+        "rest:/datasource/patate/table/pwel/summaries:GET:GET", //
+        "rest:/datasource/patate/table/pwel/summaries:POST:GET", //
         "rest:/project/patate:GET:GET", //
         "rest:/project/patate/summary:GET:GET");
   }
@@ -131,6 +137,8 @@ public class TablePermissionConverterTest extends OpalPermissionConverterTest<Ta
         "rest:/datasource/patate/table/pwel/facet:GET:GET/GET",//
         "rest:/datasource/patate/table/pwel/facets/_search:POST:GET",//
         "rest:/datasource/patate/table/pwel/variable/_transient/summary:POST",//
+        "rest:/datasource/patate/table/pwel/summaries:GET:GET", //
+        "rest:/datasource/patate/table/pwel/summaries:POST:GET", //
         "rest:/project/patate:GET:GET", //
         "rest:/project/patate/summary:GET:GET", //
         "rest:/datasource/patate/view/pwel/xml:GET:GET");
@@ -157,6 +165,8 @@ public class TablePermissionConverterTest extends OpalPermissionConverterTest<Ta
         "rest:/datasource/patate/table/pwel/facet:GET:GET/GET", //
         "rest:/datasource/patate/table/pwel/facets/_search:POST:GET", //
         "rest:/datasource/patate/table/pwel/variable/_transient/summary:POST", //
+        "rest:/datasource/patate/table/pwel/summaries:GET:GET", //
+        "rest:/datasource/patate/table/pwel/summaries:POST:GET", //
         "rest:/project/patate:GET:GET", //
         "rest:/project/patate/summary:GET:GET", //
         "rest:/datasource/patate/view/pwel/xml:GET:GET");
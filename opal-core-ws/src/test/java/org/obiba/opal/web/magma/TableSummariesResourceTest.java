@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.web.magma;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import javax.validation.constraints.NotNull;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.Configuration;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.obiba.magma.Datasource;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.Variable;
+import org.obiba.magma.js.MagmaJsExtension;
+import org.obiba.magma.support.StaticValueTable;
+import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.type.TextType;
+import org.obiba.opal.core.service.summary.CachedVariableSummaryService;
+import org.obiba.opal.web.model.Math.SummaryStatisticsDto;
+import org.springframework.beans.DirectFieldAccessor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TableSummariesResourceTest {
+
+  private static final Set<String> ENTITIES = ImmutableSet.of("1", "2", "3", "4", "5");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private CacheManager cacheManager;
+
+  private String opalHome;
+
+  // variables of each one-pass computation
+  private final List<List<String>> computations = Lists.newArrayList();
+
+  private TableSummariesResourceImpl resource;
+
+  @Before
+  public void setUp() throws IOException {
+    new MagmaEngine().extend(new MagmaJsExtension());
+    opalHome = System.getProperty("OPAL_HOME");
+    System.setProperty("OPAL_HOME", folder.newFolder().getAbsolutePath());
+
+    cacheManager = new CacheManager(new Configuration().name("TableSummariesResourceTest"));
+    for(String type : new String[] { "continuous", "categorical", "default", "binary" }) {
+      cacheManager.addCache("opal-variable-summary-" + type);
+    }
+
+    CachedVariableSummaryService variableSummaryService = new RecordingVariableSummaryService();
+    DirectFieldAccessor serviceAccessor = new DirectFieldAccessor(variableSummaryService);
+    serviceAccessor.setPropertyValue("cacheSummaries", true);
+    serviceAccessor.setPropertyValue("maxEntriesPerTable", 100);
+    serviceAccessor.setPropertyValue("cacheManager", cacheManager);
+    serviceAccessor.setPropertyValue("threadFactory", Executors.defaultThreadFactory());
+
+    resource = new TableSummariesResourceImpl();
+    resource.setValueTable(newTable());
+    new DirectFieldAccessor(resource).setPropertyValue("variableSummaryService", variableSummaryService);
+  }
+
+  @After
+  public void tearDown() {
+    cacheManager.shutdown();
+    if(opalHome == null) {
+      System.clearProperty("OPAL_HOME");
+    } else {
+      System.setProperty("OPAL_HOME", opalHome);
+    }
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_summaries_computed_in_one_pass_are_served_from_cache() {
+    List<SummaryStatisticsDto> summaries = resource.getSummaries(null, null, false);
+
+    assertThat(getResources(summaries)).containsExactly("A", "B", "C");
+    assertThat(computations).hasSize(1);
+    assertThat(computations.get(0)).containsOnly("A", "B", "C");
+
+    // the summaries factories read the entries cached by the one-pass computation
+    assertThat(resource.getSummaries(null, null, false)).isEqualTo(summaries);
+    assertThat(computations).hasSize(1);
+  }
+
+  @Test
+  public void test_only_summaries_not_cached_are_computed() {
+    resource.getSummaries(ImmutableList.of("A"), null, false);
+    resource.getSummaries(ImmutableList.of("A", "C"), null, false);
+
+    assertThat(computations).hasSize(2);
+    assertThat(computations.get(0)).containsOnly("A");
+    assertThat(computations.get(1)).containsOnly("C");
+  }
+
+  @Test
+  public void test_reset_cache_computes_summaries_again() {
+    List<SummaryStatisticsDto> summaries = resource.getSummaries(null, null, false);
+
+    assertThat(resource.getSummaries(ImmutableList.of("B"), null, true)).containsExactly(summaries.get(1));
+    assertThat(computations).hasSize(2);
+    assertThat(computations.get(1)).containsOnly("B");
+  }
+
+  @Test
+  public void test_script_selects_the_summarized_variables() {
+    List<SummaryStatisticsDto> summaries = resource.getSummaries(ImmutableList.of("B"), "name().matches(/A|C/)", false);
+
+    // variable names are ignored when a script is provided
+    assertThat(getResources(summaries)).containsExactly("A", "C");
+    assertThat(computations).hasSize(1);
+    assertThat(computations.get(0)).containsOnly("A", "C");
+  }
+
+  private static List<String> getResources(Iterable<SummaryStatisticsDto> summaries) {
+    List<String> resources = Lists.newArrayList();
+    for(SummaryStatisticsDto summary : summaries) {
+      resources.add(summary.getResource());
+    }
+    return resources;
+  }
+
+  private static ValueTable newTable() {
+    Datasource datasource = EasyMock.createNiceMock(Datasource.class);
+    expect(datasource.getName()).andReturn("ds").anyTimes();
+    EasyMock.replay(datasource);
+
+    StaticValueTable table = new StaticValueTable(datasource, "table", ENTITIES);
+    table.addVariables(IntegerType.get(), "A", "B");
+    table.addVariables(TextType.get(), "C");
+    int i = 0;
+    for(String identifier : ENTITIES) {
+      table.addValues(identifier, "A", i, "B", i * 10, "C", "value" + i % 2);
+      i++;
+    }
+    return table;
+  }
+
+  /**
+   * Records the variables of the one-pass computations.
+   */
+  private class RecordingVariableSummaryService extends CachedVariableSummaryService {
+
+    @Override
+    public void computeSummaries(@NotNull ValueTable table, @NotNull Iterable<Variable> variables) {
+      List<String> names = Lists.newArrayList();
+      for(Variable variable : variables) {
+        names.add(variable.getName());
+      }
+      computations.add(names);
+      super.computeSummaries(table, variables);
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.web.magma;
+
+import java.util.List;
+import java.util.SortedSet;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.VectorSource;
+import org.obiba.magma.support.NullTimestamps;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.type.TextType;
+import org.obiba.opal.web.model.Magma.ValueSetsDto.ValueSetDto;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class VariableEntityValueSetDtoFunctionTest {
+
+  private static final String PATH = "/datasource/ds/table/tbl/valueSets";
+
+  @BeforeClass
+  public static void before() {
+    new MagmaEngine();
+  }
+
+  @AfterClass
+  public static void after() {
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_transposed_value_sets_match_per_entity_ones() {
+    List<VariableEntity> entities = ImmutableList.<VariableEntity>of(newEntity("3"), newEntity("1"), newEntity("2"));
+    List<Variable> variables = ImmutableList.of(newVariable("vector"), newVariable("plain"));
+
+    ValueTable table = EasyMock.createMock(ValueTable.class);
+    for(VariableEntity entity : entities) {
+      expect(table.getValueSet(entity)).andReturn(newValueSet(entity)).anyTimes();
+    }
+    expect(table.getVariableValueSource("vector")).andReturn(newValueSource("vector", true)).anyTimes();
+    expect(table.getVariableValueSource("plain")).andReturn(newValueSource("plain", false)).anyTimes();
+    EasyMock.replay(table);
+
+    VariableEntityValueSetDtoFunction function = new VariableEntityValueSetDtoFunction(table, variables, PATH, false);
+    List<ValueSetDto> expected = ImmutableList.copyOf(Lists.transform(entities, function));
+    List<ValueSetDto> valueSetDtos = function.getValueSetDtos(entities);
+
+    assertThat(valueSetDtos).isEqualTo(expected);
+    assertThat(valueSetDtos.get(0).getIdentifier()).isEqualTo("3");
+    assertThat(valueSetDtos.get(0).getValues(0).getValue()).isEqualTo("vector-3");
+    assertThat(valueSetDtos.get(0).getValues(1).getValue()).isEqualTo("plain-3");
+  }
+
+  private static VariableEntity newEntity(String identifier) {
+    return new VariableEntityBean("Participant", identifier);
+  }
+
+  private static Variable newVariable(String name) {
+    return Variable.Builder.newVariable(name, TextType.get(), "Participant").build();
+  }
+
+  private static ValueSet newValueSet(VariableEntity entity) {
+    ValueSet valueSet = EasyMock.createMock(ValueSet.class);
+    expect(valueSet.getVariableEntity()).andReturn(entity).anyTimes();
+    expect(valueSet.getTimestamps()).andReturn(NullTimestamps.get()).anyTimes();
+    EasyMock.replay(valueSet);
+    return valueSet;
+  }
+
+  private static Value newValue(String variableName, VariableEntity entity) {
+    return TextType.get().valueOf(variableName + "-" + entity.getIdentifier());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static VariableValueSource newValueSource(final String variableName, boolean vector) {
+    VariableValueSource source = EasyMock.createMock(VariableValueSource.class);
+    expect(source.supportVectorSource()).andReturn(vector).anyTimes();
+    expect(source.getValue(anyObject(ValueSet.class))).andAnswer(new IAnswer<Value>() {
+      @Override
+      public Value answer() throws Throwable {
+        return newValue(variableName, ((ValueSet) EasyMock.getCurrentArguments()[0]).getVariableEntity());
+      }
+    }).anyTimes();
+    if(vector) {
+      VectorSource vectorSource = EasyMock.createMock(VectorSource.class);
+      expect(vectorSource.getValues(anyObject(SortedSet.class))).andAnswer(new IAnswer<Iterable<Value>>() {
+        @Override
+        public Iterable<Value> answer() throws Throwable {
+          List<Value> values = Lists.newArrayList();
+          for(VariableEntity entity : (SortedSet<VariableEntity>) EasyMock.getCurrentArguments()[0]) {
+            values.add(newValue(variableName, entity));
+          }
+          return values;
+        }
+      }).once();
+      expect(source.asVectorSource()).andReturn(vectorSource).once();
+      EasyMock.replay(vectorSource);
+    }
+    EasyMock.replay(source);
+    return source;
+  }
+
+}
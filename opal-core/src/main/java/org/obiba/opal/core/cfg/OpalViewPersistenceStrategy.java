@@ -9,18 +9,16 @@
  ******************************************************************************/
 package org.obiba.opal.core.cfg;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.util.Collection;
+import java.io.StringWriter;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -29,10 +27,23 @@ import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
 import org.obiba.core.util.FileUtil;
 import org.obiba.core.util.StreamUtil;
 import org.obiba.magma.Datasource;
@@ -43,15 +54,22 @@ import org.obiba.magma.views.View;
 import org.obiba.magma.views.ViewPersistenceStrategy;
 import org.obiba.magma.xstream.MagmaXStreamExtension;
 import org.obiba.opal.audit.OpalUserProvider;
-import org.obiba.opal.core.vcs.git.support.GitUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.copy.HierarchicalStreamCopier;
+import com.thoughtworks.xstream.io.xml.XppDomReader;
+import com.thoughtworks.xstream.io.xml.XppDomWriter;
+import com.thoughtworks.xstream.io.xml.XppDriver;
+import com.thoughtworks.xstream.io.xml.xppdom.XppDom;
 
 /**
  * This implementation of the {@link ViewPersistenceStrategy} serializes and de-serializes {@link View}s to XML files.
@@ -72,17 +90,22 @@ public class OpalViewPersistenceStrategy implements ViewPersistenceStrategy {
 
   public static final String VIEW_FILE_NAME = "View.xml";
 
+  private static final String VARIABLE_FILE_EXTENSION = ".js";
+
   private final OpalUserProvider opalUserProvider;
 
   private final File viewsDirectory;
 
   private final File gitViewsDirectory;
 
-  private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
+  // one lock per datasource, so that the views of a datasource can be read while the ones of another are written
+  private final ConcurrentMap<String, ReadWriteLock> locks = Maps.newConcurrentMap();
 
-  private final Lock readLock = readWriteLock.readLock();
+  // parsed view files of a datasource, with the head commit they were read from: views are mutable and are then
+  // unmarshalled on each read, so that a view instance is never shared by two datasources
+  private final ConcurrentMap<String, CachedViews> viewsCache = Maps.newConcurrentMap();
 
-  private final Lock writeLock = readWriteLock.writeLock();
+  private volatile XStream xstream;
 
   public OpalViewPersistenceStrategy() {
     this(null);
@@ -108,7 +131,7 @@ public class OpalViewPersistenceStrategy implements ViewPersistenceStrategy {
   @Override
   public void writeViews(@NotNull final String datasourceName, @NotNull final Set<View> views,
       @Nullable final String comment) {
-    executeWithWriteLock(new Action() {
+    executeWithWriteLock(datasourceName, new Action() {
       @Override
       public void execute() {
         doWriteGitViews(datasourceName, views, comment);
@@ -119,7 +142,7 @@ public class OpalViewPersistenceStrategy implements ViewPersistenceStrategy {
   @Override
   public void writeView(@NotNull final String datasourceName, @NotNull final View view,
       @Nullable final String comment) {
-    executeWithWriteLock(new Action() {
+    executeWithWriteLock(datasourceName, new Action() {
       @Override
       public void execute() {
         doWriteGitViews(datasourceName, ImmutableSet.of(view), comment);
@@ -129,7 +152,7 @@ public class OpalViewPersistenceStrategy implements ViewPersistenceStrategy {
 
   @Override
   public void removeView(@NotNull final String datasourceName, @NotNull final String viewName) {
-    executeWithWriteLock(new Action() {
+    executeWithWriteLock(datasourceName, new Action() {
       @Override
       public void execute() {
         doRemoveGitView(datasourceName, viewName);
@@ -139,21 +162,22 @@ public class OpalViewPersistenceStrategy implements ViewPersistenceStrategy {
 
   @Override
   public void removeViews(final String datasourceName) {
-    executeWithWriteLock(new Action() {
-      @Override
-      public void execute() {
-        try {
-          FileUtil.delete(getDatasourceViewsGit(datasourceName));
-        } catch(IOException e) {
-          throw new RuntimeException("Failed deleting views in git for datasource: " + datasourceName, e);
-        }
-      }
-    });
+    Lock writeLock = lock(datasourceName, true);
+    try {
+      viewsCache.remove(datasourceName);
+      FileUtil.delete(getDatasourceViewsGit(datasourceName));
+    } catch(IOException e) {
+      throw new RuntimeException("Failed deleting views in git for datasource: " + datasourceName, e);
+    } finally {
+      // the threads waiting for this lock will take the lock of the datasource again, see lock()
+      locks.remove(datasourceName);
+      writeLock.unlock();
+    }
   }
 
   @Override
   public Set<View> readViews(@NotNull final String datasourceName) {
-    return executeWithReadLock(new ActionWithReturn<Set<View>>() {
+    return executeWithReadLock(datasourceName, new ActionWithReturn<Set<View>>() {
       @Override
       public Set<View> execute() {
         File gitDir = getDatasourceViewsGit(datasourceName);
@@ -162,145 +186,161 @@ public class OpalViewPersistenceStrategy implements ViewPersistenceStrategy {
     });
   }
 
-  private void doCommitPush(Git git, String message) throws GitAPIException {
-    git.commit().setAuthor(getAuthorName(), "opal@obiba.org").setCommitter("opal", "opal@obiba.org").setMessage(message)
-        .call();
-    git.push().setPushAll().setRemote("origin").call();
-  }
-
   private void doWriteGitViews(@NotNull String datasourceName, @NotNull Iterable<View> views,
       @Nullable String comment) {
-    File localRepo = null;
-
     try {
-      // Fetch or clone a tmp working directory
-      localRepo = cloneDatasourceViewsGit(datasourceName);
-
-      // Serialize all view files in the repo
-      List<String> varFilesToRemove = Lists.newArrayList();
-      StringBuilder message = new StringBuilder();
-      serializeAllViewFiles(views, localRepo, varFilesToRemove, message);
-
-      // Push changes
-      Git git = new Git(new FileRepository(new File(localRepo, ".git")));
-      for(String toRemove : varFilesToRemove) {
-        git.rm().addFilepattern(toRemove).call();
+      Repository repository = openDatasourceViewsGit(datasourceName);
+      ObjectInserter inserter = repository.newObjectInserter();
+      try {
+        ObjectId headId = repository.resolve(Constants.HEAD);
+        DirCache index = readTree(repository, headId);
+        DirCacheEditor editor = index.editor();
+        StringBuilder message = new StringBuilder();
+        for(View view : views) {
+          doWriteGitView(index, editor, inserter, view);
+          if(message.length() > 0) {
+            message.append(", ");
+          }
+          message.append(view.getName());
+        }
+        editor.finish();
+        doCommit(repository, inserter, headId, index, Strings.isNullOrEmpty(comment) ? "Update " + message : comment);
+      } finally {
+        inserter.release();
+        repository.close();
       }
-      git.add().addFilepattern(".").call();
-      doCommitPush(git, Strings.isNullOrEmpty(comment) ? "Update " + message : comment);
-
-    } catch(GitAPIException | IOException e) {
+    } catch(IOException e) {
       throw new RuntimeException("Failed writing views in git for datasource: " + datasourceName, e);
-    } finally {
-      deleteLocalRepo(localRepo);
-    }
-  }
-
-  private void serializeAllViewFiles(Iterable<View> views, File localRepo, Collection<String> varFilesToRemove,
-      StringBuilder message) throws IOException {
-    for(View view : views) {
-      doWriteGitView(localRepo, view, varFilesToRemove);
-      if(message.length() > 0) {
-        message.append(", ");
-      }
-      message.append(view.getName());
     }
   }
 
   private void doRemoveGitView(@NotNull String datasourceName, @NotNull String viewName) {
-    File localRepo = null;
     try {
-      localRepo = cloneDatasourceViewsGit(datasourceName);
-      Git git = new Git(new FileRepository(new File(localRepo, ".git")));
-      git.rm().addFilepattern(viewName).call();
-      doCommitPush(git, "Remove " + viewName);
-    } catch(GitAPIException | IOException e) {
+      Repository repository = openDatasourceViewsGit(datasourceName);
+      ObjectInserter inserter = repository.newObjectInserter();
+      try {
+        ObjectId headId = repository.resolve(Constants.HEAD);
+        if(headId == null) return;
+        DirCache index = readTree(repository, headId);
+        DirCacheEditor editor = index.editor();
+        editor.add(new DirCacheEditor.DeleteTree(viewName));
+        editor.finish();
+        doCommit(repository, inserter, headId, index, "Remove " + viewName);
+      } finally {
+        inserter.release();
+        repository.close();
+      }
+    } catch(IOException e) {
       throw new RuntimeException("Failed removing view '" + viewName + "' from git for datasource: " + datasourceName,
           e);
-    } finally {
-      deleteLocalRepo(localRepo);
     }
   }
 
-  private void deleteLocalRepo(File localRepo) {
-    if(localRepo == null) return;
+  /**
+   * Stage the view file and the variable script files of a view, and the removal of the script files of the variables
+   * that are not in the view anymore.
+   */
+  private void doWriteGitView(DirCache index, DirCacheEditor editor, ObjectInserter inserter, ValueTable view)
+      throws IOException {
+    StringWriter writer = new StringWriter();
+    getXStream().toXML(view, writer);
+    addBlob(index, editor, inserter, view.getName() + "/" + VIEW_FILE_NAME, writer.toString());
 
-    try {
-      FileUtil.delete(localRepo);
-    } catch(IOException e) {
-      log.warn("Failed removing local git repository: {}", localRepo.getAbsolutePath(), e);
+    // Write variable script files
+    Set<String> variablePaths = Sets.newHashSet();
+    for(Variable variable : view.getVariables()) {
+      String path = view.getName() + "/" + variable.getName() + VARIABLE_FILE_EXTENSION;
+      variablePaths.add(path);
+      addBlob(index, editor, inserter, path,
+          variable.hasAttribute("script") ? variable.getAttributeStringValue("script") : "null");
+    }
+
+    // Detect removed variables
+    String viewPrefix = view.getName() + "/";
+    for(int i = 0; i < index.getEntryCount(); i++) {
+      String path = index.getEntry(i).getPathString();
+      if(path.startsWith(viewPrefix) && path.indexOf('/', viewPrefix.length()) < 0 &&
+          path.endsWith(VARIABLE_FILE_EXTENSION) && !variablePaths.contains(path)) {
+        editor.add(new DirCacheEditor.DeletePath(path));
+      }
     }
   }
 
-  private File[] listViewDirectories(File localRepo) {
-    return localRepo.listFiles(new FileFilter() {
+  /**
+   * Stage a file, unless its content is unchanged: only the modified files are written in the repository.
+   */
+  private void addBlob(DirCache index, DirCacheEditor editor, ObjectInserter inserter, String path, String content)
+      throws IOException {
+    byte[] bytes = content.getBytes(Charsets.UTF_8);
+    final ObjectId blobId = inserter.idFor(Constants.OBJ_BLOB, bytes);
+    DirCacheEntry entry = index.getEntry(path);
+    if(entry != null && blobId.equals(entry.getObjectId())) return;
+
+    inserter.insert(Constants.OBJ_BLOB, bytes);
+    editor.add(new DirCacheEditor.PathEdit(path) {
       @Override
-      public boolean accept(File pathname) {
-        return pathname.isDirectory() && !".git".equals(pathname.getName()) &&
-            new File(pathname, VIEW_FILE_NAME).exists();
+      public void apply(DirCacheEntry ent) {
+        ent.setFileMode(FileMode.REGULAR_FILE);
+        ent.setObjectId(blobId);
       }
     });
   }
 
-  private File cloneDatasourceViewsGit(String datasourceName) throws IOException, GitAPIException {
-    File targetDir = getDatasourceViewsGit(datasourceName);
-
-    // Create datasource views bare git repo
-    Repository newRepo = new FileRepository(targetDir);
-    if(!targetDir.exists()) {
-      newRepo.create(true);
+  /**
+   * Load the tree of a commit in an in-core index.
+   */
+  private DirCache readTree(Repository repository, @Nullable ObjectId commitId) throws IOException {
+    DirCache index = DirCache.newInCore();
+    if(commitId != null) {
+      ObjectReader reader = repository.newObjectReader();
+      RevWalk revWalk = new RevWalk(reader);
+      try {
+        DirCacheBuilder builder = index.builder();
+        builder.addTree(new byte[0], DirCacheEntry.STAGE_0, reader, revWalk.parseCommit(commitId).getTree());
+        builder.finish();
+      } finally {
+        revWalk.release();
+        reader.release();
+      }
     }
-
-    String remoteUrl = "file://" + targetDir.getAbsolutePath();
-    File tmp = getTmpDirectory();
-    File localRepo = new File(tmp, "opal-" + Long.toString(System.nanoTime()));
-    GitUtils.cloneRepository(localRepo.getParentFile(), localRepo.getName(), remoteUrl);
-    return localRepo;
+    return index;
   }
 
-  private void doWriteGitView(File localRepo, ValueTable view, Collection<String> varFilesToRemove) throws IOException {
-    File viewRepo = new File(localRepo, view.getName());
-    viewRepo.mkdirs();
-
-    // Write serialiazed view
-    File viewFile = new File(viewRepo, VIEW_FILE_NAME);
-    OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(viewFile), Charsets.UTF_8);
-    try {
-      getXStream().toXML(view, writer);
-    } finally {
-      StreamUtil.silentSafeClose(writer);
+  /**
+   * Commit the index tree on top of the current head and move the head to this commit.
+   */
+  private void doCommit(Repository repository, ObjectInserter inserter, @Nullable ObjectId headId, DirCache index,
+      String message) throws IOException {
+    CommitBuilder commit = new CommitBuilder();
+    commit.setTreeId(index.writeTree(inserter));
+    if(headId != null) {
+      commit.setParentId(headId);
     }
-
-    // Write variable script files
-    for(Variable variable : view.getVariables()) {
-      doWriteGitViewVariable(viewRepo, variable);
-    }
-    // Detect removed variables
-
-    for(File f : viewRepo.listFiles(new FileFilter() {
-      @Override
-      public boolean accept(File pathname) {
-        return pathname.getName().endsWith(".js");
-      }
-    })) {
-      String varName = f.getName().substring(0, f.getName().length() - 3);
-      if(!view.hasVariable(varName)) {
-        varFilesToRemove.add(f.getParentFile().getName() + "/" + f.getName());
-      }
+    commit.setAuthor(new PersonIdent(getAuthorName(), "opal@obiba.org"));
+    commit.setCommitter(new PersonIdent("opal", "opal@obiba.org"));
+    commit.setMessage(message);
+    ObjectId commitId = inserter.insert(commit);
+    inserter.flush();
+
+    RefUpdate refUpdate = repository.updateRef(Constants.HEAD);
+    refUpdate.setNewObjectId(commitId);
+    refUpdate.setExpectedOldObjectId(headId == null ? ObjectId.zeroId() : headId);
+    refUpdate.setRefLogMessage("commit: " + message, false);
+    RefUpdate.Result result = refUpdate.update();
+    if(result != RefUpdate.Result.NEW && result != RefUpdate.Result.FAST_FORWARD) {
+      throw new IOException("Failed updating " + Constants.HEAD + " to commit " + commitId.name() + ": " + result);
     }
   }
 
-  private void doWriteGitViewVariable(File viewRepo, Variable variable) throws IOException {
-    String script = variable.hasAttribute("script") ? variable.getAttributeStringValue("script") : "null";
-    File variableFile = new File(viewRepo, variable.getName() + ".js");
+  private Repository openDatasourceViewsGit(String datasourceName) throws IOException {
+    File targetDir = getDatasourceViewsGit(datasourceName);
 
-    FileWriter fileWriter = new FileWriter(variableFile);
-    try {
-      fileWriter.append(script);
-      fileWriter.flush();
-    } finally {
-      StreamUtil.silentSafeClose(fileWriter);
+    // Create datasource views bare git repo
+    Repository repository = new FileRepository(targetDir);
+    if(!targetDir.exists()) {
+      repository.create(true);
     }
+    return repository;
   }
 
   private File getDatasourceViewsGit(String datasourceName) {
@@ -311,13 +351,6 @@ public class OpalViewPersistenceStrategy implements ViewPersistenceStrategy {
     return opalUserProvider == null ? OpalUserProvider.UNKNOWN_USERNAME : opalUserProvider.getUsername();
   }
 
-  private File getTmpDirectory() throws IOException {
-    // for java 6 compatibility
-    File tmp = File.createTempFile("temp", Long.toString(System.nanoTime()));
-    tmp.delete();
-    return tmp.getParentFile();
-  }
-
   @SuppressWarnings("unchecked")
   @NotNull
   private Set<View> doReadViews(@NotNull String datasourceName) {
@@ -338,48 +371,88 @@ public class OpalViewPersistenceStrategy implements ViewPersistenceStrategy {
     return result;
   }
 
+  /**
+   * Read the view files of the head commit, straight from the repository objects. The parsed view files are cached
+   * until the head moves, and each read gets its own copy of the views.
+   */
   @NotNull
   private Set<View> doReadGitViews(@NotNull String datasourceName) {
     ImmutableSet.Builder<View> builder = ImmutableSet.builder();
+    for(XppDom viewFile : getGitViewFiles(datasourceName)) {
+      builder.add((View) getXStream().unmarshal(new XppDomReader(viewFile)));
+    }
+    return builder.build();
+  }
+
+  @NotNull
+  private List<XppDom> getGitViewFiles(@NotNull String datasourceName) {
+    ImmutableList.Builder<XppDom> builder = ImmutableList.builder();
 
-    File localRepo = null;
     try {
-      localRepo = cloneDatasourceViewsGit(datasourceName);
+      Repository repository = openDatasourceViewsGit(datasourceName);
+      try {
+        ObjectId headId = repository.resolve(Constants.HEAD);
+        if(headId == null) return builder.build();
+
+        CachedViews cached = viewsCache.get(datasourceName);
+        if(cached != null && cached.headId.equals(headId)) return cached.viewFiles;
 
-      for(File f : listViewDirectories(localRepo)) {
-        View view = doReadGitView(f);
-        if(view != null) {
-          builder.add(view);
+        ObjectReader reader = repository.newObjectReader();
+        RevWalk revWalk = new RevWalk(reader);
+        TreeWalk treeWalk = new TreeWalk(reader);
+        try {
+          treeWalk.addTree(revWalk.parseCommit(headId).getTree());
+          treeWalk.setRecursive(true);
+          treeWalk.setFilter(PathSuffixFilter.create("/" + VIEW_FILE_NAME));
+          while(treeWalk.next()) {
+            // only <view name>/View.xml
+            if(treeWalk.getDepth() == 1) {
+              builder.add(parseGitViewFile(reader.open(treeWalk.getObjectId(0)).getBytes()));
+            }
+          }
+        } finally {
+          treeWalk.release();
+          revWalk.release();
+          reader.release();
         }
+        List<XppDom> viewFiles = builder.build();
+        viewsCache.put(datasourceName, new CachedViews(headId, viewFiles));
+        return viewFiles;
+      } finally {
+        repository.close();
       }
-    } catch(GitAPIException | IOException e) {
+    } catch(IOException e) {
       throw new RuntimeException("Failed reading views from git for datasource: " + datasourceName, e);
-    } finally {
-      deleteLocalRepo(localRepo);
     }
-
-    return builder.build();
   }
 
-  private View doReadGitView(File viewRepo) {
-    View result = null;
-    File viewFile = new File(viewRepo, VIEW_FILE_NAME);
-    if(viewFile.exists()) {
-      InputStreamReader reader = null;
-      try {
-        reader = new InputStreamReader(new FileInputStream(viewFile), Charsets.UTF_8);
-        result = (View) getXStream().fromXML(reader);
-      } catch(FileNotFoundException e) {
-        // not supposed to happen
-      } finally {
-        StreamUtil.silentSafeClose(reader);
-      }
+  /**
+   * Parse a view file in a tree, that the views are unmarshalled from without parsing the XML again.
+   */
+  private XppDom parseGitViewFile(byte[] viewFile) {
+    HierarchicalStreamReader reader = new XppDriver()
+        .createReader(new InputStreamReader(new ByteArrayInputStream(viewFile), Charsets.UTF_8));
+    try {
+      XppDomWriter writer = new XppDomWriter();
+      new HierarchicalStreamCopier().copy(reader, writer);
+      return writer.getConfiguration();
+    } finally {
+      reader.close();
     }
-    return result;
   }
 
+  /**
+   * The XStream instance is created once: it is thread-safe once configured.
+   */
   protected XStream getXStream() {
-    return MagmaEngine.get().getExtension(MagmaXStreamExtension.class).getXStreamFactory().createXStream();
+    if(xstream == null) {
+      synchronized(this) {
+        if(xstream == null) {
+          xstream = MagmaEngine.get().getExtension(MagmaXStreamExtension.class).getXStreamFactory().createXStream();
+        }
+      }
+    }
+    return xstream;
   }
 
   private String normalizeDatasourceName(@SuppressWarnings("TypeMayBeWeakened") String datasourceName) {
@@ -390,8 +463,32 @@ public class OpalViewPersistenceStrategy implements ViewPersistenceStrategy {
     return new File(viewsDirectory, normalizeDatasourceName(datasourceName) + ".xml");
   }
 
-  private void executeWithWriteLock(Action action) {
-    writeLock.lock();
+  private ReadWriteLock getLock(String datasourceName) {
+    ReadWriteLock lock = locks.get(datasourceName);
+    if(lock == null) {
+      ReadWriteLock newLock = new ReentrantReadWriteLock(true);
+      lock = locks.putIfAbsent(datasourceName, newLock);
+      if(lock == null) lock = newLock;
+    }
+    return lock;
+  }
+
+  /**
+   * Take the lock of a datasource, the one that is in the locks map once it is taken: the lock of a datasource is
+   * removed from the map when its views are removed.
+   */
+  private Lock lock(String datasourceName, boolean write) {
+    while(true) {
+      ReadWriteLock readWriteLock = getLock(datasourceName);
+      Lock lock = write ? readWriteLock.writeLock() : readWriteLock.readLock();
+      lock.lock();
+      if(locks.get(datasourceName) == readWriteLock) return lock;
+      lock.unlock();
+    }
+  }
+
+  private void executeWithWriteLock(String datasourceName, Action action) {
+    Lock writeLock = lock(datasourceName, true);
     try {
       action.execute();
     } finally {
@@ -399,8 +496,8 @@ public class OpalViewPersistenceStrategy implements ViewPersistenceStrategy {
     }
   }
 
-  private <T> T executeWithReadLock(ActionWithReturn<T> action) {
-    readLock.lock();
+  private <T> T executeWithReadLock(String datasourceName, ActionWithReturn<T> action) {
+    Lock readLock = lock(datasourceName, false);
     try {
       return action.execute();
     } finally {
@@ -416,4 +513,17 @@ public class OpalViewPersistenceStrategy implements ViewPersistenceStrategy {
     T execute();
   }
 
+  private static final class CachedViews {
+
+    private final ObjectId headId;
+
+    // parsed view files, never modified
+    private final List<XppDom> viewFiles;
+
+    private CachedViews(ObjectId headId, List<XppDom> viewFiles) {
+      this.headId = headId;
+      this.viewFiles = viewFiles;
+    }
+  }
+
 }
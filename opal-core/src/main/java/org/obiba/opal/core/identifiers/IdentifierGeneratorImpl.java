@@ -10,7 +10,9 @@
 package org.obiba.opal.core.identifiers;
 
 import java.security.SecureRandom;
+import java.util.LinkedHashSet;
 import java.util.Random;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -76,4 +78,15 @@ public final class IdentifierGeneratorImpl implements IdentifierGenerator {
     return sb.toString();
   }
 
+  @Override
+  public Set<String> generateIdentifiers(int count) {
+    Set<String> identifiers = new LinkedHashSet<>(count * 4 / 3 + 1);
+    // give up after as many duplicates as requested identifiers: the identifiers space is nearly exhausted
+    int attempts = 2 * count;
+    for(int i = 0; i < attempts && identifiers.size() < count; i++) {
+      identifiers.add(generateIdentifier());
+    }
+    return identifiers;
+  }
+
 }
@@ -16,6 +16,7 @@ import org.obiba.magma.Datasource;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.support.AbstractDatasourceWrapperWithCachedTables;
 import org.obiba.opal.core.identifiers.IdentifierGenerator;
+import org.obiba.opal.core.service.IdentifiersMappingCache;
 import org.obiba.opal.core.service.IdentifiersTableService;
 
 /**
@@ -32,18 +33,23 @@ public class IdentifiersMappingDatasource extends AbstractDatasourceWrapperWithC
   @NotNull
   private final IdentifiersTableService identifiersTableService;
 
+  @NotNull
+  private final IdentifiersMappingCache identifiersMappingCache;
+
   private final IdentifierGenerator identifierGenerator;
 
   private final boolean ignoreUnknownIdentifier;
 
   public IdentifiersMappingDatasource(@NotNull Datasource wrapped, @NotNull String idMapping,
       @NotNull IdentifiersMappingView.Policy policy, @NotNull IdentifiersTableService identifiersTableService,
-      @Nullable IdentifierGenerator identifierGenerator, boolean ignoreUnknownIdentifier) {
+      @NotNull IdentifiersMappingCache identifiersMappingCache, @Nullable IdentifierGenerator identifierGenerator,
+      boolean ignoreUnknownIdentifier) {
     super(wrapped);
 
     this.idMapping = idMapping;
     this.policy = policy;
     this.identifiersTableService = identifiersTableService;
+    this.identifiersMappingCache = identifiersMappingCache;
     this.identifierGenerator = identifierGenerator;
     this.ignoreUnknownIdentifier = ignoreUnknownIdentifier;
   }
@@ -54,7 +60,8 @@ public class IdentifiersMappingDatasource extends AbstractDatasourceWrapperWithC
     if (identifiersTableService.hasIdentifiersTable(table.getEntityType())) {
       ValueTable identifiersTable = identifiersTableService.getIdentifiersTable(table.getEntityType());
       if (identifiersTable.hasVariable(idMapping)) {
-        return new IdentifiersMappingView(idMapping, policy, table, identifiersTable, identifierGenerator, ignoreUnknownIdentifier);
+        return new IdentifiersMappingView(idMapping, policy, table, identifiersTable, identifiersMappingCache,
+            identifierGenerator, ignoreUnknownIdentifier);
       }
     }
     return table;
@@ -18,6 +18,7 @@ import org.obiba.magma.DatasourceFactory;
 import org.obiba.magma.Initialisable;
 import org.obiba.magma.support.Initialisables;
 import org.obiba.opal.core.identifiers.IdentifierGenerator;
+import org.obiba.opal.core.service.IdentifiersMappingCache;
 import org.obiba.opal.core.service.IdentifiersTableService;
 
 public class IdentifiersMappingDatasourceFactory extends AbstractDatasourceFactory implements Initialisable {
@@ -31,16 +32,21 @@ public class IdentifiersMappingDatasourceFactory extends AbstractDatasourceFacto
   @NotNull
   private final IdentifiersTableService identifiersTableService;
 
+  @NotNull
+  private final IdentifiersMappingCache identifiersMappingCache;
+
   private final IdentifierGenerator identifierGenerator;
 
   private final boolean ignoreUnknownIdentifier;
 
   public IdentifiersMappingDatasourceFactory(@NotNull DatasourceFactory wrappedFactory, @NotNull String idMapping,
-      @NotNull IdentifiersTableService identifiersTableService, @Nullable IdentifierGenerator identifierGenerator,
+      @NotNull IdentifiersTableService identifiersTableService,
+      @NotNull IdentifiersMappingCache identifiersMappingCache, @Nullable IdentifierGenerator identifierGenerator,
       boolean ignoreUnknownIdentifier) {
     this.wrappedFactory = wrappedFactory;
     this.idMapping = idMapping;
     this.identifiersTableService = identifiersTableService;
+    this.identifiersMappingCache = identifiersMappingCache;
     this.identifierGenerator = identifierGenerator;
     this.ignoreUnknownIdentifier = ignoreUnknownIdentifier;
   }
@@ -59,8 +65,8 @@ public class IdentifiersMappingDatasourceFactory extends AbstractDatasourceFacto
   @Override
   protected Datasource internalCreate() {
     return new IdentifiersMappingDatasource(wrappedFactory.create(), idMapping,
-        IdentifiersMappingView.Policy.UNIT_IDENTIFIERS_ARE_PRIVATE, identifiersTableService, identifierGenerator,
-        ignoreUnknownIdentifier);
+        IdentifiersMappingView.Policy.UNIT_IDENTIFIERS_ARE_PRIVATE, identifiersTableService, identifiersMappingCache,
+        identifierGenerator, ignoreUnknownIdentifier);
   }
 
   @Override
@@ -9,6 +9,9 @@
  ******************************************************************************/
 package org.obiba.opal.core.magma;
 
+import java.util.List;
+import java.util.Set;
+
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
@@ -18,12 +21,15 @@ import org.obiba.magma.VariableEntity;
 import org.obiba.magma.transform.BijectiveFunction;
 import org.obiba.magma.views.View;
 import org.obiba.opal.core.identifiers.IdentifierGenerator;
+import org.obiba.opal.core.service.IdentifiersMappingCache;
 import org.obiba.opal.core.service.NoSuchPrivateIdentifierMappingException;
 import org.obiba.opal.core.service.NoSuchSystemIdentifierMappingException;
 import org.obiba.opal.core.service.OpalPrivateVariableEntityMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
+
 /**
  * When an Opal table is exported, entities identifiers can be mapped. The "public" (or system) identifiers will
  * be replaced by the "private" identifiers.
@@ -56,6 +62,9 @@ public class IdentifiersMappingView extends View {
   @NotNull
   private final String idMapping;
 
+  @NotNull
+  private final Policy policy;
+
   @NotNull
   private final PrivateVariableEntityMap entityMap;
 
@@ -73,10 +82,11 @@ public class IdentifiersMappingView extends View {
    * @param policy the policy of which identifier to make public (opal identifier or unit identifier)
    * @param dataTable data value table to be wrapped
    * @param identifiersTable identifiers table
+   * @param identifiersMappingCache cache of the identifiers mappings
    */
   public IdentifiersMappingView(@NotNull String idMapping, @NotNull Policy policy, @NotNull ValueTable dataTable,
-      @NotNull ValueTable identifiersTable) {
-    this(idMapping, policy, dataTable, identifiersTable, null, false);
+      @NotNull ValueTable identifiersTable, @NotNull IdentifiersMappingCache identifiersMappingCache) {
+    this(idMapping, policy, dataTable, identifiersTable, identifiersMappingCache, null, false);
   }
 
   /**
@@ -87,18 +97,20 @@ public class IdentifiersMappingView extends View {
    * @param policy the policy of which identifier to make public (opal identifier or unit identifier)
    * @param dataTable data value table to be wrapped
    * @param identifiersTable identifiers table
+   * @param identifiersMappingCache cache of the identifiers mappings
    * @param identifierGenerator strategy for generating missing identifiers. can be null, in which case, identifiers
    * will not be generated
    * @param ignoreUnknownIdentifier error is thrown when an identifier that cannot be mapped is encountered
    */
   public IdentifiersMappingView(@NotNull String idMapping, @NotNull Policy policy, @NotNull ValueTable dataTable,
-      @NotNull ValueTable identifiersTable, @Nullable IdentifierGenerator identifierGenerator,
-      boolean ignoreUnknownIdentifier) {
+      @NotNull ValueTable identifiersTable, @NotNull IdentifiersMappingCache identifiersMappingCache,
+      @Nullable IdentifierGenerator identifierGenerator, boolean ignoreUnknownIdentifier) {
 
     // Null check on dataTable is required. If dataTable is null, we'll get NPE instead of IllegalArgumentException
     super(dataTable == null ? null : dataTable.getName(), dataTable);
 
     this.idMapping = idMapping;
+    this.policy = policy;
     allowIdentifierGeneration = identifierGenerator != null;
     this.ignoreUnknownIdentifier = ignoreUnknownIdentifier;
 
@@ -110,7 +122,12 @@ public class IdentifiersMappingView extends View {
           public String generateIdentifier() {
             throw new UnsupportedOperationException("Identifiers generation not permitted");
           }
-        } : identifierGenerator);
+
+          @Override
+          public Set<String> generateIdentifiers(int count) {
+            throw new UnsupportedOperationException("Identifiers generation not permitted");
+          }
+        } : identifierGenerator, identifiersMappingCache);
 
     switch(policy) {
       case UNIT_IDENTIFIERS_ARE_PUBLIC:
@@ -127,6 +144,34 @@ public class IdentifiersMappingView extends View {
         idMapping, policy);
   }
 
+  /**
+   * Generate at once the identifiers of the wrapped table entities that are not mapped yet, instead of generating them
+   * one by one while the entities are mapped.
+   *
+   * @param batchSize number of identifiers written at once in the identifiers table
+   */
+  public void generateMissingIdentifiers(int batchSize) {
+    if(!allowIdentifierGeneration) {
+      throw new UnsupportedOperationException("Identifiers generation not permitted");
+    }
+    boolean unitIdentifiersArePublic = policy == Policy.UNIT_IDENTIFIERS_ARE_PUBLIC;
+    List<VariableEntity> unmapped = Lists.newArrayList();
+    for(VariableEntity entity : getWrappedValueTable().getVariableEntities()) {
+      boolean mapped = unitIdentifiersArePublic
+          ? entityMap.hasPublicEntity(entity)
+          : entityMap.hasPrivateEntity(entity);
+      if(!mapped) unmapped.add(entity);
+    }
+    if(unmapped.isEmpty()) return;
+
+    log.info("Generating {} identifiers for {}", unmapped.size(), idMapping);
+    if(unitIdentifiersArePublic) {
+      entityMap.createPrivateEntities(unmapped, batchSize);
+    } else {
+      entityMap.createPublicEntities(unmapped, batchSize);
+    }
+  }
+
   public String getIdentifiersMapping() {
     return idMapping;
   }
@@ -9,6 +9,8 @@
  ******************************************************************************/
 package org.obiba.opal.core.magma;
 
+import java.util.Map;
+
 import javax.validation.constraints.NotNull;
 
 import org.obiba.magma.VariableEntity;
@@ -30,4 +32,24 @@ public interface PrivateVariableEntityMap {
   VariableEntity createPublicEntity(@NotNull VariableEntity privateEntity);
 
   VariableEntity createPrivateEntity(@NotNull VariableEntity publicEntity);
+
+  /**
+   * Create the public entities of several private entities at once.
+   *
+   * @param privateEntities
+   * @param batchSize number of entities written at once
+   * @return the created public entities, by private entity
+   */
+  Map<VariableEntity, VariableEntity> createPublicEntities(@NotNull Iterable<VariableEntity> privateEntities,
+      int batchSize);
+
+  /**
+   * Create the private entities of several public entities at once.
+   *
+   * @param publicEntities
+   * @param batchSize number of entities written at once
+   * @return the created private entities, by public entity
+   */
+  Map<VariableEntity, VariableEntity> createPrivateEntities(@NotNull Iterable<VariableEntity> publicEntities,
+      int batchSize);
 }
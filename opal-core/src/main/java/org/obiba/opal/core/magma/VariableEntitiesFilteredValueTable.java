@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.magma;
+
+import java.util.Set;
+
+import javax.validation.constraints.NotNull;
+
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.support.AbstractValueTableWrapper;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+/**
+ * A {@link ValueTable} that exposes only a subset of the entities of the wrapped table. Used for reading the value
+ * sets that changed since the last index synchronization, or for copying a table by chunks of value sets.
+ */
+public class VariableEntitiesFilteredValueTable extends AbstractValueTableWrapper {
+
+  @NotNull
+  private final ValueTable wrapped;
+
+  @NotNull
+  private final Set<VariableEntity> entities;
+
+  public VariableEntitiesFilteredValueTable(@NotNull ValueTable wrapped, @NotNull Iterable<VariableEntity> entities) {
+    this.wrapped = wrapped;
+    this.entities = ImmutableSet.copyOf(entities);
+  }
+
+  @Override
+  public ValueTable getWrappedValueTable() {
+    return wrapped;
+  }
+
+  @Override
+  public Set<VariableEntity> getVariableEntities() {
+    return entities;
+  }
+
+  @Override
+  public int getVariableEntityCount() {
+    return entities.size();
+  }
+
+  @Override
+  public boolean hasValueSet(VariableEntity entity) {
+    return entities.contains(entity) && wrapped.hasValueSet(entity);
+  }
+
+  @Override
+  public Iterable<ValueSet> getValueSets() {
+    return Iterables.transform(entities, new Function<VariableEntity, ValueSet>() {
+      @Override
+      public ValueSet apply(VariableEntity input) {
+        return getValueSet(input);
+      }
+    });
+  }
+
+}
@@ -28,7 +28,11 @@ public abstract class LockingActionTemplate {
 
     try {
       MagmaEngine.get().lock(lockNames);
-      doInTransaction(getAction());
+      if(isSingleTransaction()) {
+        doInTransaction(getAction());
+      } else {
+        getAction().execute();
+      }
     } catch(ActionRuntimeException ex) {
       throw new InvocationTargetException(ex.getCause());
     } catch(Exception ex) {
@@ -54,6 +58,16 @@ public abstract class LockingActionTemplate {
     });
   }
 
+  /**
+   * Whether the action is executed in a single transaction. When not, the action demarcates its own transactions, for
+   * instance to commit a long copy by chunks.
+   *
+   * @return
+   */
+  protected boolean isSingleTransaction() {
+    return true;
+  }
+
   protected abstract Set<String> getLockNames();
 
   protected abstract TransactionTemplate getTransactionTemplate();
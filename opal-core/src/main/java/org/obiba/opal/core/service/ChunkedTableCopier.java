@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.opal.core.magma.VariableEntitiesFilteredValueTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
+/**
+ * Copies a table by chunks of value sets, each chunk being committed in its own transaction. This bounds the size of
+ * the transactions and of the sessions of a long copy.
+ * <p/>
+ * The entities are copied in the order of their identifiers. Once a chunk is committed, the identifier of its last
+ * entity is recorded as the checkpoint of the copy, with the number of entities and the last update of the source
+ * table. When a copy fails, it can be resumed explicitly: the next copy of the same table to the same destination then
+ * starts after the checkpoint, unless the source table has changed since. A copy that is not resumed discards the
+ * checkpoint of a previous one. The checkpoint is removed when the copy completes, and the checkpoints of the copies
+ * that are never resumed (e.g. from transient datasources) are purged after some days.
+ */
+class ChunkedTableCopier {
+
+  private static final Logger log = LoggerFactory.getLogger(ChunkedTableCopier.class);
+
+  private static final String CHECKPOINTS_PATH = "work/checkpoints";
+
+  private static final String TMP_SUFFIX = ".tmp";
+
+  private static final long CHECKPOINTS_RETENTION = TimeUnit.DAYS.toMillis(7);
+
+  private static final Comparator<VariableEntity> IDENTIFIER_COMPARATOR = new Comparator<VariableEntity>() {
+    @Override
+    public int compare(VariableEntity e1, VariableEntity e2) {
+      return e1.getIdentifier().compareTo(e2.getIdentifier());
+    }
+  };
+
+  /**
+   * Copy of a chunk of value sets.
+   */
+  interface ChunkCopy {
+
+    /**
+     * @param chunk the table restricted to the entities of the chunk
+     * @throws Exception
+     */
+    void copy(@NotNull ValueTable chunk) throws Exception;
+
+  }
+
+  @NotNull
+  private final TransactionTemplate txTemplate;
+
+  private final int chunkSize;
+
+  @NotNull
+  private final File checkpointsDirectory;
+
+  ChunkedTableCopier(@NotNull TransactionTemplate txTemplate, int chunkSize) {
+    this(txTemplate, chunkSize, new File(System.getProperty("OPAL_HOME"), CHECKPOINTS_PATH));
+  }
+
+  ChunkedTableCopier(@NotNull TransactionTemplate txTemplate, int chunkSize, @NotNull File checkpointsDirectory) {
+    this.txTemplate = txTemplate;
+    this.chunkSize = chunkSize;
+    this.checkpointsDirectory = checkpointsDirectory;
+  }
+
+  /**
+   * Copy the table by chunks.
+   *
+   * @param table
+   * @param checkpointKey identifies the copy of the table, i.e. its source and its destination
+   * @param resume whether to resume after the checkpoint of a previous copy, if the source table did not change
+   * @param chunkCopy
+   * @throws Exception
+   */
+  void copy(@NotNull ValueTable table, @NotNull String checkpointKey, boolean resume, @NotNull ChunkCopy chunkCopy)
+      throws Exception {
+    purgeCheckpoints();
+    File checkpointFile = new File(checkpointsDirectory, Hashing.sha1().hashString(checkpointKey, Charsets.UTF_8)
+        .toString());
+
+    List<VariableEntity> entities = Lists.newArrayList(table.getVariableEntities());
+    String source = getSourceSignature(table, entities.size());
+    String checkpoint = resume ? readCheckpoint(checkpointFile, source) : null;
+    if(checkpoint == null) deleteCheckpoint(checkpointFile);
+
+    if(checkpoint != null) {
+      for(Iterator<VariableEntity> it = entities.iterator(); it.hasNext(); ) {
+        if(it.next().getIdentifier().compareTo(checkpoint) <= 0) it.remove();
+      }
+    }
+    Collections.sort(entities, IDENTIFIER_COMPARATOR);
+
+    if(checkpoint == null) {
+      log.info("Copying {} value sets of {} by chunks of {}", entities.size(), checkpointKey, chunkSize);
+      // metadata are copied even if there are no value sets
+      if(entities.isEmpty()) copyInTransaction(new VariableEntitiesFilteredValueTable(table, entities), chunkCopy);
+    } else {
+      log.info("Resuming copy of {} after entity {}: {} value sets left", checkpointKey, checkpoint, entities.size());
+    }
+
+    for(List<VariableEntity> chunk : Iterables.partition(entities, chunkSize)) {
+      if(Thread.interrupted()) {
+        throw new InterruptedException("Thread interrupted");
+      }
+      copyInTransaction(new VariableEntitiesFilteredValueTable(table, chunk), chunkCopy);
+      writeCheckpoint(checkpointFile, source, chunk.get(chunk.size() - 1).getIdentifier());
+    }
+
+    deleteCheckpoint(checkpointFile);
+  }
+
+  /**
+   * The state of the source table that a checkpoint is valid for.
+   */
+  private String getSourceSignature(ValueTable table, int entityCount) {
+    Value lastUpdate = table.getTimestamps().getLastUpdate();
+    return entityCount + "@" + (lastUpdate.isNull() ? "" : lastUpdate.toString());
+  }
+
+  private void copyInTransaction(final ValueTable chunk, final ChunkCopy chunkCopy) throws Exception {
+    TableCopies.executeInTransaction(txTemplate, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        chunkCopy.copy(chunk);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Read the identifier of the last entity copied by a previous copy of the same source table.
+   *
+   * @return null if there is no checkpoint, or if the source table has changed since
+   */
+  @Nullable
+  private String readCheckpoint(File checkpointFile, String source) throws IOException {
+    if(!checkpointFile.exists()) {
+      log.info("No checkpoint to resume the copy from, copying all the value sets");
+      return null;
+    }
+    List<String> lines = Files.readAllLines(checkpointFile.toPath(), Charsets.UTF_8);
+    if(lines.size() != 2 || !source.equals(lines.get(0))) {
+      log.warn("Source table has changed since the checkpoint of the copy, copying all the value sets");
+      return null;
+    }
+    return lines.get(1);
+  }
+
+  private void deleteCheckpoint(File checkpointFile) {
+    if(checkpointFile.exists() && !checkpointFile.delete()) {
+      log.warn("Cannot delete copy checkpoint {}", checkpointFile.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Delete the checkpoints that were not updated for a while.
+   */
+  private void purgeCheckpoints() {
+    File[] checkpoints = checkpointsDirectory.listFiles();
+    if(checkpoints == null) return;
+    long expired = System.currentTimeMillis() - CHECKPOINTS_RETENTION;
+    for(File checkpoint : checkpoints) {
+      if(checkpoint.lastModified() < expired) deleteCheckpoint(checkpoint);
+    }
+  }
+
+  /**
+   * Write the checkpoint in a temporary file and move it atomically, so that a crash cannot leave a truncated one.
+   */
+  private void writeCheckpoint(File checkpointFile, String source, String identifier) throws IOException {
+    if(!checkpointsDirectory.exists() && !checkpointsDirectory.mkdirs() && !checkpointsDirectory.exists()) {
+      throw new IOException("Cannot create copy checkpoints directory " + checkpointsDirectory.getAbsolutePath());
+    }
+    File tmp = File.createTempFile(checkpointFile.getName(), TMP_SUFFIX, checkpointsDirectory);
+    try(FileOutputStream fos = new FileOutputStream(tmp)) {
+      fos.write((source + "\n" + identifier).getBytes(Charsets.UTF_8));
+      fos.getFD().sync();
+    }
+    Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+}
@@ -10,14 +10,15 @@
 package org.obiba.opal.core.service;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ThreadFactory;
 
 import javax.validation.constraints.NotNull;
 
 import org.obiba.magma.Datasource;
-import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.ValueTableWriter;
 import org.obiba.magma.VariableEntity;
@@ -32,6 +33,7 @@ import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 /**
@@ -53,10 +55,26 @@ class CopyValueTablesLockingAction extends LockingActionTemplate {
 
   private final TransactionTemplate txTemplate;
 
+  private final int concurrency;
+
+  private final int commitInterval;
+
+  private final boolean resume;
+
+  /**
+   * @param concurrency maximum number of tables copied at once, each one in its own transaction. When 1, the tables are
+   * copied one after the other in the same transaction. When greater than 1, the import is not all-or-nothing: the
+   * identifiers are committed first, then each table is committed on its own, so that the tables copied before a
+   * failure remain imported.
+   * @param commitInterval number of value sets per transaction, the copies being resumable (see
+   * {@link ChunkedTableCopier}). When 0, each table is copied in a single transaction.
+   * @param resume whether the chunked copies resume after the checkpoints of a previous failed import
+   */
   @SuppressWarnings("PMD.ExcessiveParameterList")
   CopyValueTablesLockingAction(IdentifiersTableService identifiersTableService, IdentifierService identifierService,
       TransactionTemplate txTemplate, Set<ValueTable> sourceTables, Datasource destination,
-      boolean allowIdentifierGeneration, boolean ignoreUnknownIdentifier) {
+      boolean allowIdentifierGeneration, boolean ignoreUnknownIdentifier, int concurrency, int commitInterval,
+      boolean resume) {
     this.identifiersTableService = identifiersTableService;
     this.identifierService = identifierService;
     this.txTemplate = txTemplate;
@@ -64,6 +82,9 @@ class CopyValueTablesLockingAction extends LockingActionTemplate {
     this.destination = destination;
     this.allowIdentifierGeneration = allowIdentifierGeneration;
     this.ignoreUnknownIdentifier = ignoreUnknownIdentifier;
+    this.concurrency = concurrency;
+    this.commitInterval = commitInterval;
+    this.resume = resume;
   }
 
   @Override
@@ -90,46 +111,121 @@ class CopyValueTablesLockingAction extends LockingActionTemplate {
     return txTemplate;
   }
 
+  @Override
+  protected boolean isSingleTransaction() {
+    return !isChunked() && concurrency <= 1;
+  }
+
+  private boolean isChunked() {
+    return commitInterval > 0;
+  }
+
   @Override
   protected Action getAction() {
     return new CopyAction();
   }
 
   private class CopyAction implements Action {
+
+    private final ThreadFactory transactionalThreadFactory = new ThreadFactory() {
+      @NotNull
+      @Override
+      public Thread newThread(@NotNull Runnable r) {
+        return new TransactionalThread(r);
+      }
+    };
+
     @Override
     public void execute() throws Exception {
-      for(ValueTable valueTable : sourceTables) {
-        if(Thread.interrupted()) {
-          throw new InterruptedException("Thread interrupted");
+      // Identifiers are written first and on this thread only, so that the copies of the tables data, that may run
+      // concurrently, do not write in the identifiers table.
+      Callable<List<Callable<Void>>> prepareCopies = new Callable<List<Callable<Void>>>() {
+        @Override
+        public List<Callable<Void>> call() throws Exception {
+          List<Callable<Void>> copies = Lists.newArrayList();
+          for(ValueTable valueTable : sourceTables) {
+            checkInterrupted();
+            copies.add(prepareCopy(valueTable));
+          }
+          return copies;
         }
+      };
+      // out of a single transaction, the identifiers are committed before any data is copied
+      List<Callable<Void>> copies = isSingleTransaction()
+          ? prepareCopies.call()
+          : TableCopies.executeInTransaction(txTemplate, prepareCopies);
+
+      // out of a single transaction, each table is copied in its own transaction, or in its own chunks transactions
+      TransactionTemplate copyTxTemplate = isSingleTransaction() || isChunked() ? null : txTemplate;
+      if(concurrency <= 1 || copies.size() <= 1) {
+        for(Callable<Void> copy : copies) {
+          checkInterrupted();
+          if(copyTxTemplate == null) {
+            copy.call();
+          } else {
+            TableCopies.executeInTransaction(copyTxTemplate, copy);
+          }
+        }
+      } else {
+        TableCopies.executeConcurrently(copies, concurrency, copyTxTemplate);
+      }
+    }
 
-        if(identifiersTableService.hasIdentifiersTable(valueTable.getEntityType())) {
+    private void checkInterrupted() throws InterruptedException {
+      if(Thread.interrupted()) {
+        throw new InterruptedException("Thread interrupted");
+      }
+    }
 
-          if(valueTable instanceof IdentifiersMappingView) {
-            importUnitData((IdentifiersMappingView) valueTable);
-          } else {
-            addMissingEntitiesToKeysTable(valueTable);
-            MultithreadedDatasourceCopier.Builder.newCopier() //
-                .withThreads(new ThreadFactory() {
-                  @NotNull
+    /**
+     * Write the identifiers of the table entities and get the copy of its data.
+     */
+    private Callable<Void> prepareCopy(ValueTable valueTable) throws IOException {
+      String checkpointKey = "import:" + valueTable.getDatasource().getName() + "." + valueTable.getName() + ":" +
+          destination.getName();
+      if(!identifiersTableService.hasIdentifiersTable(valueTable.getEntityType())) {
+        return newCopy(valueTable, checkpointKey, DatasourceCopier.Builder.newCopier() //
+            .dontCopyNullValues() //
+            .withLoggingListener());
+      }
+      if(valueTable instanceof IdentifiersMappingView) {
+        checkpointKey = "import:" + ((IdentifiersMappingView) valueTable).getWrappedValueTable().getDatasource()
+            .getName() + "." + valueTable.getName() + ":" + destination.getName();
+        return newCopy(importUnitIdentifiers((IdentifiersMappingView) valueTable), checkpointKey,
+            newCopierForParticipants());
+      }
+      addMissingEntitiesToKeysTable(valueTable);
+      return newCopy(valueTable, checkpointKey, newCopierForParticipants());
+    }
+
+    private Callable<Void> newCopy(final ValueTable valueTable, final String checkpointKey,
+        final DatasourceCopier.Builder copier) {
+      return new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          if(isChunked()) {
+            new ChunkedTableCopier(txTemplate, commitInterval)
+                .copy(valueTable, checkpointKey, resume, new ChunkedTableCopier.ChunkCopy() {
                   @Override
-                  public Thread newThread(@NotNull Runnable r) {
-                    return new TransactionalThread(r);
+                  public void copy(@NotNull ValueTable chunk) throws Exception {
+                    copyTable(chunk, copier);
                   }
-                }) //
-                .withCopier(newCopierForParticipants()) //
-                .from(valueTable) //
-                .to(destination).build() //
-                .copy();
+                });
+          } else {
+            copyTable(valueTable, copier);
           }
-
-        } else {
-          DatasourceCopier.Builder.newCopier() //
-              .dontCopyNullValues() //
-              .withLoggingListener().build() //
-              .copy(valueTable, destination);
+          return null;
         }
-      }
+      };
+    }
+
+    private void copyTable(ValueTable valueTable, DatasourceCopier.Builder copier) throws IOException {
+      MultithreadedDatasourceCopier.Builder.newCopier() //
+          .withThreads(transactionalThreadFactory) //
+          .withCopier(copier) //
+          .from(valueTable) //
+          .to(destination).build() //
+          .copy();
     }
 
     private class TransactionalThread extends Thread {
@@ -162,18 +258,19 @@ class CopyValueTablesLockingAction extends LockingActionTemplate {
       }
 
       if(nonExistentVariableEntities.size() > 0) {
-        try(ValueTableWriter keysTableWriter = identifiersTableService
-            .createIdentifiersTableWriter(valueTable.getEntityType())) {
-          for(VariableEntity ve : nonExistentVariableEntities) {
-            keysTableWriter.writeValueSet(ve).close();
-          }
-        }
+        identifierService.addIdentifiers(valueTable.getEntityType(), nonExistentVariableEntities);
       }
 
       return nonExistentVariableEntities;
     }
 
-    private void importUnitData(IdentifiersMappingView identifiersMappingView) throws IOException {
+    /**
+     * Insert all participant identifiers in the keys datasource prior to copying the unit data to the data datasource.
+     * The public variable entities that do not exist yet are generated.
+     *
+     * @return the view of the unit data with the public identifiers
+     */
+    private ValueTable importUnitIdentifiers(IdentifiersMappingView identifiersMappingView) throws IOException {
       String idMapping = identifiersMappingView.getIdentifiersMapping();
       ValueTable table = identifiersMappingView.getWrappedValueTable();
 
@@ -186,37 +283,13 @@ class CopyValueTablesLockingAction extends LockingActionTemplate {
           .createPublicView(identifiersMappingView, allowIdentifierGeneration, ignoreUnknownIdentifier);
       PrivateVariableEntityMap entityMap = publicView.getPrivateVariableEntityMap();
 
-      // prepare for copying participant data
-
       try(ValueTableWriter keysTableWriter = identifiersTableService
           .createIdentifiersTableWriter(table.getEntityType())) {
-        DatasourceCopier.DatasourceCopyEventListener keysListener = createKeysListener(privateView, entityMap,
-            keysTableWriter);
-        // Copy participant's non-identifiable variables and data
-        DatasourceCopier datasourceCopier = newCopierForParticipants().withListener(keysListener).build();
-        datasourceCopier.copy(publicView, destination);
-      }
-    }
-
-    /**
-     * This listener will insert all participant identifiers in the keys datasource prior to copying the valueSet to the
-     * data datasource. It will also generate the public variable entity if it does not exist yet. As such, it must be
-     * executed before the ValueSet is copied to the data datasource otherwise, it will not have an associated entity.
-     */
-    private DatasourceCopier.DatasourceCopyEventListener createKeysListener(final ValueTable privateView,
-        final PrivateVariableEntityMap entityMap, final ValueTableWriter keysTableWriter) {
-      return new DatasourceCopier.DatasourceCopyValueSetEventListener() {
-        @Override
-        public void onValueSetCopied(ValueTable source, ValueSet valueSet, @SuppressWarnings(
-            "ParameterHidesMemberVariable") String... destination) {
-        }
-
-        @Override
-        public void onValueSetCopy(ValueTable source, ValueSet valueSet) {
-          identifierService
-              .copyParticipantIdentifiers(valueSet.getVariableEntity(), privateView, entityMap, keysTableWriter);
+        for(VariableEntity publicEntity : publicView.getVariableEntities()) {
+          identifierService.copyParticipantIdentifiers(publicEntity, privateView, entityMap, keysTableWriter);
         }
-      };
+      }
+      return publicView;
     }
 
     private DatasourceCopier.Builder newCopierForParticipants() {
@@ -11,8 +11,10 @@ package org.obiba.opal.core.service;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ThreadFactory;
 
 import javax.annotation.Nullable;
@@ -29,11 +31,18 @@ import org.obiba.magma.views.WhereClause;
 import org.obiba.opal.core.magma.IdentifiersMappingView;
 import org.obiba.opal.core.magma.IdentifiersMappingView.Policy;
 import org.obiba.opal.core.magma.concurrent.LockingActionTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 
 /**
  * Default implementation of {@link DataExportService}.
@@ -41,6 +50,18 @@ import com.google.common.base.Strings;
 @Component
 public class DataExportServiceImpl implements DataExportService {
 
+  private static final Logger log = LoggerFactory.getLogger(DataExportServiceImpl.class);
+
+  /**
+   * Types of the datasources that support concurrent writes in different tables: databases, and csv that writes the
+   * variables and the data of each table in their own files. The others are written by one table at a time, as all
+   * their tables are in a single file (xml zip archive, excel workbook).
+   */
+  private static final Set<String> CONCURRENT_WRITES_DATASOURCE_TYPES = ImmutableSet
+      .of("hibernate", "mongodb", "jdbc", "csv");
+
+  private static final int MAX_READERS = 8;
+
   @NotNull
   private final ThreadFactory threadFactory;
 
@@ -50,12 +71,29 @@ public class DataExportServiceImpl implements DataExportService {
   @NotNull
   private final IdentifiersTableService identifiersTableService;
 
+  @NotNull
+  private final IdentifiersMappingCache identifiersMappingCache;
+
+  private final int commitInterval;
+
+  private final int concurrency;
+
+  /**
+   * @param commitInterval number of value sets per transaction, see {@link ChunkedTableCopier}
+   * @param concurrency maximum number of tables exported at once, 0 for a value based on the available processors
+   */
   @Autowired
   public DataExportServiceImpl(@NotNull ThreadFactory threadFactory, @NotNull TransactionTemplate txTemplate,
-      @NotNull IdentifiersTableService identifiersTableService) {
+      @NotNull IdentifiersTableService identifiersTableService,
+      @NotNull IdentifiersMappingCache identifiersMappingCache,
+      @Value("${org.obiba.opal.copy.commitInterval}") int commitInterval,
+      @Value("${org.obiba.opal.export.concurrency}") int concurrency) {
     this.threadFactory = threadFactory;
     this.txTemplate = txTemplate;
     this.identifiersTableService = identifiersTableService;
+    this.identifiersMappingCache = identifiersMappingCache;
+    this.commitInterval = commitInterval;
+    this.concurrency = concurrency;
   }
 
   @Override
@@ -65,15 +103,16 @@ public class DataExportServiceImpl implements DataExportService {
 
   @Override
   public void exportTablesToDatasource(@Nullable String idMapping, @NotNull Set<ValueTable> sourceTables,
-      @NotNull Datasource destinationDatasource, @NotNull DatasourceCopier.Builder datasourceCopier,
-      boolean incremental) throws InterruptedException {
+      @NotNull Datasource destinationDatasource, @NotNull Supplier<DatasourceCopier.Builder> datasourceCopiers,
+      boolean incremental, boolean resume) throws InterruptedException {
     if(!Strings.isNullOrEmpty(idMapping) && !identifiersTableService.hasIdentifiersMapping(idMapping))
       throw new NoSuchIdentifiersMappingException(idMapping);
 
     validateSourceDatasourceNotEqualDestinationDatasource(sourceTables, destinationDatasource);
 
     try {
-      new ExportActionTemplate(sourceTables, destinationDatasource, datasourceCopier, incremental, idMapping).execute();
+      new ExportActionTemplate(sourceTables, destinationDatasource, datasourceCopiers, incremental, resume, idMapping)
+          .execute();
     } catch(InvocationTargetException ex) {
       if(ex.getCause() instanceof ExportException) {
         throw (ExportException) ex.getCause();
@@ -106,19 +145,22 @@ public class DataExportServiceImpl implements DataExportService {
     private final Datasource destinationDatasource;
 
     @NotNull
-    private final Builder datasourceCopier;
+    private final Supplier<Builder> datasourceCopiers;
 
     private final boolean incremental;
 
+    private final boolean resume;
+
     @Nullable
     private final String idMapping;
 
     private ExportActionTemplate(@NotNull Set<ValueTable> sourceTables, @NotNull Datasource destinationDatasource,
-        @NotNull Builder datasourceCopier, boolean incremental, @Nullable String idMapping) {
+        @NotNull Supplier<Builder> datasourceCopiers, boolean incremental, boolean resume, @Nullable String idMapping) {
       this.sourceTables = sourceTables;
       this.destinationDatasource = destinationDatasource;
-      this.datasourceCopier = datasourceCopier;
+      this.datasourceCopiers = datasourceCopiers;
       this.incremental = incremental;
+      this.resume = resume;
       this.idMapping = idMapping;
     }
 
@@ -137,6 +179,11 @@ public class DataExportServiceImpl implements DataExportService {
       return txTemplate;
     }
 
+    @Override
+    protected boolean isSingleTransaction() {
+      return commitInterval <= 0;
+    }
+
     @NotNull
     @Override
     protected Action getAction() {
@@ -144,11 +191,33 @@ public class DataExportServiceImpl implements DataExportService {
     }
 
     private class ExportAction implements Action {
+
+      private final int tablesAtOnce = getTablesAtOnce();
+
+      // the processors are shared by the readers of the tables exported at once
+      private final int readers = Math.max(1,
+          Math.min(MAX_READERS, Runtime.getRuntime().availableProcessors() / tablesAtOnce));
+
       @Override
       public void execute() throws Exception {
         try {
-          for(ValueTable table : sourceTables) {
-            exportTableToDatasource(table);
+          if(tablesAtOnce <= 1) {
+            for(ValueTable table : sourceTables) {
+              exportTableToDatasource(table);
+            }
+          } else {
+            List<Callable<Void>> exports = Lists.newArrayList();
+            for(final ValueTable table : sourceTables) {
+              exports.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                  exportTableToDatasource(table);
+                  return null;
+                }
+              });
+            }
+            // each table in its own transaction, or in its own chunks transactions
+            TableCopies.executeConcurrently(exports, tablesAtOnce, isSingleTransaction() ? txTemplate : null);
           }
         } catch(IOException ex) {
           // When implementing the ExcelDatasource:
@@ -158,7 +227,16 @@ public class DataExportServiceImpl implements DataExportService {
         }
       }
 
-      private void exportTableToDatasource(@NotNull ValueTable table) throws InterruptedException, IOException {
+      /**
+       * Number of tables exported at once: single file destinations are written by one table at a time.
+       */
+      private int getTablesAtOnce() {
+        if(!CONCURRENT_WRITES_DATASOURCE_TYPES.contains(destinationDatasource.getType())) return 1;
+        int tables = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors() / 2;
+        return Math.max(1, Math.min(tables, sourceTables.size()));
+      }
+
+      private void exportTableToDatasource(@NotNull ValueTable table) throws Exception {
         if(Thread.interrupted()) {
           throw new InterruptedException("Thread interrupted");
         }
@@ -172,12 +250,34 @@ public class DataExportServiceImpl implements DataExportService {
         if(!Strings.isNullOrEmpty(idMapping) && identifiersTableService.hasIdentifiersMapping(tableToCopy.getEntityType(), idMapping)) {
           // Make a view that converts opal identifiers to unit identifiers
           tableToCopy = new IdentifiersMappingView(idMapping, Policy.UNIT_IDENTIFIERS_ARE_PUBLIC, tableToCopy,
-              identifiersTableService.getIdentifiersTable(tableToCopy.getEntityType()));
+              identifiersTableService.getIdentifiersTable(tableToCopy.getEntityType()), identifiersMappingCache);
+        }
+
+        // Go ahead and copy the result to the destination datasource, by chunks of value sets if required. Each table
+        // has its own copier, as the tables may be exported concurrently.
+        final Builder datasourceCopier = datasourceCopiers.get();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        if(isSingleTransaction()) {
+          copyTable(tableToCopy, datasourceCopier);
+        } else {
+          String checkpointKey = "export:" + table.getDatasource().getName() + "." + table.getName() + ":" +
+              destinationDatasource.getName() + (Strings.isNullOrEmpty(idMapping) ? "" : ":" + idMapping);
+          new ChunkedTableCopier(txTemplate, commitInterval)
+              .copy(tableToCopy, checkpointKey, resume, new ChunkedTableCopier.ChunkCopy() {
+                @Override
+                public void copy(@NotNull ValueTable chunk) throws Exception {
+                  copyTable(chunk, datasourceCopier);
+                }
+              });
         }
+        // the value sets throughput is reported by the copier throughput listener, see newCopier()
+        log.info("Exported {}.{} to {} in {} ({} readers)", table.getDatasource().getName(), table.getName(),
+            destinationDatasource.getName(), stopwatch.stop(), readers);
+      }
 
-        // Go ahead and copy the result to the destination datasource.
+      private void copyTable(@NotNull ValueTable tableToCopy, @NotNull Builder datasourceCopier) throws IOException {
         MultithreadedDatasourceCopier.Builder.newCopier().from(tableToCopy).to(destinationDatasource)
-            .withCopier(datasourceCopier).withReaders(4).withThreads(threadFactory).build().copy();
+            .withCopier(datasourceCopier).withReaders(readers).withThreads(threadFactory).build().copy();
       }
 
       @NotNull
@@ -25,6 +25,7 @@ import org.obiba.magma.support.MagmaEngineTableResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
@@ -49,9 +50,15 @@ public class DataImportServiceImpl implements DataImportService {
   @Autowired
   private IdentifierService identifierService;
 
+  @Value("${org.obiba.opal.import.concurrency}")
+  private int concurrency = 1;
+
+  @Value("${org.obiba.opal.copy.commitInterval}")
+  private int commitInterval = 0;
+
   @Override
   public void importData(@NotNull String sourceDatasourceName, String destinationDatasourceName,
-      boolean allowIdentifierGeneration, boolean ignoreUnknownIdentifier)
+      boolean allowIdentifierGeneration, boolean ignoreUnknownIdentifier, boolean resume)
       throws NoSuchIdentifiersMappingException, NoSuchDatasourceException, NoSuchValueTableException, IOException,
       InterruptedException {
     Assert.hasText(sourceDatasourceName, "sourceDatasourceName is null or empty");
@@ -59,7 +66,7 @@ public class DataImportServiceImpl implements DataImportService {
     Datasource sourceDatasource = getDatasourceOrTransientDatasource(sourceDatasourceName);
     try {
       importData(sourceDatasource.getValueTables(), destinationDatasourceName, allowIdentifierGeneration,
-          ignoreUnknownIdentifier);
+          ignoreUnknownIdentifier, resume);
     } finally {
       MagmaEngine.get().removeTransientDatasource(sourceDatasource.getName());
     }
@@ -67,7 +74,7 @@ public class DataImportServiceImpl implements DataImportService {
 
   @Override
   public void importData(@NotNull List<String> sourceTableNames, String destinationDatasourceName,
-      boolean allowIdentifierGeneration, boolean ignoreUnknownIdentifier)
+      boolean allowIdentifierGeneration, boolean ignoreUnknownIdentifier, boolean resume)
       throws NoSuchIdentifiersMappingException, NoSuchDatasourceException, NoSuchValueTableException,
       NonExistentVariableEntitiesException, IOException, InterruptedException {
     Assert.notNull(sourceTableNames, "sourceTableNames is null");
@@ -81,7 +88,8 @@ public class DataImportServiceImpl implements DataImportService {
     }
     Set<ValueTable> sourceTables = builder.build();
     try {
-      importData(sourceTables, destinationDatasourceName, allowIdentifierGeneration, ignoreUnknownIdentifier);
+      importData(sourceTables, destinationDatasourceName, allowIdentifierGeneration, ignoreUnknownIdentifier,
+          resume);
     } finally {
       for(ValueTable table : sourceTables) {
         MagmaEngine.get().removeTransientDatasource(table.getDatasource().getName());
@@ -91,12 +99,12 @@ public class DataImportServiceImpl implements DataImportService {
 
   @Override
   public void importData(Set<ValueTable> sourceTables, @NotNull String destinationDatasourceName,
-      boolean allowIdentifierGeneration, boolean ignoreUnknownIdentifier)
+      boolean allowIdentifierGeneration, boolean ignoreUnknownIdentifier, boolean resume)
       throws NoSuchIdentifiersMappingException, NonExistentVariableEntitiesException, IOException, InterruptedException {
     Assert.hasText(destinationDatasourceName, "destinationDatasourceName is null or empty");
 
     Datasource destinationDatasource = MagmaEngine.get().getDatasource(destinationDatasourceName);
-    copyValueTables(sourceTables, destinationDatasource, allowIdentifierGeneration, ignoreUnknownIdentifier);
+    copyValueTables(sourceTables, destinationDatasource, allowIdentifierGeneration, ignoreUnknownIdentifier, resume);
   }
 
   //
@@ -115,15 +123,18 @@ public class DataImportServiceImpl implements DataImportService {
    * @param sourceTables
    * @param destination
    * @param allowIdentifierGeneration
+   * @param ignoreUnknownIdentifier
+   * @param resume
    * @throws IOException
    * @throws InterruptedException
    */
   @SuppressWarnings("ChainOfInstanceofChecks")
   private void copyValueTables(Set<ValueTable> sourceTables, Datasource destination, boolean allowIdentifierGeneration,
-      boolean ignoreUnknownIdentifier) throws IOException, InterruptedException {
+      boolean ignoreUnknownIdentifier, boolean resume) throws IOException, InterruptedException {
     try {
       new CopyValueTablesLockingAction(identifiersTableService, identifierService, txTemplate, sourceTables,
-          destination, allowIdentifierGeneration, ignoreUnknownIdentifier).execute();
+          destination, allowIdentifierGeneration, ignoreUnknownIdentifier, concurrency, commitInterval,
+          resume).execute();
     } catch(InvocationTargetException ex) {
       if(ex.getCause() instanceof IOException) {
         throw (IOException) ex.getCause();
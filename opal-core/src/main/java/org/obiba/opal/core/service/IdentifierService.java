@@ -53,4 +53,19 @@ public interface IdentifierService {
    */
   IdentifiersMappingView createPublicView(IdentifiersMappingView dataTable, boolean allowIdentifierGeneration,
       boolean ignoreUnknownIdentifier);
+
+  /**
+   * Add the entities to the identifiers table of their type, by batches.
+   *
+   * @param entityType
+   * @param entities
+   */
+  void addIdentifiers(@NotNull String entityType, @NotNull Iterable<VariableEntity> entities);
+
+  /**
+   * Number of identifiers written at once in the identifiers table.
+   *
+   * @return
+   */
+  int getIdentifiersBatchSize();
 }
@@ -9,6 +9,8 @@
  */
 package org.obiba.opal.core.service;
 
+import java.util.List;
+
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
@@ -32,6 +34,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterables;
 
 /**
  *
@@ -45,6 +48,12 @@ public class IdentifierServiceImpl implements IdentifierService {
   @Autowired
   private IdentifierGenerator participantIdentifier;
 
+  @Autowired
+  private IdentifiersMappingCache identifiersMappingCache;
+
+  @org.springframework.beans.factory.annotation.Value("${org.obiba.opal.identifiers.batchSize}")
+  private int identifiersBatchSize = 1000;
+
   @Override
   public Variable createIdentifierVariable(@Nullable ValueTable privateView, @NotNull IdentifiersMapping idsMapping) {
     Variable idVariable = Variable.Builder.newVariable(idsMapping.getName(), TextType.get(), idsMapping.getEntityType())
@@ -86,7 +95,7 @@ public class IdentifierServiceImpl implements IdentifierService {
 
     IdentifiersMappingView publicTable = new IdentifiersMappingView(idMapping,
         IdentifiersMappingView.Policy.UNIT_IDENTIFIERS_ARE_PRIVATE, table,
-        identifiersTableService.getIdentifiersTable(table.getEntityType()),
+        identifiersTableService.getIdentifiersTable(table.getEntityType()), identifiersMappingCache,
         allowIdentifierGeneration ? participantIdentifier : null, ignoreUnknownIdentifier);
     final String select = identifiersTableService.getSelectScript(table.getEntityType(), idMapping);
     if(!Strings.isNullOrEmpty(select)) {
@@ -104,9 +113,26 @@ public class IdentifierServiceImpl implements IdentifierService {
       });
     }
     publicTable.initialise();
+    if(allowIdentifierGeneration) publicTable.generateMissingIdentifiers(identifiersBatchSize);
     return publicTable;
   }
 
+  @Override
+  public void addIdentifiers(@NotNull String entityType, @NotNull Iterable<VariableEntity> entities) {
+    for(List<VariableEntity> batch : Iterables.partition(entities, identifiersBatchSize)) {
+      try(ValueTableWriter identifiersTableWriter = identifiersTableService.createIdentifiersTableWriter(entityType)) {
+        for(VariableEntity entity : batch) {
+          identifiersTableWriter.writeValueSet(entity).close();
+        }
+      }
+    }
+  }
+
+  @Override
+  public int getIdentifiersBatchSize() {
+    return identifiersBatchSize;
+  }
+
   private boolean isIdentifierVariable(@NotNull AttributeAware variable) {
     if(!variable.hasAttribute("identifier")) return false;
     Value value = variable.getAttribute("identifier").getValue();
@@ -10,6 +10,7 @@
 package org.obiba.opal.core.service;
 
 import java.io.IOException;
+import java.util.List;
 
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
@@ -35,6 +36,7 @@ import org.springframework.stereotype.Component;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 /**
  * Default implementation of {@link org.obiba.opal.core.service.IdentifiersImportService}.
@@ -54,6 +56,9 @@ public class IdentifiersImportServiceImpl implements IdentifiersImportService {
   @Autowired
   private IdentifierService identifierService;
 
+  @Autowired
+  private IdentifiersMappingCache identifiersMappingCache;
+
   @Override
   public int importIdentifiers(@NotNull IdentifiersMapping idMapping, @NotNull IdentifierGenerator pIdentifier) {
     IdentifierGenerator localParticipantIdentifier = pIdentifier == null ? participantIdentifier : pIdentifier;
@@ -63,15 +68,17 @@ public class IdentifiersImportServiceImpl implements IdentifiersImportService {
     ValueTable identifiersTable = identifiersTableService.ensureIdentifiersTable(idMapping.getEntityType());
     Variable variable = identifiersTableService.ensureIdentifiersMapping(idMapping);
     PrivateVariableEntityMap entityMap = new OpalPrivateVariableEntityMap(identifiersTable, variable,
-        localParticipantIdentifier);
+        localParticipantIdentifier, identifiersMappingCache);
 
+    List<VariableEntity> systemEntities = Lists.newArrayList();
     for(IdentifiersMaps.IdentifiersMap unitId : new IdentifiersMaps(identifiersTable, idMapping.getName())) {
       // Create a private entity for each missing unitIdentifier
       if(!unitId.hasPrivateIdentifier()) {
-        entityMap.createPrivateEntity(unitId.getSystemEntity());
+        systemEntities.add(unitId.getSystemEntity());
         count++;
       }
     }
+    entityMap.createPrivateEntities(systemEntities, identifierService.getIdentifiersBatchSize());
 
     return count;
   }
@@ -105,14 +112,17 @@ public class IdentifiersImportServiceImpl implements IdentifiersImportService {
 
     PrivateVariableEntityMap entityMap = new OpalPrivateVariableEntityMap(
         identifiersTableService.getIdentifiersTable(idMapping.getEntityType()), identifierVariable,
-        participantIdentifier);
+        participantIdentifier, identifiersMappingCache);
+
+    List<VariableEntity> unmappedEntities = Lists.newArrayList();
+    for(VariableEntity privateEntity : sourceIdentifiersTable.getVariableEntities()) {
+      if(!entityMap.hasPrivateEntity(privateEntity)) unmappedEntities.add(privateEntity);
+    }
+    entityMap.createPublicEntities(unmappedEntities, identifierService.getIdentifiersBatchSize());
 
     try(ValueTableWriter identifiersTableWriter = identifiersTableService
         .createIdentifiersTableWriter(idMapping.getEntityType())) {
       for(VariableEntity privateEntity : sourceIdentifiersTable.getVariableEntities()) {
-        if(entityMap.publicEntity(privateEntity) == null) {
-          entityMap.createPublicEntity(privateEntity);
-        }
         identifierService
             .copyParticipantIdentifiers(entityMap.publicEntity(privateEntity), sourceIdentifiersTable, entityMap,
                 identifiersTableWriter);
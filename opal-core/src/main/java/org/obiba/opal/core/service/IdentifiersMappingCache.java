@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service;
+
+import java.util.Iterator;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueSource;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.VectorSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cache of the identifiers mappings: the identifiers of an identifiers table and of one of its mapping variables are
+ * loaded once and shared by all the {@link OpalPrivateVariableEntityMap}s, instead of scanning the identifiers table
+ * for each export, R assignment or import. The mappings are identified by the reference of their identifiers table, as
+ * the table instances change when the identifiers datasource is registered again.
+ * <p/>
+ * The entity maps publish the identifiers they create in the shared mapping once they are committed. A mapping is
+ * reloaded when the identifiers table was updated by other means, which is detected with the table last update
+ * timestamp.
+ */
+@Component
+public class IdentifiersMappingCache {
+
+  private static final Logger log = LoggerFactory.getLogger(IdentifiersMappingCache.class);
+
+  // Map<IdentifiersTableReference:MappingVariableName, Mapping>
+  private final ConcurrentMap<String, Mapping> mappings = new ConcurrentHashMap<>();
+
+  /**
+   * Get the up-to-date mapping of the identifiers table for the given mapping variable.
+   *
+   * @param keysTable
+   * @param ownerVariable
+   * @return
+   */
+  @NotNull
+  Mapping get(@NotNull ValueTable keysTable, @NotNull Variable ownerVariable) {
+    String key = keysTable.getTableReference() + ":" + ownerVariable.getName();
+    Mapping mapping = mappings.get(key);
+    if(mapping == null) {
+      Mapping created = new Mapping(keysTable, ownerVariable);
+      mapping = mappings.putIfAbsent(key, created);
+      if(mapping == null) mapping = created;
+    }
+    mapping.refresh(keysTable);
+    return mapping;
+  }
+
+  /**
+   * Public and private identifiers of an identifiers table for a mapping variable. Identifiers are stored as strings in
+   * both directions, the same string instances being shared by the two maps. Lookups are not blocking; reloading and
+   * adding identifiers must be done while holding the mapping monitor.
+   * <p/>
+   * The identifiers written in a transaction that is not committed yet are reserved: they are not looked up, but they
+   * cannot be generated again.
+   */
+  static class Mapping {
+
+    // the last instance of the identifiers table
+    @NotNull
+    private volatile ValueTable keysTable;
+
+    @NotNull
+    private final Variable ownerVariable;
+
+    @NotNull
+    private volatile Identifiers identifiers = new Identifiers();
+
+    @NotNull
+    private final Identifiers reserved = new Identifiers();
+
+    @Nullable
+    private Value lastUpdate;
+
+    private Mapping(@NotNull ValueTable keysTable, @NotNull Variable ownerVariable) {
+      this.keysTable = keysTable;
+      this.ownerVariable = ownerVariable;
+    }
+
+    @Nullable
+    String getPrivateIdentifier(@NotNull String publicIdentifier) {
+      return identifiers.publicToPrivate.get(publicIdentifier);
+    }
+
+    @Nullable
+    String getPublicIdentifier(@NotNull String privateIdentifier) {
+      return identifiers.privateToPublic.get(privateIdentifier);
+    }
+
+    boolean hasPrivateIdentifier(@NotNull String privateIdentifier) {
+      return identifiers.privateToPublic.containsKey(privateIdentifier);
+    }
+
+    boolean hasPublicIdentifier(@NotNull String publicIdentifier) {
+      return identifiers.publicToPrivate.containsKey(publicIdentifier);
+    }
+
+    /**
+     * Whether the private identifier is mapped or reserved by a write that is not committed yet.
+     */
+    synchronized boolean isPrivateIdentifierTaken(@NotNull String privateIdentifier) {
+      return hasPrivateIdentifier(privateIdentifier) || reserved.privateToPublic.containsKey(privateIdentifier);
+    }
+
+    /**
+     * Whether the public identifier is mapped or reserved by a write that is not committed yet.
+     */
+    synchronized boolean isPublicIdentifierTaken(@NotNull String publicIdentifier) {
+      return hasPublicIdentifier(publicIdentifier) || reserved.publicToPrivate.containsKey(publicIdentifier);
+    }
+
+    /**
+     * Reserve an identifiers pair that was written in the identifiers table, until its transaction completes.
+     *
+     * @param publicIdentifier
+     * @param privateIdentifier
+     */
+    synchronized void reserve(@NotNull String publicIdentifier, @NotNull String privateIdentifier) {
+      reserved.put(publicIdentifier, privateIdentifier);
+    }
+
+    /**
+     * Add an identifiers pair that was committed in the identifiers table, without reloading the mapping.
+     *
+     * @param publicIdentifier
+     * @param privateIdentifier
+     */
+    synchronized void publish(@NotNull String publicIdentifier, @NotNull String privateIdentifier) {
+      release(publicIdentifier, privateIdentifier);
+      identifiers.put(publicIdentifier, privateIdentifier);
+    }
+
+    /**
+     * Release an identifiers pair which write was rolled back.
+     *
+     * @param publicIdentifier
+     * @param privateIdentifier
+     */
+    synchronized void release(@NotNull String publicIdentifier, @NotNull String privateIdentifier) {
+      reserved.publicToPrivate.remove(publicIdentifier);
+      reserved.privateToPublic.remove(privateIdentifier);
+    }
+
+    /**
+     * Acknowledge the writes of identifiers, so that they do not cause a reload. They are acknowledged only if the
+     * mapping was loaded from the state of the identifiers table they were written in: otherwise the table was also
+     * updated by other means, and the mapping will be reloaded.
+     *
+     * @param updatedBefore last update of the identifiers table before the writes
+     */
+    synchronized void written(@NotNull Value updatedBefore) {
+      if(updatedBefore.equals(lastUpdate)) {
+        lastUpdate = getLastUpdate();
+      }
+    }
+
+    @NotNull
+    Value getLastUpdate() {
+      return keysTable.getTimestamps().getLastUpdate();
+    }
+
+    /**
+     * Reload the mapping if it was never loaded or if the identifiers table was updated since.
+     */
+    synchronized void refresh(@NotNull ValueTable table) {
+      keysTable = table;
+      Value current = getLastUpdate();
+      if(current.equals(lastUpdate)) return;
+
+      log.info("Constructing participant identifier cache for keysValueTable: {}, ownerVariable: {}",
+          keysTable.getName(), ownerVariable.getName());
+      Identifiers loaded = new Identifiers();
+      VariableValueSource ownerVariableSource = keysTable.getVariableValueSource(ownerVariable.getName());
+      if(ownerVariableSource.supportVectorSource()) {
+        loadFromVector(loaded, ownerVariableSource.asVectorSource());
+      } else {
+        loadFromTable(loaded, ownerVariableSource);
+      }
+      identifiers = loaded;
+      lastUpdate = current;
+      log.debug("Cache constructed: {} identifiers", loaded.publicToPrivate.size());
+    }
+
+    private void loadFromTable(Identifiers loaded, @NotNull ValueSource ownerVariableSource) {
+      for(ValueSet valueSet : keysTable.getValueSets()) {
+        Value value = ownerVariableSource.getValue(valueSet);
+        // OPAL-619: The value could be null, in which case don't cache it. Whenever new participant
+        // data are imported, the key variable is written first and its corresponding VariableValueSource
+        // is added *without a value* (see DefaultImportService.createKeyVariable()). The key variable's
+        // value is written afterwards, in the process of copying the participant data to the destination
+        // datasource. Also, more obviously, it is not necessarily the case that all value sets have a value
+        // for all key variables.
+        if(!value.isNull()) {
+          loaded.put(valueSet.getVariableEntity().getIdentifier(), value.toString());
+        }
+      }
+    }
+
+    private void loadFromVector(Identifiers loaded, @NotNull VectorSource vs) {
+      SortedSet<VariableEntity> entities = new TreeSet<>(keysTable.getVariableEntities());
+      Iterator<Value> values = vs.getValues(entities).iterator();
+      for(VariableEntity opalEntity : entities) {
+        Value value = values.next();
+        if(!value.isNull()) {
+          loaded.put(opalEntity.getIdentifier(), value.toString());
+        }
+      }
+    }
+  }
+
+  private static class Identifiers {
+
+    private final ConcurrentMap<String, String> publicToPrivate = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, String> privateToPublic = new ConcurrentHashMap<>();
+
+    private void put(String publicIdentifier, String privateIdentifier) {
+      publicToPrivate.put(publicIdentifier, privateIdentifier);
+      privateToPublic.put(privateIdentifier, publicIdentifier);
+    }
+  }
+
+}
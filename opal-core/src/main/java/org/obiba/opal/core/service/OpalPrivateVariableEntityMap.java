@@ -10,34 +10,42 @@
 package org.obiba.opal.core.service;
 
 import java.util.Iterator;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
 import org.obiba.magma.Value;
-import org.obiba.magma.ValueSet;
-import org.obiba.magma.ValueSource;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.ValueTableWriter;
 import org.obiba.magma.ValueTableWriter.ValueSetWriter;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
-import org.obiba.magma.VariableValueSource;
-import org.obiba.magma.VectorSource;
 import org.obiba.magma.support.VariableEntityBean;
 import org.obiba.magma.type.TextType;
 import org.obiba.opal.core.identifiers.IdentifierGenerator;
 import org.obiba.opal.core.magma.PrivateVariableEntityMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
- * An Opal implementation of {@code PrivateVariableEntityMap}, on top of a Magma {@code ValueTable}.
+ * An Opal implementation of {@code PrivateVariableEntityMap}, on top of a Magma {@code ValueTable}. The identifiers
+ * are looked up in a mapping shared by all the entity maps of the same identifiers table and variable (see
+ * {@link IdentifiersMappingCache}).
+ * <p/>
+ * The identifiers created in a transaction are published in the shared mapping once the transaction is committed;
+ * until then they are only looked up by this entity map.
  */
 public class OpalPrivateVariableEntityMap implements PrivateVariableEntityMap {
 
@@ -53,25 +61,31 @@ public class OpalPrivateVariableEntityMap implements PrivateVariableEntityMap {
   private final IdentifierGenerator participantIdentifier;
 
   @NotNull
-  private final BiMap<VariableEntity, VariableEntity> publicToPrivate = HashBiMap.create();
+  private final IdentifiersMappingCache.Mapping mapping;
+
+  // identifiers written by this entity map and not published yet
+  private final ConcurrentMap<String, String> pendingPublicToPrivate = Maps.newConcurrentMap();
+
+  private final ConcurrentMap<String, String> pendingPrivateToPublic = Maps.newConcurrentMap();
 
   public OpalPrivateVariableEntityMap(@NotNull ValueTable keysValueTable, @NotNull Variable ownerVariable,
-      @NotNull IdentifierGenerator participantIdentifier) {
+      @NotNull IdentifierGenerator participantIdentifier, @NotNull IdentifiersMappingCache identifiersMappingCache) {
     Assert.notNull(keysValueTable, "keysValueTable cannot be null");
     Assert.notNull(ownerVariable, "ownerVariable cannot be null");
     Assert.notNull(participantIdentifier, "participantIdentifier cannot be null");
+    Assert.notNull(identifiersMappingCache, "identifiersMappingCache cannot be null");
 
     this.keysValueTable = keysValueTable;
     this.ownerVariable = ownerVariable;
     this.participantIdentifier = participantIdentifier;
 
-    constructCache();
+    mapping = identifiersMappingCache.get(keysValueTable, ownerVariable);
   }
 
   @Override
   public VariableEntity publicEntity(@NotNull VariableEntity privateEntity) {
     Assert.notNull(privateEntity, "privateEntity cannot be null");
-    VariableEntity entity = publicToPrivate.inverse().get(privateEntity);
+    VariableEntity entity = entityFor(getPublicIdentifier(privateEntity.getIdentifier()));
     log.debug("({}) <--> {}", privateEntity.getIdentifier(), entity == null ? null : entity.getIdentifier());
     return entity;
   }
@@ -79,7 +93,7 @@ public class OpalPrivateVariableEntityMap implements PrivateVariableEntityMap {
   @Override
   public VariableEntity privateEntity(@NotNull VariableEntity publicEntity) {
     Assert.notNull(publicEntity, "publicEntity cannot be null");
-    VariableEntity entity = publicToPrivate.get(publicEntity);
+    VariableEntity entity = entityFor(getPrivateIdentifier(publicEntity.getIdentifier()));
     log.debug("{} <--> ({})", publicEntity.getIdentifier(), entity == null ? null : entity.getIdentifier());
     return entity;
   }
@@ -87,25 +101,25 @@ public class OpalPrivateVariableEntityMap implements PrivateVariableEntityMap {
   @Override
   public boolean hasPrivateEntity(@NotNull VariableEntity privateEntity) {
     Assert.notNull(privateEntity, "privateEntity cannot be null");
-    return publicToPrivate.inverse().containsKey(privateEntity);
+    return getPublicIdentifier(privateEntity.getIdentifier()) != null;
   }
 
   @Override
   public boolean hasPublicEntity(@NotNull VariableEntity publicEntity) {
     Assert.notNull(publicEntity, "publicEntity cannot be null");
-    return publicToPrivate.containsKey(publicEntity);
+    return getPrivateIdentifier(publicEntity.getIdentifier()) != null;
   }
 
   @Override
   public VariableEntity createPrivateEntity(@NotNull VariableEntity publicEntity) {
     Assert.notNull(publicEntity, "publicEntity cannot be null");
-    for(int i = 0; i < 100; i++) {
-      VariableEntity privateEntity = entityFor(participantIdentifier.generateIdentifier());
-      if(!publicToPrivate.inverse().containsKey(privateEntity)) {
-        writeEntities(keysValueTable, publicEntity, privateEntity);
-        log.debug("{} <--> ({}) added", publicEntity.getIdentifier(), privateEntity.getIdentifier());
-        publicToPrivate.put(entityFor(publicEntity.getIdentifier()), privateEntity);
-        return privateEntity;
+    synchronized(mapping) {
+      for(int i = 0; i < 100; i++) {
+        VariableEntity privateEntity = entityFor(participantIdentifier.generateIdentifier());
+        if(!mapping.isPrivateIdentifierTaken(privateEntity.getIdentifier())) {
+          writeEntities(ImmutableMap.of(publicEntity, privateEntity));
+          return privateEntity;
+        }
       }
     }
     throw new IllegalStateException(
@@ -116,12 +130,13 @@ public class OpalPrivateVariableEntityMap implements PrivateVariableEntityMap {
   @Override
   public VariableEntity createPublicEntity(@NotNull VariableEntity privateEntity) {
     Assert.notNull(privateEntity, "privateEntity cannot be null");
-    for(int i = 0; i < 100; i++) {
-      VariableEntity publicEntity = entityFor(participantIdentifier.generateIdentifier());
-      if(!publicToPrivate.containsKey(publicEntity)) {
-        writeEntities(keysValueTable, publicEntity, privateEntity);
-        publicToPrivate.put(publicEntity, entityFor(privateEntity.getIdentifier()));
-        return publicEntity;
+    synchronized(mapping) {
+      for(int i = 0; i < 100; i++) {
+        VariableEntity publicEntity = entityFor(participantIdentifier.generateIdentifier());
+        if(!mapping.isPublicIdentifierTaken(publicEntity.getIdentifier())) {
+          writeEntities(ImmutableMap.of(publicEntity, privateEntity));
+          return publicEntity;
+        }
       }
     }
     throw new IllegalStateException(
@@ -129,56 +144,145 @@ public class OpalPrivateVariableEntityMap implements PrivateVariableEntityMap {
             privateEntity.getIdentifier() + "]. One hundred attempts made.");
   }
 
-  private void writeEntities(ValueTable keyTable, VariableEntity publicEntity, VariableEntity privateEntity) {
-    ValueTableWriter vtw = keyTable.getDatasource().createWriter(keyTable.getName(), keyTable.getEntityType());
-    ValueSetWriter vsw = vtw.writeValueSet(publicEntity);
-    vsw.writeValue(ownerVariable, TextType.get().valueOf(privateEntity.getIdentifier()));
-    vsw.close();
-    vtw.close();
-    log.debug("{} <--> ({}) added", publicEntity.getIdentifier(), privateEntity.getIdentifier());
+  @Override
+  public Map<VariableEntity, VariableEntity> createPublicEntities(@NotNull Iterable<VariableEntity> privateEntities,
+      int batchSize) {
+    Assert.notNull(privateEntities, "privateEntities cannot be null");
+    Map<VariableEntity, VariableEntity> publicEntities = Maps.newLinkedHashMap();
+    synchronized(mapping) {
+      for(List<VariableEntity> batch : Iterables.partition(privateEntities, batchSize)) {
+        // Map<PublicEntity, PrivateEntity>
+        Map<VariableEntity, VariableEntity> entities = Maps.newLinkedHashMap();
+        Iterator<String> identifiers = generateUniqueIdentifiers(batch.size(), true).iterator();
+        for(VariableEntity privateEntity : batch) {
+          VariableEntity publicEntity = entityFor(identifiers.next());
+          entities.put(publicEntity, privateEntity);
+          publicEntities.put(privateEntity, publicEntity);
+        }
+        writeEntities(entities);
+      }
+    }
+    return publicEntities;
   }
 
-  private VariableEntity entityFor(String identifier) {
-    return new VariableEntityBean(keysValueTable.getEntityType(), identifier);
+  @Override
+  public Map<VariableEntity, VariableEntity> createPrivateEntities(@NotNull Iterable<VariableEntity> publicEntities,
+      int batchSize) {
+    Assert.notNull(publicEntities, "publicEntities cannot be null");
+    Map<VariableEntity, VariableEntity> privateEntities = Maps.newLinkedHashMap();
+    synchronized(mapping) {
+      for(List<VariableEntity> batch : Iterables.partition(publicEntities, batchSize)) {
+        // Map<PublicEntity, PrivateEntity>
+        Map<VariableEntity, VariableEntity> entities = Maps.newLinkedHashMap();
+        Iterator<String> identifiers = generateUniqueIdentifiers(batch.size(), false).iterator();
+        for(VariableEntity publicEntity : batch) {
+          entities.put(publicEntity, entityFor(identifiers.next()));
+        }
+        writeEntities(entities);
+        privateEntities.putAll(entities);
+      }
+    }
+    return privateEntities;
   }
 
-  private void constructCache() {
-    log.info("Constructing participant identifier cache for keysValueTable: {}, ownerVariable: {}",
-        keysValueTable.getName(), ownerVariable.getName());
-    VariableValueSource ownerVariableSource = keysValueTable.getVariableValueSource(ownerVariable.getName());
-    if(ownerVariableSource.supportVectorSource()) {
-      constructCacheFromVector(keysValueTable, ownerVariableSource.asVectorSource());
-    } else {
-      constructCacheFromTable(keysValueTable, ownerVariableSource);
+  /**
+   * Reserve identifiers that are neither in the mapping nor duplicated.
+   *
+   * @param count
+   * @param publicIdentifiers whether the identifiers are public ones or private ones
+   * @return
+   */
+  private Set<String> generateUniqueIdentifiers(int count, boolean publicIdentifiers) {
+    Set<String> identifiers = Sets.newLinkedHashSetWithExpectedSize(count);
+    for(int i = 0; i < 100 && identifiers.size() < count; i++) {
+      for(String identifier : participantIdentifier.generateIdentifiers(count - identifiers.size())) {
+        boolean exists = publicIdentifiers
+            ? mapping.isPublicIdentifierTaken(identifier)
+            : mapping.isPrivateIdentifierTaken(identifier);
+        if(!exists) identifiers.add(identifier);
+      }
+    }
+    if(identifiers.size() < count) {
+      throw new IllegalStateException(
+          "Unable to generate " + count + " unique " + (publicIdentifiers ? "public" : "private") +
+              " entities for the owner [" + ownerVariable + "]. One hundred attempts made.");
     }
-    log.debug("Cache constructed: {}", publicToPrivate);
+    return identifiers;
   }
 
-  private void constructCacheFromTable(@NotNull ValueTable keyTable, @NotNull ValueSource ownerVariableSource) {
-    for(ValueSet valueSet : keyTable.getValueSets()) {
-      Value value = ownerVariableSource.getValue(valueSet);
-      // OPAL-619: The value could be null, in which case don't cache it. Whenever new participant
-      // data are imported, the key variable is written first and its corresponding VariableValueSource
-      // is added *without a value* (see DefaultImportService.createKeyVariable()). The key variable's
-      // value is written afterwards, in the process of copying the participant data to the destination
-      // datasource. Also, more obviously, it is not necessarily the case that all value sets have a value
-      // for all key variables.
-      if(!value.isNull()) {
-        log.debug("{} <--> ({}) cached", valueSet.getVariableEntity().getIdentifier(), value);
-        publicToPrivate.put(entityFor(valueSet.getVariableEntity().getIdentifier()), entityFor(value.toString()));
+  @Nullable
+  private String getPublicIdentifier(@NotNull String privateIdentifier) {
+    String publicIdentifier = pendingPrivateToPublic.get(privateIdentifier);
+    return publicIdentifier == null ? mapping.getPublicIdentifier(privateIdentifier) : publicIdentifier;
+  }
+
+  @Nullable
+  private String getPrivateIdentifier(@NotNull String publicIdentifier) {
+    String privateIdentifier = pendingPublicToPrivate.get(publicIdentifier);
+    return privateIdentifier == null ? mapping.getPrivateIdentifier(publicIdentifier) : privateIdentifier;
+  }
+
+  /**
+   * Write the entities pairs in the keys table with a single writer and reserve them in the mapping. They are
+   * published in the mapping after the current transaction is committed, or immediately if there is none.
+   *
+   * @param entities public entities and their private entity
+   */
+  private void writeEntities(Map<VariableEntity, VariableEntity> entities) {
+    Value updatedBefore = mapping.getLastUpdate();
+    try(ValueTableWriter vtw = keysValueTable.getDatasource()
+        .createWriter(keysValueTable.getName(), keysValueTable.getEntityType())) {
+      for(Map.Entry<VariableEntity, VariableEntity> entry : entities.entrySet()) {
+        try(ValueSetWriter vsw = vtw.writeValueSet(entry.getKey())) {
+          vsw.writeValue(ownerVariable, TextType.get().valueOf(entry.getValue().getIdentifier()));
+        }
       }
     }
+    final Map<String, String> written = Maps.newLinkedHashMap();
+    for(Map.Entry<VariableEntity, VariableEntity> entry : entities.entrySet()) {
+      String publicIdentifier = entry.getKey().getIdentifier();
+      String privateIdentifier = entry.getValue().getIdentifier();
+      mapping.reserve(publicIdentifier, privateIdentifier);
+      pendingPublicToPrivate.put(publicIdentifier, privateIdentifier);
+      pendingPrivateToPublic.put(privateIdentifier, publicIdentifier);
+      written.put(publicIdentifier, privateIdentifier);
+      log.debug("{} <--> ({}) added", publicIdentifier, privateIdentifier);
+    }
+    mapping.written(updatedBefore);
+
+    if(TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCompletion(int status) {
+          complete(written, status == STATUS_COMMITTED);
+        }
+      });
+    } else {
+      complete(written, true);
+    }
   }
 
-  private void constructCacheFromVector(@NotNull ValueTable keyTable, @NotNull VectorSource vs) {
-    SortedSet<VariableEntity> entities = new TreeSet<>(keyTable.getVariableEntities());
-    Iterator<Value> values = vs.getValues(entities).iterator();
-    for(VariableEntity opalEntity : entities) {
-      Value value = values.next();
-      if(!value.isNull()) {
-        log.debug("{} <--> ({}) cached", opalEntity.getIdentifier(), value);
-        publicToPrivate.put(entityFor(opalEntity.getIdentifier()), entityFor(value.toString()));
+  /**
+   * Publish the written identifiers pairs in the mapping, or release them if their write was rolled back.
+   *
+   * @param written public identifiers and their private identifier
+   * @param committed
+   */
+  private void complete(Map<String, String> written, boolean committed) {
+    for(Map.Entry<String, String> entry : written.entrySet()) {
+      if(committed) {
+        mapping.publish(entry.getKey(), entry.getValue());
+      } else {
+        mapping.release(entry.getKey(), entry.getValue());
       }
+      pendingPublicToPrivate.remove(entry.getKey());
+      pendingPrivateToPublic.remove(entry.getValue());
     }
   }
+
+  @Nullable
+  private VariableEntity entityFor(@Nullable String identifier) {
+    return identifier == null ? null : new VariableEntityBean(keysValueTable.getEntityType(), identifier);
+  }
+
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service;
+
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Maps the beans to the fields of OrientDB documents, and back, through the Gson tree model: the beans are bound field
+ * by field as with their JSON representation, without printing and parsing JSON strings.
+ */
+class OrientDbDocumentMapper {
+
+  private final String datePattern;
+
+  private final Gson gson;
+
+  OrientDbDocumentMapper(@NotNull String datePattern) {
+    this.datePattern = datePattern;
+    gson = new GsonBuilder().setDateFormat(datePattern).create();
+  }
+
+  /**
+   * Set the document fields from the bean properties. The document fields that have no value in the bean are left
+   * untouched.
+   *
+   * @param obj
+   * @param document
+   */
+  void toDocument(@NotNull Object obj, @NotNull ODocument document) {
+    JsonElement tree = gson.toJsonTree(obj);
+    if(!tree.isJsonObject()) throw new IllegalArgumentException("Cannot map to a document: " + obj);
+    for(Map.Entry<String, JsonElement> entry : tree.getAsJsonObject().entrySet()) {
+      document.field(entry.getKey(), toField(entry.getValue()));
+    }
+  }
+
+  @NotNull
+  <T> T fromDocument(@NotNull Class<T> clazz, @NotNull ODocument document) {
+    return gson.fromJson(toJsonObject(document), clazz);
+  }
+
+  @Nullable
+  private Object toField(JsonElement element) {
+    if(element.isJsonNull()) return null;
+    if(element.isJsonPrimitive()) {
+      JsonPrimitive primitive = element.getAsJsonPrimitive();
+      if(primitive.isBoolean()) return primitive.getAsBoolean();
+      if(primitive.isNumber()) return primitive.getAsNumber();
+      return primitive.getAsString();
+    }
+    if(element.isJsonArray()) {
+      List<Object> list = Lists.newArrayList();
+      for(JsonElement item : element.getAsJsonArray()) {
+        list.add(toField(item));
+      }
+      return list;
+    }
+    Map<String, Object> map = Maps.newLinkedHashMap();
+    for(Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+      map.put(entry.getKey(), toField(entry.getValue()));
+    }
+    return map;
+  }
+
+  private JsonObject toJsonObject(ODocument document) {
+    JsonObject object = new JsonObject();
+    for(String fieldName : document.fieldNames()) {
+      object.add(fieldName, toJsonElement(document.field(fieldName)));
+    }
+    return object;
+  }
+
+  private JsonElement toJsonElement(@Nullable Object value) {
+    if(value == null) return JsonNull.INSTANCE;
+    if(value instanceof String) return new JsonPrimitive((String) value);
+    if(value instanceof Number) return new JsonPrimitive((Number) value);
+    if(value instanceof Boolean) return new JsonPrimitive((Boolean) value);
+    if(value instanceof Enum) return new JsonPrimitive(((Enum<?>) value).name());
+    if(value instanceof Date) return new JsonPrimitive(new SimpleDateFormat(datePattern).format((Date) value));
+    if(value instanceof ODocument) return toJsonObject((ODocument) value);
+    if(value instanceof OIdentifiable) return new JsonPrimitive(((OIdentifiable) value).getIdentity().toString());
+    if(value instanceof Map) {
+      JsonObject object = new JsonObject();
+      for(Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        object.add(String.valueOf(entry.getKey()), toJsonElement(entry.getValue()));
+      }
+      return object;
+    }
+    if(value instanceof Collection) {
+      JsonArray array = new JsonArray();
+      for(Object item : (Collection<?>) value) {
+        array.add(toJsonElement(item));
+      }
+      return array;
+    }
+    return gson.toJsonTree(value);
+  }
+
+}
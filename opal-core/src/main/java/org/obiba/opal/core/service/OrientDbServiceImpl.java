@@ -19,8 +19,8 @@ import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -56,6 +56,8 @@ public class OrientDbServiceImpl implements OrientDbService {
 
   private final Gson gson = new GsonBuilder().setDateFormat(DATE_PATTERN).create();
 
+  private final OrientDbDocumentMapper documentMapper = new OrientDbDocumentMapper(DATE_PATTERN);
+
   @Override
   public <T> T execute(WithinDocumentTxCallback<T> callback) {
     ODatabaseDocumentTx db = serverFactory.getDocumentTx();
@@ -184,12 +186,18 @@ public class OrientDbServiceImpl implements OrientDbService {
 
   @Override
   public void copyToDocument(Object obj, ORecord<?> document) {
-    document.fromJSON(gson.toJson(obj));
+    if(document instanceof ODocument) {
+      documentMapper.toDocument(obj, (ODocument) document);
+    } else {
+      document.fromJSON(gson.toJson(obj));
+    }
   }
 
   @Override
   public <T> T fromDocument(Class<T> clazz, ORecord<?> document) {
-    return gson.fromJson(document.toJSON(), clazz);
+    return document instanceof ODocument
+        ? documentMapper.fromDocument(clazz, (ODocument) document)
+        : gson.fromJson(document.toJSON(), clazz);
   }
 
   @Override
@@ -217,13 +225,15 @@ public class OrientDbServiceImpl implements OrientDbService {
     }
   }
 
-  private <T> Iterable<T> fromDocuments(Iterable<ODocument> documents, final Class<T> clazz) {
-    return Iterables.transform(documents, new Function<ODocument, T>() {
-      @Override
-      public T apply(ODocument document) {
-        return fromDocument(clazz, document);
-      }
-    });
+  /**
+   * Map the documents once, while the database is open.
+   */
+  private <T> Iterable<T> fromDocuments(Iterable<ODocument> documents, Class<T> clazz) {
+    ImmutableList.Builder<T> beans = ImmutableList.builder();
+    for(ODocument document : documents) {
+      beans.add(fromDocument(clazz, document));
+    }
+    return beans.build();
   }
 
   @Override
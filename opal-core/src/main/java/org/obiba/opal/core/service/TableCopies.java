@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import org.obiba.opal.core.magma.concurrent.LockingActionTemplate.ActionRuntimeException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Execution of the copies of several tables, for imports and exports.
+ */
+final class TableCopies {
+
+  private TableCopies() {}
+
+  /**
+   * Execute independent table copies at once, with at most the given number of copies at a time. The first copy failure
+   * is thrown once the previous copies are done; the pending copies are then interrupted.
+   *
+   * @param copies
+   * @param concurrency
+   * @param txTemplate when not null, each copy is executed in its own transaction
+   * @throws Exception
+   */
+  static void executeConcurrently(@NotNull Iterable<Callable<Void>> copies, int concurrency,
+      @Nullable final TransactionTemplate txTemplate) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    try {
+      List<Future<Void>> futures = Lists.newArrayList();
+      for(final Callable<Void> copy : copies) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            return txTemplate == null ? copy.call() : executeInTransaction(txTemplate, copy);
+          }
+        }));
+      }
+      for(Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch(ExecutionException e) {
+          if(e.getCause() instanceof Exception) throw (Exception) e.getCause();
+          throw new ActionRuntimeException(e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Execute in a transaction, that is rolled back if an exception is thrown.
+   *
+   * @param txTemplate
+   * @param callable
+   * @param <T>
+   * @return
+   * @throws Exception the exception thrown by the callable
+   */
+  static <T> T executeInTransaction(@NotNull TransactionTemplate txTemplate, @NotNull final Callable<T> callable)
+      throws Exception {
+    try {
+      return txTemplate.execute(new TransactionCallback<T>() {
+        @Override
+        public T doInTransaction(TransactionStatus status) {
+          try {
+            return callable.call();
+          } catch(Exception ex) {
+            throw new ActionRuntimeException(ex);
+          }
+        }
+      });
+    } catch(ActionRuntimeException ex) {
+      throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+    }
+  }
+
+}
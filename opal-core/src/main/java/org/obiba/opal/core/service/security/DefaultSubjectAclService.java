@@ -18,7 +18,6 @@ import java.util.TreeSet;
 import javax.annotation.PostConstruct;
 import javax.validation.constraints.NotNull;
 
-import org.obiba.opal.core.domain.HasUniqueProperties;
 import org.obiba.opal.core.domain.security.SubjectAcl;
 import org.obiba.opal.core.service.OrientDbService;
 import org.slf4j.Logger;
@@ -47,6 +46,8 @@ public class DefaultSubjectAclService implements SubjectAclService {
 
   private final Set<SubjectAclChangeCallback> callbacks = Sets.newHashSet();
 
+  private final SubjectAclStore store = new SubjectAclStore();
+
   @Autowired
   private OrientDbService orientDbService;
 
@@ -58,6 +59,11 @@ public class DefaultSubjectAclService implements SubjectAclService {
     orientDbService.createIndex(SubjectAcl.class, INDEX_TYPE.NOTUNIQUE, OType.STRING, "node");
     orientDbService.createIndex(SubjectAcl.class, INDEX_TYPE.NOTUNIQUE, OType.STRING, "principal");
     orientDbService.createIndex(SubjectAcl.class, INDEX_TYPE.NOTUNIQUE, OType.STRING, "type");
+    store.clear();
+    for(SubjectAcl acl : orientDbService.list(SubjectAcl.class)) {
+      store.add(acl);
+    }
+    log.debug("ACLs loaded");
   }
 
   @Override
@@ -72,9 +78,11 @@ public class DefaultSubjectAclService implements SubjectAclService {
 
   @Override
   public void deleteNodePermissions(String node) {
-    Iterable<SubjectAcl> subjectAcls = orientDbService
-        .list(SubjectAcl.class, "select from " + SubjectAcl.class.getSimpleName() + " where node = ? or node like ?",
-            node, node + "/%");
+    List<SubjectAcl> subjectAcls = Lists.newArrayList();
+    for(String domain : store.getDomains()) {
+      Iterables.addAll(subjectAcls, find(domain, node));
+      Iterables.addAll(subjectAcls, findLike(domain, node + "/"));
+    }
     Set<Subject> subjects = Sets.newTreeSet();
     for(SubjectAcl acl : subjectAcls) {
       subjects.add(acl.getSubject());
@@ -85,6 +93,7 @@ public class DefaultSubjectAclService implements SubjectAclService {
 
   private void delete(SubjectAcl acl) {
     orientDbService.delete(acl);
+    store.remove(acl);
   }
 
   @Override
@@ -136,8 +145,9 @@ public class DefaultSubjectAclService implements SubjectAclService {
   public void addSubjectPermission(String domain, String node, @NotNull Subject subject, @NotNull String permission) {
     Assert.notNull(subject, "subject cannot be null");
     Assert.notNull(permission, "permission cannot be null");
-    HasUniqueProperties acl = new SubjectAcl(domain, node, subject, permission);
+    SubjectAcl acl = new SubjectAcl(domain, node, subject, permission);
     orientDbService.save(acl, acl);
+    store.add(acl);
     notifyListeners(subject);
   }
 
@@ -195,53 +205,39 @@ public class DefaultSubjectAclService implements SubjectAclService {
   }
 
   private Iterable<SubjectAcl> find(Subject subject) {
-    return orientDbService
-        .list(SubjectAcl.class, "select from " + SubjectAcl.class.getSimpleName() + " where principal = ? and type = ?",
-            subject.getPrincipal(), subject.getType());
+    return store.find(subject);
   }
 
   private Iterable<SubjectAcl> find(String domain, String node, SubjectType type) {
-    return orientDbService.list(SubjectAcl.class,
-        "select from " + SubjectAcl.class.getSimpleName() + " where domain = ? and node = ? and type = ?", domain, node,
-        type);
+    return store.find(domain, node, type, null);
   }
 
   private Iterable<SubjectAcl> findLike(String domain, String node, SubjectType type) {
-    return orientDbService.list(SubjectAcl.class,
-        "select from " + SubjectAcl.class.getSimpleName() + " where domain = ? and node like ? and type = ?", domain,
-        node + "%", type);
+    return store.findLike(domain, node, type, null);
   }
 
   private Iterable<SubjectAcl> find(String domain, SubjectType type) {
-    return orientDbService
-        .list(SubjectAcl.class, "select from " + SubjectAcl.class.getSimpleName() + " where domain = ? and type = ?",
-            domain, type);
+    return store.find(domain, type);
   }
 
   private Iterable<SubjectAcl> find(String domain, String node, Subject subject) {
-    return orientDbService.list(SubjectAcl.class, "select from " + SubjectAcl.class.getSimpleName() +
-        " where domain = ? and node = ? and principal = ? and type = ?", domain, node, subject.getPrincipal(),
-        subject.getType());
+    return store.find(domain, node, subject.getType(), subject.getPrincipal());
   }
 
   private Iterable<SubjectAcl> findLike(String domain, String node, Subject subject) {
-    return orientDbService.list(SubjectAcl.class, "select from " + SubjectAcl.class.getSimpleName() +
-        " where domain = ? and node like ? and principal = ? and type = ?", domain, node + "%", subject.getPrincipal(),
-        subject.getType());
+    return store.findLike(domain, node, subject.getType(), subject.getPrincipal());
   }
 
   private Iterable<SubjectAcl> find(String domain, String node) {
-    return orientDbService.list(SubjectAcl.class, "select from " + SubjectAcl.class.getSimpleName() +
-        " where domain = ? and node = ?", domain, node);
+    return store.find(domain, node, null, null);
   }
 
   private Iterable<SubjectAcl> findLike(String domain, String node) {
-    return orientDbService.list(SubjectAcl.class, "select from " + SubjectAcl.class.getSimpleName() +
-        " where domain = ? and node like ?", domain, node + "%");
+    return store.findLike(domain, node, null, null);
   }
 
   private SubjectAcl find(String domain, String node, Subject subject, String permission) {
-    return orientDbService.findUnique(new SubjectAcl(domain, node, subject, permission));
+    return store.findUnique(new SubjectAcl(domain, node, subject, permission));
   }
 
   @Override
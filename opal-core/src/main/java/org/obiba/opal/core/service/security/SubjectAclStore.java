@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service.security;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import org.obiba.opal.core.domain.security.SubjectAcl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import static org.obiba.opal.core.domain.security.SubjectAcl.Subject;
+import static org.obiba.opal.core.domain.security.SubjectAcl.SubjectType;
+
+/**
+ * In-memory copy of the {@link SubjectAcl}s, for answering the queries without the database. In each domain, the ACLs
+ * are sorted by node so that the queries on a node and on its descendants are range lookups; they are also indexed by
+ * subject.
+ * <p/>
+ * Reads are not blocking. Writes are serialized, and must be done once the ACLs are persisted.
+ */
+class SubjectAclStore {
+
+  private static final char SEPARATOR = '\u0000';
+
+  private static final char MAX_CHAR = '\uffff';
+
+  // Map<Domain, SortedMap<Node + Type + Principal + Permission, SubjectAcl>>
+  private final ConcurrentMap<String, ConcurrentNavigableMap<String, SubjectAcl>> aclsByDomain = Maps
+      .newConcurrentMap();
+
+  private final ConcurrentMap<Subject, Set<SubjectAcl>> aclsBySubject = Maps.newConcurrentMap();
+
+  synchronized void add(@NotNull SubjectAcl acl) {
+    ConcurrentNavigableMap<String, SubjectAcl> acls = aclsByDomain.get(acl.getDomain());
+    if(acls == null) {
+      acls = new ConcurrentSkipListMap<>();
+      aclsByDomain.put(acl.getDomain(), acls);
+    }
+    acls.put(getKey(acl), acl);
+
+    Set<SubjectAcl> subjectAcls = aclsBySubject.get(acl.getSubject());
+    if(subjectAcls == null) {
+      subjectAcls = Sets.newConcurrentHashSet();
+      aclsBySubject.put(acl.getSubject(), subjectAcls);
+    }
+    subjectAcls.add(acl);
+  }
+
+  synchronized void remove(@NotNull SubjectAcl acl) {
+    ConcurrentNavigableMap<String, SubjectAcl> acls = aclsByDomain.get(acl.getDomain());
+    if(acls != null) acls.remove(getKey(acl));
+    Set<SubjectAcl> subjectAcls = aclsBySubject.get(acl.getSubject());
+    if(subjectAcls != null) subjectAcls.remove(acl);
+  }
+
+  synchronized void clear() {
+    aclsByDomain.clear();
+    aclsBySubject.clear();
+  }
+
+  /**
+   * @return the domains having ACLs
+   */
+  Iterable<String> getDomains() {
+    return ImmutableList.copyOf(aclsByDomain.keySet());
+  }
+
+  Iterable<SubjectAcl> find(@NotNull Subject subject) {
+    Set<SubjectAcl> subjectAcls = aclsBySubject.get(subject);
+    return subjectAcls == null ? ImmutableList.<SubjectAcl>of() : ImmutableList.copyOf(subjectAcls);
+  }
+
+  Iterable<SubjectAcl> find(@NotNull String domain, @Nullable SubjectType type) {
+    ConcurrentNavigableMap<String, SubjectAcl> acls = aclsByDomain.get(domain);
+    return acls == null ? ImmutableList.<SubjectAcl>of() : filter(acls.values(), type, null);
+  }
+
+  /**
+   * Find the ACLs on a node.
+   */
+  Iterable<SubjectAcl> find(@NotNull String domain, @NotNull String node, @Nullable SubjectType type,
+      @Nullable String principal) {
+    // narrow the range to the subject when possible
+    StringBuilder keyPrefix = new StringBuilder(node).append(SEPARATOR);
+    if(type != null) {
+      keyPrefix.append(type).append(SEPARATOR);
+      if(principal != null) keyPrefix.append(principal).append(SEPARATOR);
+    }
+    return findByKeyPrefix(domain, keyPrefix.toString(), type, principal);
+  }
+
+  /**
+   * Find the ACLs on the nodes starting with a prefix.
+   */
+  Iterable<SubjectAcl> findLike(@NotNull String domain, @NotNull String nodePrefix, @Nullable SubjectType type,
+      @Nullable String principal) {
+    return findByKeyPrefix(domain, nodePrefix, type, principal);
+  }
+
+  @Nullable
+  SubjectAcl findUnique(@NotNull SubjectAcl template) {
+    ConcurrentNavigableMap<String, SubjectAcl> acls = aclsByDomain.get(template.getDomain());
+    return acls == null ? null : acls.get(getKey(template));
+  }
+
+  private Iterable<SubjectAcl> findByKeyPrefix(String domain, String keyPrefix, @Nullable SubjectType type,
+      @Nullable String principal) {
+    ConcurrentNavigableMap<String, SubjectAcl> acls = aclsByDomain.get(domain);
+    if(acls == null) return ImmutableList.of();
+    return filter(acls.subMap(keyPrefix, true, keyPrefix + MAX_CHAR, true).values(), type, principal);
+  }
+
+  private Iterable<SubjectAcl> filter(Collection<SubjectAcl> acls, @Nullable SubjectType type,
+      @Nullable String principal) {
+    List<SubjectAcl> filtered = Lists.newArrayList();
+    for(SubjectAcl acl : acls) {
+      if((type == null || type == acl.getType()) && (principal == null || principal.equals(acl.getPrincipal()))) {
+        filtered.add(acl);
+      }
+    }
+    return filtered;
+  }
+
+  private String getKey(SubjectAcl acl) {
+    return acl.getNode() + SEPARATOR + acl.getType() + SEPARATOR + acl.getPrincipal() + SEPARATOR +
+        acl.getPermission();
+  }
+
+}
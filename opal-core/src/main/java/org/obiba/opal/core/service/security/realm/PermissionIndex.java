@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service.security.realm;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.permission.PermissionResolver;
+
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The permissions of a subject, resolved once and indexed by their node path (i.e. "rest:/datasource/ds/table/t:GET"
+ * is indexed under datasource > ds > table > t).
+ * <p/>
+ * A spatial permission can only imply a permission on a related node: an ancestor, a descendant or a node which path
+ * differs by the plural form of an element (see {@link SpatialRealm.RestSpace}). So a permission check only evaluates
+ * the permissions found along the requested path, below it and below its plural forms, instead of all the subject
+ * permissions. The results of the checks are memoized.
+ */
+class PermissionIndex {
+
+  private static final char PARTS_SEPARATOR = ':';
+
+  private static final Splitter PATH_SPLITTER = Splitter.on('/').omitEmptyStrings();
+
+  private static final int MAX_RESULTS = 10000;
+
+  private final Map<String, Node> spaces = Maps.newHashMap();
+
+  // permissions that are not on a node
+  private final List<Permission> others = Lists.newArrayList();
+
+  private final List<Permission> permissions = Lists.newArrayList();
+
+  private final PermissionResolver permissionResolver;
+
+  private final Cache<String, Boolean> results = CacheBuilder.newBuilder().maximumSize(MAX_RESULTS).build();
+
+  PermissionIndex(@NotNull Iterable<String> stringPermissions, @NotNull PermissionResolver permissionResolver) {
+    this.permissionResolver = permissionResolver;
+    for(String stringPermission : stringPermissions) {
+      Permission permission = permissionResolver.resolvePermission(stringPermission);
+      permissions.add(permission);
+      String space = getSpace(stringPermission);
+      String path = getPath(stringPermission);
+      if(space == null || path == null) {
+        others.add(permission);
+      } else {
+        Node node = spaces.get(space);
+        if(node == null) {
+          node = new Node();
+          spaces.put(space, node);
+        }
+        for(String element : PATH_SPLITTER.split(path)) {
+          node = node.getOrCreateChild(element);
+        }
+        node.permissions.add(permission);
+      }
+    }
+  }
+
+  /**
+   * @return all the permissions, resolved
+   */
+  @NotNull
+  Collection<Permission> getPermissions() {
+    return permissions;
+  }
+
+  /**
+   * Check if the requested permission is implied by one of the indexed permissions.
+   *
+   * @param stringPermission
+   * @return
+   */
+  boolean isPermitted(@NotNull String stringPermission) {
+    Boolean permitted = results.getIfPresent(stringPermission);
+    if(permitted == null) {
+      Permission permission = permissionResolver.resolvePermission(stringPermission);
+      permitted = false;
+      for(Permission candidate : getCandidates(stringPermission)) {
+        if(candidate.implies(permission)) {
+          permitted = true;
+          break;
+        }
+      }
+      results.put(stringPermission, permitted);
+    }
+    return permitted;
+  }
+
+  private Iterable<Permission> getCandidates(String stringPermission) {
+    String space = getSpace(stringPermission);
+    String path = getPath(stringPermission);
+    if(space == null || path == null) return permissions;
+
+    List<Permission> candidates = Lists.newArrayList(others);
+    Node node = spaces.get(space);
+    for(String element : PATH_SPLITTER.split(path)) {
+      if(node == null) break;
+      // ancestors
+      candidates.addAll(node.permissions);
+      // plural forms, and their descendants
+      for(Node related : node.getPluralFormChildren(element)) {
+        related.addAllPermissions(candidates);
+      }
+      node = node.children.get(element);
+    }
+    // the node itself and its descendants
+    if(node != null) node.addAllPermissions(candidates);
+    return candidates;
+  }
+
+  @Nullable
+  private static String getSpace(String stringPermission) {
+    int idx = stringPermission.indexOf(PARTS_SEPARATOR);
+    return idx < 0 ? null : stringPermission.substring(0, idx);
+  }
+
+  @Nullable
+  private static String getPath(String stringPermission) {
+    int start = stringPermission.indexOf(PARTS_SEPARATOR);
+    if(start < 0 || start + 1 >= stringPermission.length() || stringPermission.charAt(start + 1) != '/') return null;
+    int end = stringPermission.indexOf(PARTS_SEPARATOR, start + 1);
+    return end < 0 ? stringPermission.substring(start + 1) : stringPermission.substring(start + 1, end);
+  }
+
+  private static class Node {
+
+    private final Map<String, Node> children = Maps.newHashMap();
+
+    private final List<Permission> permissions = Lists.newArrayList();
+
+    private Node getOrCreateChild(String element) {
+      Node child = children.get(element);
+      if(child == null) {
+        child = new Node();
+        children.put(element, child);
+      }
+      return child;
+    }
+
+    private Iterable<Node> getPluralFormChildren(String element) {
+      Node plural = children.get(element + 's');
+      Node singular = element.endsWith("s") ? children.get(element.substring(0, element.length() - 1)) : null;
+      if(plural == null) return singular == null ? ImmutableList.<Node>of() : ImmutableList.of(singular);
+      return singular == null ? ImmutableList.of(plural) : ImmutableList.of(plural, singular);
+    }
+
+    private void addAllPermissions(Collection<Permission> collected) {
+      collected.addAll(permissions);
+      for(Node child : children.values()) {
+        child.addAllPermissions(collected);
+      }
+    }
+  }
+
+}
@@ -11,7 +11,9 @@ package org.obiba.opal.core.service.security.realm;
 
 import java.util.Collection;
 
+import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
+import javax.validation.constraints.NotNull;
 
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationInfo;
@@ -19,6 +21,7 @@ import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.authz.AuthorizationInfo;
 import org.apache.shiro.authz.Permission;
 import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.authz.permission.PermissionResolver;
 import org.apache.shiro.authz.permission.RolePermissionResolver;
 import org.apache.shiro.cache.Cache;
 import org.apache.shiro.cache.CacheManager;
@@ -130,11 +133,38 @@ public class SpatialRealm extends AuthorizingRealm implements RolePermissionReso
   protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
     Iterable<String> perms = loadSubjectPermissions(principals);
     if(perms == null) return null;
-    SimpleAuthorizationInfo sai = new SimpleAuthorizationInfo();
+    SubjectAuthorizationInfo sai = new SubjectAuthorizationInfo();
     sai.setStringPermissions(ImmutableSet.copyOf(perms));
     return sai;
   }
 
+  /**
+   * Overridden to look up the subject permissions index instead of resolving and evaluating all of them.
+   */
+  @Override
+  public boolean isPermitted(PrincipalCollection principals, String permission) {
+    AuthorizationInfo info = getAuthorizationInfo(principals);
+    if(info instanceof SubjectAuthorizationInfo) {
+      return ((SubjectAuthorizationInfo) info).getIndex(getPermissionResolver()).isPermitted(permission);
+    }
+    return super.isPermitted(principals, permission);
+  }
+
+  /**
+   * Overridden to evaluate the subject permissions that were already resolved.
+   */
+  @Override
+  public boolean isPermitted(PrincipalCollection principals, Permission permission) {
+    AuthorizationInfo info = getAuthorizationInfo(principals);
+    if(info instanceof SubjectAuthorizationInfo) {
+      for(Permission perm : ((SubjectAuthorizationInfo) info).getIndex(getPermissionResolver()).getPermissions()) {
+        if(perm.implies(permission)) return true;
+      }
+      return false;
+    }
+    return super.isPermitted(principals, permission);
+  }
+
   @Override
   protected Object getAuthorizationCacheKey(PrincipalCollection principals) {
     return getSubject(principals);
@@ -157,6 +187,29 @@ public class SpatialRealm extends AuthorizingRealm implements RolePermissionReso
     return SubjectType.USER.subjectFor(principals.getPrimaryPrincipal().toString());
   }
 
+  /**
+   * Authorization info that holds the index of the subject permissions, built on first use. The index is not
+   * serialized with the cached authorization info: it is rebuilt from the string permissions.
+   */
+  private static class SubjectAuthorizationInfo extends SimpleAuthorizationInfo {
+
+    private static final long serialVersionUID = 2784236498271263548L;
+
+    @Nullable
+    private transient volatile PermissionIndex index;
+
+    @NotNull
+    private PermissionIndex getIndex(PermissionResolver permissionResolver) {
+      PermissionIndex permissionIndex = index;
+      if(permissionIndex == null) {
+        Collection<String> perms = getStringPermissions();
+        permissionIndex = new PermissionIndex(perms == null ? ImmutableSet.<String>of() : perms, permissionResolver);
+        index = permissionIndex;
+      }
+      return permissionIndex;
+    }
+  }
+
   private final class GroupPermissionResolver implements RolePermissionResolver {
 
     @Override
@@ -1,18 +1,8 @@
 package org.obiba.opal.core.service.summary;
 
-import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-
 import javax.validation.constraints.NotNull;
 
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.Ehcache;
-import net.sf.ehcache.Element;
-
 import org.obiba.magma.AttributeAware;
-import org.obiba.magma.Timestamped;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
@@ -29,7 +19,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.StringUtils;
 
-import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
 
 import static org.obiba.magma.math.summary.AbstractVariableSummary.VariableSummaryBuilder;
 
@@ -40,51 +30,33 @@ public abstract class AbstractVariableSummaryCachedService< //
 
   private static final Logger log = LoggerFactory.getLogger(AbstractVariableSummaryCachedService.class);
 
-  // Map<TableReference, Map<VariableName, TVariableSummaryBuilder>>
-  private final Map<String, Map<String, TVariableSummaryBuilder>> summaryBuilders = Collections
-      .synchronizedMap(new HashMap<String, Map<String, TVariableSummaryBuilder>>());
-
   @NotNull
-  protected abstract Cache getCache();
+  protected abstract VariableSummaryStore getStore();
 
   @NotNull
   protected abstract TVariableSummaryBuilder newVariableSummaryBuilder(@NotNull Variable variable);
 
-  @NotNull
-  protected TVariableSummaryBuilder getSummaryBuilder(@NotNull ValueTable valueTable, @NotNull Variable variable) {
-    Map<String, TVariableSummaryBuilder> buildersByVariable = summaryBuilders.get(valueTable.getTableReference());
-    if(buildersByVariable == null) {
-      buildersByVariable = Maps.newHashMap();
-      summaryBuilders.put(valueTable.getTableReference(), buildersByVariable);
-    }
-    TVariableSummaryBuilder builder = buildersByVariable.get(variable.getName());
-    if(builder == null) {
-      builder = newVariableSummaryBuilder(variable);
-      buildersByVariable.put(variable.getName(), builder);
-    }
-    return builder;
-  }
-
-  private Iterable<TVariableSummaryBuilder> getSummaryBuilders(@NotNull ValueTable valueTable) {
-    Map<String, TVariableSummaryBuilder> buildersByVariable = summaryBuilders.get(valueTable.getTableReference());
-    return buildersByVariable == null ? Collections.<TVariableSummaryBuilder>emptyList() : buildersByVariable.values();
-  }
-
-  protected void computeAndCacheSummaries(ValueTable table) {
-    Cache cache = getCache();
-    Iterable<TVariableSummaryBuilder> variableSummaryBuilders = getSummaryBuilders(table);
-    for(TVariableSummaryBuilder summaryBuilder : variableSummaryBuilders) {
-      String variableName = summaryBuilder.getVariable().getName();
-      log.debug("Compute {} summary", variableName);
-      TVariableSummary summary = summaryBuilder.build();
-      String key = summary.getCacheKey(table);
-      log.trace("Cache {} {} summary with key '{}'", variableName, getSummaryType(summary), key);
-      cache.put(new Element(key, summary));
+  /**
+   * Compute the summary of a variable from the frequencies of its values and cache it.
+   *
+   * @param table
+   * @param variable
+   * @param values
+   */
+  protected void computeAndCacheSummary(@NotNull ValueTable table, @NotNull Variable variable,
+      @NotNull Multiset<Value> values) {
+    String variableName = variable.getName();
+    log.debug("Compute {} summary", variableName);
+    TVariableSummaryBuilder summaryBuilder = newVariableSummaryBuilder(variable);
+    for(Multiset.Entry<Value> entry : values.entrySet()) {
+      for(int i = 0; i < entry.getCount(); i++) {
+        summaryBuilder.addValue(entry.getElement());
+      }
     }
-  }
-
-  protected void clearComputingSummaries(@NotNull ValueTable valueTable) {
-    summaryBuilders.remove(valueTable.getTableReference());
+    TVariableSummary summary = summaryBuilder.build();
+    String key = summary.getCacheKey(table);
+    log.trace("Cache {} {} summary with key '{}'", variableName, getSummaryType(summary), key);
+    getStore().put(table, key, summary);
   }
 
   @NotNull
@@ -109,7 +81,7 @@ public abstract class AbstractVariableSummaryCachedService< //
 
   public boolean isSummaryCached(@NotNull TVariableSummaryFactory summaryFactory) {
     String key = summaryFactory.getCacheKey();
-    boolean inCache = getCache().get(key) != null;
+    boolean inCache = getStore().contains(summaryFactory.getTable(), key);
     log.trace("{} summary {} cache {} ({})", StringUtils.capitalize(getSummaryType(summaryFactory)),
         inCache ? "IN" : "NOT IN", summaryFactory.getVariable().getName(), key);
     return inCache;
@@ -121,47 +93,35 @@ public abstract class AbstractVariableSummaryCachedService< //
   }
 
   private void clearVariableSummaryCache(@NotNull TVariableSummaryFactory summaryFactory) {
-    Cache cache = getCache();
-    String key = summaryFactory.getCacheKey();
-    cache.remove(key);
+    getStore().remove(summaryFactory.getTable(), summaryFactory.getCacheKey());
   }
 
+  /**
+   * The table timestamp is part of the store key: a summary of a table that was updated since is not found.
+   */
   @SuppressWarnings("unchecked")
   private TVariableSummary getCached(TVariableSummaryFactory summaryFactory) {
-    Cache cache = getCache();
     String key = summaryFactory.getCacheKey();
-    Element element = cache.get(key);
+    TVariableSummary summary = (TVariableSummary) getStore().get(summaryFactory.getTable(), key);
     String variableName = summaryFactory.getVariable().getName();
 
     String summaryType = getSummaryType(summaryFactory);
-    if(element == null) {
+    if(summary == null) {
       log.debug("No {} summary in cache for {} ({})", summaryType, variableName, key);
-      return cacheSummary(summaryFactory, cache, key);
-    }
-
-    // check timestamps
-    if(isCacheObsolete(element, summaryFactory.getTable())) {
-      log.trace("Cache is obsolete for {} ({})", variableName, key);
-      return cacheSummary(summaryFactory, cache, key);
+      return cacheSummary(summaryFactory, key);
     }
     log.debug("Use cached {} summary for {} ({})", summaryType, variableName, key);
-    return (TVariableSummary) element.getObjectValue();
+    return summary;
   }
 
-  private TVariableSummary cacheSummary(TVariableSummaryFactory summaryFactory, Ehcache cache, String key) {
+  private TVariableSummary cacheSummary(TVariableSummaryFactory summaryFactory, String key) {
     TVariableSummary summary = summaryFactory.getSummary();
 
     log.trace("Cache {} summary for {} ({})", getSummaryType(summaryFactory), summary.getVariableName(), key);
-    cache.put(new Element(key, summary));
+    getStore().put(summaryFactory.getTable(), key, summary);
     return summary;
   }
 
-  private boolean isCacheObsolete(Element element, Timestamped table) {
-    Date creationTime = new Date(element.getCreationTime());
-    Value lastUpdate = table.getTimestamps().getLastUpdate();
-    return !lastUpdate.isNull() && ((Date) lastUpdate.getValue()).after(creationTime);
-  }
-
   @SuppressWarnings("ChainOfInstanceofChecks")
   private String getSummaryType(TVariableSummary summary) {
     if(summary instanceof ContinuousVariableSummary) {
@@ -1,16 +1,28 @@
 package org.obiba.opal.core.service.summary;
 
+import java.io.File;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
 
+import javax.annotation.Nonnull;
 import javax.validation.constraints.NotNull;
 
-import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 
 import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueSource;
 import org.obiba.magma.ValueTable;
+import org.obiba.magma.ValueTableUpdateListener;
 import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.concurrent.ConcurrentValueTableReader;
+import org.obiba.magma.concurrent.ConcurrentValueTableReader.ConcurrentReaderCallback;
 import org.obiba.magma.math.summary.AbstractVariableSummary;
 import org.obiba.magma.math.summary.BinaryVariableSummary;
 import org.obiba.magma.math.summary.BinaryVariableSummaryFactory;
@@ -24,6 +36,7 @@ import org.obiba.magma.math.summary.VariableSummary;
 import org.obiba.magma.math.summary.VariableSummaryFactory;
 import org.obiba.magma.type.BinaryType;
 import org.obiba.magma.type.TextType;
+import org.obiba.opal.core.math.ApproximateContinuousSummary;
 import org.obiba.opal.core.service.VariableSummaryService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,21 +45,46 @@ import org.springframework.stereotype.Component;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
 
 @Component
-public class CachedVariableSummaryService implements VariableSummaryService {
+public class CachedVariableSummaryService implements VariableSummaryService, ValueTableUpdateListener {
 
   private static final Logger log = LoggerFactory.getLogger(CachedVariableSummaryService.class);
 
+  private static final String SUMMARIES_PATH = "work" + File.separator + "summaries";
+
+  private static final String CONTINUOUS_CACHE = "opal-variable-summary-continuous";
+
+  private static final String CATEGORICAL_CACHE = "opal-variable-summary-categorical";
+
+  private static final String DEFAULT_CACHE = "opal-variable-summary-default";
+
+  private static final String BINARY_CACHE = "opal-variable-summary-binary";
+
   @org.springframework.beans.factory.annotation.Value("${org.obiba.opal.cache.variableSummaries}")
   private boolean cacheSummaries;
 
+  @org.springframework.beans.factory.annotation.Value("${org.obiba.opal.cache.variableSummaries.maxEntriesPerTable}")
+  private int maxEntriesPerTable;
+
   @Autowired
   private CacheManager cacheManager;
 
+  @Autowired
+  private ThreadFactory threadFactory;
+
   private final Map<Class<? extends VariableSummaryFactory<?>>, AbstractVariableSummaryCachedService<?, ?, ?>>
       summaryServices = new HashMap<>();
 
+  // Map<CacheName, VariableSummaryStore>
+  private final ConcurrentMap<String, VariableSummaryStore> stores = new ConcurrentHashMap<>();
+
+  // Map<TableReference, Map<ReaderThreadId, ValuesAccumulator>>
+  private final ConcurrentMap<String, ConcurrentMap<Long, ValuesAccumulator>> accumulators
+      = new ConcurrentHashMap<>();
+
   public CachedVariableSummaryService() {
     summaryServices.put(ContinuousVariableSummaryFactory.class, new ContinuousVariableSummaryCachedService());
     summaryServices.put(CategoricalVariableSummaryFactory.class, new CategoricalVariableSummaryCachedService());
@@ -66,19 +104,42 @@ public class CachedVariableSummaryService implements VariableSummaryService {
 
   @Override
   public void stackVariable(@NotNull ValueTable valueTable, @NotNull Variable variable, @NotNull Value value) {
-    if(!cacheSummaries) log.debug("Variable summaries cache disabled!");
+    if(!cacheSummaries) {
+      log.debug("Variable summaries cache disabled!");
+      return;
+    }
 
     // skip binary variable
     Preconditions.checkArgument(!BinaryType.get().equals(variable.getValueType()),
         "Cannot compute summary for binary variable " + variable.getName());
 
-    getService(CategoricalVariableSummaryFactory.class).getSummaryBuilder(valueTable, variable).addValue(value);
+    getAccumulator(valueTable).add(variable, value);
+  }
 
-    if(variable.getValueType().isNumeric()) {
-      getService(ContinuousVariableSummaryFactory.class).getSummaryBuilder(valueTable, variable).addValue(value);
-    } else {
-      getService(DefaultVariableSummaryFactory.class).getSummaryBuilder(valueTable, variable).addValue(value);
+  /**
+   * Get the values accumulator of the current thread for the given table: no contention between reader threads.
+   *
+   * @param valueTable
+   * @return
+   */
+  private ValuesAccumulator getAccumulator(ValueTable valueTable) {
+    ConcurrentMap<Long, ValuesAccumulator> tableAccumulators = accumulators.get(valueTable.getTableReference());
+    if(tableAccumulators == null) {
+      ConcurrentMap<Long, ValuesAccumulator> created = new ConcurrentHashMap<>();
+      tableAccumulators = accumulators.putIfAbsent(valueTable.getTableReference(), created);
+      if(tableAccumulators == null) tableAccumulators = created;
     }
+    return getAccumulator(tableAccumulators);
+  }
+
+  private ValuesAccumulator getAccumulator(ConcurrentMap<Long, ValuesAccumulator> threadAccumulators) {
+    long threadId = Thread.currentThread().getId();
+    ValuesAccumulator accumulator = threadAccumulators.get(threadId);
+    if(accumulator == null) {
+      accumulator = new ValuesAccumulator();
+      threadAccumulators.put(threadId, accumulator);
+    }
+    return accumulator;
   }
 
   @Override
@@ -88,19 +149,82 @@ public class CachedVariableSummaryService implements VariableSummaryService {
       return;
     }
     Stopwatch stopwatch = Stopwatch.createStarted();
-    for(AbstractVariableSummaryCachedService<?, ?, ?> summaryService : summaryServices.values()) {
-      summaryService.computeAndCacheSummaries(table);
-    }
-    clearComputingSummaries(table);
+    Map<Long, ValuesAccumulator> tableAccumulators = accumulators.remove(table.getTableReference());
+    if(tableAccumulators == null) return;
+
+    computeAndCacheSummaries(table, tableAccumulators.values());
     log.info("Variables summaries for {} computed in {}", table.getTableReference(), stopwatch.stop());
   }
 
+  @Override
+  public void computeSummaries(@NotNull ValueTable table, @NotNull Iterable<Variable> variables) {
+    List<Variable> toCompute = Lists.newArrayList();
+    for(Variable variable : variables) {
+      // binary summaries are computed apart
+      if(!BinaryType.get().equals(variable.getValueType())) toCompute.add(variable);
+    }
+    if(toCompute.isEmpty()) return;
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    // accumulators of this computation only, so that it does not interfere with the summaries stacked by indexing
+    final ConcurrentMap<Long, ValuesAccumulator> readerAccumulators = new ConcurrentHashMap<>();
+    ConcurrentValueTableReader.Builder.newReader() //
+        .withThreads(threadFactory) //
+        .ignoreReadErrors() //
+        .from(table) //
+        .variablesFilter(toCompute) //
+        .to(new ConcurrentReaderCallback() {
+          @Override
+          public void onBegin(List<VariableEntity> entitiesToCopy, Variable... variables) {
+          }
+
+          @Override
+          public void onValues(VariableEntity entity, Variable[] variables, Value... values) {
+            ValuesAccumulator accumulator = getAccumulator(readerAccumulators);
+            for(int i = 0; i < variables.length; i++) {
+              accumulator.add(variables[i], values[i]);
+            }
+          }
+
+          @Override
+          public void onComplete() {
+          }
+
+          @Override
+          public boolean isCancelled() {
+            return false;
+          }
+        }) //
+        .build() //
+        .read();
+
+    computeAndCacheSummaries(table, readerAccumulators.values());
+    log.info("Summaries of {} variables of {} computed in {}", toCompute.size(), table.getTableReference(),
+        stopwatch.stop());
+  }
+
+  private void computeAndCacheSummaries(ValueTable table, Iterable<ValuesAccumulator> threadAccumulators) {
+    // merge the accumulators of the reader threads
+    ValuesAccumulator merged = new ValuesAccumulator();
+    for(ValuesAccumulator accumulator : threadAccumulators) {
+      merged.merge(accumulator);
+    }
+
+    for(Variable variable : merged.getVariables()) {
+      Multiset<Value> values = merged.getValues(variable);
+      getService(CategoricalVariableSummaryFactory.class).computeAndCacheSummary(table, variable, values);
+      if(variable.getValueType().isNumeric()) {
+        getService(ContinuousVariableSummaryFactory.class).computeAndCacheSummary(table, variable, values);
+      } else {
+        getService(DefaultVariableSummaryFactory.class).computeAndCacheSummary(table, variable, values);
+      }
+    }
+  }
+
   @Override
   public void clearComputingSummaries(@NotNull ValueTable valueTable) {
     if(!cacheSummaries) return;
-    for(AbstractVariableSummaryCachedService<?, ?, ?> summaryService : summaryServices.values()) {
-      summaryService.clearComputingSummaries(valueTable);
-    }
+    accumulators.remove(valueTable.getTableReference());
   }
 
   @NotNull
@@ -121,13 +245,101 @@ public class CachedVariableSummaryService implements VariableSummaryService {
     return getService((Class<TVariableSummaryFactory>) summaryFactory.getClass()).isSummaryCached(summaryFactory);
   }
 
+  @NotNull
+  @Override
+  public ApproximateContinuousSummary getApproximateContinuousSummary(@NotNull ValueTable valueTable,
+      @NotNull Variable variable, @NotNull ValueSource valueSource, int compression, boolean refreshCache) {
+    // don't cache transient variable summary
+    if(!cacheSummaries || isTransientVariable(variable)) {
+      return computeApproximateContinuousSummary(valueTable, variable, valueSource, compression);
+    }
+
+    VariableSummaryStore store = getStore(CONTINUOUS_CACHE);
+    String key = getApproximateSummaryCacheKey(valueTable, variable, compression);
+    Object cached = refreshCache ? null : store.get(valueTable, key);
+    if(cached != null) {
+      log.debug("Use cached approximate continuous summary for {} ({})", variable.getName(), key);
+      return (ApproximateContinuousSummary) cached;
+    }
+
+    ApproximateContinuousSummary summary = computeApproximateContinuousSummary(valueTable, variable, valueSource,
+        compression);
+    log.trace("Cache approximate continuous summary for {} ({})", variable.getName(), key);
+    store.put(valueTable, key, summary);
+    return summary;
+  }
+
+  /**
+   * Stream the values of the variable into the summary: the values are never held in memory.
+   */
+  private ApproximateContinuousSummary computeApproximateContinuousSummary(ValueTable valueTable, Variable variable,
+      ValueSource valueSource, int compression) {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    ApproximateContinuousSummary.Builder builder = new ApproximateContinuousSummary.Builder(variable, compression);
+    if(valueSource.supportVectorSource()) {
+      for(Value value : valueSource.asVectorSource().getValues(new TreeSet<>(valueTable.getVariableEntities()))) {
+        builder.addValue(value);
+      }
+    } else {
+      for(ValueSet valueSet : valueTable.getValueSets()) {
+        builder.addValue(valueSource.getValue(valueSet));
+      }
+    }
+    ApproximateContinuousSummary summary = builder.build();
+    log.debug("Approximate continuous summary of {} computed in {}", variable.getName(), stopwatch.stop());
+    return summary;
+  }
+
+  private String getApproximateSummaryCacheKey(ValueTable valueTable, Variable variable, int compression) {
+    return valueTable.getTableReference() + ":" + variable.getName() + ":approximate:" + compression;
+  }
+
+  private boolean isTransientVariable(Variable variable) {
+    return variable.hasAttribute("opal", "transient") &&
+        (boolean) variable.getAttribute("opal", "transient").getValue().getValue();
+  }
+
+  @Override
+  public void evictSummaries(@NotNull ValueTable valueTable) {
+    log.debug("Evict variable summaries of {}", valueTable.getTableReference());
+    for(String cacheName : new String[] { CONTINUOUS_CACHE, CATEGORICAL_CACHE, DEFAULT_CACHE, BINARY_CACHE }) {
+      getStore(cacheName).evict(valueTable.getTableReference());
+    }
+  }
+
+  @Override
+  public void onRename(@NotNull ValueTable vt, String newName) {
+    evictSummaries(vt);
+  }
+
+  @Override
+  public void onRename(@Nonnull ValueTable vt, Variable v, String newName) {
+    evictSummaries(vt);
+  }
+
+  @Override
+  public void onDelete(@NotNull ValueTable vt) {
+    evictSummaries(vt);
+  }
+
+  private VariableSummaryStore getStore(String cacheName) {
+    VariableSummaryStore store = stores.get(cacheName);
+    if(store == null) {
+      VariableSummaryStore created = new VariableSummaryStore(cacheManager.getCache(cacheName),
+          new File(new File(System.getProperty("OPAL_HOME"), SUMMARIES_PATH), cacheName), maxEntriesPerTable);
+      store = stores.putIfAbsent(cacheName, created);
+      if(store == null) store = created;
+    }
+    return store;
+  }
+
   private class ContinuousVariableSummaryCachedService extends
       AbstractVariableSummaryCachedService<ContinuousVariableSummary, ContinuousVariableSummaryFactory, ContinuousVariableSummary.Builder> {
 
     @NotNull
     @Override
-    protected Cache getCache() {
-      return cacheManager.getCache("opal-variable-summary-continuous");
+    protected VariableSummaryStore getStore() {
+      return CachedVariableSummaryService.this.getStore(CONTINUOUS_CACHE);
     }
 
     @NotNull
@@ -142,8 +354,8 @@ public class CachedVariableSummaryService implements VariableSummaryService {
 
     @NotNull
     @Override
-    protected Cache getCache() {
-      return cacheManager.getCache("opal-variable-summary-categorical");
+    protected VariableSummaryStore getStore() {
+      return CachedVariableSummaryService.this.getStore(CATEGORICAL_CACHE);
     }
 
     @NotNull
@@ -159,8 +371,8 @@ public class CachedVariableSummaryService implements VariableSummaryService {
 
     @NotNull
     @Override
-    protected Cache getCache() {
-      return cacheManager.getCache("opal-variable-summary-default");
+    protected VariableSummaryStore getStore() {
+      return CachedVariableSummaryService.this.getStore(DEFAULT_CACHE);
     }
 
     @NotNull
@@ -175,8 +387,8 @@ public class CachedVariableSummaryService implements VariableSummaryService {
 
     @NotNull
     @Override
-    protected Cache getCache() {
-      return cacheManager.getCache("opal-variable-summary-binary");
+    protected VariableSummaryStore getStore() {
+      return CachedVariableSummaryService.this.getStore(BINARY_CACHE);
     }
 
     @NotNull
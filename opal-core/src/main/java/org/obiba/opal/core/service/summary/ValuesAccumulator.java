@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service.summary;
+
+import java.util.Map;
+
+import javax.validation.constraints.NotNull;
+
+import org.obiba.magma.Value;
+import org.obiba.magma.Variable;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+
+/**
+ * Accumulates the values of the variables of a table as frequencies, for computing their summaries. An accumulator is
+ * fed by a single reader thread without synchronization; the accumulators of the different threads are merged when the
+ * summaries are computed.
+ */
+class ValuesAccumulator {
+
+  private final Map<String, Variable> variables = Maps.newLinkedHashMap();
+
+  private final Map<String, Multiset<Value>> frequencies = Maps.newHashMap();
+
+  void add(@NotNull Variable variable, @NotNull Value value) {
+    getFrequencies(variable).add(value);
+  }
+
+  /**
+   * Add the frequencies of the other accumulator to this one.
+   *
+   * @param other
+   */
+  void merge(@NotNull ValuesAccumulator other) {
+    for(Variable variable : other.getVariables()) {
+      Multiset<Value> merged = getFrequencies(variable);
+      for(Multiset.Entry<Value> entry : other.getValues(variable).entrySet()) {
+        merged.add(entry.getElement(), entry.getCount());
+      }
+    }
+  }
+
+  @NotNull
+  Iterable<Variable> getVariables() {
+    return variables.values();
+  }
+
+  @NotNull
+  Multiset<Value> getValues(@NotNull Variable variable) {
+    Multiset<Value> values = frequencies.get(variable.getName());
+    return values == null ? HashMultiset.<Value>create() : values;
+  }
+
+  private Multiset<Value> getFrequencies(Variable variable) {
+    Multiset<Value> values = frequencies.get(variable.getName());
+    if(values == null) {
+      values = HashMultiset.create();
+      frequencies.put(variable.getName(), values);
+      variables.put(variable.getName(), variable);
+    }
+    return values;
+  }
+
+}
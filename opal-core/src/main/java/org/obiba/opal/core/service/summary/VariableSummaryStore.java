@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service.summary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Two tiers store of variable summaries:
+ * <ul>
+ * <li>a heap-bounded in-memory tier, the Ehcache cache, holding the summary objects,</li>
+ * <li>a disk tier holding one compressed file per summary, written atomically so that it survives a crash.</li>
+ * </ul>
+ * A summary file starts with a header: the format version byte, the summary class name and its serialization version.
+ * The compressed serialized summary follows. Files of another format, or of a summary class that changed since, are
+ * discarded without being deserialized.
+ * Entries are keyed by the summary cache key and the last update timestamp of the table, so that the summaries of an
+ * updated table are never hit. On disk, the summaries are stored in a directory per table and per timestamp: storing a
+ * summary for a new timestamp discards the obsolete ones, and all the summaries of a table can be evicted at once.
+ */
+class VariableSummaryStore {
+
+  private static final Logger log = LoggerFactory.getLogger(VariableSummaryStore.class);
+
+  private static final String TMP_SUFFIX = ".tmp";
+
+  private static final String KEY_SEPARATOR = "|";
+
+  /**
+   * Version of the summary files format, to be incremented when the header or the payload encoding changes.
+   */
+  static final int FORMAT_VERSION = 1;
+
+  @NotNull
+  private final Cache memoryCache;
+
+  @NotNull
+  private final File directory;
+
+  private final int maxEntriesPerTable;
+
+  // Map<TableDirectory, EntriesCount>
+  private final ConcurrentMap<File, AtomicInteger> entriesCounts = new ConcurrentHashMap<>();
+
+  VariableSummaryStore(@NotNull Cache memoryCache, @NotNull File directory, int maxEntriesPerTable) {
+    this.memoryCache = memoryCache;
+    this.directory = directory;
+    this.maxEntriesPerTable = maxEntriesPerTable;
+  }
+
+  @Nullable
+  Object get(@NotNull ValueTable table, @NotNull String key) {
+    String timestamp = getTimestamp(table);
+    String memoryKey = getMemoryKey(table, timestamp, key);
+    Element element = memoryCache.get(memoryKey);
+    if(element != null) return element.getObjectValue();
+
+    File file = getFile(table, timestamp, key);
+    if(!file.exists()) return null;
+    Object summary = read(file);
+    if(summary != null) memoryCache.put(new Element(memoryKey, summary));
+    return summary;
+  }
+
+  boolean contains(@NotNull ValueTable table, @NotNull String key) {
+    String timestamp = getTimestamp(table);
+    return memoryCache.isKeyInCache(getMemoryKey(table, timestamp, key)) || getFile(table, timestamp, key).exists();
+  }
+
+  void put(@NotNull ValueTable table, @NotNull String key, @NotNull Object summary) {
+    String timestamp = getTimestamp(table);
+    memoryCache.put(new Element(getMemoryKey(table, timestamp, key), summary));
+
+    File tableDirectory = getTableDirectory(table);
+    File timestampDirectory = new File(tableDirectory, timestamp);
+    discardObsoleteTimestamps(tableDirectory, timestamp);
+    if(!timestampDirectory.exists() && !timestampDirectory.mkdirs() && !timestampDirectory.exists()) {
+      log.warn("Cannot create variable summaries directory {}", timestampDirectory.getAbsolutePath());
+      return;
+    }
+    File file = new File(timestampDirectory, hash(key));
+    boolean created = !file.exists();
+    if(write(file, summary) && created) {
+      AtomicInteger count = getEntriesCount(timestampDirectory);
+      if(count.incrementAndGet() > maxEntriesPerTable) trim(timestampDirectory, count);
+    }
+  }
+
+  void remove(@NotNull ValueTable table, @NotNull String key) {
+    String timestamp = getTimestamp(table);
+    memoryCache.remove(getMemoryKey(table, timestamp, key));
+    File file = getFile(table, timestamp, key);
+    if(file.exists() && file.delete()) {
+      getEntriesCount(file.getParentFile()).decrementAndGet();
+    }
+  }
+
+  /**
+   * Remove all the summaries of a table, whatever its timestamp.
+   *
+   * @param tableReference
+   */
+  void evict(@NotNull String tableReference) {
+    String prefix = tableReference + KEY_SEPARATOR;
+    for(Object memoryKey : memoryCache.getKeys()) {
+      if(memoryKey.toString().startsWith(prefix)) memoryCache.remove(memoryKey);
+    }
+    File tableDirectory = new File(directory, hash(tableReference));
+    File[] timestampDirectories = tableDirectory.listFiles();
+    if(timestampDirectories != null) {
+      for(File timestampDirectory : timestampDirectories) {
+        deleteTimestampDirectory(timestampDirectory);
+      }
+    }
+    if(tableDirectory.exists() && !tableDirectory.delete()) {
+      log.warn("Cannot delete variable summaries directory {}", tableDirectory.getAbsolutePath());
+    }
+  }
+
+  private void discardObsoleteTimestamps(File tableDirectory, String timestamp) {
+    File[] timestampDirectories = tableDirectory.listFiles();
+    if(timestampDirectories == null) return;
+    for(File timestampDirectory : timestampDirectories) {
+      if(!timestampDirectory.getName().equals(timestamp)) {
+        log.debug("Discard obsolete variable summaries {}", timestampDirectory.getAbsolutePath());
+        deleteTimestampDirectory(timestampDirectory);
+      }
+    }
+  }
+
+  private void deleteTimestampDirectory(File timestampDirectory) {
+    entriesCounts.remove(timestampDirectory);
+    File[] files = timestampDirectory.listFiles();
+    if(files != null) {
+      for(File file : files) {
+        if(!file.delete()) log.warn("Cannot delete variable summary {}", file.getAbsolutePath());
+      }
+    }
+    if(!timestampDirectory.delete()) {
+      log.warn("Cannot delete variable summaries directory {}", timestampDirectory.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Delete the least recently written summaries of a table until there are less than the maximum. Leftovers of
+   * interrupted writes are deleted with their timestamp directory.
+   */
+  private void trim(File timestampDirectory, AtomicInteger count) {
+    File[] files = timestampDirectory.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return !file.getName().endsWith(TMP_SUFFIX);
+      }
+    });
+    if(files == null) return;
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File f1, File f2) {
+        return Long.compare(f1.lastModified(), f2.lastModified());
+      }
+    });
+    int entries = files.length;
+    int target = maxEntriesPerTable * 9 / 10;
+    for(int i = 0; i < files.length && entries > target; i++) {
+      if(files[i].delete()) entries--;
+    }
+    count.set(entries);
+    log.debug("Trimmed variable summaries {} to {} entries", timestampDirectory.getAbsolutePath(), entries);
+  }
+
+  private AtomicInteger getEntriesCount(File timestampDirectory) {
+    AtomicInteger count = entriesCounts.get(timestampDirectory);
+    if(count == null) {
+      String[] names = timestampDirectory.list();
+      AtomicInteger created = new AtomicInteger(names == null ? 0 : names.length);
+      count = entriesCounts.putIfAbsent(timestampDirectory, created);
+      if(count == null) count = created;
+    }
+    return count;
+  }
+
+  /**
+   * Write the summary to a temporary file, sync it and move it atomically to its final name: a crash cannot leave a
+   * partially written summary.
+   */
+  private boolean write(File file, Object summary) {
+    File tmp = null;
+    try {
+      tmp = File.createTempFile(file.getName(), TMP_SUFFIX, file.getParentFile());
+      try(FileOutputStream fos = new FileOutputStream(tmp)) {
+        BufferedOutputStream buffered = new BufferedOutputStream(fos);
+        DataOutputStream header = new DataOutputStream(buffered);
+        header.writeByte(FORMAT_VERSION);
+        header.writeUTF(summary.getClass().getName());
+        header.writeLong(getSerialVersion(summary.getClass()));
+        header.flush();
+        GZIPOutputStream gzip = new GZIPOutputStream(buffered);
+        ObjectOutputStream out = new ObjectOutputStream(gzip);
+        out.writeObject(summary);
+        out.flush();
+        gzip.finish();
+        buffered.flush();
+        fos.getFD().sync();
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      return true;
+    } catch(IOException e) {
+      log.warn("Cannot write variable summary {}", file.getAbsolutePath(), e);
+      if(tmp != null && tmp.exists() && !tmp.delete()) {
+        log.warn("Cannot delete variable summary {}", tmp.getAbsolutePath());
+      }
+      return false;
+    }
+  }
+
+  @Nullable
+  private Object read(File file) {
+    try(DataInputStream header = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int version = header.readUnsignedByte();
+      if(version == FORMAT_VERSION) {
+        Class<?> summaryClass = Class.forName(header.readUTF());
+        if(header.readLong() == getSerialVersion(summaryClass)) {
+          try(ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(header))) {
+            return summaryClass.cast(in.readObject());
+          }
+        }
+        log.info("Variable summary {} was written by another version of {}, discard it", file.getAbsolutePath(),
+            summaryClass.getName());
+      } else {
+        log.info("Variable summary {} has format version {}, discard it", file.getAbsolutePath(), version);
+      }
+    } catch(IOException | ClassNotFoundException | ClassCastException e) {
+      log.warn("Cannot read variable summary {}, discard it", file.getAbsolutePath(), e);
+    }
+    if(!file.delete()) log.warn("Cannot delete variable summary {}", file.getAbsolutePath());
+    return null;
+  }
+
+  /**
+   * @return the serialization version of the class, 0 if it is not serializable
+   */
+  private static long getSerialVersion(Class<?> summaryClass) {
+    ObjectStreamClass streamClass = ObjectStreamClass.lookup(summaryClass);
+    return streamClass == null ? 0 : streamClass.getSerialVersionUID();
+  }
+
+  private File getTableDirectory(ValueTable table) {
+    return new File(directory, hash(table.getTableReference()));
+  }
+
+  private File getFile(ValueTable table, String timestamp, String key) {
+    return new File(new File(getTableDirectory(table), timestamp), hash(key));
+  }
+
+  private String getMemoryKey(ValueTable table, String timestamp, String key) {
+    return table.getTableReference() + KEY_SEPARATOR + timestamp + KEY_SEPARATOR + key;
+  }
+
+  private String getTimestamp(ValueTable table) {
+    Value lastUpdate = table.getTimestamps().getLastUpdate();
+    return lastUpdate.isNull() ? "0" : String.valueOf(((Date) lastUpdate.getValue()).getTime());
+  }
+
+  private static String hash(String value) {
+    return Hashing.sha1().hashString(value, Charsets.UTF_8).toString();
+  }
+
+}
@@ -13,8 +13,11 @@ package org.obiba.opal.core.vcs.git;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
 import javax.validation.constraints.NotNull;
 
 import org.eclipse.jgit.lib.Repository;
@@ -25,17 +28,34 @@ import org.obiba.opal.core.vcs.git.commands.OpalGitCommitLogCommand;
 import org.obiba.opal.core.vcs.git.commands.OpalGitCommitsLogCommand;
 import org.obiba.opal.core.vcs.git.commands.OpalGitDiffCommand;
 import org.obiba.opal.core.vcs.git.commands.OpalGitFetchBlobCommand;
+import org.obiba.opal.core.vcs.git.support.GitPathIndex;
 import org.obiba.opal.core.vcs.git.support.GitUtils;
 import org.springframework.stereotype.Component;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
 @Component
 public class OpalGitVersionControlSystem implements OpalVersionControlSystem {
 
   private static final String GIT_ROOT_PATH = "data" + File.separator + "git" + File.separator +
       "views";
 
+  private static final int MAX_OPEN_REPOSITORIES = 100;
+
+  private static final int OPEN_REPOSITORY_EXPIRY_MINUTES = 10;
+
   private final File repoPath;
 
+  private final LoadingCache<String, GitRepository> repositoryCache = CacheBuilder.newBuilder()
+      .maximumSize(MAX_OPEN_REPOSITORIES) //
+      .expireAfterAccess(OPEN_REPOSITORY_EXPIRY_MINUTES, TimeUnit.MINUTES) //
+      .removalListener(new GitRepositoryRemovalListener()) //
+      .build(new GitRepositoryCacheLoader());
+
   public OpalGitVersionControlSystem() {
     this(new File(System.getProperty("OPAL_HOME"), GIT_ROOT_PATH));
   }
@@ -44,45 +64,143 @@ public class OpalGitVersionControlSystem implements OpalVersionControlSystem {
     this.repoPath = repoPath;
   }
 
+  @PreDestroy
+  public void stop() {
+    repositoryCache.invalidateAll();
+  }
+
   @Override
   public List<CommitInfo> getCommitsInfo(@NotNull String datasource, @NotNull String path) {
-    OpalGitCommitsLogCommand command = new OpalGitCommitsLogCommand.Builder(getRepository(datasource)).addPath(path)
-        .addDatasourceName(datasource).build();
-    return command.execute();
+    GitRepository gitRepository = acquireGitRepository(datasource);
+    try {
+      OpalGitCommitsLogCommand command = new OpalGitCommitsLogCommand.Builder(gitRepository.repository).addPath(path)
+          .addDatasourceName(datasource).addPathIndex(gitRepository.pathIndex).build();
+      return command.execute();
+    } finally {
+      gitRepository.release();
+    }
   }
 
   @Override
   public CommitInfo getCommitInfo(@NotNull String datasource, @NotNull String path, @NotNull String commitId) {
-    OpalGitCommitLogCommand command = new OpalGitCommitLogCommand.Builder(getRepository(datasource), path, commitId)
-        .addDatasourceName(datasource).build();
-    return command.execute();
+    GitRepository gitRepository = acquireGitRepository(datasource);
+    try {
+      OpalGitCommitLogCommand command = new OpalGitCommitLogCommand.Builder(gitRepository.repository, path, commitId)
+          .addDatasourceName(datasource).build();
+      return command.execute();
+    } finally {
+      gitRepository.release();
+    }
   }
 
   @Override
   public String getBlob(@NotNull String datasource, @NotNull String path, @NotNull String commitId) {
-    OpalGitFetchBlobCommand command = new OpalGitFetchBlobCommand.Builder(getRepository(datasource), path, commitId)
-        .addDatasourceName(datasource).build();
-    return command.execute();
+    GitRepository gitRepository = acquireGitRepository(datasource);
+    try {
+      OpalGitFetchBlobCommand command = new OpalGitFetchBlobCommand.Builder(gitRepository.repository, path, commitId)
+          .addDatasourceName(datasource).build();
+      return command.execute();
+    } finally {
+      gitRepository.release();
+    }
   }
 
   @Override
   public List<String> getDiffEntries(@NotNull String datasource, @NotNull String commitId,
       @Nullable String prevCommitId, @Nullable String path) {
-    OpalGitDiffCommand command = new OpalGitDiffCommand.Builder(getRepository(datasource), commitId).addPath(path)
-        .addDatasourceName(datasource).addPreviousCommitId(prevCommitId).build();
-    return command.formatAsStringList(command.execute());
+    GitRepository gitRepository = acquireGitRepository(datasource);
+    try {
+      OpalGitDiffCommand command = new OpalGitDiffCommand.Builder(gitRepository.repository, commitId).addPath(path)
+          .addDatasourceName(datasource).addPreviousCommitId(prevCommitId).build();
+      return command.formatAsStringList(command.execute());
+    } finally {
+      gitRepository.release();
+    }
   }
 
+  /**
+   * Get the cached repository, which is not protected from being closed when evicted from the cache: the repository
+   * reopens its pack files if it is used after that.
+   *
+   * @param name
+   * @return
+   */
   public Repository getRepository(String name) {
+    GitRepository gitRepository = acquireGitRepository(name);
+    gitRepository.release();
+    return gitRepository.repository;
+  }
+
+  /**
+   * Get an open repository that cannot be closed until it is released, even if it is evicted from the cache meanwhile.
+   *
+   * @param name
+   * @return
+   */
+  private GitRepository acquireGitRepository(String name) {
     File repo = GitUtils.getGitDirectoryName(repoPath, name);
     if(!repo.exists()) {
+      // the repository may have been deleted since it was opened
+      repositoryCache.invalidate(name);
       throw new NoSuchGitRepositoryException(name);
     }
-    FileRepositoryBuilder builder = new FileRepositoryBuilder();
     try {
-      return builder.setGitDir(repo).readEnvironment().findGitDir().build();
-    } catch(IOException e) {
-      throw new OpalGitException(e);
+      while(true) {
+        GitRepository gitRepository = repositoryCache.get(name);
+        // otherwise it was evicted and closed since it was got from the cache, so get the one loaded next
+        if(gitRepository.acquire()) return gitRepository;
+      }
+    } catch(ExecutionException e) {
+      throw new OpalGitException(e.getCause());
+    }
+  }
+
+  /**
+   * An open repository and the index of its commits by path. The repository is closed when it is neither in the cache
+   * nor acquired anymore.
+   */
+  private static class GitRepository {
+
+    private final Repository repository;
+
+    private final GitPathIndex pathIndex;
+
+    // the cache holds one reference, each acquisition another one
+    private int references = 1;
+
+    private GitRepository(Repository repository) {
+      this.repository = repository;
+      pathIndex = new GitPathIndex(repository);
+    }
+
+    private synchronized boolean acquire() {
+      if(references == 0) return false;
+      references++;
+      return true;
+    }
+
+    private synchronized void release() {
+      if(--references == 0) repository.close();
+    }
+  }
+
+  private class GitRepositoryCacheLoader extends CacheLoader<String, GitRepository> {
+
+    @Override
+    public GitRepository load(String name) throws IOException {
+      FileRepositoryBuilder builder = new FileRepositoryBuilder();
+      return new GitRepository(
+          builder.setGitDir(GitUtils.getGitDirectoryName(repoPath, name)).readEnvironment().findGitDir().build());
+    }
+  }
+
+  private static class GitRepositoryRemovalListener implements RemovalListener<String, GitRepository> {
+
+    @Override
+    public void onRemoval(RemovalNotification<String, GitRepository> notification) {
+      GitRepository gitRepository = notification.getValue();
+      // the repository is closed once the current users release it
+      if(gitRepository != null) gitRepository.release();
     }
   }
 
@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
 import org.eclipse.jgit.api.Git;
@@ -23,8 +24,10 @@ import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.obiba.opal.core.vcs.CommitInfo;
 import org.obiba.opal.core.vcs.git.OpalGitException;
+import org.obiba.opal.core.vcs.git.support.GitPathIndex;
 
 import com.google.common.base.Strings;
 
@@ -36,15 +39,27 @@ public class OpalGitCommitsLogCommand extends OpalGitCommand<List<CommitInfo>> {
   private final String path;
   private boolean excludeDeletedCommits = true;
 
+  @Nullable
+  private final GitPathIndex pathIndex;
+
   private OpalGitCommitsLogCommand(Builder builder) {
     super(builder.repository, builder.datasourceName);
     path = builder.path;
     excludeDeletedCommits = builder.excludeDeletedCommits;
+    pathIndex = builder.pathIndex;
   }
 
   @Override
   public List<CommitInfo> execute() {
     try {
+      if(pathIndex != null) {
+        List<CommitInfo> commits = getIndexedCommitInfos();
+        if(commits.isEmpty()) {
+          throw new OpalGitException(getNoCommitsErrorMessage());
+        }
+        return commits;
+      }
+
       Git git = new Git(repository);
       LogCommand logCommand = git.log();
 
@@ -87,6 +102,36 @@ public class OpalGitCommitsLogCommand extends OpalGitCommand<List<CommitInfo>> {
     return commits;
   }
 
+  /**
+   * Same as {@link #getCommitInfos(LogCommand)}, the commits of the path and whether they are deletions being looked up
+   * in the index. Only the listed commits are read from the repository.
+   */
+  private List<CommitInfo> getIndexedCommitInfos() throws IOException {
+    List<CommitInfo> commits = new ArrayList<>();
+    String headCommitId = getHeadCommitId();
+    boolean isCurrent = true;
+
+    RevWalk revWalk = new RevWalk(repository);
+    try {
+      for(GitPathIndex.PathCommit pathCommit : pathIndex.getCommits(path)) {
+        if(excludeDeletedCommits && pathCommit.isDeleted()) break;
+
+        RevCommit commit = revWalk.parseCommit(pathCommit.getCommitId());
+        String commitId = commit.getName();
+        PersonIdent personIdent = commit.getAuthorIdent();
+        commits.add(new CommitInfo.Builder().setAuthor(personIdent.getName()).setDate(personIdent.getWhen())
+            .setComment(commit.getFullMessage()).setCommitId(commitId).setIsHead(headCommitId.equals(commitId))
+            .setIsCurrent(isCurrent).build());
+
+        isCurrent = false;
+      }
+    } finally {
+      revWalk.release();
+    }
+
+    return commits;
+  }
+
   /**
    * A file commit has only one diff entry. Having many diff entries imply that the commit path corresponds to the
    * whole repository or a folder in the commit tree. In this case, we do not exclude the commit if there are modified
@@ -129,6 +174,8 @@ public class OpalGitCommitsLogCommand extends OpalGitCommand<List<CommitInfo>> {
 
     private boolean excludeDeletedCommits = true;
 
+    private GitPathIndex pathIndex;
+
     public Builder(@NotNull Repository repository) {
       super(repository);
     }
@@ -138,6 +185,17 @@ public class OpalGitCommitsLogCommand extends OpalGitCommand<List<CommitInfo>> {
       return this;
     }
 
+    /**
+     * Look up the commits in the index instead of walking the log.
+     *
+     * @param value
+     * @return
+     */
+    public Builder addPathIndex(@Nullable GitPathIndex value) {
+      pathIndex = value;
+      return this;
+    }
+
     public OpalGitCommitsLogCommand build() {
       return new OpalGitCommitsLogCommand(this);
     }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.opal.core.vcs.git.support;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Index of the commits of a repository by the paths they change: files, their folders and the repository root. The
+ * history of a path is then a lookup instead of a walk of the whole log with a diff per commit.
+ * <p/>
+ * The index follows the first parent history of the head. It is brought up to date on each lookup by indexing only the
+ * commits added since the last one; it is rebuilt when the head is not a descendant of the indexed head anymore. Only
+ * the commit ids are indexed, the commits details are read from the repository when needed.
+ */
+public class GitPathIndex {
+
+  private final Repository repository;
+
+  @Nullable
+  private ObjectId indexedHeadId;
+
+  // Map<Path, List<PathCommit>>, oldest commit first
+  private final Map<String, List<PathCommit>> commitsByPath = Maps.newHashMap();
+
+  public GitPathIndex(@NotNull Repository repository) {
+    this.repository = repository;
+  }
+
+  /**
+   * Get the commits that changed a path, or all the commits if no path is given.
+   *
+   * @param path a file or a folder path
+   * @return the commits, most recent first
+   * @throws IOException
+   */
+  @NotNull
+  public synchronized List<PathCommit> getCommits(@Nullable String path) throws IOException {
+    update();
+    List<PathCommit> commits = commitsByPath.get(normalizePath(path));
+    return commits == null ? ImmutableList.<PathCommit>of() : ImmutableList.copyOf(Lists.reverse(commits));
+  }
+
+  private void update() throws IOException {
+    ObjectId headId = repository.resolve(Constants.HEAD);
+    if(headId == null) {
+      commitsByPath.clear();
+      indexedHeadId = null;
+      return;
+    }
+    if(headId.equals(indexedHeadId)) return;
+
+    RevWalk revWalk = new RevWalk(repository);
+    // the commits messages are not indexed
+    revWalk.setRetainBody(false);
+    try {
+      List<RevCommit> added = Lists.newArrayList();
+      RevCommit commit = revWalk.parseCommit(headId);
+      while(!commit.equals(indexedHeadId)) {
+        added.add(commit);
+        if(commit.getParentCount() == 0) {
+          // the indexed head is not in the history anymore
+          commitsByPath.clear();
+          break;
+        }
+        commit = revWalk.parseCommit(commit.getParent(0));
+      }
+      for(RevCommit addedCommit : Lists.reverse(added)) {
+        index(revWalk, addedCommit);
+      }
+      indexedHeadId = headId.copy();
+    } finally {
+      revWalk.release();
+    }
+  }
+
+  private void index(RevWalk revWalk, RevCommit commit) throws IOException {
+    // Map<Path, All changes are deletions>
+    Map<String, Boolean> changedPaths = Maps.newHashMap();
+    TreeWalk treeWalk = new TreeWalk(revWalk.getObjectReader());
+    try {
+      treeWalk.setRecursive(true);
+      if(commit.getParentCount() == 0) {
+        treeWalk.addTree(new EmptyTreeIterator());
+      } else {
+        treeWalk.addTree(revWalk.parseCommit(commit.getParent(0)).getTree());
+      }
+      treeWalk.addTree(commit.getTree());
+      treeWalk.setFilter(TreeFilter.ANY_DIFF);
+      while(treeWalk.next()) {
+        boolean deleted = treeWalk.getFileMode(1) == FileMode.MISSING;
+        String path = treeWalk.getPathString();
+        // the file, its folders and the root
+        for(int idx = path.length(); idx > 0; idx = path.lastIndexOf('/', idx - 1)) {
+          addChange(changedPaths, path.substring(0, idx), deleted);
+        }
+        addChange(changedPaths, "", deleted);
+      }
+    } finally {
+      treeWalk.release();
+    }
+    // the root lists every commit, even the ones without changes
+    if(!changedPaths.containsKey("")) changedPaths.put("", false);
+
+    ObjectId commitId = commit.copy();
+    for(Map.Entry<String, Boolean> entry : changedPaths.entrySet()) {
+      List<PathCommit> commits = commitsByPath.get(entry.getKey());
+      if(commits == null) {
+        commits = Lists.newArrayList();
+        commitsByPath.put(entry.getKey(), commits);
+      }
+      commits.add(new PathCommit(commitId, entry.getValue()));
+    }
+  }
+
+  private void addChange(Map<String, Boolean> changedPaths, String path, boolean deleted) {
+    Boolean allDeleted = changedPaths.get(path);
+    changedPaths.put(path, (allDeleted == null || allDeleted) && deleted);
+  }
+
+  private String normalizePath(@Nullable String path) {
+    String normalized = Strings.nullToEmpty(path);
+    while(normalized.endsWith("/")) {
+      normalized = normalized.substring(0, normalized.length() - 1);
+    }
+    return normalized;
+  }
+
+  /**
+   * A commit that changed a path.
+   */
+  public static class PathCommit {
+
+    private final ObjectId commitId;
+
+    private final boolean deleted;
+
+    private PathCommit(ObjectId commitId, boolean deleted) {
+      this.commitId = commitId;
+      this.deleted = deleted;
+    }
+
+    public ObjectId getCommitId() {
+      return commitId;
+    }
+
+    /**
+     * @return true if all the changes of the commit on the path are deletions
+     */
+    public boolean isDeleted() {
+      return deleted;
+    }
+  }
+
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.cfg;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import org.easymock.EasyMock;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.obiba.magma.Datasource;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.Variable;
+import org.obiba.magma.js.MagmaJsExtension;
+import org.obiba.magma.js.views.VariablesClause;
+import org.obiba.magma.support.Initialisables;
+import org.obiba.magma.support.StaticValueTable;
+import org.obiba.magma.type.TextType;
+import org.obiba.magma.views.View;
+import org.obiba.magma.xstream.MagmaXStreamExtension;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.thoughtworks.xstream.XStream;
+
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+/**
+ * Round trips of the views through the bare git repository of a datasource.
+ */
+public class OpalViewPersistenceStrategyGitTest {
+
+  private static final String DATASOURCE = "opal-data";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ValueTable table;
+
+  private StubViewPersistenceStrategy viewPersistenceStrategy;
+
+  @Before
+  public void setUp() throws Exception {
+    System.setProperty(OpalViewPersistenceStrategy.OPAL_HOME_SYSTEM_PROPERTY_NAME, folder.getRoot().getAbsolutePath());
+    new MagmaEngine();
+    MagmaEngine.get().extend(new MagmaXStreamExtension());
+    MagmaEngine.get().extend(new MagmaJsExtension());
+    Datasource datasource = EasyMock.createNiceMock(Datasource.class);
+    expect(datasource.getName()).andReturn("ds").anyTimes();
+    EasyMock.replay(datasource);
+    table = new StaticValueTable(datasource, "table", ImmutableSet.<String>of());
+    viewPersistenceStrategy = new StubViewPersistenceStrategy();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_views_are_written_and_read_back() throws Exception {
+    viewPersistenceStrategy.writeViews(DATASOURCE,
+        ImmutableSet.of(newView("view1", "A", "'a'", "B", "'b'"), newView("view2", "C", "'c'")), null);
+
+    assertThat(getViewNames(viewPersistenceStrategy.readViews(DATASOURCE))).containsOnly("view1", "view2");
+    // read by another instance, without cache
+    assertThat(getViewNames(new OpalViewPersistenceStrategy().readViews(DATASOURCE))).containsOnly("view1", "view2");
+
+    Map<String, ObjectId> files = getHeadFiles();
+    assertThat(files.keySet())
+        .containsOnly("view1/View.xml", "view1/A.js", "view1/B.js", "view2/View.xml", "view2/C.js");
+    assertThat(readBlob(files.get("view1/B.js"))).isEqualTo("'b'");
+  }
+
+  @Test
+  public void test_only_the_changed_variable_script_is_written() throws Exception {
+    viewPersistenceStrategy.writeViews(DATASOURCE,
+        ImmutableSet.of(newView("view1", "A", "'a'", "B", "'b'"), newView("view2", "C", "'c'")), null);
+    ObjectId previousHead = getHead();
+    Map<String, ObjectId> previousFiles = getHeadFiles();
+
+    viewPersistenceStrategy.writeView(DATASOURCE, newView("view1", "A", "'a'", "B", "'bb'"), null);
+
+    assertThat(getParent(getHead())).isEqualTo(previousHead);
+    Map<String, ObjectId> files = getHeadFiles();
+    assertThat(files.keySet()).isEqualTo(previousFiles.keySet());
+    Set<String> changed = Sets.newHashSet();
+    for(Map.Entry<String, ObjectId> entry : files.entrySet()) {
+      if(!entry.getValue().equals(previousFiles.get(entry.getKey()))) changed.add(entry.getKey());
+    }
+    // the view file holds the variables too
+    assertThat(changed).containsOnly("view1/View.xml", "view1/B.js");
+    assertThat(readBlob(files.get("view1/B.js"))).isEqualTo("'bb'");
+  }
+
+  @Test
+  public void test_scripts_of_removed_variables_and_views_are_deleted() throws Exception {
+    viewPersistenceStrategy.writeViews(DATASOURCE,
+        ImmutableSet.of(newView("view1", "A", "'a'", "B", "'b'"), newView("view2", "C", "'c'")), null);
+
+    viewPersistenceStrategy.writeView(DATASOURCE, newView("view1", "A", "'a'"), null);
+    assertThat(getHeadFiles().keySet()).containsOnly("view1/View.xml", "view1/A.js", "view2/View.xml", "view2/C.js");
+
+    viewPersistenceStrategy.removeView(DATASOURCE, "view1");
+    assertThat(getHeadFiles().keySet()).containsOnly("view2/View.xml", "view2/C.js");
+    assertThat(getViewNames(viewPersistenceStrategy.readViews(DATASOURCE))).containsOnly("view2");
+  }
+
+  @Test
+  public void test_write_is_rejected_when_head_moved() throws Exception {
+    viewPersistenceStrategy.writeView(DATASOURCE, newView("view1", "A", "'a'"), null);
+
+    viewPersistenceStrategy.moveHead = true;
+    try {
+      viewPersistenceStrategy.writeView(DATASOURCE, newView("view1", "A", "'aa'"), null);
+      fail("Write should have been rejected");
+    } catch(RuntimeException e) {
+      assertThat(e.getCause()).isInstanceOf(IOException.class);
+      assertThat(e.getCause().getMessage()).contains(RefUpdate.Result.LOCK_FAILURE.name());
+    }
+
+    // the concurrent commit is kept
+    assertThat(getHead()).isEqualTo(viewPersistenceStrategy.concurrentCommit);
+    assertThat(readBlob(getHeadFiles().get("view1/A.js"))).isEqualTo("'a'");
+  }
+
+  @Test
+  public void test_views_are_read_from_cache_until_head_moves() throws Exception {
+    viewPersistenceStrategy.writeView(DATASOURCE, newView("view1", "A", "'a'"), null);
+    Set<View> views = viewPersistenceStrategy.readViews(DATASOURCE);
+
+    // the repository objects are not read while the head does not move
+    File objects = new File(getRepositoryDirectory(), "objects");
+    File movedObjects = new File(folder.getRoot(), "objects");
+    assertThat(objects.renameTo(movedObjects)).isTrue();
+    Set<View> cachedViews = viewPersistenceStrategy.readViews(DATASOURCE);
+    assertThat(getViewNames(cachedViews)).containsOnly("view1");
+    // each read gets its own views
+    assertThat(cachedViews.iterator().next()).isNotSameAs(views.iterator().next());
+    assertThat(movedObjects.renameTo(objects)).isTrue();
+
+    // written by another instance
+    new OpalViewPersistenceStrategy().writeView(DATASOURCE, newView("view2", "B", "'b'"), null);
+    assertThat(getViewNames(viewPersistenceStrategy.readViews(DATASOURCE))).containsOnly("view1", "view2");
+  }
+
+  @Test
+  public void test_views_are_not_read_from_cache_once_removed() throws Exception {
+    viewPersistenceStrategy.writeView(DATASOURCE, newView("view1", "A", "'a'"), null);
+    assertThat(viewPersistenceStrategy.readViews(DATASOURCE)).hasSize(1);
+
+    viewPersistenceStrategy.removeViews(DATASOURCE);
+    assertThat(getRepositoryDirectory().exists()).isFalse();
+    assertThat(viewPersistenceStrategy.readViews(DATASOURCE)).isEmpty();
+  }
+
+  private View newView(String name, String... variableScripts) throws Exception {
+    Set<Variable> variables = Sets.newLinkedHashSet();
+    for(int i = 0; i < variableScripts.length; i += 2) {
+      variables.add(Variable.Builder.newVariable(variableScripts[i], TextType.get(), "Participant")
+          .addAttribute("script", variableScripts[i + 1]).build());
+    }
+    VariablesClause listClause = new VariablesClause();
+    listClause.setVariables(variables);
+    View view = View.Builder.newView(name, table).list(listClause).build();
+    Initialisables.initialise(view);
+    return view;
+  }
+
+  private static Set<String> getViewNames(Iterable<View> views) {
+    Set<String> names = Sets.newHashSet();
+    for(View view : views) {
+      names.add(view.getName());
+    }
+    return names;
+  }
+
+  private File getRepositoryDirectory() {
+    return new File(folder.getRoot(), OpalViewPersistenceStrategy.GIT_DIRECTORY_NAME + File.separator +
+        OpalViewPersistenceStrategy.VIEWS_DIRECTORY_NAME + File.separator + DATASOURCE + ".git");
+  }
+
+  private Repository openRepository() throws IOException {
+    return new FileRepository(getRepositoryDirectory());
+  }
+
+  private ObjectId getHead() throws IOException {
+    Repository repository = openRepository();
+    try {
+      return repository.resolve(Constants.HEAD);
+    } finally {
+      repository.close();
+    }
+  }
+
+  private ObjectId getParent(ObjectId commitId) throws IOException {
+    Repository repository = openRepository();
+    RevWalk revWalk = new RevWalk(repository);
+    try {
+      RevCommit commit = revWalk.parseCommit(commitId);
+      assertThat(commit.getParentCount()).isEqualTo(1);
+      return commit.getParent(0).getId();
+    } finally {
+      revWalk.release();
+      repository.close();
+    }
+  }
+
+  /**
+   * Paths and blobs of the files of the head commit.
+   */
+  private Map<String, ObjectId> getHeadFiles() throws IOException {
+    Map<String, ObjectId> files = Maps.newHashMap();
+    Repository repository = openRepository();
+    RevWalk revWalk = new RevWalk(repository);
+    TreeWalk treeWalk = new TreeWalk(repository);
+    try {
+      treeWalk.addTree(revWalk.parseCommit(repository.resolve(Constants.HEAD)).getTree());
+      treeWalk.setRecursive(true);
+      while(treeWalk.next()) {
+        files.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+      }
+    } finally {
+      treeWalk.release();
+      revWalk.release();
+      repository.close();
+    }
+    return files;
+  }
+
+  private String readBlob(ObjectId blobId) throws IOException {
+    Repository repository = openRepository();
+    try {
+      return new String(repository.open(blobId).getBytes(), Constants.CHARSET);
+    } finally {
+      repository.close();
+    }
+  }
+
+  /**
+   * Commit the head tree again, as another writer of the repository would do.
+   */
+  private ObjectId commitConcurrently() throws IOException {
+    Repository repository = openRepository();
+    ObjectInserter inserter = repository.newObjectInserter();
+    RevWalk revWalk = new RevWalk(repository);
+    try {
+      ObjectId headId = repository.resolve(Constants.HEAD);
+      CommitBuilder commit = new CommitBuilder();
+      commit.setTreeId(revWalk.parseCommit(headId).getTree());
+      commit.setParentId(headId);
+      commit.setAuthor(new PersonIdent("other", "other@obiba.org"));
+      commit.setCommitter(new PersonIdent("other", "other@obiba.org"));
+      commit.setMessage("Concurrent commit");
+      ObjectId commitId = inserter.insert(commit);
+      inserter.flush();
+
+      RefUpdate refUpdate = repository.updateRef(Constants.HEAD);
+      refUpdate.setNewObjectId(commitId);
+      refUpdate.setExpectedOldObjectId(headId);
+      assertThat(refUpdate.update()).isEqualTo(RefUpdate.Result.FAST_FORWARD);
+      return commitId;
+    } finally {
+      revWalk.release();
+      inserter.release();
+      repository.close();
+    }
+  }
+
+  /**
+   * Moves the head of the repository while a write is in progress, if requested: the views are serialized once the
+   * head commit has been resolved, and before the new commit is made.
+   */
+  private class StubViewPersistenceStrategy extends OpalViewPersistenceStrategy {
+
+    private boolean moveHead;
+
+    private ObjectId concurrentCommit;
+
+    @Override
+    protected XStream getXStream() {
+      if(moveHead) {
+        moveHead = false;
+        try {
+          concurrentCommit = commitConcurrently();
+        } catch(IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return super.getXStream();
+    }
+  }
+
+}
@@ -49,6 +49,25 @@ public class DefaultParticipantIdentifierImplTest {
     }
   }
 
+  @Test
+  public void testGenerateParticipantIdentifiersAreDistinct() {
+    Set<String> ids = participantIdentifier.generateIdentifiers(1000);
+    assertThat(ids).hasSize(1000);
+    for(String id : ids) {
+      assertThat(id.length()).isEqualTo(10);
+    }
+  }
+
+  @Test
+  public void testGenerateParticipantIdentifiersWhenIdentifiersAreExhausted() {
+    // only 10 distinct identifiers can be generated
+    participantIdentifier.setKeySize(1);
+    participantIdentifier.setAllowStartWithZero(true);
+    Set<String> ids = participantIdentifier.generateIdentifiers(20);
+    assertThat(ids.size()).isLessThanOrEqualTo(10);
+    assertThat(ids).isNotEmpty();
+  }
+
   @Test
   public void testRandomDistributionForGeneratedIdentifiers() {
     // Allow start with zero to obtain a uniform distribution.
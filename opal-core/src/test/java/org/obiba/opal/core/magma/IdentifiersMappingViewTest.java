@@ -23,6 +23,7 @@ import org.obiba.magma.support.VariableEntityBean;
 import org.obiba.magma.type.IntegerType;
 import org.obiba.magma.type.TextType;
 import org.obiba.opal.core.magma.IdentifiersMappingView.Policy;
+import org.obiba.opal.core.service.IdentifiersMappingCache;
 
 import com.google.common.collect.ImmutableSet;
 
@@ -39,6 +40,8 @@ public class IdentifiersMappingViewTest {
 
   private StaticValueTable keysTable;
 
+  private final IdentifiersMappingCache identifiersMappingCache = new IdentifiersMappingCache();
+
   @Before
   public void setupDataAndKeysTable() {
     MagmaEngine.get();
@@ -194,11 +197,13 @@ public class IdentifiersMappingViewTest {
   }
 
   private IdentifiersMappingView createViewOnOpalDataTable() {
-    return new IdentifiersMappingView("keys-variable", Policy.UNIT_IDENTIFIERS_ARE_PUBLIC, opalDataTable, keysTable);
+    return new IdentifiersMappingView("keys-variable", Policy.UNIT_IDENTIFIERS_ARE_PUBLIC, opalDataTable, keysTable,
+        identifiersMappingCache);
   }
 
   private IdentifiersMappingView createViewOnUnitDataTable() {
-    return new IdentifiersMappingView("keys-variable", Policy.UNIT_IDENTIFIERS_ARE_PRIVATE, unitDataTable, keysTable);
+    return new IdentifiersMappingView("keys-variable", Policy.UNIT_IDENTIFIERS_ARE_PRIVATE, unitDataTable, keysTable,
+        identifiersMappingCache);
   }
 
 }
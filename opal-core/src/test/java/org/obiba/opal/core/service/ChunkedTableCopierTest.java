@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.validation.constraints.NotNull;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.obiba.magma.Datasource;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.support.StaticValueTable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class ChunkedTableCopierTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private StaticValueTable table;
+
+  private File checkpointsDirectory;
+
+  private ChunkedTableCopier copier;
+
+  @Before
+  public void setUp() throws IOException {
+    MagmaEngine.get();
+    table = new StaticValueTable(EasyMock.createMock(Datasource.class), "table",
+        ImmutableSet.of("5", "3", "1", "4", "2"));
+    TransactionTemplate txTemplate = new TransactionTemplate(EasyMock.createNiceMock(PlatformTransactionManager.class));
+    checkpointsDirectory = folder.newFolder();
+    copier = new ChunkedTableCopier(txTemplate, 2, checkpointsDirectory);
+  }
+
+  @After
+  public void stopYourEngine() {
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_copy_by_chunks() throws Exception {
+    RecordingChunkCopy chunkCopy = new RecordingChunkCopy(-1);
+    copier.copy(table, "key", false, chunkCopy);
+    assertThat(chunkCopy.chunks).containsExactly("1,2", "3,4", "5");
+  }
+
+  @Test
+  public void test_copy_resumes_after_checkpoint() throws Exception {
+    failCopy(table);
+
+    RecordingChunkCopy resumed = new RecordingChunkCopy(-1);
+    copier.copy(table, "key", true, resumed);
+    assertThat(resumed.chunks).containsExactly("3,4", "5");
+
+    // checkpoint is removed once the copy is complete
+    RecordingChunkCopy again = new RecordingChunkCopy(-1);
+    copier.copy(table, "key", true, again);
+    assertThat(again.chunks).containsExactly("1,2", "3,4", "5");
+  }
+
+  @Test
+  public void test_fresh_copy_ignores_stale_checkpoint() throws Exception {
+    failCopy(table);
+
+    RecordingChunkCopy fresh = new RecordingChunkCopy(-1);
+    copier.copy(table, "key", false, fresh);
+    assertThat(fresh.chunks).containsExactly("1,2", "3,4", "5");
+    assertThat(checkpointsDirectory.list()).isEmpty();
+  }
+
+  @Test
+  public void test_copy_of_changed_table_is_not_resumed() throws Exception {
+    failCopy(table);
+
+    // entities were added to the source table since the failed copy
+    StaticValueTable changed = new StaticValueTable(EasyMock.createMock(Datasource.class), "table",
+        ImmutableSet.of("5", "3", "1", "4", "2", "6"));
+    RecordingChunkCopy resumed = new RecordingChunkCopy(-1);
+    copier.copy(changed, "key", true, resumed);
+    assertThat(resumed.chunks).containsExactly("1,2", "3,4", "5,6");
+  }
+
+  @Test
+  public void test_old_checkpoints_are_purged() throws Exception {
+    failCopy(table);
+    File checkpoint = checkpointsDirectory.listFiles()[0];
+    assertThat(checkpoint.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8))).isTrue();
+
+    // copy of another table
+    copier.copy(table, "other", false, new RecordingChunkCopy(-1));
+    assertThat(checkpoint.exists()).isFalse();
+  }
+
+  private void failCopy(ValueTable valueTable) throws Exception {
+    RecordingChunkCopy failing = new RecordingChunkCopy(1);
+    try {
+      copier.copy(valueTable, "key", false, failing);
+      fail("Copy should have failed");
+    } catch(IOException e) {
+      // expected
+    }
+    assertThat(failing.chunks).containsExactly("1,2");
+    assertThat(checkpointsDirectory.list()).hasSize(1);
+  }
+
+  private static class RecordingChunkCopy implements ChunkedTableCopier.ChunkCopy {
+
+    private final List<String> chunks = Lists.newArrayList();
+
+    private final int failingChunk;
+
+    private RecordingChunkCopy(int failingChunk) {
+      this.failingChunk = failingChunk;
+    }
+
+    @Override
+    public void copy(@NotNull ValueTable chunk) throws Exception {
+      if(chunks.size() == failingChunk) throw new IOException("Copy failure");
+      StringBuilder identifiers = new StringBuilder();
+      for(VariableEntity entity : chunk.getVariableEntities()) {
+        if(identifiers.length() > 0) identifiers.append(',');
+        identifiers.append(entity.getIdentifier());
+      }
+      chunks.add(identifiers.toString());
+    }
+  }
+
+}
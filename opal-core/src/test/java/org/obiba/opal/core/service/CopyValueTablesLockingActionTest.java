@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.Datasource;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.support.StaticValueTable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class CopyValueTablesLockingActionTest {
+
+  private final List<String> events = Collections.synchronizedList(Lists.<String>newArrayList());
+
+  private IdentifiersTableService identifiersTableService;
+
+  private IdentifierService identifierService;
+
+  private Datasource destination;
+
+  private TransactionTemplate txTemplate;
+
+  @Before
+  public void setUp() {
+    MagmaEngine.get();
+    Datasource source = EasyMock.createNiceMock(Datasource.class);
+    EasyMock.replay(source);
+    ValueTable identifiersTable = new StaticValueTable(source, "keys", ImmutableSet.<String>of());
+
+    identifiersTableService = EasyMock.createNiceMock(IdentifiersTableService.class);
+    expect(identifiersTableService.hasIdentifiersTable(anyString())).andReturn(true).anyTimes();
+    expect(identifiersTableService.getTableReference(anyString())).andReturn("keys.Participant").anyTimes();
+    expect(identifiersTableService.getIdentifiersTable(anyString())).andReturn(identifiersTable).anyTimes();
+
+    identifierService = EasyMock.createMock(IdentifierService.class);
+    identifierService.addIdentifiers(anyString(), EasyMock.<Iterable<VariableEntity>>anyObject());
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+      @Override
+      public Object answer() throws Throwable {
+        events.add("identifiers");
+        return null;
+      }
+    }).times(2);
+
+    destination = EasyMock.createNiceMock(Datasource.class);
+    expect(destination.getName()).andReturn("destination").anyTimes();
+    expect(destination.createWriter(anyString(), anyString())).andThrow(new RuntimeException("copy failure"))
+        .anyTimes();
+
+    txTemplate = new TransactionTemplate(new RecordingTransactionManager());
+    EasyMock.replay(identifiersTableService, identifierService, destination);
+  }
+
+  @After
+  public void stopYourEngine() {
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_single_transaction_when_not_concurrent() {
+    assertThat(newAction(1).isSingleTransaction()).isTrue();
+    assertThat(newAction(2).isSingleTransaction()).isFalse();
+  }
+
+  @Test
+  public void test_concurrent_copy_failure_keeps_identifiers() {
+    try {
+      newAction(2).execute();
+      fail("Copy should have failed");
+    } catch(InvocationTargetException e) {
+      assertThat(e.getCause()).hasMessage("copy failure");
+    }
+    EasyMock.verify(identifierService);
+
+    // identifiers are committed in their own transaction before the copies, that are rolled back
+    assertThat(events.subList(0, 4)).containsExactly("begin", "identifiers", "identifiers", "commit");
+    assertThat(events.subList(4, events.size())).contains("rollback").doesNotContain("identifiers");
+  }
+
+  private CopyValueTablesLockingAction newAction(int concurrency) {
+    Datasource source = EasyMock.createNiceMock(Datasource.class);
+    expect(source.getName()).andReturn("source").anyTimes();
+    EasyMock.replay(source);
+    ImmutableSet<ValueTable> tables = ImmutableSet.<ValueTable>of(
+        new StaticValueTable(source, "table1", ImmutableSet.of("1", "2")),
+        new StaticValueTable(source, "table2", ImmutableSet.of("3", "4")));
+    return new CopyValueTablesLockingAction(identifiersTableService, identifierService, txTemplate, tables,
+        destination, false, false, concurrency, 0, false);
+  }
+
+  private class RecordingTransactionManager implements PlatformTransactionManager {
+
+    @Override
+    public TransactionStatus getTransaction(TransactionDefinition definition) {
+      events.add("begin");
+      return new SimpleTransactionStatus();
+    }
+
+    @Override
+    public void commit(TransactionStatus status) {
+      events.add("commit");
+    }
+
+    @Override
+    public void rollback(TransactionStatus status) {
+      events.add("rollback");
+    }
+  }
+
+}
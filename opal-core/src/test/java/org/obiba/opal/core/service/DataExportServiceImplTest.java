@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.obiba.magma.Datasource;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.datasource.csv.CsvDatasource;
+import org.obiba.magma.datasource.csv.support.CsvUtil;
+import org.obiba.magma.support.DatasourceCopier;
+import org.obiba.magma.support.Initialisables;
+import org.obiba.magma.support.StaticValueTable;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.type.TextType;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class DataExportServiceImplTest {
+
+  private static final int TABLES = 4;
+
+  private static final Set<String> ENTITIES = ImmutableSet.of("1", "2", "3", "4", "5");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Datasource source;
+
+  private DataExportServiceImpl dataExportService;
+
+  @Before
+  public void setUp() {
+    MagmaEngine.get();
+    source = EasyMock.createNiceMock(Datasource.class);
+    expect(source.getName()).andReturn("source").anyTimes();
+    EasyMock.replay(source);
+    TransactionTemplate txTemplate = new TransactionTemplate(EasyMock.createNiceMock(PlatformTransactionManager.class));
+    dataExportService = new DataExportServiceImpl(Executors.defaultThreadFactory(), txTemplate,
+        EasyMock.createMock(IdentifiersTableService.class), new IdentifiersMappingCache(), 0, TABLES);
+  }
+
+  @After
+  public void stopYourEngine() {
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_tables_exported_concurrently_to_csv_have_their_own_copier() throws Exception {
+    Set<ValueTable> tables = Sets.newLinkedHashSet();
+    for(int i = 0; i < TABLES; i++) {
+      tables.add(newTable("table" + i));
+    }
+    File directory = folder.newFolder();
+    final CsvDatasource destination = newCsvDatasource(directory, tables);
+
+    final List<DatasourceCopier.Builder> copiers = Lists.newCopyOnWriteArrayList();
+    dataExportService.exportTablesToDatasource(null, tables, destination, new Supplier<DatasourceCopier.Builder>() {
+      @Override
+      public DatasourceCopier.Builder get() {
+        DatasourceCopier.Builder copier = dataExportService.newCopier(destination);
+        copiers.add(copier);
+        return copier;
+      }
+    }, false, false);
+
+    assertThat(copiers).hasSize(TABLES);
+    assertThat(Sets.newIdentityHashSet(copiers)).hasSize(TABLES);
+
+    // read back what was written
+    Datasource exported = newCsvDatasource(directory, tables);
+    for(ValueTable table : tables) {
+      ValueTable exportedTable = exported.getValueTable(table.getName());
+      assertThat(exportedTable.getVariableEntities()).hasSize(ENTITIES.size());
+      for(String identifier : ENTITIES) {
+        VariableEntity entity = new VariableEntityBean("Participant", identifier);
+        assertThat(exportedTable.getValue(exportedTable.getVariable("A"), exportedTable.getValueSet(entity))
+            .toString()).isEqualTo(table.getName() + "-" + identifier);
+      }
+    }
+  }
+
+  private ValueTable newTable(String name) {
+    StaticValueTable table = new StaticValueTable(source, name, ENTITIES);
+    table.addVariables(TextType.get(), "A");
+    for(String identifier : ENTITIES) {
+      table.addValues(identifier, "A", name + "-" + identifier);
+    }
+    return table;
+  }
+
+  private CsvDatasource newCsvDatasource(File directory, Iterable<ValueTable> tables) throws IOException {
+    CsvDatasource csv = new CsvDatasource("csv");
+    for(ValueTable table : tables) {
+      File tableDirectory = new File(directory, table.getName());
+      File variables = new File(tableDirectory, CsvDatasource.VARIABLES_FILE);
+      File data = new File(tableDirectory, CsvDatasource.DATA_FILE);
+      if(tableDirectory.mkdir()) {
+        assertThat(variables.createNewFile()).isTrue();
+        assertThat(data.createNewFile()).isTrue();
+      }
+      csv.addValueTable(table.getName(), variables, data);
+      csv.setVariablesHeader(table.getName(), CsvUtil.getCsvVariableHeader(table));
+    }
+    Initialisables.initialise(csv);
+    return csv;
+  }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.validation.constraints.NotNull;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.Timestamps;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.VectorSource;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.type.DateTimeType;
+import org.obiba.magma.type.TextType;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class IdentifiersMappingCacheTest {
+
+  private static final String ENTITY_TYPE = "Participant";
+
+  private Variable ownerVariable;
+
+  // public identifiers and their private identifier, as stored in the identifiers table
+  private final ConcurrentMap<String, String> rows = Maps.newConcurrentMap();
+
+  private volatile long lastUpdate;
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private IdentifiersMappingCache cache;
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    new MagmaEngine();
+    ownerVariable = Variable.Builder.newVariable("unit", TextType.get(), ENTITY_TYPE).build();
+    cache = new IdentifiersMappingCache();
+    executor = Executors.newFixedThreadPool(4);
+    write("P1", "U1");
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_mapping_is_shared_by_table_reference() {
+    IdentifiersMappingCache.Mapping mapping = cache.get(newKeysTable("ds.keys"), ownerVariable);
+
+    assertThat(cache.get(newKeysTable("ds.keys"), ownerVariable)).isSameAs(mapping);
+    assertThat(cache.get(newKeysTable("other.keys"), ownerVariable)).isNotSameAs(mapping);
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void test_mapping_is_reloaded_after_external_write() {
+    ValueTable keysTable = newKeysTable("ds.keys");
+    assertThat(cache.get(keysTable, ownerVariable).getPrivateIdentifier("P2")).isNull();
+
+    write("P2", "U2");
+
+    IdentifiersMappingCache.Mapping mapping = cache.get(keysTable, ownerVariable);
+    assertThat(mapping.getPrivateIdentifier("P2")).isEqualTo("U2");
+    assertThat(mapping.getPublicIdentifier("U1")).isEqualTo("P1");
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void test_written_identifiers_do_not_reload_mapping() {
+    ValueTable keysTable = newKeysTable("ds.keys");
+    IdentifiersMappingCache.Mapping mapping = cache.get(keysTable, ownerVariable);
+
+    Value updatedBefore = mapping.getLastUpdate();
+    write("P2", "U2");
+    mapping.reserve("P2", "U2");
+    mapping.written(updatedBefore);
+    mapping.publish("P2", "U2");
+
+    assertThat(cache.get(keysTable, ownerVariable).getPrivateIdentifier("P2")).isEqualTo("U2");
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void test_written_identifiers_do_not_hide_external_write() {
+    ValueTable keysTable = newKeysTable("ds.keys");
+    IdentifiersMappingCache.Mapping mapping = cache.get(keysTable, ownerVariable);
+
+    // another process writes in the identifiers table before the mapping is refreshed
+    write("P2", "U2");
+
+    Value updatedBefore = mapping.getLastUpdate();
+    write("P3", "U3");
+    mapping.reserve("P3", "U3");
+    mapping.written(updatedBefore);
+    mapping.publish("P3", "U3");
+
+    mapping = cache.get(keysTable, ownerVariable);
+    assertThat(mapping.getPrivateIdentifier("P2")).isEqualTo("U2");
+    assertThat(mapping.getPrivateIdentifier("P3")).isEqualTo("U3");
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void test_concurrent_lookups_while_mapping_is_reloaded() throws Exception {
+    final int writes = 200;
+    List<Future<Integer>> readers = Lists.newArrayList();
+    for(int i = 0; i < 3; i++) {
+      readers.add(executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          int lookups = 0;
+          while(rows.size() <= writes) {
+            IdentifiersMappingCache.Mapping mapping = cache.get(newKeysTable("ds.keys"), ownerVariable);
+            assertThat(mapping.getPrivateIdentifier("P1")).isEqualTo("U1");
+            assertThat(mapping.getPublicIdentifier("U1")).isEqualTo("P1");
+            lookups++;
+          }
+          return lookups;
+        }
+      }));
+    }
+    Future<?> writer = executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        for(int i = 2; i <= writes + 1; i++) {
+          write("P" + i, "U" + i);
+        }
+        return null;
+      }
+    });
+
+    writer.get();
+    for(Future<Integer> reader : readers) {
+      assertThat(reader.get()).isGreaterThan(0);
+    }
+    IdentifiersMappingCache.Mapping mapping = cache.get(newKeysTable("ds.keys"), ownerVariable);
+    for(int i = 1; i <= writes + 1; i++) {
+      assertThat(mapping.getPrivateIdentifier("P" + i)).isEqualTo("U" + i);
+    }
+  }
+
+  /**
+   * Write in the identifiers table, which last update changes.
+   */
+  private void write(String publicIdentifier, String privateIdentifier) {
+    rows.put(publicIdentifier, privateIdentifier);
+    lastUpdate++;
+  }
+
+  /**
+   * New instance of the identifiers table, which identifiers are read with a vector.
+   */
+  @SuppressWarnings("unchecked")
+  private ValueTable newKeysTable(String reference) {
+    VectorSource vectorSource = EasyMock.createMock(VectorSource.class);
+    expect(vectorSource.getValues(anyObject(SortedSet.class))).andAnswer(new IAnswer<Iterable<Value>>() {
+      @Override
+      public Iterable<Value> answer() throws Throwable {
+        loads.incrementAndGet();
+        List<Value> values = Lists.newArrayList();
+        for(VariableEntity entity : (Iterable<VariableEntity>) EasyMock.getCurrentArguments()[0]) {
+          values.add(TextType.get().valueOf(rows.get(entity.getIdentifier())));
+        }
+        return values;
+      }
+    }).anyTimes();
+
+    VariableValueSource ownerSource = EasyMock.createMock(VariableValueSource.class);
+    expect(ownerSource.supportVectorSource()).andReturn(true).anyTimes();
+    expect(ownerSource.asVectorSource()).andReturn(vectorSource).anyTimes();
+
+    ValueTable keysTable = EasyMock.createMock(ValueTable.class);
+    expect(keysTable.getTableReference()).andReturn(reference).anyTimes();
+    expect(keysTable.getVariableValueSource(ownerVariable.getName())).andReturn(ownerSource).anyTimes();
+    expect(keysTable.getVariableEntities()).andAnswer(new IAnswer<Set<VariableEntity>>() {
+      @Override
+      public Set<VariableEntity> answer() throws Throwable {
+        Set<VariableEntity> entities = Sets.newHashSet();
+        for(String identifier : rows.keySet()) {
+          entities.add(new VariableEntityBean(ENTITY_TYPE, identifier));
+        }
+        return entities;
+      }
+    }).anyTimes();
+    expect(keysTable.getTimestamps()).andReturn(new Timestamps() {
+      @NotNull
+      @Override
+      public Value getLastUpdate() {
+        return DateTimeType.get().valueOf(new Date(lastUpdate));
+      }
+
+      @NotNull
+      @Override
+      public Value getCreated() {
+        return DateTimeType.get().valueOf(new Date(0));
+      }
+    }).anyTimes();
+
+    EasyMock.replay(vectorSource, ownerSource, keysTable);
+    return keysTable;
+  }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service;
+
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.Datasource;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.ValueTableWriter;
+import org.obiba.magma.ValueTableWriter.ValueSetWriter;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VariableValueSource;
+import org.obiba.magma.support.NullTimestamps;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.type.TextType;
+import org.obiba.opal.core.identifiers.IdentifierGenerator;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class OpalPrivateVariableEntityMapTest {
+
+  private static final String ENTITY_TYPE = "Participant";
+
+  private Variable ownerVariable;
+
+  // public identifiers written in the keys table, by writer
+  private final List<List<String>> writtenBatches = Lists.newArrayList();
+
+  private final Deque<String> generatedIdentifiers = Lists.newLinkedList();
+
+  private final IdentifiersMappingCache identifiersMappingCache = new IdentifiersMappingCache();
+
+  private ValueTable keysTable;
+
+  private IdentifierGenerator identifierGenerator;
+
+  private OpalPrivateVariableEntityMap entityMap;
+
+  @Before
+  public void setUp() {
+    new MagmaEngine();
+    ownerVariable = Variable.Builder.newVariable("unit", TextType.get(), ENTITY_TYPE).build();
+    // P1 <--> U1 is already mapped
+    keysTable = newKeysTable(newEntity("P1"), "U1");
+    identifierGenerator = new IdentifierGenerator() {
+      @Override
+      public String generateIdentifier() {
+        return generatedIdentifiers.pop();
+      }
+
+      @Override
+      public Set<String> generateIdentifiers(int count) {
+        Set<String> identifiers = Sets.newLinkedHashSet();
+        for(int i = 0; i < count && !generatedIdentifiers.isEmpty(); i++) {
+          identifiers.add(generatedIdentifiers.pop());
+        }
+        return identifiers;
+      }
+    };
+    entityMap = new OpalPrivateVariableEntityMap(keysTable, ownerVariable, identifierGenerator,
+        identifiersMappingCache);
+  }
+
+  @After
+  public void stopYourEngine() {
+    if(TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_create_public_entities_are_unique() {
+    generatedIdentifiers.addAll(ImmutableList.of("P2", "P3", "P4"));
+
+    Map<VariableEntity, VariableEntity> publicEntities = entityMap
+        .createPublicEntities(ImmutableList.of(newEntity("U2"), newEntity("U3"), newEntity("U4")), 10);
+
+    assertThat(publicEntities).hasSize(3);
+    assertThat(publicEntities.get(newEntity("U2"))).isEqualTo(newEntity("P2"));
+    assertThat(publicEntities.get(newEntity("U4"))).isEqualTo(newEntity("P4"));
+    assertThat(entityMap.privateEntity(newEntity("P3"))).isEqualTo(newEntity("U3"));
+  }
+
+  @Test
+  public void test_create_public_entities_skips_mapped_identifiers() {
+    // P1 is already mapped, P2 is generated twice
+    generatedIdentifiers.addAll(ImmutableList.of("P1", "P2", "P2", "P3"));
+
+    Map<VariableEntity, VariableEntity> publicEntities = entityMap
+        .createPublicEntities(ImmutableList.of(newEntity("U2"), newEntity("U3")), 10);
+
+    assertThat(publicEntities.values()).containsOnly(newEntity("P2"), newEntity("P3"));
+    assertThat(entityMap.privateEntity(newEntity("P1"))).isEqualTo(newEntity("U1"));
+    assertThat(writtenBatches).hasSize(1);
+    assertThat(writtenBatches.get(0)).containsOnly("P2", "P3");
+  }
+
+  @Test
+  public void test_create_public_entities_writes_by_batches() {
+    generatedIdentifiers.addAll(ImmutableList.of("P2", "P3", "P4", "P5", "P6"));
+
+    entityMap.createPublicEntities(ImmutableList
+        .of(newEntity("U2"), newEntity("U3"), newEntity("U4"), newEntity("U5"), newEntity("U6")), 2);
+
+    assertThat(writtenBatches).hasSize(3);
+    assertThat(writtenBatches.get(0)).containsExactly("P2", "P3");
+    assertThat(writtenBatches.get(1)).containsExactly("P4", "P5");
+    assertThat(writtenBatches.get(2)).containsExactly("P6");
+    assertThat(entityMap.hasPublicEntity(newEntity("P6"))).isTrue();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void test_create_public_entities_fails_when_identifiers_are_exhausted() {
+    generatedIdentifiers.addAll(ImmutableList.of("P1", "P2"));
+    entityMap.createPublicEntities(ImmutableList.of(newEntity("U2"), newEntity("U3")), 10);
+  }
+
+  @Test
+  public void test_created_entities_are_shared_once_committed() {
+    TransactionSynchronizationManager.initSynchronization();
+    generatedIdentifiers.addAll(ImmutableList.of("P2"));
+    entityMap.createPublicEntities(ImmutableList.of(newEntity("U2")), 10);
+
+    OpalPrivateVariableEntityMap otherEntityMap = newEntityMap();
+    assertThat(entityMap.privateEntity(newEntity("P2"))).isEqualTo(newEntity("U2"));
+    assertThat(otherEntityMap.privateEntity(newEntity("P2"))).isNull();
+
+    completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+
+    assertThat(otherEntityMap.privateEntity(newEntity("P2"))).isEqualTo(newEntity("U2"));
+    assertThat(entityMap.privateEntity(newEntity("P2"))).isEqualTo(newEntity("U2"));
+  }
+
+  @Test
+  public void test_created_entities_are_not_shared_once_rolled_back() {
+    TransactionSynchronizationManager.initSynchronization();
+    generatedIdentifiers.addAll(ImmutableList.of("P2"));
+    entityMap.createPublicEntities(ImmutableList.of(newEntity("U2")), 10);
+
+    // P2 is reserved until the transaction completes
+    generatedIdentifiers.addAll(ImmutableList.of("P2", "P3"));
+    Map<VariableEntity, VariableEntity> publicEntities = newEntityMap()
+        .createPublicEntities(ImmutableList.of(newEntity("U3")), 10);
+    assertThat(publicEntities.get(newEntity("U3"))).isEqualTo(newEntity("P3"));
+
+    completeTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+    assertThat(entityMap.privateEntity(newEntity("P2"))).isNull();
+    assertThat(newEntityMap().privateEntity(newEntity("P2"))).isNull();
+  }
+
+  private OpalPrivateVariableEntityMap newEntityMap() {
+    return new OpalPrivateVariableEntityMap(keysTable, ownerVariable, identifierGenerator, identifiersMappingCache);
+  }
+
+  private static void completeTransaction(int status) {
+    List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+    TransactionSynchronizationManager.clearSynchronization();
+    for(TransactionSynchronization synchronization : synchronizations) {
+      synchronization.afterCompletion(status);
+    }
+  }
+
+  private static VariableEntity newEntity(String identifier) {
+    return new VariableEntityBean(ENTITY_TYPE, identifier);
+  }
+
+  private ValueTable newKeysTable(VariableEntity mappedEntity, String mappedIdentifier) {
+    ValueSet valueSet = EasyMock.createMock(ValueSet.class);
+    expect(valueSet.getVariableEntity()).andReturn(mappedEntity).anyTimes();
+
+    VariableValueSource ownerSource = EasyMock.createMock(VariableValueSource.class);
+    expect(ownerSource.supportVectorSource()).andReturn(false).anyTimes();
+    expect(ownerSource.getValue(valueSet)).andReturn(TextType.get().valueOf(mappedIdentifier)).anyTimes();
+
+    Datasource datasource = EasyMock.createMock(Datasource.class);
+    expect(datasource.createWriter("keys", ENTITY_TYPE)).andAnswer(new IAnswer<ValueTableWriter>() {
+      @Override
+      public ValueTableWriter answer() throws Throwable {
+        return newRecordingWriter();
+      }
+    }).anyTimes();
+
+    ValueTable keysTable = EasyMock.createMock(ValueTable.class);
+    expect(keysTable.getName()).andReturn("keys").anyTimes();
+    expect(keysTable.getTableReference()).andReturn("ds.keys").anyTimes();
+    expect(keysTable.getEntityType()).andReturn(ENTITY_TYPE).anyTimes();
+    expect(keysTable.getDatasource()).andReturn(datasource).anyTimes();
+    expect(keysTable.getTimestamps()).andReturn(NullTimestamps.get()).anyTimes();
+    expect(keysTable.getVariableValueSource(ownerVariable.getName())).andReturn(ownerSource).anyTimes();
+    expect(keysTable.getValueSets()).andReturn(ImmutableSet.of(valueSet)).anyTimes();
+
+    EasyMock.replay(valueSet, ownerSource, datasource, keysTable);
+    return keysTable;
+  }
+
+  private ValueTableWriter newRecordingWriter() {
+    final List<String> batch = Lists.newArrayList();
+    writtenBatches.add(batch);
+    ValueTableWriter writer = EasyMock.createNiceMock(ValueTableWriter.class);
+    expect(writer.writeValueSet(anyObject(VariableEntity.class))).andAnswer(new IAnswer<ValueSetWriter>() {
+      @Override
+      public ValueSetWriter answer() throws Throwable {
+        batch.add(((VariableEntity) EasyMock.getCurrentArguments()[0]).getIdentifier());
+        ValueSetWriter valueSetWriter = EasyMock.createNiceMock(ValueSetWriter.class);
+        valueSetWriter.writeValue(EasyMock.eq(ownerVariable), anyObject(Value.class));
+        EasyMock.replay(valueSetWriter);
+        return valueSetWriter;
+      }
+    }).anyTimes();
+    EasyMock.replay(writer);
+    return writer;
+  }
+
+}
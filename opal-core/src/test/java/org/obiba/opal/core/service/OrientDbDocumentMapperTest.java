@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class OrientDbDocumentMapperTest {
+
+  private final OrientDbDocumentMapper mapper = new OrientDbDocumentMapper("yyyy-MM-dd HH:mm:ss");
+
+  @Test
+  public void test_round_trip() {
+    Bean bean = new Bean();
+    bean.name = "name";
+    bean.count = 12;
+    bean.size = 123456789012L;
+    bean.enabled = true;
+    bean.type = Type.B;
+    bean.tags = ImmutableList.of("a", "b");
+    bean.labels = ImmutableMap.of("en", "Label", "fr", "Libellé");
+    bean.child = new Bean();
+    bean.child.name = "child";
+
+    ODocument document = new ODocument();
+    mapper.toDocument(bean, document);
+    assertThat(document.<String>field("name")).isEqualTo("name");
+    assertThat(document.<String>field("type")).isEqualTo("B");
+    assertThat(document.containsField("description")).isFalse();
+
+    Bean mapped = mapper.fromDocument(Bean.class, document);
+    assertThat(mapped.name).isEqualTo("name");
+    assertThat(mapped.count).isEqualTo(12);
+    assertThat(mapped.size).isEqualTo(123456789012L);
+    assertThat(mapped.enabled).isTrue();
+    assertThat(mapped.type).isEqualTo(Type.B);
+    assertThat(mapped.tags).containsExactly("a", "b");
+    assertThat(mapped.labels).isEqualTo(bean.labels);
+    assertThat(mapped.description).isNull();
+    assertThat(mapped.child.name).isEqualTo("child");
+    assertThat(mapped.child.child).isNull();
+  }
+
+  @Test
+  public void test_copy_keeps_other_fields() {
+    ODocument document = new ODocument();
+    document.field("other", "value");
+    Bean bean = new Bean();
+    bean.name = "name";
+    mapper.toDocument(bean, document);
+    assertThat(document.<String>field("other")).isEqualTo("value");
+    assertThat(document.<String>field("name")).isEqualTo("name");
+  }
+
+  private enum Type {
+    A, B
+  }
+
+  @SuppressWarnings("UnusedDeclaration")
+  private static class Bean {
+
+    private String name;
+
+    private String description;
+
+    private int count;
+
+    private long size;
+
+    private boolean enabled;
+
+    private Type type;
+
+    private List<String> tags;
+
+    private Map<String, String> labels;
+
+    private Bean child;
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service.security;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.opal.core.domain.security.SubjectAcl;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.obiba.opal.core.domain.security.SubjectAcl.Subject;
+import static org.obiba.opal.core.domain.security.SubjectAcl.SubjectType;
+
+public class SubjectAclStoreTest {
+
+  private static final Subject USER = SubjectType.USER.subjectFor("user");
+
+  private static final Subject GROUP = SubjectType.GROUP.subjectFor("group");
+
+  private final SubjectAcl tableAcl = new SubjectAcl("opal", "/datasource/ds/table/t", USER, "TABLE_ALL");
+
+  private final SubjectAcl otherTableAcl = new SubjectAcl("opal", "/datasource/ds/table/tt", USER, "TABLE_READ");
+
+  private final SubjectAcl variableAcl = new SubjectAcl("opal", "/datasource/ds/table/t/variable/v", GROUP,
+      "VARIABLE_READ");
+
+  private final SubjectAcl restAcl = new SubjectAcl("rest", "/datasource/ds/table/t", USER, "*:GET/*");
+
+  private SubjectAclStore store;
+
+  @Before
+  public void setUp() {
+    store = new SubjectAclStore();
+    store.add(tableAcl);
+    store.add(otherTableAcl);
+    store.add(variableAcl);
+    store.add(restAcl);
+  }
+
+  @Test
+  public void test_find_node() {
+    assertThat(store.find("opal", "/datasource/ds/table/t", null, null)).containsOnly(tableAcl);
+    assertThat(store.find("opal", "/datasource/ds/table/t", SubjectType.USER, "user")).containsOnly(tableAcl);
+    assertThat(store.find("opal", "/datasource/ds/table/t", SubjectType.GROUP, null)).isEmpty();
+    assertThat(store.find("rest", "/datasource/ds/table/t", null, null)).containsOnly(restAcl);
+    assertThat(store.find("other", "/datasource/ds/table/t", null, null)).isEmpty();
+  }
+
+  @Test
+  public void test_find_node_prefix() {
+    assertThat(store.findLike("opal", "/datasource/ds/table/t/", null, null)).containsOnly(variableAcl);
+    assertThat(store.findLike("opal", "/datasource/ds/", null, null))
+        .containsOnly(tableAcl, otherTableAcl, variableAcl);
+    assertThat(store.findLike("opal", "/datasource/ds/", SubjectType.USER, null)).containsOnly(tableAcl, otherTableAcl);
+  }
+
+  @Test
+  public void test_find_subject() {
+    assertThat(store.find(USER)).containsOnly(tableAcl, otherTableAcl, restAcl);
+    assertThat(store.find(GROUP)).containsOnly(variableAcl);
+    assertThat(store.find("opal", SubjectType.GROUP)).containsOnly(variableAcl);
+  }
+
+  @Test
+  public void test_remove() {
+    store.remove(new SubjectAcl("opal", "/datasource/ds/table/t", USER, "TABLE_ALL"));
+    assertThat(store.findUnique(tableAcl)).isNull();
+    assertThat(store.find("opal", "/datasource/ds/table/t", null, null)).isEmpty();
+    assertThat(store.find(USER)).containsOnly(otherTableAcl, restAcl);
+    assertThat(store.findUnique(otherTableAcl)).isEqualTo(otherTableAcl);
+  }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service.security.realm;
+
+import java.util.List;
+
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.permission.PermissionResolver;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class PermissionIndexTest {
+
+  private static final List<String> PERMISSIONS = ImmutableList.of( //
+      "rest:/datasource/patate/table/pwel:*:GET/*", //
+      "rest:/project/patate:GET:GET", //
+      "rest:/project/patate/commands/_export:POST:GET", //
+      "rest:/datasource/frite/table/pwel/variable:GET:GET/GET", //
+      "rest:/datasource/frite/table/pwel/variables:GET:GET/GET", //
+      "rest:/files/projects/patate:POST:GET/*", //
+      "rest:/system/subject-credential/toto:PUT");
+
+  private static final List<String> REQUESTS = ImmutableList.of( //
+      "rest:/datasource/patate/table/pwel:GET", //
+      "rest:/datasource/patate/table/pwel:DELETE", //
+      "rest:/datasource/patate/table/pwel/variables:POST", //
+      "rest:/datasource/patate/table/pwel/variable/var1:GET", //
+      "rest:/datasource/patate:GET", //
+      "rest:/datasource/patate:DELETE", //
+      "rest:/datasources:GET", //
+      "rest:/datasource/patate/table/pwal:GET", //
+      "rest:/project/patate:GET", //
+      "rest:/project/patate:PUT", //
+      "rest:/projects:GET", //
+      "rest:/project/patate/commands/_export:POST", //
+      "rest:/project/patate/commands/_import:POST", //
+      "rest:/datasource/frite/table/pwel/variable/var1:GET", //
+      "rest:/datasource/frite/table/pwel/variable/var1:PUT", //
+      "rest:/datasource/frite/table/pwel/variables:GET", //
+      "rest:/files/projects/patate/data.csv:POST", //
+      "rest:/files:GET", //
+      "rest:/system/subject-credential/toto:PUT", //
+      "rest:/system/subject-credential/titi:PUT", //
+      "rest:/:GET");
+
+  private final PermissionResolver resolver = new OpalPermissionResolver();
+
+  @Test
+  public void test_index_is_permitted_as_scan() {
+    PermissionIndex index = new PermissionIndex(PERMISSIONS, resolver);
+    for(String request : REQUESTS) {
+      assertThat(index.isPermitted(request)).as(request).isEqualTo(isPermittedByScan(request));
+      // memoized result
+      assertThat(index.isPermitted(request)).as(request).isEqualTo(isPermittedByScan(request));
+    }
+  }
+
+  @Test
+  public void test_index_without_permissions() {
+    PermissionIndex index = new PermissionIndex(ImmutableList.<String>of(), resolver);
+    assertThat(index.isPermitted("rest:/datasource/patate:GET")).isFalse();
+    assertThat(index.getPermissions()).isEmpty();
+  }
+
+  private boolean isPermittedByScan(String request) {
+    Permission requested = resolver.resolvePermission(request);
+    for(String perm : PERMISSIONS) {
+      if(resolver.resolvePermission(perm).implies(requested)) return true;
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.core.service.summary;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import javax.validation.constraints.NotNull;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.Timestamps;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.type.DateTimeType;
+
+import com.google.common.collect.Lists;
+
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class VariableSummaryStoreTest {
+
+  private static final int MAX_ENTRIES = 10;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private CacheManager cacheManager;
+
+  private File directory;
+
+  private int caches;
+
+  @Before
+  public void setUp() throws IOException {
+    new MagmaEngine();
+    cacheManager = new CacheManager(new Configuration().name("VariableSummaryStoreTest"));
+    directory = folder.newFolder();
+  }
+
+  @After
+  public void tearDown() {
+    cacheManager.shutdown();
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_summary_is_read_from_disk_by_a_new_store() {
+    ValueTable table = newTable("ds.table", 1000);
+    newStore().put(table, "key", "summary");
+
+    VariableSummaryStore store = newStore();
+    assertThat(store.contains(table, "key")).isTrue();
+    assertThat(store.get(table, "key")).isEqualTo("summary");
+    // written in a temporary file then moved
+    assertThat(listFiles(directory)).hasSize(1);
+    assertThat(listFiles(directory).get(0).getName()).doesNotContain(".tmp");
+  }
+
+  @Test
+  public void test_truncated_summary_is_discarded() throws IOException {
+    ValueTable table = newTable("ds.table", 1000);
+    newStore().put(table, "key", "summary");
+    File file = listFiles(directory).get(0);
+    try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() / 2);
+    }
+
+    VariableSummaryStore store = newStore();
+    assertThat(store.get(table, "key")).isNull();
+    assertThat(file.exists()).isFalse();
+    assertThat(store.contains(table, "key")).isFalse();
+  }
+
+  @Test
+  public void test_summary_of_another_format_is_discarded() throws IOException {
+    ValueTable table = newTable("ds.table", 1000);
+    newStore().put(table, "key", "summary");
+    File file = listFiles(directory).get(0);
+    // headerless summary, as written by previous versions
+    try(ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(file)))) {
+      out.writeObject("summary");
+    }
+
+    assertThat(newStore().get(table, "key")).isNull();
+    assertThat(file.exists()).isFalse();
+  }
+
+  @Test
+  public void test_summary_of_changed_class_is_discarded() throws IOException {
+    ValueTable table = newTable("ds.table", 1000);
+    newStore().put(table, "key", "summary");
+    File file = listFiles(directory).get(0);
+    try(DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+      out.writeByte(VariableSummaryStore.FORMAT_VERSION);
+      out.writeUTF(String.class.getName());
+      out.writeLong(42);
+    }
+
+    assertThat(newStore().get(table, "key")).isNull();
+    assertThat(file.exists()).isFalse();
+  }
+
+  @Test
+  public void test_summaries_of_updated_table_are_discarded() {
+    VariableSummaryStore store = newStore();
+    store.put(newTable("ds.table", 1000), "key", "summary");
+
+    ValueTable updated = newTable("ds.table", 2000);
+    assertThat(store.contains(updated, "key")).isFalse();
+    assertThat(store.get(updated, "key")).isNull();
+
+    store.put(updated, "other", "other summary");
+    // the directory of the previous timestamp is deleted
+    assertThat(listFiles(directory)).hasSize(1);
+    assertThat(newStore().get(updated, "other")).isEqualTo("other summary");
+  }
+
+  @Test
+  public void test_summaries_per_table_are_capped() {
+    VariableSummaryStore store = newStore();
+    ValueTable table = newTable("ds.table", 1000);
+    for(int i = 0; i < MAX_ENTRIES * 2; i++) {
+      store.put(table, "key" + i, "summary" + i);
+    }
+    assertThat(listFiles(directory).size()).isLessThanOrEqualTo(MAX_ENTRIES);
+    // the most recently written summary is kept
+    assertThat(newStore().get(table, "key" + (MAX_ENTRIES * 2 - 1))).isEqualTo("summary" + (MAX_ENTRIES * 2 - 1));
+  }
+
+  @Test
+  public void test_evict_removes_all_the_summaries_of_a_table() {
+    VariableSummaryStore store = newStore();
+    ValueTable table = newTable("ds.table", 1000);
+    ValueTable other = newTable("ds.other", 1000);
+    store.put(table, "key1", "summary1");
+    store.put(table, "key2", "summary2");
+    store.put(other, "key1", "other summary");
+
+    store.evict("ds.table");
+
+    assertThat(store.contains(table, "key1")).isFalse();
+    assertThat(store.contains(table, "key2")).isFalse();
+    assertThat(store.get(other, "key1")).isEqualTo("other summary");
+    assertThat(listFiles(directory)).hasSize(1);
+  }
+
+  private VariableSummaryStore newStore() {
+    Cache cache = new Cache(new CacheConfiguration("summaries" + caches++, 100));
+    cacheManager.addCache(cache);
+    return new VariableSummaryStore(cache, directory, MAX_ENTRIES);
+  }
+
+  private ValueTable newTable(String reference, long lastUpdate) {
+    final Value lastUpdateValue = DateTimeType.get().valueOf(new Date(lastUpdate));
+    ValueTable table = EasyMock.createMock(ValueTable.class);
+    expect(table.getTableReference()).andReturn(reference).anyTimes();
+    expect(table.getTimestamps()).andReturn(new Timestamps() {
+      @NotNull
+      @Override
+      public Value getLastUpdate() {
+        return lastUpdateValue;
+      }
+
+      @NotNull
+      @Override
+      public Value getCreated() {
+        return lastUpdateValue;
+      }
+    }).anyTimes();
+    EasyMock.replay(table);
+    return table;
+  }
+
+  private static List<File> listFiles(File dir) {
+    List<File> files = Lists.newArrayList();
+    File[] children = dir.listFiles();
+    if(children != null) {
+      for(File child : children) {
+        if(child.isDirectory()) {
+          files.addAll(listFiles(child));
+        } else {
+          files.add(child);
+        }
+      }
+    }
+    return files;
+  }
+
+}
@@ -11,9 +11,11 @@ package org.obiba.opal.core.vcs.git.commands;
 
 import java.util.List;
 
+import org.eclipse.jgit.lib.Repository;
 import org.junit.Test;
 import org.obiba.opal.core.vcs.CommitInfo;
 import org.obiba.opal.core.vcs.git.OpalGitException;
+import org.obiba.opal.core.vcs.git.support.GitPathIndex;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 
@@ -142,4 +144,43 @@ public class OpalGitCommitsLogCommandTest extends AbstractOpalGitCommandTest {
 
   }
 
+  @Test
+  public void testIndexedHistoryWithDeletedCommits() {
+    String datasourceWithDeletions = "Kobe";
+    String path = "TestSitting/InstrumentRun.user.js";
+    Repository repository = versionControlSystem.getRepository(datasourceWithDeletions);
+    GitPathIndex pathIndex = new GitPathIndex(repository);
+    OpalGitCommitsLogCommand command = new OpalGitCommitsLogCommand.Builder(repository)
+        .addDatasourceName(datasourceWithDeletions).addPath(path).addPathIndex(pathIndex).build();
+    List<CommitInfo> commitInfos = command.execute();
+    assertThat(commitInfos).hasSize(3);
+
+    command = new OpalGitCommitsLogCommand.Builder(repository).addDatasourceName(datasourceWithDeletions).addPath(path)
+        .addPathIndex(pathIndex).addExcludeDeletedRevisions(false).build();
+    commitInfos = command.execute();
+    assertThat(commitInfos).hasSize(5);
+  }
+
+  @Test
+  public void testIndexedHistoryEqualsLogHistory() {
+    Repository repository = versionControlSystem.getRepository(DATASOURCE_NAME);
+    GitPathIndex pathIndex = new GitPathIndex(repository);
+    for(String path : new String[] { "", "TestView", "TestView/TOTO_VAR.js", "TestView/PLACE_NAME.js" }) {
+      List<CommitInfo> logCommitInfos = new OpalGitCommitsLogCommand.Builder(repository)
+          .addDatasourceName(DATASOURCE_NAME).addPath(path).build().execute();
+      List<CommitInfo> indexedCommitInfos = new OpalGitCommitsLogCommand.Builder(repository)
+          .addDatasourceName(DATASOURCE_NAME).addPath(path).addPathIndex(pathIndex).build().execute();
+
+      assertThat(indexedCommitInfos).hasSize(logCommitInfos.size());
+      for(int i = 0; i < logCommitInfos.size(); i++) {
+        assertThat(indexedCommitInfos.get(i).getCommitId()).isEqualTo(logCommitInfos.get(i).getCommitId());
+        assertThat(indexedCommitInfos.get(i).getAuthor()).isEqualTo(logCommitInfos.get(i).getAuthor());
+        assertThat(indexedCommitInfos.get(i).getDate()).isEqualTo(logCommitInfos.get(i).getDate());
+        assertThat(indexedCommitInfos.get(i).getComment()).isEqualTo(logCommitInfos.get(i).getComment());
+        assertThat(indexedCommitInfos.get(i).getIsHead()).isEqualTo(logCommitInfos.get(i).getIsHead());
+        assertThat(indexedCommitInfos.get(i).getIsCurrent()).isEqualTo(logCommitInfos.get(i).getIsCurrent());
+      }
+    }
+  }
+
 }
\ No newline at end of file
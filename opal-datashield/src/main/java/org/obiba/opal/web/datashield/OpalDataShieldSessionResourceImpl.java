@@ -13,6 +13,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
+import org.obiba.opal.core.service.IdentifiersMappingCache;
 import org.obiba.opal.core.service.IdentifiersTableService;
 import org.obiba.opal.datashield.RestrictedRScriptROperation;
 import org.obiba.opal.datashield.cfg.DatashieldConfigurationSupplier;
@@ -46,6 +47,9 @@ public class OpalDataShieldSessionResourceImpl extends OpalRSessionResourceImpl
   @Autowired
   private IdentifiersTableService identifiersTableService;
 
+  @Autowired
+  private IdentifiersMappingCache identifiersMappingCache;
+
   @Override
   public Response aggregate(String body) {
     try {
@@ -77,6 +81,7 @@ public class OpalDataShieldSessionResourceImpl extends OpalRSessionResourceImpl
     resource.setName(name);
     resource.setOpalRSession(getOpalRSession());
     resource.setIdentifiersTableService(identifiersTableService);
+    resource.setIdentifiersMappingCache(identifiersMappingCache);
     return resource;
   }
 
@@ -35,6 +35,7 @@ import org.obiba.magma.support.MagmaEngineTableResolver;
 import org.obiba.magma.support.MagmaEngineVariableResolver;
 import org.obiba.magma.type.TextType;
 import org.obiba.opal.core.magma.IdentifiersMappingView;
+import org.obiba.opal.core.service.IdentifiersMappingCache;
 import org.obiba.opal.core.service.IdentifiersTableService;
 import org.rosuda.REngine.REXP;
 import org.rosuda.REngine.REXPGenericVector;
@@ -57,6 +58,9 @@ public class MagmaAssignROperation extends AbstractROperation {
   @NotNull
   private final IdentifiersTableService identifiersTableService;
 
+  @NotNull
+  private final IdentifiersMappingCache identifiersMappingCache;
+
   @NotNull
   private final String symbol;
 
@@ -76,16 +80,19 @@ public class MagmaAssignROperation extends AbstractROperation {
 
   @SuppressWarnings("ConstantConditions")
   public MagmaAssignROperation(@NotNull String symbol, @NotNull String path, String variableFilter,
-      boolean withMissings, String identifiersMapping, @NotNull IdentifiersTableService identifiersTableService) {
+      boolean withMissings, String identifiersMapping, @NotNull IdentifiersTableService identifiersTableService,
+      @NotNull IdentifiersMappingCache identifiersMappingCache) {
     if(symbol == null) throw new IllegalArgumentException("symbol cannot be null");
     if(path == null) throw new IllegalArgumentException("path cannot be null");
     if(identifiersTableService == null) throw new IllegalArgumentException("identifiers table service cannot be null");
+    if(identifiersMappingCache == null) throw new IllegalArgumentException("identifiers mapping cache cannot be null");
     this.symbol = symbol;
     this.path = path;
     this.variableFilter = variableFilter;
     this.withMissings = withMissings;
     this.identifiersMapping = identifiersMapping;
     this.identifiersTableService = identifiersTableService;
+    this.identifiersMappingCache = identifiersMappingCache;
   }
 
   @Override
@@ -162,7 +169,7 @@ public class MagmaAssignROperation extends AbstractROperation {
           identifiersTableService.hasIdentifiersMapping(table.getEntityType(), idMapping)) {
         // Make a view that converts opal identifiers to unit identifiers
         return new IdentifiersMappingView(idMapping, IdentifiersMappingView.Policy.UNIT_IDENTIFIERS_ARE_PUBLIC, table,
-            identifiersTableService.getIdentifiersTable(table.getEntityType()));
+            identifiersTableService.getIdentifiersTable(table.getEntityType()), identifiersMappingCache);
       }
       return table;
     }
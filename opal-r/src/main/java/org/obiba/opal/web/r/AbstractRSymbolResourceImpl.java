@@ -15,6 +15,7 @@ import javax.validation.constraints.NotNull;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
+import org.obiba.opal.core.service.IdentifiersMappingCache;
 import org.obiba.opal.core.service.IdentifiersTableService;
 import org.obiba.opal.r.MagmaAssignROperation;
 import org.obiba.opal.r.RScriptROperation;
@@ -34,6 +35,9 @@ public abstract class AbstractRSymbolResourceImpl extends AbstractOpalRSessionRe
   @NotNull
   private IdentifiersTableService identifiersTableService;
 
+  @NotNull
+  private IdentifiersMappingCache identifiersMappingCache;
+
   @Override
   public void setName(String name) {
     this.name = name;
@@ -49,6 +53,11 @@ public abstract class AbstractRSymbolResourceImpl extends AbstractOpalRSessionRe
     this.identifiersTableService = identifiersTableService;
   }
 
+  @Override
+  public void setIdentifiersMappingCache(IdentifiersMappingCache identifiersMappingCache) {
+    this.identifiersMappingCache = identifiersMappingCache;
+  }
+
   @Override
   public String getName() {
     return name;
@@ -74,7 +83,8 @@ public abstract class AbstractRSymbolResourceImpl extends AbstractOpalRSessionRe
   @Override
   public Response putMagma(UriInfo uri, String path, String variableFilter, Boolean missings, String identifiers) {
     rSession
-        .execute(new MagmaAssignROperation(name, path, variableFilter, missings, identifiers, identifiersTableService));
+        .execute(new MagmaAssignROperation(name, path, variableFilter, missings, identifiers, identifiersTableService,
+            identifiersMappingCache));
     return Response.created(getSymbolURI(uri)).build();
   }
 
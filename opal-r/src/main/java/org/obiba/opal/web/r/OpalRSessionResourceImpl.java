@@ -12,6 +12,7 @@ package org.obiba.opal.web.r;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 
+import org.obiba.opal.core.service.IdentifiersMappingCache;
 import org.obiba.opal.core.service.IdentifiersTableService;
 import org.obiba.opal.r.StringAssignROperation;
 import org.obiba.opal.r.service.OpalRSession;
@@ -43,6 +44,9 @@ public class OpalRSessionResourceImpl extends AbstractOpalRSessionResource imple
   @Autowired
   private IdentifiersTableService identifiersTableService;
 
+  @Autowired
+  private IdentifiersMappingCache identifiersMappingCache;
+
   private OpalRSession rSession;
 
   @Override
@@ -98,6 +102,7 @@ public class OpalRSessionResourceImpl extends AbstractOpalRSessionResource imple
     resource.setName(name);
     resource.setOpalRSession(rSession);
     resource.setIdentifiersTableService(identifiersTableService);
+    resource.setIdentifiersMappingCache(identifiersMappingCache);
     return resource;
   }
 
@@ -12,6 +12,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
+import org.obiba.opal.core.service.IdentifiersMappingCache;
 import org.obiba.opal.core.service.IdentifiersTableService;
 import org.obiba.opal.r.service.OpalRSession;
 
@@ -23,6 +24,8 @@ public interface RSymbolResource {
 
   void setIdentifiersTableService(IdentifiersTableService identifiersTableService);
 
+  void setIdentifiersMappingCache(IdentifiersMappingCache identifiersMappingCache);
+
   String getName();
 
   @GET
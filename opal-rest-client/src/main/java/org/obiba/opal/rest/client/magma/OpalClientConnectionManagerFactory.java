@@ -17,11 +17,17 @@ import org.apache.http.params.HttpParams;
 
 public class OpalClientConnectionManagerFactory implements ClientConnectionManagerFactory {
 
+  /**
+   * Enough connections for several tables being written at once, each table writer posting up to
+   * {@link RestValueTableWriter#MAX_CONCURRENT_BATCHES} batches of value sets at once, along with the reads.
+   */
+  private static final int MAX_CONNECTIONS = 10 * RestValueTableWriter.MAX_CONCURRENT_BATCHES;
+
   @Override
   public ClientConnectionManager newInstance(HttpParams params, SchemeRegistry schemeRegistry) {
     ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(schemeRegistry);
-    cm.setDefaultMaxPerRoute(20);
-    cm.setMaxTotal(20);
+    cm.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+    cm.setMaxTotal(MAX_CONNECTIONS);
     return cm;
   }
 
@@ -115,7 +115,7 @@ public class OpalJavaClient {
     this.soTimeout = soTimeout == null ? DEFAULT_SO_TIMEOUT : soTimeout;
   }
 
-  private HttpClient getClient() {
+  private synchronized HttpClient getClient() {
     if(client == null) {
       createClient();
     }
@@ -298,7 +298,9 @@ public class OpalJavaClient {
       }
     }
     try {
-      return getClient().execute(msg, ctx);
+      HttpClient httpClient = getClient();
+      // a context per request, sharing the cookies: requests may be executed concurrently
+      return httpClient.execute(msg, new BasicHttpContext(ctx));
     } finally {
       cleanupCache();
     }
@@ -12,9 +12,13 @@ package org.obiba.opal.rest.client.magma;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutionException;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
 import org.apache.http.HttpResponse;
@@ -28,13 +32,11 @@ import org.obiba.magma.NoSuchVariableException;
 import org.obiba.magma.Timestamps;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
-import org.obiba.magma.ValueSource;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.ValueType;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
 import org.obiba.magma.VectorSource;
-import org.obiba.magma.VectorSourceNotSupportedException;
 import org.obiba.magma.support.AbstractValueTable;
 import org.obiba.magma.support.ValueSetBean;
 import org.obiba.magma.support.VariableEntityBean;
@@ -49,16 +51,36 @@ import org.obiba.opal.web.model.Magma.VariableDto;
 import org.obiba.opal.web.model.Magma.VariableEntityDto;
 
 import com.google.common.base.Function;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.ByteStreams;
 
 class RestValueTable extends AbstractValueTable {
 
 //  private static final Logger log = LoggerFactory.getLogger(RestValueTable.class);
 
+  /**
+   * Number of value sets fetched at once: the value sets are prefetched by pages of entities, in the order in which the
+   * remote table lists them (i.e. sorted entities).
+   */
+  private static final int VALUE_SETS_PAGE_SIZE = 100;
+
+  private static final int MAX_VALUE_SETS_PAGES = 8;
+
+  /**
+   * Number of values of a variable fetched at once, when reading a variable as a vector.
+   */
+  private static final int VECTOR_PAGE_SIZE = 1000;
+
   private final TableDto tableDto;
 
   private final URI tableReference;
@@ -69,6 +91,12 @@ class RestValueTable extends AbstractValueTable {
 
   private boolean valueSetsTimestampsSupported = true;
 
+  private FederatedVariableEntityProvider entityProvider;
+
+  private final LoadingCache<Integer, ValueSetsPage> valueSetsPages = CacheBuilder.newBuilder()
+      .maximumSize(MAX_VALUE_SETS_PAGES) //
+      .build(new ValueSetsPageLoader());
+
   RestValueTable(Datasource datasource, TableDto dto) {
     super(datasource, dto.getName());
     tableDto = dto;
@@ -84,9 +112,10 @@ class RestValueTable extends AbstractValueTable {
   @Override
   public void initialise() {
     super.initialise();
-    FederatedVariableEntityProvider provider = new FederatedVariableEntityProvider();
-    provider.initialise();
-    setVariableEntityProvider(provider);
+    entityProvider = new FederatedVariableEntityProvider();
+    entityProvider.initialise();
+    setVariableEntityProvider(entityProvider);
+    valueSetsPages.invalidateAll();
 
     Iterable<VariableDto> variables = getOpalClient()
         .getResources(VariableDto.class, newReference("variables"), VariableDto.newBuilder());
@@ -108,7 +137,7 @@ class RestValueTable extends AbstractValueTable {
 
         @Override
         public boolean supportVectorSource() {
-          return false;
+          return true;
         }
 
         @NotNull
@@ -119,9 +148,8 @@ class RestValueTable extends AbstractValueTable {
 
         @NotNull
         @Override
-        @SuppressWarnings("unchecked")
         public VectorSource asVectorSource() {
-          throw new VectorSourceNotSupportedException((Class<? extends ValueSource>) getClass());
+          return new RestVectorSource(variable);
         }
 
       });
@@ -167,6 +195,86 @@ class RestValueTable extends AbstractValueTable {
     initialise();
   }
 
+  /**
+   * Forget the prefetched value sets, after they were modified.
+   */
+  void clearValueSets() {
+    valueSetsPages.invalidateAll();
+  }
+
+  /**
+   * Get the prefetched page of value sets that contains the given entity.
+   *
+   * @param identifier
+   * @return null if the entity is not in the table
+   */
+  @Nullable
+  private ValueSetsPage getValueSetsPage(String identifier) {
+    Integer position = entityProvider.getPosition(identifier);
+    if(position == null) return null;
+    try {
+      return valueSetsPages.get(position / VALUE_SETS_PAGE_SIZE);
+    } catch(ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e);
+    }
+  }
+
+  private Value toValue(String identifier, Variable variable, ValueSetsDto.ValueDto valueDto) {
+    if(variable.getValueType().equals(BinaryType.get())) {
+      return getBinary(identifier, variable, valueDto);
+    }
+    return Dtos.fromDto(valueDto, variable.getValueType(), variable.isRepeatable());
+  }
+
+  private Value getBinary(String identifier, Variable variable, ValueSetsDto.ValueDto valueDto) {
+    if(variable.isRepeatable()) return getRepeatableBinary(identifier, variable, valueDto);
+    return getBinaryResource(valueDto, newBinaryUri(identifier, variable));
+  }
+
+  private Value getRepeatableBinary(String identifier, Variable variable, ValueSetsDto.ValueDto valueDto) {
+    if(valueDto.getValuesCount() == 0) return BinaryType.get().nullSequence();
+    ImmutableList.Builder<Value> values = ImmutableList.builder();
+    for(int i = 0; i < valueDto.getValuesCount(); i++) {
+      values.add(getBinaryResource(valueDto.getValues(i),
+          newBinaryUri(identifier, variable).query("pos", String.valueOf(i))));
+    }
+    return BinaryType.get().sequenceOf(values.build());
+  }
+
+  /**
+   * The link provided in the value dto depends on the resource that provided it (value set or value sets), so the link
+   * to the binary value is built from the entity and the variable.
+   */
+  private UriBuilder newBinaryUri(String identifier, Variable variable) {
+    return newUri("valueSet", identifier, "variable", variable.getName(), "value");
+  }
+
+  /**
+   * Get the binary value from the value resource.
+   *
+   * @param valueDto
+   * @param uriBuilder
+   * @return
+   */
+  private Value getBinaryResource(ValueSetsDto.ValueDto valueDto, UriBuilder uriBuilder) {
+    if(!valueDto.hasLength() || valueDto.getLength() == 0) return BinaryType.get().nullValue();
+
+    InputStream is = null;
+    try {
+      HttpResponse response = getOpalClient().get(uriBuilder.build());
+      if(response.getStatusLine().getStatusCode() >= HttpStatus.SC_BAD_REQUEST) {
+        EntityUtils.consume(response.getEntity());
+        throw new RuntimeException(response.getStatusLine().getReasonPhrase());
+      }
+      is = response.getEntity().getContent();
+      return BinaryType.get().valueOf(ByteStreams.toByteArray(is));
+    } catch(IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      getOpalClient().closeQuietly(is);
+    }
+  }
+
   OpalJavaClient getOpalClient() {
     return getDatasource().getOpalClient();
   }
@@ -183,6 +291,11 @@ class RestValueTable extends AbstractValueTable {
 
     Iterable<VariableEntityDto> entities;
 
+    private Set<VariableEntity> variableEntities;
+
+    // Map<Identifier, Position in the sorted entities>
+    private Map<String, Integer> positions;
+
     @Override
     public String getEntityType() {
       return tableDto.getEntityType();
@@ -195,14 +308,35 @@ class RestValueTable extends AbstractValueTable {
     }
 
     @Override
-    public Set<VariableEntity> getVariableEntities() {
-      return ImmutableSet.copyOf(Iterables.transform(entities, new Function<VariableEntityDto, VariableEntity>() {
+    public synchronized Set<VariableEntity> getVariableEntities() {
+      if(variableEntities == null) {
+        variableEntities = ImmutableSet
+            .copyOf(Iterables.transform(entities, new Function<VariableEntityDto, VariableEntity>() {
+
+              @Override
+              public VariableEntity apply(VariableEntityDto from) {
+                return new VariableEntityBean(getEntityType(), from.getIdentifier());
+              }
+            }));
+      }
+      return variableEntities;
+    }
 
-        @Override
-        public VariableEntity apply(VariableEntityDto from) {
-          return new VariableEntityBean(getEntityType(), from.getIdentifier());
+    /**
+     * @param identifier
+     * @return the position of the entity in the entities sorted as the remote table does, null if not in the table
+     */
+    @Nullable
+    synchronized Integer getPosition(String identifier) {
+      if(positions == null) {
+        ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        int position = 0;
+        for(VariableEntity entity : ImmutableSortedSet.copyOf(getVariableEntities())) {
+          builder.put(entity.getIdentifier(), position++);
         }
-      }));
+        positions = builder.build();
+      }
+      return positions.get(identifier);
     }
 
     @Override
@@ -214,7 +348,9 @@ class RestValueTable extends AbstractValueTable {
 
   private class LazyValueSet extends ValueSetBean {
 
-    private ValueSetsDto valueSet;
+    private ValueSetsPage page;
+
+    private ValueSetsDto.ValueSetDto values;
 
     private Timestamps timestamps;
 
@@ -224,64 +360,9 @@ class RestValueTable extends AbstractValueTable {
 
     public Value get(Variable variable) {
       loadValueSet();
-      ValueSetsDto.ValueSetDto values = valueSet.getValueSets(0);
-
-      for(int i = 0; i < valueSet.getVariablesCount(); i++) {
-        if(variable.getName().equals(valueSet.getVariables(i))) {
-          if(variable.getValueType().equals(BinaryType.get())) {
-            return getBinary(variable, values.getValues(i));
-          } else {
-            return Dtos.fromDto(values.getValues(i), variable.getValueType(), variable.isRepeatable());
-          }
-        }
-      }
-      throw new NoSuchVariableException(variable.getName());
-    }
-
-    private Value getBinary(Variable variable, ValueSetsDto.ValueDto valueDto) {
-      if(variable.isRepeatable()) return getRepeatableBinary(valueDto);
-      return getBinaryResource(valueDto);
-    }
-
-    private Value getRepeatableBinary(ValueSetsDto.ValueDto valueDto) {
-      if(valueDto.getValuesCount() == 0) return BinaryType.get().nullSequence();
-      return BinaryType.get().sequenceOf(ImmutableList
-          .copyOf(Iterables.transform(valueDto.getValuesList(), new Function<ValueSetsDto.ValueDto, Value>() {
-
-            @Override
-            public Value apply(ValueSetsDto.ValueDto input) {
-              return getBinaryResource(input);
-            }
-          })));
-    }
-
-    /**
-     * Get the binary value directly from the link provided in the value dto.
-     *
-     * @param valueDto
-     * @return
-     */
-    private Value getBinaryResource(ValueSetsDto.ValueDto valueDto) {
-      if(!valueDto.hasLength() || valueDto.getLength() == 0 || !valueDto.hasLink()) return BinaryType.get().nullValue();
-
-      URI uri = getOpalClient().newUri().link(valueDto.getLink()).build();
-
-      InputStream is = null;
-      try {
-        HttpResponse response = getOpalClient().get(uri);
-        if(response.getStatusLine().getStatusCode() >= HttpStatus.SC_BAD_REQUEST) {
-          EntityUtils.consume(response.getEntity());
-          throw new RuntimeException(response.getStatusLine().getReasonPhrase());
-        }
-        is = response.getEntity().getContent();
-        return BinaryType.get().valueOf(ByteStreams.toByteArray(is));
-      } catch(IOException e) {
-        //noinspection CallToPrintStackTrace
-        e.printStackTrace();
-        throw new RuntimeException(e);
-      } finally {
-        getOpalClient().closeQuietly(is);
-      }
+      Integer index = page.getVariableIndex(variable.getName());
+      if(index == null) throw new NoSuchVariableException(variable.getName());
+      return toValue(getVariableEntity().getIdentifier(), variable, values.getValues(index));
     }
 
     @Override
@@ -291,7 +372,7 @@ class RestValueTable extends AbstractValueTable {
       return timestamps;
     }
 
-    synchronized private void loadTimestamps() {
+    private synchronized void loadTimestamps() {
       try {
         Magma.TimestampsDto tsDto = getOpalClient().getResource(Magma.TimestampsDto.class,
             newUri("valueSet", getVariableEntity().getIdentifier(), "timestamps").build(),
@@ -303,14 +384,115 @@ class RestValueTable extends AbstractValueTable {
       }
     }
 
-    synchronized ValueSetsDto loadValueSet() {
-      if(valueSet == null) {
-        valueSet = getOpalClient().getResource(ValueSetsDto.class,
-            newUri("valueSet", getVariableEntity().getIdentifier()).query("filterBinary", "true").build(),
+    private synchronized void loadValueSet() {
+      if(values != null) return;
+      String identifier = getVariableEntity().getIdentifier();
+      ValueSetsPage prefetched = getValueSetsPage(identifier);
+      if(prefetched == null || prefetched.getValueSet(identifier) == null) {
+        // not prefetched, as the remote entities changed
+        page = new ValueSetsPage(getOpalClient().getResource(ValueSetsDto.class,
+            newUri("valueSet", identifier).query("filterBinary", "true").build(), ValueSetsDto.newBuilder()));
+        values = page.valueSets.getValueSets(0);
+      } else {
+        page = prefetched;
+        values = prefetched.getValueSet(identifier);
+      }
+      timestamps = new ValueSetTimestamps(values.getTimestamps());
+    }
+  }
+
+  /**
+   * Value sets of several entities, with the index of the values of each variable.
+   */
+  private static class ValueSetsPage {
+
+    private final ValueSetsDto valueSets;
+
+    // Map<VariableName, Index of its values>
+    private final Map<String, Integer> variableIndexes = Maps.newHashMap();
+
+    // Map<Identifier, ValueSet>
+    private final Map<String, ValueSetsDto.ValueSetDto> valueSetsByIdentifier = Maps.newHashMap();
+
+    private ValueSetsPage(ValueSetsDto valueSets) {
+      this.valueSets = valueSets;
+      for(int i = 0; i < valueSets.getVariablesCount(); i++) {
+        variableIndexes.put(valueSets.getVariables(i), i);
+      }
+      for(ValueSetsDto.ValueSetDto valueSet : valueSets.getValueSetsList()) {
+        valueSetsByIdentifier.put(valueSet.getIdentifier(), valueSet);
+      }
+    }
+
+    @Nullable
+    private Integer getVariableIndex(String variableName) {
+      return variableIndexes.get(variableName);
+    }
+
+    @Nullable
+    private ValueSetsDto.ValueSetDto getValueSet(String identifier) {
+      return valueSetsByIdentifier.get(identifier);
+    }
+  }
+
+  private class ValueSetsPageLoader extends CacheLoader<Integer, ValueSetsPage> {
+
+    @Override
+    public ValueSetsPage load(Integer page) throws Exception {
+      return new ValueSetsPage(getOpalClient().getResource(ValueSetsDto.class,
+          newUri("valueSets").query("offset", String.valueOf(page * VALUE_SETS_PAGE_SIZE))
+              .query("limit", String.valueOf(VALUE_SETS_PAGE_SIZE)).query("filterBinary", "true").build(),
+          ValueSetsDto.newBuilder()));
+    }
+  }
+
+  /**
+   * Values of a variable, fetched by pages of entities from the variable value sets resource.
+   */
+  private class RestVectorSource implements VectorSource {
+
+    private final Variable variable;
+
+    private RestVectorSource(Variable variable) {
+      this.variable = variable;
+    }
+
+    @Override
+    public ValueType getValueType() {
+      return variable.getValueType();
+    }
+
+    @Override
+    public Iterable<Value> getValues(SortedSet<VariableEntity> entities) {
+      // fetch only the pages that contain the requested entities
+      SortedSet<Integer> pages = Sets.newTreeSet();
+      for(VariableEntity entity : entities) {
+        Integer position = entityProvider.getPosition(entity.getIdentifier());
+        if(position != null) pages.add(position / VECTOR_PAGE_SIZE);
+      }
+
+      // Map<Identifier, ValueDto>
+      Map<String, ValueSetsDto.ValueDto> valueDtos = Maps.newHashMap();
+      for(Integer page : pages) {
+        ValueSetsDto valueSets = getOpalClient().getResource(ValueSetsDto.class,
+            newUri("valueSets", "variable", variable.getName()) //
+                .query("offset", String.valueOf(page * VECTOR_PAGE_SIZE)) //
+                .query("limit", String.valueOf(VECTOR_PAGE_SIZE)).query("filterBinary", "true").build(),
             ValueSetsDto.newBuilder());
-        timestamps = new ValueSetTimestamps(valueSet.getValueSets(0).getTimestamps());
+        for(ValueSetsDto.ValueSetDto valueSet : valueSets.getValueSetsList()) {
+          valueDtos.put(valueSet.getIdentifier(), valueSet.getValues(0));
+        }
+      }
+
+      List<Value> values = Lists.newArrayListWithCapacity(entities.size());
+      for(VariableEntity entity : entities) {
+        ValueSetsDto.ValueDto valueDto = valueDtos.get(entity.getIdentifier());
+        // not in the pages, as the remote entities changed: fetch its value set
+        values.add(valueDto == null
+            ? new LazyValueSet(RestValueTable.this, entity).get(variable)
+            : toValue(entity.getIdentifier(), variable, valueDto));
       }
-      return valueSet;
+      return values;
     }
   }
 
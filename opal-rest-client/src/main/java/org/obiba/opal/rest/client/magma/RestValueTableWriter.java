@@ -11,7 +11,12 @@ package org.obiba.opal.rest.client.magma;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.validation.constraints.NotNull;
 
@@ -29,19 +34,61 @@ import org.obiba.opal.web.model.Magma.VariableDto.Builder;
 
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Writes the value sets by batches: the value sets are accumulated until a batch is full, by count or by size, and the
+ * batches are posted in the background over several connections. The number of batches being posted at once is
+ * bounded, so that writing blocks when the remote Opal does not keep up.
+ * <p/>
+ * The failed batches are reported by the next value set written, or on close.
+ */
 class RestValueTableWriter implements ValueTableWriter {
 
+  private static final int MAX_BATCH_VALUE_SETS = 100;
+
+  private static final int MAX_BATCH_BYTES = 1024 * 1024;
+
+  static final int MAX_CONCURRENT_BATCHES = 4;
+
   private final RestValueTable restValueTable;
 
+  private final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_BATCHES,
+      new ThreadFactoryBuilder().setNameFormat("rest-value-table-writer-%d").setDaemon(true).build());
+
+  // batches being posted, or waiting for a connection
+  private final Semaphore inFlightBatches = new Semaphore(MAX_CONCURRENT_BATCHES);
+
+  private final List<String> failures = Collections.synchronizedList(Lists.<String>newArrayList());
+
+  private ValueSetsBatch batch;
+
   RestValueTableWriter(RestValueTable restValueTable) {
     this.restValueTable = restValueTable;
   }
 
   @Override
   public void close() {
+    try {
+      synchronized(this) {
+        if(batch != null) sendBatch();
+      }
+    } finally {
+      // the batches being posted are completed, but no thread is left behind
+      executor.shutdown();
+    }
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch(InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    checkFailures();
   }
 
   @Override
@@ -87,37 +134,118 @@ class RestValueTableWriter implements ValueTableWriter {
   @Override
   public ValueSetWriter writeValueSet(@NotNull final VariableEntity entity) {
 
+    checkFailures();
     return new ValueSetWriter() {
 
-      private final ValueSetsDto.Builder valueSetsDtoBuilder = ValueSetsDto.newBuilder()
-          .setEntityType(entity.getType());
+      private final List<String> variables = Lists.newArrayList();
 
       private final ValueSetsDto.ValueSetDto.Builder valueSetDtoBuilder = ValueSetsDto.ValueSetDto.newBuilder()
           .setIdentifier(entity.getIdentifier());
 
       @Override
       public void close() {
-        valueSetsDtoBuilder.addValueSets(valueSetDtoBuilder);
-        URI valueSetUri = restValueTable.newReference("valueSet");
-        try {
-          checkResponse(restValueTable.getOpalClient().post(valueSetUri, valueSetsDtoBuilder.build()));
-        } catch(IOException e) {
-          throw new RuntimeException(e);
-        }
+        addValueSet(entity.getType(), variables, valueSetDtoBuilder.build());
       }
 
       @Override
       public void writeValue(@NotNull Variable variable, Value value) {
-        valueSetsDtoBuilder.addVariables(variable.getName());
+        variables.add(variable.getName());
         valueSetDtoBuilder.addValues(Dtos.asDto(value));
       }
     };
   }
 
+  /**
+   * Add a value set to the current batch. A batch holds the value sets of the same variables: a new batch is started
+   * when the variables differ.
+   */
+  private synchronized void addValueSet(String entityType, List<String> variables,
+      ValueSetsDto.ValueSetDto valueSet) {
+    if(batch != null && !batch.accepts(entityType, variables)) sendBatch();
+    if(batch == null) batch = new ValueSetsBatch(entityType, variables);
+    batch.add(valueSet);
+    if(batch.isFull()) sendBatch();
+  }
+
+  private void sendBatch() {
+    final ValueSetsBatch toSend = batch;
+    batch = null;
+    checkFailures();
+    try {
+      inFlightBatches.acquire();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          URI valueSetUri = restValueTable.newReference("valueSet");
+          checkResponse(restValueTable.getOpalClient().post(valueSetUri, toSend.build()));
+        } catch(IOException | RuntimeException e) {
+          failures.add(toSend + ": " + e.getMessage());
+        } finally {
+          restValueTable.clearValueSets();
+          inFlightBatches.release();
+        }
+      }
+    });
+  }
+
+  private void checkFailures() {
+    synchronized(failures) {
+      if(!failures.isEmpty()) {
+        throw new RuntimeException("Failed writing value sets in table " + restValueTable.getName() + ": " +
+            Joiner.on("; ").join(failures));
+      }
+    }
+  }
+
   private void checkResponse(HttpResponse response) throws IOException {
     EntityUtils.consume(response.getEntity());
     if(response.getStatusLine().getStatusCode() >= HttpStatus.SC_BAD_REQUEST) {
       throw new IOException(response.getStatusLine().getReasonPhrase());
     }
   }
+
+  private static class ValueSetsBatch {
+
+    private final String entityType;
+
+    private final List<String> variables;
+
+    private final List<ValueSetsDto.ValueSetDto> valueSets = Lists.newArrayList();
+
+    private int size;
+
+    private ValueSetsBatch(String entityType, List<String> variables) {
+      this.entityType = entityType;
+      this.variables = ImmutableList.copyOf(variables);
+    }
+
+    private boolean accepts(String valueSetEntityType, List<String> valueSetVariables) {
+      return entityType.equals(valueSetEntityType) && variables.equals(valueSetVariables);
+    }
+
+    private void add(ValueSetsDto.ValueSetDto valueSet) {
+      valueSets.add(valueSet);
+      size += valueSet.getSerializedSize();
+    }
+
+    private boolean isFull() {
+      return valueSets.size() >= MAX_BATCH_VALUE_SETS || size >= MAX_BATCH_BYTES;
+    }
+
+    private ValueSetsDto build() {
+      return ValueSetsDto.newBuilder().setEntityType(entityType).addAllVariables(variables).addAllValueSets(valueSets)
+          .build();
+    }
+
+    @Override
+    public String toString() {
+      return "batch of " + valueSets.size() + " value sets, from entity " + valueSets.get(0).getIdentifier() +
+          " to entity " + valueSets.get(valueSets.size() - 1).getIdentifier();
+    }
+  }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.rest.client.magma;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueSet;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.opal.web.model.Magma.TableDto;
+import org.obiba.opal.web.model.Magma.ValueSetsDto;
+import org.obiba.opal.web.model.Magma.VariableDto;
+import org.obiba.opal.web.model.Magma.VariableEntityDto;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.protobuf.Message;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class RestValueTableTest {
+
+  private static final int ENTITIES = 2500;
+
+  private StubOpalJavaClient opalClient;
+
+  private RestValueTable table;
+
+  @Before
+  public void setUp() throws URISyntaxException {
+    new MagmaEngine();
+    opalClient = new StubOpalJavaClient();
+    table = new RestValueTable(new RestDatasource("rest", opalClient, "ds"),
+        TableDto.newBuilder().setName("tbl").setEntityType("Participant").build());
+    table.initialise();
+    opalClient.requests.clear();
+  }
+
+  @After
+  public void stopYourEngine() {
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_value_sets_are_fetched_by_pages() {
+    assertThat(getValue("0150").toString()).isEqualTo("value-0150");
+    // entity 150 is the 150th of the sorted entities
+    assertThat(opalClient.requests).hasSize(1);
+    assertThat(opalClient.requests.get(0)).startsWith("valueSets?").contains("offset=100").contains("limit=100");
+
+    // same page
+    assertThat(getValue("0101").toString()).isEqualTo("value-0101");
+    assertThat(getValue("0200").toString()).isEqualTo("value-0200");
+    assertThat(opalClient.requests).hasSize(1);
+
+    assertThat(getValue("0001").toString()).isEqualTo("value-0001");
+    assertThat(getValue("0201").toString()).isEqualTo("value-0201");
+    assertThat(opalClient.requests).hasSize(3);
+    assertThat(opalClient.requests.get(1)).contains("offset=0");
+    assertThat(opalClient.requests.get(2)).contains("offset=200");
+  }
+
+  @Test
+  public void test_value_set_missing_from_page_is_fetched_alone() {
+    // the remote table was modified since its entities were listed
+    opalClient.notInPages.add("0150");
+
+    assertThat(getValue("0150").toString()).isEqualTo("value-0150");
+    assertThat(opalClient.requests).hasSize(2);
+    assertThat(opalClient.requests.get(0)).startsWith("valueSets?");
+    assertThat(opalClient.requests.get(1)).startsWith("valueSet/0150");
+
+    // the other value sets of the page are prefetched
+    assertThat(getValue("0149").toString()).isEqualTo("value-0149");
+    assertThat(opalClient.requests).hasSize(2);
+  }
+
+  @Test
+  public void test_vector_values_are_fetched_by_pages() {
+    List<Value> values = getValues("0005", "0010", "2100");
+
+    assertThat(values).hasSize(3);
+    assertThat(values.get(0).toString()).isEqualTo("value-0005");
+    assertThat(values.get(2).toString()).isEqualTo("value-2100");
+    // only the first and the third pages are fetched
+    assertThat(opalClient.requests).hasSize(2);
+    assertThat(opalClient.requests.get(0)).startsWith("valueSets/variable/A?").contains("offset=0")
+        .contains("limit=1000");
+    assertThat(opalClient.requests.get(1)).startsWith("valueSets/variable/A?").contains("offset=2000");
+  }
+
+  @Test
+  public void test_vector_value_missing_from_page_is_fetched_alone() {
+    // the remote table was modified since its entities were listed
+    opalClient.notInPages.add("0150");
+
+    List<Value> values = getValues("0150", "0151", "9999");
+
+    assertThat(values.get(0).toString()).isEqualTo("value-0150");
+    assertThat(values.get(1).toString()).isEqualTo("value-0151");
+    assertThat(values.get(2).toString()).isEqualTo("value-9999");
+    assertThat(opalClient.requests).contains("valueSet/0150?filterBinary=true", "valueSet/9999?filterBinary=true");
+  }
+
+  private List<Value> getValues(String... identifiers) {
+    SortedSet<VariableEntity> entities = Sets.newTreeSet();
+    for(String identifier : identifiers) {
+      entities.add(new VariableEntityBean("Participant", identifier));
+    }
+    return Lists.newArrayList(table.getVariableValueSource("A").asVectorSource().getValues(entities));
+  }
+
+  private Value getValue(String identifier) {
+    ValueSet valueSet = table.getValueSet(new VariableEntityBean("Participant", identifier));
+    return table.getVariableValueSource("A").getValue(valueSet);
+  }
+
+  private static String identifier(int position) {
+    return String.format("%04d", position + 1);
+  }
+
+  private static ValueSetsDto.ValueSetDto newValueSetDto(String identifier) {
+    return ValueSetsDto.ValueSetDto.newBuilder().setIdentifier(identifier)
+        .addValues(ValueSetsDto.ValueDto.newBuilder().setValue("value-" + identifier)).build();
+  }
+
+  /**
+   * Serves a table of sorted entities, with one text variable.
+   */
+  private static class StubOpalJavaClient extends OpalJavaClient {
+
+    // requests relative to the table, with their query
+    private final List<String> requests = Lists.newArrayList();
+
+    // identifiers that are listed in the table entities but not returned in the value sets pages
+    private final Set<String> notInPages = Sets.newHashSet();
+
+    private StubOpalJavaClient() throws URISyntaxException {
+      super("http://localhost:8080/ws", "administrator", "password");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends Message> List<T> getResources(Class<T> messageType, URI uri, Message.Builder builder) {
+      String request = record(uri);
+      if("entities".equals(request)) {
+        ImmutableList.Builder<VariableEntityDto> entities = ImmutableList.builder();
+        for(int i = ENTITIES - 1; i >= 0; i--) {
+          entities.add(VariableEntityDto.newBuilder().setIdentifier(identifier(i)).build());
+        }
+        return (List<T>) entities.build();
+      }
+      if("variables".equals(request)) {
+        return (List<T>) ImmutableList.of(VariableDto.newBuilder().setName("A").setEntityType("Participant")
+            .setValueType("text").setIsRepeatable(false).build());
+      }
+      throw new IllegalArgumentException(request);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends Message> T getResource(Class<T> messageType, URI uri, Message.Builder builder) {
+      String request = record(uri);
+      ValueSetsDto.Builder valueSets = ValueSetsDto.newBuilder().setEntityType("Participant").addVariables("A");
+      if(request.startsWith("valueSets?") || request.startsWith("valueSets/variable/A?")) {
+        int offset = getQueryParameter(uri, "offset");
+        int limit = getQueryParameter(uri, "limit");
+        for(int i = offset; i < Math.min(offset + limit, ENTITIES); i++) {
+          if(!notInPages.contains(identifier(i))) valueSets.addValueSets(newValueSetDto(identifier(i)));
+        }
+        return (T) valueSets.build();
+      }
+      if(request.startsWith("valueSet/")) {
+        String identifier = uri.getPath().substring(uri.getPath().lastIndexOf('/') + 1);
+        return (T) valueSets.addValueSets(newValueSetDto(identifier)).build();
+      }
+      throw new IllegalArgumentException(request);
+    }
+
+    private String record(URI uri) {
+      String path = uri.getPath();
+      String request = path.substring(path.indexOf("/table/tbl/") + "/table/tbl/".length()) +
+          (uri.getQuery() == null ? "" : "?" + uri.getQuery());
+      if(!"entities".equals(request) && !"variables".equals(request)) requests.add(request);
+      return request;
+    }
+
+    private int getQueryParameter(URI uri, String name) {
+      for(String parameter : uri.getQuery().split("&")) {
+        if(parameter.startsWith(name + "=")) return Integer.parseInt(parameter.substring(name.length() + 1));
+      }
+      throw new IllegalArgumentException(name);
+    }
+  }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.rest.client.magma;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueTableWriter.ValueSetWriter;
+import org.obiba.magma.Variable;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.type.TextType;
+import org.obiba.opal.web.model.Magma.ValueSetsDto;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.protobuf.Message;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class RestValueTableWriterTest {
+
+  private static final URI VALUE_SET_URI = URI.create("http://localhost:8080/ws/datasource/ds/table/tbl/valueSet");
+
+  // value sets posted, by batch
+  private final List<ValueSetsDto> batches = Collections.synchronizedList(Lists.<ValueSetsDto>newArrayList());
+
+  private Variable variableA;
+
+  private Variable variableB;
+
+  @Before
+  public void setUp() {
+    new MagmaEngine();
+    variableA = Variable.Builder.newVariable("A", TextType.get(), "Participant").build();
+    variableB = Variable.Builder.newVariable("B", TextType.get(), "Participant").build();
+  }
+
+  @After
+  public void stopYourEngine() {
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_value_sets_are_posted_by_batches() {
+    RestValueTableWriter writer = new RestValueTableWriter(newTable(HttpStatus.SC_OK));
+    for(int i = 0; i < 250; i++) {
+      writeValueSet(writer, "" + i, TextType.get().valueOf("value" + i), variableA);
+    }
+    writer.close();
+
+    assertThat(getBatchSizes()).containsExactly(50, 100, 100);
+  }
+
+  @Test
+  public void test_variables_change_starts_new_batch() {
+    RestValueTableWriter writer = new RestValueTableWriter(newTable(HttpStatus.SC_OK));
+    for(int i = 0; i < 3; i++) {
+      writeValueSet(writer, "" + i, TextType.get().valueOf("a" + i), variableA);
+    }
+    for(int i = 3; i < 5; i++) {
+      writeValueSet(writer, "" + i, TextType.get().valueOf("ab" + i), variableA, variableB);
+    }
+    writer.close();
+
+    assertThat(getBatchSizes()).containsExactly(2, 3);
+    for(ValueSetsDto batch : batches) {
+      assertThat(batch.getVariablesList()).isEqualTo(
+          batch.getValueSetsCount() == 3 ? Lists.newArrayList("A") : Lists.newArrayList("A", "B"));
+    }
+  }
+
+  @Test
+  public void test_large_value_sets_are_posted_in_smaller_batches() {
+    RestValueTableWriter writer = new RestValueTableWriter(newTable(HttpStatus.SC_OK));
+    // a batch is full after 4 value sets of 300KB
+    Value value = TextType.get().valueOf(Strings.repeat("x", 300 * 1024));
+    for(int i = 0; i < 5; i++) {
+      writeValueSet(writer, "" + i, value, variableA);
+    }
+    writer.close();
+
+    assertThat(getBatchSizes()).containsExactly(1, 4);
+  }
+
+  @Test
+  public void test_failed_batch_is_reported_by_next_write() throws InterruptedException {
+    RestValueTableWriter writer = new RestValueTableWriter(newTable(HttpStatus.SC_INTERNAL_SERVER_ERROR));
+    for(int i = 0; i < 100; i++) {
+      writeValueSet(writer, "" + i, TextType.get().valueOf("value" + i), variableA);
+    }
+    // the batch is posted in the background
+    long deadline = System.currentTimeMillis() + 10000;
+    try {
+      while(System.currentTimeMillis() < deadline) {
+        writer.writeValueSet(new VariableEntityBean("Participant", "next"));
+        Thread.sleep(10);
+      }
+      fail("Batch failure should have been reported");
+    } catch(RuntimeException e) {
+      assertThat(e.getMessage()).contains("Failed writing value sets in table tbl");
+    }
+  }
+
+  @Test
+  public void test_failed_batch_is_reported_on_close() {
+    RestValueTableWriter writer = new RestValueTableWriter(newTable(HttpStatus.SC_INTERNAL_SERVER_ERROR));
+    writeValueSet(writer, "1", TextType.get().valueOf("value"), variableA);
+    try {
+      writer.close();
+      fail("Batch failure should have been reported");
+    } catch(RuntimeException e) {
+      assertThat(e.getMessage()).contains("Failed writing value sets in table tbl");
+    }
+    assertThat(batches).hasSize(1);
+  }
+
+  private void writeValueSet(RestValueTableWriter writer, String identifier, Value value, Variable... variables) {
+    try(ValueSetWriter valueSetWriter = writer.writeValueSet(new VariableEntityBean("Participant", identifier))) {
+      for(Variable variable : variables) {
+        valueSetWriter.writeValue(variable, value);
+      }
+    }
+  }
+
+  private List<Integer> getBatchSizes() {
+    List<Integer> sizes = Lists.newArrayList();
+    for(ValueSetsDto batch : batches) {
+      sizes.add(batch.getValueSetsCount());
+    }
+    Collections.sort(sizes);
+    return sizes;
+  }
+
+  private RestValueTable newTable(final int status) {
+    OpalJavaClient client = EasyMock.createMock(OpalJavaClient.class);
+    try {
+      expect(client.post(anyObject(URI.class), anyObject(Message.class))).andAnswer(new IAnswer<HttpResponse>() {
+        @Override
+        public HttpResponse answer() throws Throwable {
+          batches.add((ValueSetsDto) EasyMock.getCurrentArguments()[1]);
+          return new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, status, "Status " + status));
+        }
+      }).anyTimes();
+    } catch(IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    RestValueTable table = EasyMock.createNiceMock(RestValueTable.class);
+    expect(table.getName()).andReturn("tbl").anyTimes();
+    expect(table.getOpalClient()).andReturn(client).anyTimes();
+    expect(table.newReference("valueSet")).andReturn(VALUE_SET_URI).anyTimes();
+    EasyMock.replay(client, table);
+    return table;
+  }
+
+}
@@ -10,9 +10,17 @@
 package org.obiba.opal.search;
 
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
 
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.authc.AuthenticationException;
@@ -34,9 +42,17 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
 /**
  * Manages {@code IndexSynchronization} tasks. This class will monitor the state of all indices periodically. When an
  * index is determined to be out of date, a {@code IndexSynchronization} task is created and run.
+ * <p/>
+ * Variables and values indices are synchronized in separate lanes, so that a long values indexing does not delay the
+ * variables indexing. Each lane has its own pool of consumers (the size of the values one is configurable) and runs
+ * the tasks of the smallest tables first.
  */
 @Component
 @Transactional(readOnly = true)
@@ -47,6 +63,8 @@ public class IndexSynchronizationManager {
   // Grace period before reindexing (in seconds)
   private static final int GRACE_PERIOD = 300;
 
+  private static final int VARIABLES_CONSUMERS = 1;
+
   @Autowired
   @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
   private Set<IndexManager> indexManagers;
@@ -54,15 +72,25 @@ public class IndexSynchronizationManager {
   @Autowired
   private OpalSearchService opalSearchService;
 
+  @org.springframework.beans.factory.annotation.Value("${org.obiba.opal.search.valuesIndexingConsumers}")
+  private int valuesConsumers;
+
   private final SyncProducer syncProducer = new SyncProducer();
 
-  private SyncConsumer syncConsumer;
+  private final SyncLane variablesLane = new SyncLane("Variables");
 
-  private IndexSynchronization currentTask;
+  private final SyncLane valuesLane = new SyncLane("Values");
 
-  private final BlockingQueue<IndexSynchronization> indexSyncQueue = new LinkedBlockingQueue<>();
+  // tasks waiting in a lane, by task key
+  private final ConcurrentMap<String, IndexSynchronization> queuedTasks = new ConcurrentHashMap<>();
 
-  private Thread consumer;
+  // tasks being run by a consumer, by task key
+  private final ConcurrentMap<String, IndexSynchronization> runningTasks = new ConcurrentHashMap<>();
+
+  // guards the moves of the tasks from the queue to the consumers
+  private final Object tasksLock = new Object();
+
+  private final AtomicLong submissionSequence = new AtomicLong();
 
   // Every minute
   @Scheduled(fixedDelay = 60 * 1000)
@@ -70,14 +98,9 @@ public class IndexSynchronizationManager {
 
     if(!opalSearchService.isRunning()) return;
 
-    if(syncConsumer == null) {
-      // start one IndexSynchronization consumer thread per index manager
-      syncConsumer = new SyncConsumer();
-      startConsumerThread();
-    } else if(consumer != null && !consumer.isAlive() && !consumer.isInterrupted()) {
-      // restart consumer if it died unexpectedly
-      startConsumerThread();
-    }
+    // start the consumers, or restart the ones that died unexpectedly
+    variablesLane.startConsumers(VARIABLES_CONSUMERS);
+    valuesLane.startConsumers(Math.max(1, valuesConsumers));
     getSubject().execute(syncProducer);
   }
 
@@ -85,24 +108,94 @@ public class IndexSynchronizationManager {
     syncProducer.index(indexManager, table, gracePeriod);
   }
 
-  public IndexSynchronization getCurrentTask() {
-    return currentTask;
+  /**
+   * Get the tasks being currently run.
+   *
+   * @return
+   */
+  public Collection<IndexSynchronization> getCurrentTasks() {
+    return ImmutableList.copyOf(runningTasks.values());
   }
 
-  public void stopTask() {
-    currentTask.stop();
-    syncProducer.deleteCurrentTaskFromQueue();
+  /**
+   * Get the task being currently run for the index of the given table.
+   *
+   * @param indexManager
+   * @param table
+   * @return null if no synchronization of this index is running
+   */
+  @Nullable
+  public IndexSynchronization getCurrentTask(IndexManager indexManager, ValueTable table) {
+    return runningTasks.get(taskKey(indexManager, table));
   }
 
-  private void startConsumerThread() {
-    consumer = new Thread(getSubject().associateWith(syncConsumer));
-    consumer.setName("Index Synchronization Consumer " + syncConsumer);
-    consumer.setPriority(Thread.MIN_PRIORITY);
-    consumer.start();
+  /**
+   * Stop the synchronization of the index of the given table, whether it is running or queued.
+   *
+   * @param indexManager
+   * @param table
+   */
+  public void stopTask(IndexManager indexManager, ValueTable table) {
+    String key = taskKey(indexManager, table);
+    IndexSynchronization queued = queuedTasks.remove(key);
+    if(queued != null) {
+      log.trace("Deleting task from queue : {}", queued.getValueTable().getName());
+    }
+    IndexSynchronization running = runningTasks.get(key);
+    if(running != null) running.stop();
+  }
+
+  public void terminateConsumerThreads() {
+    variablesLane.terminateConsumers();
+    valuesLane.terminateConsumers();
   }
 
-  public void terminateConsumerThread() {
-    if(consumer != null && consumer.isAlive()) consumer.interrupt();
+  public boolean isAlreadyQueued(IndexManager indexManager, ValueTable table) {
+    boolean queued = queuedTasks.containsKey(taskKey(indexManager, table));
+    log.trace("Indexation is {}queued...", queued ? "already " : "not ");
+    return queued;
+  }
+
+  /**
+   * Register a task as queued, unless a synchronization of the same index is already queued or running.
+   *
+   * @param key
+   * @param sync
+   * @return true if the task was registered
+   */
+  boolean queueTask(String key, IndexSynchronization sync) {
+    synchronized(tasksLock) {
+      if(runningTasks.containsKey(key) || queuedTasks.containsKey(key)) return false;
+      queuedTasks.put(key, sync);
+      return true;
+    }
+  }
+
+  /**
+   * Move a queued task to the running ones, so that it cannot be queued again in between.
+   *
+   * @param key
+   * @param sync
+   * @return false if the task was stopped while queued
+   */
+  boolean startTask(String key, IndexSynchronization sync) {
+    synchronized(tasksLock) {
+      if(!queuedTasks.remove(key, sync)) return false;
+      runningTasks.put(key, sync);
+      return true;
+    }
+  }
+
+  /**
+   * The key of the synchronization of a table index: the table reference, which does not change when the index
+   * switches to another mapping type, like the index managers cache.
+   */
+  private String taskKey(IndexManager indexManager, ValueTable table) {
+    return indexManager.getName() + ":" + table.getTableReference();
+  }
+
+  private SyncLane getLane(IndexManager indexManager) {
+    return indexManager instanceof VariablesIndexManager ? variablesLane : valuesLane;
   }
 
   private Subject getSubject() {
@@ -170,57 +263,128 @@ public class IndexSynchronizationManager {
     }
 
     /**
-     * Check if the index is not the current task, or in the queue before adding it to the indexation queue.
+     * Check if the index is not being synchronized, or in the queue before adding it to the indexation lane.
      *
      * @param indexManager
      * @param table
      */
     private void submitTask(IndexManager indexManager, ValueTable table) {
-      ValueTableIndex index = indexManager.getIndex(table);
-      if(currentTask != null && currentTask.getIndexManager().getName().equals(indexManager.getName()) &&
-          currentTask.getValueTableIndex().getIndexName().equals(index.getIndexName())) return;
+      String key = taskKey(indexManager, table);
+      if(runningTasks.containsKey(key) || queuedTasks.containsKey(key)) return;
 
-      if(!isAlreadyQueued(indexManager, index)) {
-        log.trace("Queueing for indexing {} in {}", index.getIndexName(), indexManager.getName());
-        indexSyncQueue.offer(indexManager.createSyncTask(table, index));
+      ValueTableIndex index = indexManager.getIndex(table);
+      IndexSynchronization sync = indexManager.createSyncTask(table, index);
+      if(queueTask(key, sync)) {
+        log.trace("Queueing for indexing {} in {}", table.getTableReference(), indexManager.getName());
+        SyncLane lane = getLane(indexManager);
+        lane.offer(new QueuedSync(key, sync, lane == variablesLane
+            ? Iterables.size(table.getVariables())
+            : table.getVariableEntityCount()));
       }
     }
+  }
+
+  /**
+   * A task in a lane, ordered by weight (the size of the table) and then by submission order.
+   */
+  private class QueuedSync implements Comparable<QueuedSync> {
+
+    @NotNull
+    private final String key;
+
+    @NotNull
+    private final IndexSynchronization sync;
+
+    private final long weight;
+
+    private final long sequence = submissionSequence.incrementAndGet();
+
+    private QueuedSync(@NotNull String key, @NotNull IndexSynchronization sync, long weight) {
+      this.key = key;
+      this.sync = sync;
+      this.weight = weight;
+    }
 
-    private void deleteCurrentTaskFromQueue() {
-      log.trace("Deleting current task from queue : {}", currentTask.getValueTable().getName());
-      indexSyncQueue.remove(currentTask);
+    @Override
+    public int compareTo(@NotNull QueuedSync other) {
+      int cmp = Long.compare(weight, other.weight);
+      return cmp == 0 ? Long.compare(sequence, other.sequence) : cmp;
     }
   }
 
-  public boolean isAlreadyQueued(IndexManager indexManager, ValueTableIndex index) {
-    for(IndexSynchronization s : indexSyncQueue) {
-      if(s.getValueTableIndex().getIndexName().equals(index.getIndexName()) &&
-          s.getIndexManager().getName().equals(indexManager.getName())) {
-        log.trace("Indexation is already queued...");
-        return true;
+  private class SyncLane {
+
+    @NotNull
+    private final String name;
+
+    private final BlockingQueue<QueuedSync> queue = new PriorityBlockingQueue<>();
+
+    private final List<Thread> consumers = Lists.newArrayList();
+
+    private SyncLane(@NotNull String name) {
+      this.name = name;
+    }
+
+    private void offer(QueuedSync queuedSync) {
+      queue.offer(queuedSync);
+    }
+
+    private synchronized void startConsumers(int count) {
+      for(int i = 0; i < count; i++) {
+        if(i < consumers.size()) {
+          Thread consumer = consumers.get(i);
+          if(!consumer.isAlive() && !consumer.isInterrupted()) {
+            consumers.set(i, startConsumerThread(i));
+          }
+        } else {
+          consumers.add(startConsumerThread(i));
+        }
+      }
+    }
+
+    private Thread startConsumerThread(int i) {
+      Thread consumer = new Thread(getSubject().associateWith(new SyncConsumer(this)));
+      consumer.setName(name + " Index Synchronization Consumer " + i);
+      consumer.setPriority(Thread.MIN_PRIORITY);
+      consumer.start();
+      return consumer;
+    }
+
+    private synchronized void terminateConsumers() {
+      for(Thread consumer : consumers) {
+        if(consumer.isAlive()) consumer.interrupt();
       }
+      consumers.clear();
     }
-    log.trace("Indexation is not queued...");
-    return false;
   }
 
   private class SyncConsumer implements Runnable {
 
+    @NotNull
+    private final SyncLane lane;
+
+    private SyncConsumer(@NotNull SyncLane lane) {
+      this.lane = lane;
+    }
+
     @Override
     public void run() {
-      log.debug("Starting indexing consumer");
+      log.debug("Starting {} indexing consumer", lane.name);
       try {
         //noinspection InfiniteLoopStatement
         while(true) {
-          consume(indexSyncQueue.take());
+          consume(lane.queue.take());
         }
       } catch(InterruptedException ignored) {
-        log.debug("Stopping indexing consumer");
+        log.debug("Stopping {} indexing consumer", lane.name);
       }
     }
 
-    private void consume(IndexSynchronization sync) {
-      currentTask = sync;
+    private void consume(QueuedSync queuedSync) {
+      IndexSynchronization sync = queuedSync.sync;
+      // task was stopped while queued
+      if(!startTask(queuedSync.key, sync)) return;
+
       try {
         log.trace("Prepare indexing {} in {}", sync.getValueTableIndex().getIndexName(),
             sync.getIndexManager().getName());
@@ -231,7 +395,7 @@ public class IndexSynchronizationManager {
       } catch(NoSuchDatasourceException | NoSuchValueTableException e) {
         log.trace("Cannot index: ", e.getMessage());
       } finally {
-        currentTask = null;
+        runningTasks.remove(queuedSync.key, sync);
       }
     }
   }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.search.es;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.validation.constraints.NotNull;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Sends index requests to Elasticsearch in bulks. A bulk is flushed when it reaches a number of actions or an
+ * estimated size in bytes, so that wide documents make smaller bulks. Several bulks can be in flight at the same time;
+ * when the maximum is reached, adding a request blocks until a bulk completes, which slows down the producers to the
+ * pace of Elasticsearch.
+ */
+class EsBulkSender {
+
+  private static final Logger log = LoggerFactory.getLogger(EsBulkSender.class);
+
+  static final int DEFAULT_MAX_ACTIONS = 1000;
+
+  static final long DEFAULT_MAX_BYTES = 5 * 1024 * 1024;
+
+  static final int DEFAULT_CONCURRENT_BULKS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+  @NotNull
+  private final Client client;
+
+  private final int maxActions;
+
+  private final long maxBytes;
+
+  private final int concurrentBulks;
+
+  private final Semaphore inFlight;
+
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  private final AtomicLong sentActions = new AtomicLong();
+
+  private final AtomicLong sentBytes = new AtomicLong();
+
+  private final AtomicLong sentBulks = new AtomicLong();
+
+  private final Stopwatch stopwatch = Stopwatch.createStarted();
+
+  private BulkRequestBuilder bulkRequest;
+
+  EsBulkSender(@NotNull Client client) {
+    this(client, DEFAULT_MAX_ACTIONS, DEFAULT_MAX_BYTES, DEFAULT_CONCURRENT_BULKS);
+  }
+
+  EsBulkSender(@NotNull Client client, int maxActions, long maxBytes, int concurrentBulks) {
+    this.client = client;
+    this.maxActions = maxActions;
+    this.maxBytes = maxBytes;
+    this.concurrentBulks = concurrentBulks;
+    inFlight = new Semaphore(concurrentBulks);
+    bulkRequest = client.prepareBulk();
+  }
+
+  /**
+   * Add a request to the current bulk, and send it if it is full.
+   *
+   * @param request
+   * @throws RuntimeException if a previous bulk has failed
+   */
+  synchronized void add(@NotNull IndexRequestBuilder request) {
+    checkFailure();
+    bulkRequest.add(request);
+    if(bulkRequest.numberOfActions() >= maxActions || bulkRequest.request().estimatedSizeInBytes() >= maxBytes) {
+      flush();
+    }
+  }
+
+  /**
+   * Send the current bulk, waiting for a bulk to complete if the maximum of bulks in flight is reached.
+   */
+  synchronized void flush() {
+    if(bulkRequest.numberOfActions() == 0) return;
+
+    final int actions = bulkRequest.numberOfActions();
+    final long bytes = bulkRequest.request().estimatedSizeInBytes();
+    BulkRequestBuilder toSend = bulkRequest;
+    bulkRequest = client.prepareBulk();
+
+    inFlight.acquireUninterruptibly();
+    toSend.execute(new ActionListener<BulkResponse>() {
+      @Override
+      public void onResponse(BulkResponse response) {
+        try {
+          if(response.hasFailures()) {
+            failure.compareAndSet(null, new RuntimeException(response.buildFailureMessage()));
+          } else {
+            sentActions.addAndGet(actions);
+            sentBytes.addAndGet(bytes);
+            sentBulks.incrementAndGet();
+          }
+        } finally {
+          inFlight.release();
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable e) {
+        failure.compareAndSet(null, e);
+        inFlight.release();
+      }
+    });
+  }
+
+  /**
+   * Send the current bulk and wait for all the bulks in flight to complete.
+   *
+   * @throws RuntimeException if a bulk has failed
+   */
+  void close() {
+    flush();
+    awaitBulks();
+    log.debug("Sent {} actions ({} bytes) in {} bulks in {}: {} actions/s", sentActions.get(), sentBytes.get(),
+        sentBulks.get(), stopwatch, getThroughput());
+    checkFailure();
+  }
+
+  /**
+   * Discard the current bulk and wait for the bulks in flight to complete, ignoring their failures.
+   */
+  synchronized void cancel() {
+    bulkRequest = client.prepareBulk();
+    awaitBulks();
+  }
+
+  /**
+   * Number of actions successfully sent per second since the creation of this sender.
+   *
+   * @return
+   */
+  float getThroughput() {
+    long elapsed = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+    return elapsed == 0 ? 0 : sentActions.get() * 1000f / elapsed;
+  }
+
+  private void awaitBulks() {
+    inFlight.acquireUninterruptibly(concurrentBulks);
+    inFlight.release(concurrentBulks);
+    if(stopwatch.isRunning()) stopwatch.stop();
+  }
+
+  private void checkFailure() {
+    Throwable e = failure.get();
+    if(e != null) {
+      throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+    }
+  }
+
+}
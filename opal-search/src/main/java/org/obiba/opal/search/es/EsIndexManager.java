@@ -12,7 +12,7 @@ package org.obiba.opal.search.es;
 import java.io.IOException;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -29,6 +29,7 @@ import org.elasticsearch.common.collect.ImmutableOpenMap;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
 import org.elasticsearch.indices.IndexMissingException;
 import org.elasticsearch.indices.TypeMissingException;
 import org.obiba.magma.Timestamps;
@@ -79,7 +80,8 @@ abstract class EsIndexManager implements IndexManager, ValueTableUpdateListener
   @NotNull
   protected VersionProvider runtimeVersionProvider;
 
-  private final Map<String, ValueTableIndex> indices = Maps.newHashMap();
+  // tables are indexed concurrently
+  private final ConcurrentMap<String, ValueTableIndex> indices = Maps.newConcurrentMap();
 
   @NotNull
   @Override
@@ -89,18 +91,24 @@ abstract class EsIndexManager implements IndexManager, ValueTableUpdateListener
     String tableFullName = vt.getTableReference();
     ValueTableIndex index = indices.get(tableFullName);
     if(index == null) {
-      index = createIndex(vt);
-      indices.put(tableFullName, index);
+      ValueTableIndex created = createIndex(vt);
+      index = indices.putIfAbsent(tableFullName, created);
+      if(index == null) index = created;
     }
     return index;
   }
 
   @Override
   public boolean hasIndex(@NotNull ValueTable valueTable) {
-    ClusterStateResponse resp = opalSearchService.getClient().admin().cluster().prepareState().execute().actionGet();
-    ImmutableOpenMap<String, MappingMetaData> mappings = resp.getState().metaData().index(getName()).mappings();
-    return mappings.containsKey(getIndex(valueTable).getIndexName());
+    ImmutableOpenMap<String, MappingMetaData> mappings = getMappings();
+    return mappings != null && mappings.containsKey(getIndex(valueTable).getIndexName());
+  }
 
+  @Nullable
+  private ImmutableOpenMap<String, MappingMetaData> getMappings() {
+    ClusterStateResponse resp = opalSearchService.getClient().admin().cluster().prepareState().execute().actionGet();
+    IndexMetaData indexMetaData = resp.getState().metaData().index(getName());
+    return indexMetaData == null ? null : indexMetaData.mappings();
   }
 
   protected abstract ValueTableIndex createIndex(@NotNull ValueTable vt);
@@ -135,7 +143,11 @@ abstract class EsIndexManager implements IndexManager, ValueTableUpdateListener
     IndicesAdminClient idxAdmin = opalSearchService.getClient().admin().indices();
     if(!idxAdmin.exists(new IndicesExistsRequest(getName())).actionGet().isExists()) {
       log.info("Creating index [{}]", getName());
-      idxAdmin.prepareCreate(getName()).setSettings(getIndexSettings()).execute().actionGet();
+      try {
+        idxAdmin.prepareCreate(getName()).setSettings(getIndexSettings()).execute().actionGet();
+      } catch(IndexAlreadyExistsException ignored) {
+        // created by a concurrent synchronization
+      }
     }
     return opalSearchService.getClient().admin().cluster().prepareState().setIndices(getName()).execute()
         .actionGet().getState().getMetaData().index(getName());
@@ -165,7 +177,7 @@ abstract class EsIndexManager implements IndexManager, ValueTableUpdateListener
     @NotNull
     private final EsValueTableIndex index;
 
-    private final int total;
+    protected int total;
 
     protected int done = 0;
 
@@ -184,11 +196,44 @@ abstract class EsIndexManager implements IndexManager, ValueTableUpdateListener
 
     @Override
     public void run() {
-      log.debug("Updating ValueTable index {}", index.getValueTableReference());
-      index.delete();
+      if(isIncremental()) {
+        log.debug("Synchronizing ValueTable index {}", index.getValueTableReference());
+        synchronize();
+      } else {
+        log.debug("Updating ValueTable index {}", index.getValueTableReference());
+        rebuild();
+      }
+    }
+
+    /**
+     * Index the whole table again in the alternate mapping type of the index, while the live one remains queryable.
+     * The implementation of {@link #index(String, Date)} is responsible for switching the index to the alternate type
+     * on completion.
+     */
+    protected void rebuild() {
+      // value sets updated while rebuilding will be picked up by the next synchronization
+      Date started = new Date();
+      String type = index.getAlternateIndexName();
+      index.delete(type); // leftover of an interrupted rebuild
       createIndex();
-      index.createMapping();
-      index();
+      index.createMapping(type);
+      index(type, started);
+    }
+
+    /**
+     * Whether the existing index can be brought up to date by only indexing what changed since its last update.
+     *
+     * @return false by default, the index is then rebuilt
+     */
+    protected boolean isIncremental() {
+      return false;
+    }
+
+    /**
+     * Index only what changed since the last update of the index. Called when {@link #isIncremental()} is true.
+     */
+    protected void synchronize() {
+      rebuild();
     }
 
     protected BulkRequestBuilder sendAndCheck(BulkRequestBuilder bulkRequest) {
@@ -203,7 +248,13 @@ abstract class EsIndexManager implements IndexManager, ValueTableUpdateListener
       return bulkRequest;
     }
 
-    protected abstract void index();
+    /**
+     * Index the whole table.
+     *
+     * @param type the mapping type in which documents are indexed
+     * @param started start date of the rebuild, to be recorded as the last update of the index
+     */
+    protected abstract void index(@NotNull String type, @NotNull Date started);
 
     @Override
     public ValueTableIndex getValueTableIndex() {
@@ -237,15 +288,24 @@ abstract class EsIndexManager implements IndexManager, ValueTableUpdateListener
     }
   }
 
+  /**
+   * A table index is made of two mapping types in the ES index: the live one, that is queried, and the alternate one,
+   * in which the index is rebuilt. On rebuild completion, the alternate type becomes the live one and the previous live
+   * type is deleted.
+   */
   protected abstract class EsValueTableIndex implements ValueTableIndex {
 
+    private static final String ALTERNATE_SUFFIX = "__alt";
+
     @NotNull
     private final String name;
 
     @NotNull
     private final String valueTableReference;
 
-    private boolean mappingCreated;
+    // lazily resolved from the mappings
+    @Nullable
+    private volatile String liveName;
 
     /**
      * @param vt
@@ -256,10 +316,49 @@ abstract class EsIndexManager implements IndexManager, ValueTableUpdateListener
       valueTableReference = vt.getTableReference();
     }
 
+    /**
+     * Get the live mapping type, the one having the most recent complete build.
+     *
+     * @return
+     */
     @NotNull
     @Override
     public String getIndexName() {
-      return name;
+      String live = liveName;
+      if(live == null) {
+        String alternate = name + ALTERNATE_SUFFIX;
+        Date updated = getLastUpdateDate(readMapping(name));
+        Date alternateUpdated = getLastUpdateDate(readMapping(alternate));
+        live = alternateUpdated != null && (updated == null || alternateUpdated.after(updated)) ? alternate : name;
+        liveName = live;
+      }
+      return live;
+    }
+
+    /**
+     * Get the mapping type in which the index can be rebuilt.
+     *
+     * @return
+     */
+    @NotNull
+    public String getAlternateIndexName() {
+      return name.equals(getIndexName()) ? name + ALTERNATE_SUFFIX : name;
+    }
+
+    /**
+     * Make the given mapping type the live one, once it is completely built, and delete the previous one.
+     *
+     * @param type
+     * @param started start date of the build, the changes made to the table after it are not in the index
+     */
+    protected void switchTo(@NotNull String type, @NotNull Date started) {
+      updateTimestamps(type, started);
+      String previous = getIndexName();
+      liveName = type;
+      if(!previous.equals(type)) {
+        log.debug("Switching index of {} from {} to {}", valueTableReference, previous, type);
+        delete(previous);
+      }
     }
 
     @NotNull
@@ -286,18 +385,58 @@ abstract class EsIndexManager implements IndexManager, ValueTableUpdateListener
       return valueTableReference;
     }
 
-    protected void updateTimestamps() {
+    /**
+     * Set the last update of the live index to the given date.
+     *
+     * @param updated
+     */
+    protected void updateTimestamps(@NotNull Date updated) {
+      updateTimestamps(getIndexName(), updated);
+    }
+
+    private void updateTimestamps(@NotNull String type, @NotNull Date updated) {
       try {
-        EsMapping mapping = readMapping();
+        EsMapping mapping = readMapping(type);
         //noinspection ConstantConditions
-        mapping.meta().setString("_updated", DateTimeType.get().valueOf(new Date()).toString());
-        opalSearchService.getClient().admin().indices().preparePutMapping(getName()).setType(getIndexName())
-            .setSource(mapping.toXContent()).execute().actionGet();
+        mapping.meta().setString("_updated", DateTimeType.get().valueOf(updated).toString());
+        updateMeta(mapping.meta());
+        putMapping(type, mapping);
       } catch(IOException e) {
         throw new RuntimeException(e);
       }
     }
 
+    protected void putMapping(@NotNull String type, @NotNull EsMapping mapping) throws IOException {
+      opalSearchService.getClient().admin().indices().preparePutMapping(getName()).setType(type)
+          .setSource(mapping.toXContent()).execute().actionGet();
+    }
+
+    /**
+     * Hook for adding index specific information to the mapping meta when timestamps are updated.
+     *
+     * @param meta
+     */
+    protected void updateMeta(EsMapping.Meta meta) {
+    }
+
+    /**
+     * Date of the last update of the index.
+     *
+     * @return null if the index was never completely built
+     */
+    @Nullable
+    protected Date getLastUpdateDate() {
+      return getLastUpdateDate(readMapping());
+    }
+
+    @Nullable
+    private Date getLastUpdateDate(EsMapping mapping) {
+      String updated = mapping.meta().getString("_updated");
+      if(updated == null) return null;
+      Value value = DateTimeType.get().valueOf(updated);
+      return value.isNull() ? null : (Date) value.getValue();
+    }
+
     protected BulkRequestBuilder sendAndCheck(BulkRequestBuilder bulkRequest) {
       if(bulkRequest.numberOfActions() > 0) {
         BulkResponse bulkResponse = bulkRequest.execute().actionGet();
@@ -312,26 +451,33 @@ abstract class EsIndexManager implements IndexManager, ValueTableUpdateListener
 
     @Override
     public void delete() {
+      delete(name);
+      delete(name + ALTERNATE_SUFFIX);
+      liveName = name;
+    }
+
+    /**
+     * Delete one of the mapping types of the index.
+     *
+     * @param type
+     */
+    protected void delete(@NotNull String type) {
       if(opalSearchService.isEnabled() && opalSearchService.isRunning()) {
         try {
-          opalSearchService.getClient().admin().indices().prepareDeleteMapping(getName()).setType(getIndexName())
-              .execute().actionGet();
+          opalSearchService.getClient().admin().indices().prepareDeleteMapping(getName()).setType(type).execute()
+              .actionGet();
         } catch(TypeMissingException | IndexMissingException ignored) {
-        } finally {
-          mappingCreated = false;
         }
       }
     }
 
-    protected void createMapping() {
-      if(mappingCreated) return;
+    protected void createMapping(@NotNull String type) {
       getIndexMetaData(); // create index if it does not exist yet
-      opalSearchService.getClient().admin().indices().preparePutMapping(getName()).setType(getIndexName())
-          .setSource(getMapping()).execute().actionGet();
-      mappingCreated = true;
+      opalSearchService.getClient().admin().indices().preparePutMapping(getName()).setType(type)
+          .setSource(getMapping(type)).execute().actionGet();
     }
 
-    protected abstract XContentBuilder getMapping();
+    protected abstract XContentBuilder getMapping(@NotNull String type);
 
     @Override
     public boolean isUpToDate() {
@@ -374,23 +520,26 @@ abstract class EsIndexManager implements IndexManager, ValueTableUpdateListener
 
     @NotNull
     protected EsMapping readMapping() {
+      return readMapping(getIndexName());
+    }
+
+    @NotNull
+    private EsMapping readMapping(@NotNull String type) {
       try {
         try {
           IndexMetaData indexMetaData = getIndexMetaData();
 
           if(indexMetaData != null) {
-            MappingMetaData metaData = indexMetaData.mapping(getIndexName());
+            MappingMetaData metaData = indexMetaData.mapping(type);
             if(metaData != null) {
               byte[] mappingSource = metaData.source().uncompressed();
-              return new EsMapping(getIndexName(), mappingSource);
+              return new EsMapping(type, mappingSource);
             }
           }
 
-          mappingCreated = false;
-          return new EsMapping(getIndexName());
+          return new EsMapping(type);
         } catch(IndexMissingException e) {
-          mappingCreated = false;
-          return new EsMapping(getIndexName());
+          return new EsMapping(type);
         }
       } catch(IOException e) {
         throw new RuntimeException(e);
@@ -420,13 +569,13 @@ abstract class EsIndexManager implements IndexManager, ValueTableUpdateListener
 
     @Override
     public int hashCode() {
-      return getIndexName().hashCode();
+      return name.hashCode();
     }
 
     @Override
     public boolean equals(Object obj) {
-      return obj != null && (obj == this ||
-          obj instanceof EsValueTableIndex && ((ValueTableIndex) obj).getIndexName().equals(getIndexName()));
+      return obj != null &&
+          (obj == this || obj instanceof EsValueTableIndex && ((EsValueTableIndex) obj).name.equals(name));
     }
 
   }
@@ -10,9 +10,11 @@
 package org.obiba.opal.search.es;
 
 import java.io.IOException;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ThreadFactory;
 
 import javax.annotation.Nullable;
@@ -20,8 +22,15 @@ import javax.validation.constraints.NotNull;
 
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.obiba.magma.Category;
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
@@ -31,6 +40,7 @@ import org.obiba.magma.concurrent.ConcurrentValueTableReader.ConcurrentReaderCal
 import org.obiba.magma.type.BinaryType;
 import org.obiba.magma.type.DateType;
 import org.obiba.opal.core.domain.VariableNature;
+import org.obiba.opal.core.magma.VariableEntitiesFilteredValueTable;
 import org.obiba.opal.core.service.VariableSummaryService;
 import org.obiba.opal.search.IndexSynchronization;
 import org.obiba.opal.search.ValueTableIndex;
@@ -43,10 +53,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Predicate;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 @Component
 @Transactional(readOnly = true)
@@ -54,6 +68,8 @@ public class EsValuesIndexManager extends EsIndexManager implements ValuesIndexM
 
   private static final Logger log = LoggerFactory.getLogger(EsValuesIndexManager.class);
 
+  private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
   @Autowired
   private ThreadFactory threadFactory;
 
@@ -83,6 +99,53 @@ public class EsValuesIndexManager extends EsIndexManager implements ValuesIndexM
     return esIndexName() + "-values";
   }
 
+  /**
+   * Get the entities of which the value sets were created or updated since the last update of the index. The
+   * identifiers of the entities of the table are removed from the indexed ones, leaving the entities that are not in
+   * the table any more.
+   *
+   * @param table
+   * @param lastUpdate last update of the index, null if unknown
+   * @param indexedIdentifiers identifiers of the entities having their values indexed
+   * @return null if the value sets timestamps are not available
+   */
+  @Nullable
+  static List<VariableEntity> getUpdatedEntities(@NotNull ValueTable table, @Nullable Date lastUpdate,
+      @NotNull Set<String> indexedIdentifiers) {
+    if(lastUpdate == null) return null;
+    List<VariableEntity> updatedEntities = Lists.newArrayList();
+    for(VariableEntity entity : table.getVariableEntities()) {
+      boolean indexed = indexedIdentifiers.remove(entity.getIdentifier());
+      Value valueSetUpdate = table.getValueSetTimestamps(entity).getLastUpdate();
+      if(valueSetUpdate.isNull()) return null;
+      if(!indexed || ((Date) valueSetUpdate.getValue()).after(lastUpdate)) {
+        updatedEntities.add(entity);
+      }
+    }
+    return updatedEntities;
+  }
+
+  /**
+   * Fingerprint of the variables properties that have an impact on the mapping or on the indexed values.
+   *
+   * @param variables
+   * @return
+   */
+  @NotNull
+  static String getVariablesSignature(@NotNull Iterable<Variable> variables) {
+    Hasher hasher = Hashing.md5().newHasher();
+    for(Variable variable : variables) {
+      hasher.putString(variable.getName(), Charsets.UTF_8) //
+          .putString(variable.getValueType().getName(), Charsets.UTF_8) //
+          .putBoolean(variable.isRepeatable()) //
+          .putString(VariableNature.getNature(variable).name(), Charsets.UTF_8);
+      for(Category category : variable.getCategories()) {
+        hasher.putString(category.getName(), Charsets.UTF_8).putBoolean(category.isMissing());
+      }
+    }
+    return hasher.hash().toString();
+  }
+
   private class Indexer extends EsIndexer {
 
     private final EsValueTableValuesIndex index;
@@ -93,25 +156,88 @@ public class EsValuesIndexManager extends EsIndexManager implements ValuesIndexM
     }
 
     @Override
-    protected void index() {
+    protected void index(@NotNull String type, @NotNull Date started) {
+      read(valueTable, new ValuesReaderCallback(type, started, false));
+    }
+
+    @Override
+    protected boolean isIncremental() {
+      return index.isSynchronizable();
+    }
+
+    /**
+     * Index the value sets that were created or updated since the last update of the index and remove the ones of the
+     * entities that are not in the table any more. Falls back to a full rebuild if the table does not provide value
+     * set timestamps.
+     */
+    @Override
+    protected void synchronize() {
+      Date started = new Date();
+      Set<String> removedIdentifiers = index.getIndexedIdentifiers();
+      List<VariableEntity> updatedEntities = getUpdatedEntities(valueTable, index.getLastUpdateDate(),
+          removedIdentifiers);
+      if(stop) return;
+      if(updatedEntities == null) {
+        log.info("Value sets timestamps are not available, rebuilding index of table {}",
+            valueTable.getTableReference());
+        rebuild();
+        return;
+      }
+      total = updatedEntities.size();
+
+      log.info("Synchronizing index of table {}: {} value sets to index, {} to remove", valueTable.getTableReference(),
+          updatedEntities.size(), removedIdentifiers.size());
+      index.deleteValueSets(removedIdentifiers);
+      if(updatedEntities.isEmpty()) {
+        index.updateTimestamps(started);
+      } else {
+        read(new VariableEntitiesFilteredValueTable(valueTable, updatedEntities),
+            new ValuesReaderCallback(index.getIndexName(), started, true));
+      }
+    }
+
+    private void read(ValueTable table, ConcurrentReaderCallback callback) {
       ConcurrentValueTableReader.Builder.newReader() //
           .withThreads(threadFactory) //
           .ignoreReadErrors() //
-          .from(valueTable) //
+          .from(table) //
           .variablesFilter(index.getVariables()) //
-          .to(new ValuesReaderCallback()) //
+          .to(callback) //
           .build() //
           .read();
     }
 
     private class ValuesReaderCallback implements ConcurrentReaderCallback {
 
-      private BulkRequestBuilder bulkRequest = opalSearchService.getClient().prepareBulk();
+      /**
+       * Mapping type in which values are indexed.
+       */
+      @NotNull
+      private final String type;
+
+      /**
+       * Start date of the indexing, recorded as the last update of the index.
+       */
+      @NotNull
+      private final Date started;
+
+      /**
+       * Whether only the value sets updated since the last update of the index are indexed.
+       */
+      private final boolean incremental;
+
+      private final EsBulkSender bulkSender = new EsBulkSender(opalSearchService.getClient());
 
       private final Map<Variable, VariableNature> natures = new HashMap<>();
 
       private final Stopwatch stopwatch = Stopwatch.createUnstarted();
 
+      private ValuesReaderCallback(@NotNull String type, @NotNull Date started, boolean incremental) {
+        this.type = type;
+        this.started = started;
+        this.incremental = incremental;
+      }
+
       @Override
       public void onBegin(List<VariableEntity> entitiesToCopy, Variable... variables) {
         stopwatch.start();
@@ -127,7 +253,7 @@ public class EsValuesIndexManager extends EsIndexManager implements ValuesIndexM
         }
 
         String identifier = entity.getIdentifier();
-        bulkRequest.add(opalSearchService.getClient() //
+        bulkSender.add(opalSearchService.getClient() //
             .prepareIndex(getName(), valueTable.getEntityType(), identifier) //
             .setSource("{\"identifier\":\"" + identifier + "\"}"));
         try {
@@ -138,19 +264,17 @@ public class EsValuesIndexManager extends EsIndexManager implements ValuesIndexM
           builder.endObject();
 
           IndexRequestBuilder requestBuilder = opalSearchService.getClient()
-              .prepareIndex(getName(), index.getIndexName(), identifier).setParent(identifier).setSource(builder);
-          bulkRequest.add(requestBuilder);
+              .prepareIndex(getName(), type, identifier).setParent(identifier).setSource(builder);
+          // blocks when too many bulks are in flight
+          bulkSender.add(requestBuilder);
           done++;
-          if(bulkRequest.numberOfActions() >= ES_BATCH_SIZE) {
-            bulkRequest = sendAndCheck(bulkRequest);
-          }
         } catch(IOException e) {
           throw new RuntimeException(e);
         }
       }
 
       private void indexValue(XContentBuilder xcb, Variable variable, Value value) throws IOException {
-        String fieldName = index.getFieldName(variable.getName());
+        String fieldName = index.getFieldName(type, variable.getName());
         if(value.isSequence() && !value.isNull()) {
           List<Object> values = Lists.newArrayList();
           for(Value v : value.asSequence().getValue()) {
@@ -160,19 +284,33 @@ public class EsValuesIndexManager extends EsIndexManager implements ValuesIndexM
         } else {
           xcb.field(fieldName, esValue(variable, value));
         }
-        variableSummaryService.stackVariable(getValueTable(), variable, value);
+        // summaries cannot be computed from a subset of the value sets
+        if(!incremental) variableSummaryService.stackVariable(getValueTable(), variable, value);
       }
 
       @Override
       public void onComplete() {
         stopwatch.stop();
-        if(stop) {
-          index.delete();
+        if(incremental) {
+          // on stop, timestamps are not updated so that the same value sets are synchronized next time
+          if(stop) {
+            bulkSender.cancel();
+          } else {
+            bulkSender.close();
+            index.updateTimestamps(started);
+            log.info("Synchronized {} value sets of table {} in {} ({} documents/s)", done,
+                getValueTable().getTableReference(), stopwatch, bulkSender.getThroughput());
+          }
+        } else if(stop) {
+          // the live index is left untouched
+          bulkSender.cancel();
+          index.delete(type);
           variableSummaryService.clearComputingSummaries(getValueTable());
         } else {
-          sendAndCheck(bulkRequest);
-          index.updateTimestamps();
-          log.info("Indexed table {} in {}", getValueTable().getTableReference(), stopwatch);
+          bulkSender.close();
+          index.switchTo(type, started);
+          log.info("Indexed table {} in {} ({} documents/s)", getValueTable().getTableReference(), stopwatch,
+              bulkSender.getThroughput());
 
           // compute summaries in a new thread
           new Thread(new Runnable() {
@@ -217,18 +355,86 @@ public class EsValuesIndexManager extends EsIndexManager implements ValuesIndexM
 
   private class EsValueTableValuesIndex extends EsValueTableIndex implements ValueTableValuesIndex {
 
+    private static final String VARIABLES_META = "_variables";
+
     private EsValueTableValuesIndex(ValueTable vt) {
       super(vt);
     }
 
+    /**
+     * Check if the index can be synchronized incrementally: it was completely built at least once, by the current Opal
+     * version and with the same variables as the ones of the table.
+     *
+     * @return
+     */
+    boolean isSynchronizable() {
+      EsMapping.Meta meta = readMapping().meta();
+      return meta.getString("_updated") != null &&
+          getVariablesSignature(getVariables()).equals(meta.getString(VARIABLES_META)) && !requiresUpgrade();
+    }
+
+    @Override
+    protected void updateMeta(EsMapping.Meta meta) {
+      meta.setString(VARIABLES_META, getVariablesSignature(getVariables()));
+    }
+
+    /**
+     * Get the identifiers of the entities having their values indexed.
+     *
+     * @return a mutable set of identifiers
+     */
+    Set<String> getIndexedIdentifiers() {
+      Set<String> identifiers = Sets.newHashSet();
+      Client client = opalSearchService.getClient();
+      SearchResponse response = client.prepareSearch(getName()).setTypes(getIndexName()) //
+          .setSearchType(SearchType.SCAN) //
+          .setScroll(SCROLL_KEEP_ALIVE) //
+          .setQuery(QueryBuilders.matchAllQuery()) //
+          .setSize(ES_BATCH_SIZE) //
+          .setNoFields() //
+          .execute().actionGet();
+      while(true) {
+        response = client.prepareSearchScroll(response.getScrollId()).setScroll(SCROLL_KEEP_ALIVE).execute()
+            .actionGet();
+        SearchHit[] hits = response.getHits().getHits();
+        if(hits.length == 0) break;
+        for(SearchHit hit : hits) {
+          identifiers.add(hit.getId());
+        }
+      }
+      return identifiers;
+    }
+
+    /**
+     * Remove the values of the given entities from the index. The entity documents are kept as they can be shared with
+     * other tables.
+     *
+     * @param identifiers
+     */
+    void deleteValueSets(Iterable<String> identifiers) {
+      Client client = opalSearchService.getClient();
+      BulkRequestBuilder bulkRequest = client.prepareBulk();
+      for(String identifier : identifiers) {
+        bulkRequest.add(client.prepareDelete(getName(), getIndexName(), identifier).setParent(identifier));
+        if(bulkRequest.numberOfActions() >= ES_BATCH_SIZE) {
+          bulkRequest = sendAndCheck(bulkRequest);
+        }
+      }
+      sendAndCheck(bulkRequest);
+    }
+
     @Override
     public String getFieldName(String variable) {
-      return getIndexName() + "-" + variable;
+      return getFieldName(getIndexName(), variable);
+    }
+
+    private String getFieldName(String type, String variable) {
+      return type + "-" + variable;
     }
 
     @Override
-    protected XContentBuilder getMapping() {
-      return new ValueTableMapping().createMapping(runtimeVersionProvider.getVersion(), getIndexName(), resolveTable());
+    protected XContentBuilder getMapping(@NotNull String type) {
+      return new ValueTableMapping().createMapping(runtimeVersionProvider.getVersion(), type, resolveTable());
     }
 
     @Override
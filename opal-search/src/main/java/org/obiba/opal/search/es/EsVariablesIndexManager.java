@@ -11,6 +11,7 @@ package org.obiba.opal.search.es;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -80,19 +81,20 @@ public class EsVariablesIndexManager extends EsIndexManager implements Variables
     }
 
     @Override
-    protected void index() {
+    protected void index(@NotNull String type, @NotNull Date started) {
       BulkRequestBuilder bulkRequest = opalSearchService.getClient().prepareBulk();
 
       int tableIndex = 0;
       for(Variable variable : valueTable.getVariables()) {
-        bulkRequest = indexVariable(variable, bulkRequest, tableIndex++);
+        bulkRequest = indexVariable(type, variable, bulkRequest, tableIndex++);
       }
 
       sendAndCheck(bulkRequest);
-      index.updateTimestamps();
+      index.switchTo(type, started);
     }
 
-    private BulkRequestBuilder indexVariable(Variable variable, BulkRequestBuilder bulkRequest, int tableIndex) {
+    private BulkRequestBuilder indexVariable(String type, Variable variable, BulkRequestBuilder bulkRequest,
+        int tableIndex) {
       String fullName = valueTable.getDatasource().getName() + "." + valueTable.getName() + ":" + variable.getName();
       try {
         XContentBuilder xcb = XContentFactory.jsonBuilder().startObject();
@@ -110,7 +112,7 @@ public class EsVariablesIndexManager extends EsIndexManager implements Variables
           indexVariableCategories(variable, xcb);
         }
 
-        bulkRequest.add(opalSearchService.getClient().prepareIndex(getName(), index.getIndexName(), fullName)
+        bulkRequest.add(opalSearchService.getClient().prepareIndex(getName(), type, fullName)
             .setSource(xcb.endObject()));
         if(bulkRequest.numberOfActions() >= ES_BATCH_SIZE) {
           return sendAndCheck(bulkRequest);
@@ -171,9 +173,8 @@ public class EsVariablesIndexManager extends EsIndexManager implements Variables
     }
 
     @Override
-    protected XContentBuilder getMapping() {
-      return new ValueTableVariablesMapping()
-          .createMapping(runtimeVersionProvider.getVersion(), getIndexName(), resolveTable());
+    protected XContentBuilder getMapping(@NotNull String type) {
+      return new ValueTableVariablesMapping().createMapping(runtimeVersionProvider.getVersion(), type, resolveTable());
     }
 
     @NotNull
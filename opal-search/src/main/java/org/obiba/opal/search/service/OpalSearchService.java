@@ -90,7 +90,7 @@ public class OpalSearchService implements Service, ElasticSearchProvider {
   public void stop() {
     if(isRunning()) {
       // use applicationContext.getBean() to avoid unresolvable circular reference
-      applicationContext.getBean(IndexSynchronizationManager.class).terminateConsumerThread(); // stop indexer thread
+      applicationContext.getBean(IndexSynchronizationManager.class).terminateConsumerThreads(); // stop indexer threads
       esNode.close();
       esNode = null;
       client = null;
@@ -68,14 +68,14 @@ public abstract class IndexResource {
   }
 
   protected Float getValueTableIndexationProgress(String datasource, String table) {
-    IndexSynchronization currentTask = synchroManager.getCurrentTask();
-    if(currentTask != null && currentTask.getValueTable().getName().equals(table) &&
-        currentTask.getValueTable().getDatasource().getName().equals(datasource)) {
+    ValueTable valueTable = getValueTable(datasource, table);
+    IndexSynchronization currentTask = synchroManager.getCurrentTask(valuesIndexManager, valueTable);
+    if(currentTask != null) {
       log.trace("Indexation is in progress...");
-      return synchroManager.getCurrentTask().getProgress();
+      return currentTask.getProgress();
     }
 
-    return synchroManager.isAlreadyQueued(valuesIndexManager, getValueTableIndex(datasource, table)) ? 0f : null;
+    return synchroManager.isAlreadyQueued(valuesIndexManager, valueTable) ? 0f : null;
   }
 
   protected boolean isInProgress(String datasource, String table) {
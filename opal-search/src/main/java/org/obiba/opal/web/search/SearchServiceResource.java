@@ -22,6 +22,7 @@ import org.obiba.magma.Datasource;
 import org.obiba.magma.MagmaEngine;
 import org.obiba.magma.Timestamps;
 import org.obiba.magma.ValueTable;
+import org.obiba.opal.search.IndexSynchronization;
 import org.obiba.opal.web.model.Opal;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
@@ -68,9 +69,9 @@ public class SearchServiceResource extends IndexResource {
 
   private Opal.TableIndexStatusDto getTableStatusDto(Datasource datasource, ValueTable valueTable) {
     float progress = 0f;
-    if(synchroManager.getCurrentTask() != null &&
-        synchroManager.getCurrentTask().getValueTable().getName().equals(valueTable.getName())) {
-      progress = synchroManager.getCurrentTask().getProgress();
+    IndexSynchronization currentTask = synchroManager.getCurrentTask(valuesIndexManager, valueTable);
+    if(currentTask != null) {
+      progress = currentTask.getProgress();
     }
 
     URI link = UriBuilder.fromPath("/").path(ValueTableIndexResource.class)
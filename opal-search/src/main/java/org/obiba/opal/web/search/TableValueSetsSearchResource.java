@@ -123,8 +123,13 @@ public class TableValueSetsSearchResource extends AbstractVariablesSearchResourc
   // Private methods
   //
 
+  /**
+   * An outdated index can still be queried while it is being rebuilt, but there must be a live one: the first build of
+   * an index is not queryable before its completion.
+   */
   private boolean canQueryEsIndex() {
-    return searchServiceAvailable() && valuesIndexManager.isIndexUpToDate(getValueTable());
+    return searchServiceAvailable() && valuesIndexManager.isReady() &&
+        valuesIndexManager.hasIndex(getValueTable());
   }
 
   private ValueTable getValueTable() {
@@ -82,8 +82,13 @@ public class TableVariablesSearchResource extends AbstractVariablesSearchResourc
     return converter.convert(jsonResponse);
   }
 
+  /**
+   * An outdated index can still be queried while it is being rebuilt, but there must be a live one: the first build of
+   * an index is not queryable before its completion.
+   */
   private boolean canQueryEsIndex() {
-    return searchServiceAvailable() && variablesIndexManager.isIndexUpToDate(getValueTable());
+    return searchServiceAvailable() && variablesIndexManager.isReady() &&
+        variablesIndexManager.hasIndex(getValueTable());
   }
 
   private ValueTable getValueTable() {
@@ -36,7 +36,6 @@ import org.elasticsearch.rest.support.RestUtils;
 import org.obiba.magma.Timestamps;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
-import org.obiba.opal.search.IndexSynchronization;
 import org.obiba.opal.search.Schedule;
 import org.obiba.opal.search.ValueTableIndex;
 import org.obiba.opal.search.ValueTableValuesIndex;
@@ -116,13 +115,9 @@ public class ValueTableIndexResource extends IndexResource {
     }
 
     // cancel indexation if in progress
-    IndexSynchronization currentTask = synchroManager.getCurrentTask();
-    if(currentTask != null &&
-        currentTask.getValueTable().getName().equals(table) &&
-        currentTask.getValueTable().getDatasource().getName().equals(datasource)) {
-      // Stop task
-      synchroManager.stopTask();
-    }
+    ValueTable valueTable = getValueTable(datasource, table);
+    synchroManager.stopTask(variablesIndexManager, valueTable);
+    synchroManager.stopTask(valuesIndexManager, valueTable);
     getValueTableIndex(datasource, table).delete();
     return Response.ok().build();
   }
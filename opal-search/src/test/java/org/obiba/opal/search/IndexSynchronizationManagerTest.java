@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.search;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.ValueTable;
+
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class IndexSynchronizationManagerTest {
+
+  private static final String KEY = "opal-values:ds.table";
+
+  private IndexSynchronizationManager manager;
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    manager = new IndexSynchronizationManager();
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void test_task_is_not_queued_twice() {
+    IndexSynchronization first = newSync();
+    assertThat(manager.queueTask(KEY, first)).isTrue();
+    assertThat(manager.queueTask(KEY, newSync())).isFalse();
+
+    assertThat(manager.startTask(KEY, first)).isTrue();
+    assertThat(manager.queueTask(KEY, newSync())).isFalse();
+  }
+
+  @Test
+  public void test_task_stopped_while_queued_is_not_started() {
+    IndexSynchronization sync = newSync();
+    manager.queueTask(KEY, sync);
+    manager.stopTask(newIndexManager(), newTable());
+
+    assertThat(manager.startTask(KEY, sync)).isFalse();
+    assertThat(manager.getCurrentTasks()).isEmpty();
+  }
+
+  @Test
+  public void test_task_is_not_queued_again_while_taken_from_queue() throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    for(int i = 0; i < 1000; i++) {
+      manager = new IndexSynchronizationManager();
+      final IndexSynchronization first = newSync();
+      final IndexSynchronization second = newSync();
+      manager.queueTask(KEY, first);
+
+      // a consumer takes the task while the producer submits the same table again
+      Future<Boolean> started = executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          barrier.await();
+          return manager.startTask(KEY, first);
+        }
+      });
+      Future<Boolean> queued = executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          barrier.await();
+          return manager.queueTask(KEY, second);
+        }
+      });
+
+      assertThat(started.get()).isTrue();
+      assertThat(queued.get()).isFalse();
+    }
+  }
+
+  private static IndexSynchronization newSync() {
+    IndexSynchronization sync = EasyMock.createNiceMock(IndexSynchronization.class);
+    expect(sync.getValueTable()).andReturn(newTable()).anyTimes();
+    EasyMock.replay(sync);
+    return sync;
+  }
+
+  private static IndexManager newIndexManager() {
+    IndexManager indexManager = EasyMock.createMock(IndexManager.class);
+    expect(indexManager.getName()).andReturn("opal-values").anyTimes();
+    EasyMock.replay(indexManager);
+    return indexManager;
+  }
+
+  private static ValueTable newTable() {
+    ValueTable table = EasyMock.createNiceMock(ValueTable.class);
+    expect(table.getTableReference()).andReturn("ds.table").anyTimes();
+    EasyMock.replay(table);
+    return table;
+  }
+
+}
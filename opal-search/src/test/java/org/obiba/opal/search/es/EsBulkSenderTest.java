@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.search.es;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class EsBulkSenderTest {
+
+  // number of actions of the bulks sent
+  private final List<Integer> bulks = Lists.newArrayList();
+
+  private Client client;
+
+  private boolean failing;
+
+  // listeners of the bulks in flight, when their completion is deferred
+  private final List<ActionListener<BulkResponse>> inFlight = Lists.newCopyOnWriteArrayList();
+
+  private volatile boolean deferred;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    client = EasyMock.createMock(Client.class);
+    expect(client.prepareBulk()).andAnswer(new IAnswer<BulkRequestBuilder>() {
+      @Override
+      public BulkRequestBuilder answer() throws Throwable {
+        return new BulkRequestBuilder(client);
+      }
+    }).anyTimes();
+    client.bulk(anyObject(BulkRequest.class), anyObject(ActionListener.class));
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+      @Override
+      public Object answer() throws Throwable {
+        bulks.add(((BulkRequest) EasyMock.getCurrentArguments()[0]).numberOfActions());
+        ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) EasyMock.getCurrentArguments()[1];
+        if(deferred) {
+          inFlight.add(listener);
+        } else if(failing) {
+          listener.onFailure(new RuntimeException("Bulk failed"));
+        } else {
+          listener.onResponse(new BulkResponse(new BulkItemResponse[0], 1));
+        }
+        return null;
+      }
+    }).anyTimes();
+    EasyMock.replay(client);
+  }
+
+  @Test
+  public void test_bulk_is_sent_when_max_actions_is_reached() {
+    EsBulkSender sender = new EsBulkSender(client, 3, Long.MAX_VALUE, 1);
+    for(int i = 0; i < 7; i++) {
+      sender.add(newIndexRequest(i, "value"));
+    }
+    assertThat(bulks).containsExactly(3, 3);
+
+    sender.close();
+    assertThat(bulks).containsExactly(3, 3, 1);
+  }
+
+  @Test
+  public void test_bulk_is_sent_when_max_bytes_is_reached() {
+    // each request is more than 1000 bytes
+    EsBulkSender sender = new EsBulkSender(client, 1000, 2000, 1);
+    for(int i = 0; i < 5; i++) {
+      sender.add(newIndexRequest(i, Strings.repeat("x", 1000)));
+    }
+    sender.close();
+
+    assertThat(bulks).containsExactly(2, 2, 1);
+  }
+
+  @Test
+  public void test_empty_bulk_is_not_sent() {
+    EsBulkSender sender = new EsBulkSender(client, 3, Long.MAX_VALUE, 1);
+    sender.flush();
+    sender.close();
+
+    assertThat(bulks).isEmpty();
+  }
+
+  @Test
+  public void test_failed_bulk_is_reported_by_next_add() {
+    failing = true;
+    EsBulkSender sender = new EsBulkSender(client, 1, Long.MAX_VALUE, 1);
+    sender.add(newIndexRequest(0, "value"));
+    try {
+      sender.add(newIndexRequest(1, "value"));
+      fail("Bulk failure should have been reported");
+    } catch(RuntimeException e) {
+      assertThat(e.getMessage()).isEqualTo("Bulk failed");
+    }
+    assertThat(bulks).hasSize(1);
+  }
+
+  @Test
+  public void test_failed_bulk_is_reported_on_close() {
+    failing = true;
+    EsBulkSender sender = new EsBulkSender(client, 10, Long.MAX_VALUE, 1);
+    sender.add(newIndexRequest(0, "value"));
+    try {
+      sender.close();
+      fail("Bulk failure should have been reported");
+    } catch(RuntimeException e) {
+      assertThat(e.getMessage()).isEqualTo("Bulk failed");
+    }
+  }
+
+  @Test
+  public void test_cancel_discards_current_bulk() {
+    EsBulkSender sender = new EsBulkSender(client, 10, Long.MAX_VALUE, 1);
+    sender.add(newIndexRequest(0, "value"));
+    sender.cancel();
+    sender.close();
+
+    assertThat(bulks).isEmpty();
+  }
+
+  @Test
+  public void test_add_blocks_while_max_bulks_are_in_flight() throws Exception {
+    deferred = true;
+    final EsBulkSender sender = new EsBulkSender(client, 1, Long.MAX_VALUE, 1);
+    sender.add(newIndexRequest(0, "value"));
+    assertThat(inFlight).hasSize(1);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> added = executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          sender.add(newIndexRequest(1, "value"));
+        }
+      });
+      try {
+        added.get(200, TimeUnit.MILLISECONDS);
+        fail("Add should block until the bulk in flight completes");
+      } catch(TimeoutException e) {
+        // expected
+      }
+      assertThat(bulks).hasSize(1);
+
+      inFlight.get(0).onResponse(new BulkResponse(new BulkItemResponse[0], 1));
+      added.get(5, TimeUnit.SECONDS);
+      assertThat(bulks).hasSize(2);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    inFlight.get(1).onResponse(new BulkResponse(new BulkItemResponse[0], 1));
+    sender.close();
+    assertThat(bulks).containsExactly(1, 1);
+  }
+
+  private IndexRequestBuilder newIndexRequest(int id, String value) {
+    return new IndexRequestBuilder(client, "opal-values").setType("Participant").setId(String.valueOf(id))
+        .setSource("{\"value\":\"" + value + "\"}");
+  }
+
+}
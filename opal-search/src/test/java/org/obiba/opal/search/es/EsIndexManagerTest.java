@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.search.es;
+
+import java.util.Date;
+import java.util.Map;
+
+import javax.validation.constraints.NotNull;
+
+import org.easymock.EasyMock;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.Timestamps;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.type.DateTimeType;
+import org.obiba.opal.search.IndexSynchronization;
+import org.obiba.opal.search.ValueTableIndex;
+import org.obiba.opal.search.service.OpalSearchService;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class EsIndexManagerTest {
+
+  private static final VariableEntity ENTITY = new VariableEntityBean("Participant", "1");
+
+  // last update of the value set of ENTITY
+  private volatile Date valueSetUpdate = new Date(0);
+
+  @Before
+  public void startYourEngine() {
+    new MagmaEngine();
+  }
+
+  @After
+  public void stopYourEngine() {
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_value_set_updated_during_rebuild_is_synchronized_next() {
+    ValueTable table = newTable();
+    StubIndexManager indexManager = new StubIndexManager();
+    ValueTableIndex index = indexManager.getIndex(table);
+
+    indexManager.createSyncTask(table, index).run();
+
+    Date updated = indexManager.getLastUpdate("ds-table__alt");
+    assertThat(updated).isNotNull();
+    assertThat(updated.before(valueSetUpdate)).isTrue();
+    assertThat(EsValuesIndexManager.getUpdatedEntities(table, updated, Sets.newHashSet(ENTITY.getIdentifier())))
+        .containsOnly(ENTITY);
+  }
+
+  private ValueTable newTable() {
+    ValueTable table = EasyMock.createMock(ValueTable.class);
+    expect(table.getTableReference()).andReturn("ds.table").anyTimes();
+    expect(table.getVariableEntityCount()).andReturn(1).anyTimes();
+    expect(table.getVariableEntities()).andReturn(ImmutableSet.of(ENTITY)).anyTimes();
+    expect(table.getValueSetTimestamps(ENTITY)).andReturn(new Timestamps() {
+      @NotNull
+      @Override
+      public Value getLastUpdate() {
+        return DateTimeType.get().valueOf(valueSetUpdate);
+      }
+
+      @NotNull
+      @Override
+      public Value getCreated() {
+        return DateTimeType.get().valueOf(valueSetUpdate);
+      }
+    }).anyTimes();
+    EasyMock.replay(table);
+    return table;
+  }
+
+  private static void sleep() {
+    try {
+      Thread.sleep(10);
+    } catch(InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Index manager without Elasticsearch node, that keeps the mappings put by the indices.
+   */
+  private class StubIndexManager extends EsIndexManager {
+
+    private final Map<String, EsMapping> mappings = Maps.newConcurrentMap();
+
+    private StubIndexManager() {
+      opalSearchService = EasyMock.createNiceMock(OpalSearchService.class);
+      EasyMock.replay(opalSearchService);
+    }
+
+    @Override
+    protected ValueTableIndex createIndex(@NotNull ValueTable vt) {
+      return new StubIndex(vt);
+    }
+
+    @Override
+    protected IndexMetaData createIndex() {
+      return null;
+    }
+
+    @NotNull
+    @Override
+    public IndexSynchronization createSyncTask(ValueTable valueTable, ValueTableIndex index) {
+      return new StubIndexer(valueTable, (StubIndex) index);
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+      return "opal-values";
+    }
+
+    private Date getLastUpdate(String type) {
+      EsMapping mapping = mappings.get(type);
+      if(mapping == null) return null;
+      return (Date) DateTimeType.get().valueOf(mapping.meta().getString("_updated")).getValue();
+    }
+
+    private class StubIndex extends EsValueTableIndex {
+
+      private StubIndex(ValueTable vt) {
+        super(vt);
+      }
+
+      @Override
+      protected void createMapping(@NotNull String type) {
+      }
+
+      @Override
+      protected void putMapping(@NotNull String type, @NotNull EsMapping mapping) {
+        mappings.put(type, mapping);
+      }
+
+      @Override
+      protected XContentBuilder getMapping(@NotNull String type) {
+        return null;
+      }
+    }
+
+    private class StubIndexer extends EsIndexer {
+
+      private final StubIndex index;
+
+      private StubIndexer(ValueTable table, StubIndex index) {
+        super(table, index);
+        this.index = index;
+      }
+
+      @Override
+      protected void index(@NotNull String type, @NotNull Date started) {
+        // the value set is updated while the table is being indexed
+        sleep();
+        valueSetUpdate = new Date();
+        sleep();
+        done++;
+        index.switchTo(type, started);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2013 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.opal.search.es;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import javax.validation.constraints.NotNull;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.magma.Category;
+import org.obiba.magma.MagmaEngine;
+import org.obiba.magma.Timestamps;
+import org.obiba.magma.Value;
+import org.obiba.magma.ValueTable;
+import org.obiba.magma.Variable;
+import org.obiba.magma.VariableEntity;
+import org.obiba.magma.support.NullTimestamps;
+import org.obiba.magma.support.VariableEntityBean;
+import org.obiba.magma.type.DateTimeType;
+import org.obiba.magma.type.IntegerType;
+import org.obiba.magma.type.TextType;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import static org.easymock.EasyMock.expect;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class EsValuesIndexManagerTest {
+
+  private static final Date LAST_UPDATE = new Date(10000);
+
+  @Before
+  public void startYourEngine() {
+    new MagmaEngine();
+  }
+
+  @After
+  public void stopYourEngine() {
+    MagmaEngine.get().shutdown();
+  }
+
+  @Test
+  public void test_updated_and_new_value_sets_are_indexed() {
+    ValueTable table = EasyMock.createMock(ValueTable.class);
+    expect(table.getVariableEntities()).andReturn(ImmutableSet.of(newEntity("1"), newEntity("2"), newEntity("3")))
+        .anyTimes();
+    expectValueSetUpdate(table, "1", timestamps(5000));
+    expectValueSetUpdate(table, "2", timestamps(20000));
+    expectValueSetUpdate(table, "3", timestamps(5000));
+    EasyMock.replay(table);
+
+    // 3 is not indexed yet, 4 is not in the table any more
+    Set<String> indexedIdentifiers = Sets.newHashSet("1", "2", "4");
+    List<VariableEntity> updatedEntities = EsValuesIndexManager
+        .getUpdatedEntities(table, LAST_UPDATE, indexedIdentifiers);
+
+    assertThat(updatedEntities).containsOnly(newEntity("2"), newEntity("3"));
+    assertThat(indexedIdentifiers).containsOnly("4");
+  }
+
+  @Test
+  public void test_unchanged_value_sets_are_skipped() {
+    ValueTable table = EasyMock.createMock(ValueTable.class);
+    expect(table.getVariableEntities()).andReturn(ImmutableSet.of(newEntity("1"))).anyTimes();
+    // not updated after the index
+    expectValueSetUpdate(table, "1", timestamps(LAST_UPDATE.getTime()));
+    EasyMock.replay(table);
+
+    Set<String> indexedIdentifiers = Sets.newHashSet("1");
+    assertThat(EsValuesIndexManager.getUpdatedEntities(table, LAST_UPDATE, indexedIdentifiers)).isEmpty();
+    assertThat(indexedIdentifiers).isEmpty();
+  }
+
+  @Test
+  public void test_missing_timestamps_require_a_rebuild() {
+    ValueTable table = EasyMock.createMock(ValueTable.class);
+    expect(table.getVariableEntities()).andReturn(ImmutableSet.of(newEntity("1"), newEntity("2"))).anyTimes();
+    expectValueSetUpdate(table, "1", timestamps(20000));
+    expectValueSetUpdate(table, "2", NullTimestamps.get());
+    EasyMock.replay(table);
+
+    assertThat(EsValuesIndexManager.getUpdatedEntities(table, LAST_UPDATE, Sets.newHashSet("1", "2"))).isNull();
+    // index never completely built
+    assertThat(EsValuesIndexManager.getUpdatedEntities(table, null, Sets.newHashSet("1", "2"))).isNull();
+  }
+
+  @Test
+  public void test_variables_signature_changes_with_indexed_properties() {
+    String signature = EsValuesIndexManager.getVariablesSignature(ImmutableList.of(newVariable("A", false)));
+
+    assertThat(EsValuesIndexManager.getVariablesSignature(ImmutableList.of(newVariable("A", false))))
+        .isEqualTo(signature);
+    assertThat(EsValuesIndexManager.getVariablesSignature(ImmutableList.of(newVariable("B", false))))
+        .isNotEqualTo(signature);
+    // a category becomes a missing one
+    assertThat(EsValuesIndexManager.getVariablesSignature(ImmutableList.of(newVariable("A", true))))
+        .isNotEqualTo(signature);
+    assertThat(EsValuesIndexManager.getVariablesSignature(
+        ImmutableList.of(Variable.Builder.newVariable("A", IntegerType.get(), "Participant").build())))
+        .isNotEqualTo(signature);
+  }
+
+  @Test
+  public void test_variables_signature_ignores_other_properties() {
+    Variable labelled = Variable.Builder.newVariable("A", TextType.get(), "Participant")
+        .addCategory(Category.Builder.newCategory("1").missing(false).build()) //
+        .addAttribute("label", "A label") //
+        .build();
+
+    assertThat(EsValuesIndexManager.getVariablesSignature(ImmutableList.of(labelled)))
+        .isEqualTo(EsValuesIndexManager.getVariablesSignature(ImmutableList.of(newVariable("A", false))));
+  }
+
+  private static VariableEntity newEntity(String identifier) {
+    return new VariableEntityBean("Participant", identifier);
+  }
+
+  private static Variable newVariable(String name, boolean missing) {
+    return Variable.Builder.newVariable(name, TextType.get(), "Participant")
+        .addCategory(Category.Builder.newCategory("1").missing(missing).build()).build();
+  }
+
+  private static void expectValueSetUpdate(ValueTable table, String identifier, Timestamps timestamps) {
+    expect(table.getValueSetTimestamps(newEntity(identifier))).andReturn(timestamps).anyTimes();
+  }
+
+  private static Timestamps timestamps(long lastUpdate) {
+    final Value lastUpdateValue = DateTimeType.get().valueOf(new Date(lastUpdate));
+    return new Timestamps() {
+      @NotNull
+      @Override
+      public Value getLastUpdate() {
+        return lastUpdateValue;
+      }
+
+      @NotNull
+      @Override
+      public Value getCreated() {
+        return lastUpdateValue;
+      }
+    };
+  }
+
+}
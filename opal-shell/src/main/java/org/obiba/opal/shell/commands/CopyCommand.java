@@ -47,6 +47,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -59,7 +60,7 @@ import com.google.common.collect.Lists;
         "The tables can be explicitly named and/or be the ones from a specified source datasource. " +
         "The variables can be optionally processed: dispatched in another table and/or renamed.",
     syntax = "Syntax: copy [--unit UNIT] [--source NAME] (--destination NAME | --out FILE) [--multiplex SCRIPT] " +
-        "[--transform SCRIPT] [--name NAME] [--non-incremental] [--no-values | --no-variables] [--copy-null] [TABLE_NAME...]")
+        "[--transform SCRIPT] [--name NAME] [--non-incremental] [--resume] [--no-values | --no-variables] [--copy-null] [TABLE_NAME...]")
 public class CopyCommand extends AbstractOpalRuntimeDependentCommand<CopyCommandOptions> {
 
   private static final Logger log = LoggerFactory.getLogger(CopyCommand.class);
@@ -88,6 +89,7 @@ public class CopyCommand extends AbstractOpalRuntimeDependentCommand<CopyCommand
 
       try {
         destinationDatasource = getDestinationDatasource();
+        final Datasource destination = destinationDatasource;
         Set<ValueTable> tables = getValueTables();
         for(ValueTable table : tables) {
           if(destinationDatasource.getName().equals(table.getDatasource().getName()) &&
@@ -98,7 +100,12 @@ public class CopyCommand extends AbstractOpalRuntimeDependentCommand<CopyCommand
         getShell().printf("Copying tables [%s] to %s.\n", getTableNames(), destinationDatasource.getName());
         dataExportService
             .exportTablesToDatasource(options.isUnit() ? options.getUnit() : null, tables, destinationDatasource,
-                buildDatasourceCopier(destinationDatasource), !options.getNonIncremental());
+                new Supplier<DatasourceCopier.Builder>() {
+                  @Override
+                  public DatasourceCopier.Builder get() {
+                    return buildDatasourceCopier(destination);
+                  }
+                }, !options.getNonIncremental(), options.isResume());
         getShell().printf("Successfully copied all tables.\n");
         errorCode = CommandResultCode.SUCCESS;
       } catch(Exception e) {
@@ -45,7 +45,7 @@ import static org.obiba.opal.shell.commands.CommandResultCode.SUCCESS;
 
 @SuppressWarnings("ClassTooDeepInInheritanceTree")
 @CommandUsage(description = "Imports one or more Onyx data files into a datasource.",
-    syntax = "Syntax: import [--unit NAME] [--incremental] [--force] [--source NAME] [--tables NAMES] --destination NAME [--archive FILE] [FILES]")
+    syntax = "Syntax: import [--unit NAME] [--incremental] [--force] [--resume] [--source NAME] [--tables NAMES] --destination NAME [--archive FILE] [FILES]")
 public class ImportCommand extends AbstractOpalRuntimeDependentCommand<ImportCommandOptions> {
 
   //
@@ -125,7 +125,8 @@ public class ImportCommand extends AbstractOpalRuntimeDependentCommand<ImportCom
     int errorCode = CRITICAL_ERROR;
     getShell().printf("  Importing datasource %s in %s...\n", options.getSource(), options.getDestination());
     try {
-      dataImportService.importData(options.getSource(), options.getDestination(), options.isForce(), options.isIgnore());
+      dataImportService.importData(options.getSource(), options.getDestination(), options.isForce(), options.isIgnore(),
+          options.isResume());
       if(file != null) archive(file);
       errorCode = SUCCESS;
     } catch(NoSuchDatasourceException ex) {
@@ -150,7 +151,8 @@ public class ImportCommand extends AbstractOpalRuntimeDependentCommand<ImportCom
     int errorCode = CRITICAL_ERROR;
     getShell().printf("  Importing tables [%s] in %s ...\n", getTableNames(), options.getDestination());
     try {
-      dataImportService.importData(options.getTables(), options.getDestination(), options.isForce(), options.isIgnore());
+      dataImportService.importData(options.getTables(), options.getDestination(), options.isForce(), options.isIgnore(),
+          options.isResume());
       if(file != null) archive(file);
       errorCode = SUCCESS;
     } catch(NoSuchDatasourceException | NoSuchValueTableException ex) {
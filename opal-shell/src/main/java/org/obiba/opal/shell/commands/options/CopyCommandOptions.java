@@ -54,6 +54,10 @@ public interface CopyCommandOptions extends HelpOption {
       description = "Non-incremental copy (i.e., copy all data not just updates).")
   boolean getNonIncremental();
 
+  @Option(longName = "resume", shortName = "r",
+      description = "Resume a failed copy after the last committed value sets, unless the source tables changed.")
+  boolean isResume();
+
   @Option(longName = "no-values", shortName = "l", description = "Do not copy the values.")
   boolean getNoValues();
 
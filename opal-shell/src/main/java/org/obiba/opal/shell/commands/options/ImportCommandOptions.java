@@ -67,4 +67,8 @@ public interface ImportCommandOptions extends HelpOption {
   @Option(shortName = "c",
       description = "Use incremental import.")
   boolean isIncremental();
+
+  @Option(shortName = "r",
+      description = "Resume a failed import after the last committed value sets, unless the source tables changed.")
+  boolean isResume();
 }
@@ -97,6 +97,11 @@ public class CopyCommandOptionsDtoImpl implements CopyCommandOptions {
     return dto.getNonIncremental();
   }
 
+  @Override
+  public boolean isResume() {
+    return dto.getResume();
+  }
+
   @Override
   public boolean getNoValues() {
     return dto.getNoValues();
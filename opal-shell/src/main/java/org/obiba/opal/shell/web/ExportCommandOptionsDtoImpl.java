@@ -117,6 +117,11 @@ public class ExportCommandOptionsDtoImpl implements CopyCommandOptions {
     return dto.getNonIncremental();
   }
 
+  @Override
+  public boolean isResume() {
+    return dto.getResume();
+  }
+
   @Override
   public boolean getNoValues() {
     return dto.getNoValues();
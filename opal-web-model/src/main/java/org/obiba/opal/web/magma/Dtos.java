@@ -16,6 +16,7 @@ import java.util.Locale;
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 
+import org.apache.commons.math3.distribution.RealDistribution;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.stat.descriptive.rank.Median;
 import org.obiba.magma.Attribute;
@@ -35,6 +36,7 @@ import org.obiba.magma.math.summary.CategoricalVariableSummary;
 import org.obiba.magma.math.summary.ContinuousVariableSummary;
 import org.obiba.magma.math.summary.DefaultVariableSummary;
 import org.obiba.magma.type.BinaryType;
+import org.obiba.opal.core.math.ApproximateContinuousSummary;
 import org.obiba.opal.web.model.Magma;
 import org.obiba.opal.web.model.Magma.AttributeDto;
 import org.obiba.opal.web.model.Magma.CategoryDto;
@@ -405,6 +407,52 @@ public final class Dtos {
     return continuousBuilder.setSummary(descriptiveBuilder);
   }
 
+  /**
+   * @param summary
+   * @param percentiles percentiles to estimate (default ones if null or empty)
+   * @param distribution theoretical distribution to compare with, if any
+   * @param intervals
+   * @return
+   */
+  public static Math.ContinuousSummaryDto.Builder asDto(ApproximateContinuousSummary summary,
+      @Nullable List<Double> percentiles, @Nullable RealDistribution distribution, int intervals) {
+    List<Double> ps = percentiles == null || percentiles.isEmpty()
+        ? ApproximateContinuousSummary.DEFAULT_PERCENTILES
+        : percentiles;
+
+    Math.DescriptiveStatsDto.Builder descriptiveBuilder = Math.DescriptiveStatsDto.newBuilder().setN(summary.getN())
+        .addAllPercentiles(summary.getPercentiles(ps));
+    if(isNumeric(summary.getMin())) descriptiveBuilder.setMin(summary.getMin());
+    if(isNumeric(summary.getMax())) descriptiveBuilder.setMax(summary.getMax());
+    if(isNumeric(summary.getMean())) descriptiveBuilder.setMean(summary.getMean());
+    if(isNumeric(summary.getSum())) descriptiveBuilder.setSum(summary.getSum());
+    if(isNumeric(summary.getSumsq())) descriptiveBuilder.setSumsq(summary.getSumsq());
+    if(isNumeric(summary.getStandardDeviation())) descriptiveBuilder.setStdDev(summary.getStandardDeviation());
+    if(isNumeric(summary.getVariance())) descriptiveBuilder.setVariance(summary.getVariance());
+    if(isNumeric(summary.getSkewness())) descriptiveBuilder.setSkewness(summary.getSkewness());
+    if(isNumeric(summary.getGeometricMean())) descriptiveBuilder.setGeometricMean(summary.getGeometricMean());
+    if(isNumeric(summary.getKurtosis())) descriptiveBuilder.setKurtosis(summary.getKurtosis());
+    if(isNumeric(summary.getMedian())) descriptiveBuilder.setMedian(summary.getMedian());
+
+    Math.ContinuousSummaryDto.Builder continuousBuilder = Math.ContinuousSummaryDto.newBuilder().setApproximate(true)
+        .setRankError(summary.getMaxRankError());
+    if(distribution != null) {
+      for(Double p : ps) {
+        continuousBuilder.addDistributionPercentiles(distribution.inverseCumulativeProbability(p / 100));
+      }
+    }
+    for(ApproximateContinuousSummary.Interval interval : summary.getIntervalFrequencies(intervals)) {
+      Math.IntervalFrequencyDto.Builder freqBuilder = Math.IntervalFrequencyDto.newBuilder()
+          .setFreq(interval.getFreq());
+      if(isNumeric(interval.getLower())) freqBuilder.setLower(interval.getLower());
+      if(isNumeric(interval.getUpper())) freqBuilder.setUpper(interval.getUpper());
+      if(isNumeric(interval.getDensity())) freqBuilder.setDensity(interval.getDensity());
+      if(isNumeric(interval.getDensityPct())) freqBuilder.setDensityPct(interval.getDensityPct());
+      continuousBuilder.addIntervalFrequency(freqBuilder);
+    }
+    return continuousBuilder.setSummary(descriptiveBuilder);
+  }
+
   public static Math.DefaultSummaryDto.Builder asDto(DefaultVariableSummary summary) {
     Math.DefaultSummaryDto.Builder dtoBuilder = Math.DefaultSummaryDto.newBuilder() //
         .setN(summary.getN());
@@ -10,16 +10,23 @@
 
 package org.obiba.opal.web.magma;
 
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 import org.obiba.magma.Value;
 import org.obiba.magma.ValueSet;
 import org.obiba.magma.ValueTable;
 import org.obiba.magma.Variable;
 import org.obiba.magma.VariableEntity;
+import org.obiba.magma.VariableValueSource;
 import org.obiba.opal.web.model.Magma;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 
 import static org.obiba.opal.web.magma.Dtos.asDto;
 
@@ -50,14 +57,69 @@ public class VariableEntityValueSetDtoFunction implements Function<VariableEntit
 
           @Override
           public Magma.ValueSetsDto.ValueDto apply(Variable fromVariable) {
-            String link = uriInfoPath.replace("valueSets",
-                "valueSet/entity/" + fromEntity.getIdentifier() + "/variable/" + fromVariable.getName() +
-                    "/value");
             Value value = valueTable.getVariableValueSource(fromVariable.getName()).getValue(valueSet);
-            return asDto(link, value, filterBinary).build();
+            return asDto(getLink(fromEntity, fromVariable), value, filterBinary).build();
           }
         });
 
+    return toValueSetDto(valueSet, valueDtosIter);
+  }
+
+  /**
+   * Get the value sets of several entities at once: the values of the variables that support vector sources are read
+   * column by column, with one fetch per variable, and then transposed into rows. The other values are read entity by
+   * entity.
+   *
+   * @param entities
+   * @return the value sets, in the order of the entities
+   */
+  public List<Magma.ValueSetsDto.ValueSetDto> getValueSetDtos(Iterable<VariableEntity> entities) {
+    ImmutableSortedSet<VariableEntity> sortedEntities = ImmutableSortedSet.<VariableEntity>naturalOrder()
+        .addAll(entities).build();
+
+    // Map<VariableName, Map<VariableEntity, Value>>
+    Map<String, Map<VariableEntity, Value>> columns = Maps.newHashMap();
+    for(Variable variable : variables) {
+      VariableValueSource source = valueTable.getVariableValueSource(variable.getName());
+      if(source.supportVectorSource()) {
+        columns.put(variable.getName(), readColumn(source, sortedEntities));
+      }
+    }
+
+    ImmutableList.Builder<Magma.ValueSetsDto.ValueSetDto> valueSetDtos = ImmutableList.builder();
+    for(VariableEntity entity : entities) {
+      ValueSet valueSet = valueTable.getValueSet(entity);
+      ImmutableList.Builder<Magma.ValueSetsDto.ValueDto> valueDtos = ImmutableList.builder();
+      for(Variable variable : variables) {
+        Map<VariableEntity, Value> column = columns.get(variable.getName());
+        Value value = column == null
+            ? valueTable.getVariableValueSource(variable.getName()).getValue(valueSet)
+            : column.get(entity);
+        valueDtos.add(asDto(getLink(entity, variable), value, filterBinary).build());
+      }
+      valueSetDtos.add(toValueSetDto(valueSet, valueDtos.build()));
+    }
+    return valueSetDtos.build();
+  }
+
+  private Map<VariableEntity, Value> readColumn(VariableValueSource source,
+      ImmutableSortedSet<VariableEntity> sortedEntities) {
+    // values are returned in the order of the sorted entities
+    Map<VariableEntity, Value> column = Maps.newHashMapWithExpectedSize(sortedEntities.size());
+    Iterator<VariableEntity> entitiesIterator = sortedEntities.iterator();
+    for(Value value : source.asVectorSource().getValues(sortedEntities)) {
+      column.put(entitiesIterator.next(), value);
+    }
+    return column;
+  }
+
+  private String getLink(VariableEntity entity, Variable variable) {
+    return uriInfoPath.replace("valueSets",
+        "valueSet/entity/" + entity.getIdentifier() + "/variable/" + variable.getName() + "/value");
+  }
+
+  private Magma.ValueSetsDto.ValueSetDto toValueSetDto(ValueSet valueSet,
+      Iterable<Magma.ValueSetsDto.ValueDto> valueDtosIter) {
     // Do not add iterable directly otherwise the values will be fetched as many times it is iterated
     // (i.e. 2 times, see AbstractMessageLite.addAll()).
     ImmutableList.Builder<Magma.ValueSetsDto.ValueDto> valueDtos = ImmutableList.builder();
@@ -9,9 +9,11 @@
  ******************************************************************************/
 package org.obiba.opal.web.ws.provider;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 
@@ -33,6 +35,8 @@ import com.googlecode.protobuf.format.JsonFormat;
 @Produces({ "application/x-protobuf+json", "application/json" })
 public class ProtobufJsonWriterProvider extends AbstractProtobufProvider implements MessageBodyWriter<Object> {
 
+  private static final int BUFFER_SIZE = 8192;
+
   @Override
   public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
     return Message.class.isAssignableFrom(type) || isWrapped(type, genericType, annotations, mediaType);
@@ -48,7 +52,8 @@ public class ProtobufJsonWriterProvider extends AbstractProtobufProvider impleme
   public void writeTo(Object t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
       MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
       throws IOException, WebApplicationException {
-    OutputStreamWriter output = new OutputStreamWriter(entityStream, "UTF-8");
+    // JsonFormat appends the messages by small chunks
+    Writer output = new BufferedWriter(new OutputStreamWriter(entityStream, "UTF-8"), BUFFER_SIZE);
     if(isWrapped(type, genericType, annotations, mediaType)) {
       // JsonFormat does not provide a printList method
       JsonIoUtil
@@ -1,8 +1,11 @@
 package org.obiba.opal.web.ws.util;
 
 import java.io.IOException;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 
+import javax.annotation.Nullable;
+
 import com.google.protobuf.ExtensionRegistry;
 import com.google.protobuf.Message;
 import com.google.protobuf.Message.Builder;
@@ -17,15 +20,23 @@ public final class JsonIoUtil {
 
   private static final char JS_ARRAY_OPEN = '[';
 
-  private static final String JS_ARRAY_OPEN_STR = String.valueOf(JS_ARRAY_OPEN);
-
   private static final char JS_ARRAY_SEP = ',';
 
-  private static final String JS_ARRAY_SEP_STR = String.valueOf(JS_ARRAY_SEP);
-
   private static final char JS_ARRAY_CLOSE = ']';
 
-  private static final String JS_ARRAY_CLOSE_STR = String.valueOf(JS_ARRAY_CLOSE);
+  private static final char JS_OBJECT_OPEN = '{';
+
+  private static final String JS_OBJECT_OPEN_STR = String.valueOf(JS_OBJECT_OPEN);
+
+  private static final char JS_OBJECT_CLOSE = '}';
+
+  private static final String JS_OBJECT_CLOSE_STR = String.valueOf(JS_OBJECT_CLOSE);
+
+  private static final char JS_STRING_DELIMITER = '"';
+
+  private static final char JS_ESCAPE = '\\';
+
+  private static final int BUFFER_SIZE = 8192;
 
   private JsonIoUtil() {
   }
@@ -90,26 +101,128 @@ public final class JsonIoUtil {
    */
   private static final class InnerJsonFormat extends JsonFormat {
 
+    /**
+     * Reads the array elements one by one: only the text of the Message being merged is held in memory, instead of the
+     * whole array.
+     */
     static void mergeCollection(Readable reader, ExtensionRegistry extensionRegistry, Builder builder,
         MergeCallback callback) throws IOException {
-      CharSequence input = toStringBuilder(reader);
-      Tokenizer tokenizer = new Tokenizer(input.subSequence(0, input.length()));
-      tokenizer.consume(JS_ARRAY_OPEN_STR);
-      // Special case of empty list of messages: "[]"
-      if(!tokenizer.tryConsume(JS_ARRAY_CLOSE_STR)) {
-        // At least one Message present
-        do {
-          Builder thisBuilder = builder.clone();
-          tokenizer.consume("{"); // Needs to happen when the object starts.
-          while(!tokenizer.tryConsume("}")) { // Continue till the object is done
-            mergeField(tokenizer, extensionRegistry, thisBuilder);
-          }
-          callback.onMerge(thisBuilder);
-          // Iterate if we consume a separator.
-        } while(tokenizer.tryConsume(JS_ARRAY_SEP_STR));
-
-        // Make sure the next character terminates the array
-        tokenizer.consume(JS_ARRAY_CLOSE_STR);
+      ArrayReader arrayReader = new ArrayReader(reader);
+      CharSequence element;
+      while((element = arrayReader.nextElement()) != null) {
+        Builder thisBuilder = builder.clone();
+        Tokenizer tokenizer = new Tokenizer(element);
+        tokenizer.consume(JS_OBJECT_OPEN_STR); // Needs to happen when the object starts.
+        while(!tokenizer.tryConsume(JS_OBJECT_CLOSE_STR)) { // Continue till the object is done
+          mergeField(tokenizer, extensionRegistry, thisBuilder);
+        }
+        callback.onMerge(thisBuilder);
+      }
+    }
+  }
+
+  /**
+   * Splits a JSON array of objects into the text of its objects, reading the input by chunks.
+   */
+  private static final class ArrayReader {
+
+    private final Readable reader;
+
+    private final CharBuffer buffer = CharBuffer.allocate(BUFFER_SIZE);
+
+    private boolean started;
+
+    private boolean done;
+
+    private ArrayReader(Readable reader) {
+      this.reader = reader;
+      buffer.flip();
+    }
+
+    /**
+     * @return the text of the next object of the array, null when the array is closed
+     * @throws IOException
+     */
+    @Nullable
+    private CharSequence nextElement() throws IOException {
+      if(done) return null;
+      if(started) {
+        // Iterate if we consume a separator, otherwise the array must be terminated
+        char c = nextSignificant();
+        if(c == JS_ARRAY_CLOSE) {
+          done = true;
+          return null;
+        }
+        expect(JS_ARRAY_SEP, c);
+      } else {
+        expect(JS_ARRAY_OPEN, nextSignificant());
+        started = true;
+        // Special case of empty list of messages: "[]"
+        if(peekSignificant() == JS_ARRAY_CLOSE) {
+          done = true;
+          return null;
+        }
+      }
+      expect(JS_OBJECT_OPEN, nextSignificant());
+      return readObject();
+    }
+
+    private CharSequence readObject() throws IOException {
+      StringBuilder element = new StringBuilder().append(JS_OBJECT_OPEN);
+      int depth = 1;
+      boolean inString = false;
+      boolean escaped = false;
+      while(depth > 0) {
+        char c = next();
+        element.append(c);
+        if(inString) {
+          if(escaped) escaped = false;
+          else if(c == JS_ESCAPE) escaped = true;
+          else if(c == JS_STRING_DELIMITER) inString = false;
+        } else if(c == JS_STRING_DELIMITER) {
+          inString = true;
+        } else if(c == JS_OBJECT_OPEN) {
+          depth++;
+        } else if(c == JS_OBJECT_CLOSE) {
+          depth--;
+        }
+      }
+      return element;
+    }
+
+    private void expect(char expected, char c) throws JsonFormat.ParseException {
+      if(c != expected) throw new JsonFormat.ParseException("Expected \"" + expected + "\" but found \"" + c + "\".");
+    }
+
+    private char nextSignificant() throws IOException {
+      char c = peekSignificant();
+      next();
+      return c;
+    }
+
+    private char peekSignificant() throws IOException {
+      while(Character.isWhitespace(peek())) {
+        next();
+      }
+      return peek();
+    }
+
+    private char peek() throws IOException {
+      fill();
+      return buffer.get(buffer.position());
+    }
+
+    private char next() throws IOException {
+      fill();
+      return buffer.get();
+    }
+
+    private void fill() throws IOException {
+      while(!buffer.hasRemaining()) {
+        buffer.clear();
+        int read = reader.read(buffer);
+        buffer.flip();
+        if(read < 0) throw new JsonFormat.ParseException("Unexpected end of JSON array.");
       }
     }
   }
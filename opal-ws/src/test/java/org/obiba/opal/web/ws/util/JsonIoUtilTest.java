@@ -17,6 +17,8 @@ import java.util.Collection;
 import org.junit.Test;
 import org.obiba.opal.web.model.Magma.DatasourceDto;
 
+import com.google.common.collect.ImmutableList;
+
 import static org.fest.assertions.api.Assertions.assertThat;
 
 /**
@@ -78,6 +80,40 @@ public class JsonIoUtilTest {
     assertThat(msgs).isEqualTo(createDtos("first", "second"));
   }
 
+  @Test
+  public void test_mergeCollectionWithWhitespaces() throws IOException {
+    Collection<DatasourceDto> msgs = JsonIoUtil
+        .mergeCollection(new StringReader(" \n" + createJs("first", "second").replace("},{", "} ,\n {") + "\n "),
+            DatasourceDto.newBuilder());
+    assertThat(msgs).isEqualTo(createDtos("first", "second"));
+  }
+
+  @Test
+  public void test_mergeCollectionWithDelimitersInStrings() throws IOException {
+    Collection<DatasourceDto> msgs = JsonIoUtil
+        .mergeCollection(new StringReader("[{\"name\": \"a}b\\\"{c]\",\"link\": \"l\",\"type\": \"type\"}]"),
+            DatasourceDto.newBuilder());
+    assertThat(msgs).isEqualTo(
+        ImmutableList.of(DatasourceDto.newBuilder().setName("a}b\"{c]").setType("type").setLink("l").build()));
+  }
+
+  @Test
+  public void test_mergeCollectionLargerThanBuffer() throws IOException {
+    String[] names = new String[1000];
+    for(int i = 0; i < names.length; i++) {
+      names[i] = "datasource" + i;
+    }
+    Collection<DatasourceDto> msgs = JsonIoUtil.mergeCollection(new StringReader(createJs(names)),
+        DatasourceDto.newBuilder());
+    assertThat(msgs).isEqualTo(createDtos(names));
+  }
+
+  @Test(expected = IOException.class)
+  public void test_mergeCollection_unterminatedArray() throws IOException {
+    String js = createJs("first");
+    JsonIoUtil.mergeCollection(new StringReader(js.substring(0, js.length() - 1)), DatasourceDto.newBuilder());
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void test_mergeCollection_cannotPassNullReader() throws IOException {
     JsonIoUtil.mergeCollection(null, DatasourceDto.newBuilder());